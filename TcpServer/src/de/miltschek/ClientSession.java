@@ -0,0 +1,204 @@
+package de.miltschek;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Base of the protocol state machines served by an {@link IngestionWorker}.
+ */
+abstract class ClientSession {
+	/**
+	 * Work to be done on the worker thread of the session.
+	 */
+	protected interface Task {
+		/**
+		 * Does the work.
+		 * @throws IOException in case of an IO issue; the session gets aborted
+		 */
+		void run() throws IOException;
+	}
+
+	protected final IngestionServer server;
+	protected final IngestionWorker worker;
+	protected final SocketChannel channel;
+	protected final SelectionKey key;
+	protected final ByteBuffer transferBuffer;
+	protected final String remoteAddress;
+	private long lastActivity = System.currentTimeMillis();
+	private boolean closed;
+	private boolean aborted;
+
+	/**
+	 * Creates a session for a connection.
+	 * @param server the owning server
+	 * @param worker the worker serving the connection
+	 * @param channel non-blocking client channel
+	 * @param key selection key of the channel
+	 * @param transferBuffer buffer of the worker for moving data to files; it is never kept across calls
+	 * @param remoteAddress printable address of the client
+	 */
+	protected ClientSession(IngestionServer server, IngestionWorker worker, SocketChannel channel, SelectionKey key, ByteBuffer transferBuffer, String remoteAddress) {
+		this.server = server;
+		this.worker = worker;
+		this.channel = channel;
+		this.key = key;
+		this.transferBuffer = transferBuffer;
+		this.remoteAddress = remoteAddress;
+	}
+
+	/**
+	 * Returns the time of the last network activity of this session.
+	 * @return milliseconds since Jan, 1st 1970
+	 */
+	long getLastActivity() {
+		return lastActivity;
+	}
+
+	/**
+	 * Handles incoming data.
+	 * @throws IOException in case of an IO issue or a protocol violation
+	 */
+	final void readable() throws IOException {
+		lastActivity = System.currentTimeMillis();
+		onReadable();
+	}
+
+	/**
+	 * Handles the possibility to send data.
+	 * @throws IOException in case of an IO issue
+	 */
+	final void writable() throws IOException {
+		lastActivity = System.currentTimeMillis();
+		onWritable();
+	}
+
+	/**
+	 * Drops the connection and releases all resources.
+	 * @param reason reason to be logged
+	 */
+	final void abort(String reason) {
+		if (closed) {
+			return;
+		}
+
+		System.err.println("Upload from " + remoteAddress + " failed: " + reason + describeProgress());
+		aborted = true;
+		close();
+	}
+
+	/**
+	 * Returns whether the session has been closed.
+	 * @return true if closed
+	 */
+	protected boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the connection and releases all resources.
+	 */
+	protected void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		server.getMetrics().connectionClosed(aborted);
+		key.cancel();
+
+		try {
+			channel.close();
+		} catch (IOException ex) {}
+
+		releaseResources();
+	}
+
+	/**
+	 * Runs a task on the worker thread of this session, e.g. to respond to the outcome of a background operation.
+	 * Can be called from any thread. The task is skipped if the session gets closed meanwhile.
+	 * @param task the task
+	 */
+	protected void execute(final Task task) {
+		worker.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (closed) {
+					return;
+				}
+
+				try {
+					task.run();
+				} catch (IOException ex) {
+					abort(ex.getClass().getSimpleName() + " " + ex.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Moves up to count bytes from the socket to the file at the given position, using the receive mode of the server.
+	 * The moved bytes are appended to the digest.
+	 * @param file target file
+	 * @param position position in the file to write to
+	 * @param count maximum number of bytes to move
+	 * @param digest digest of the file's content
+	 * @return number of bytes moved, 0 if no data is available at the moment
+	 * @throws IOException in case of an IO issue or if the client closed the connection
+	 */
+	protected long receive(FileChannel file, long position, long count, ContentDigest digest) throws IOException {
+		if (server.getReceiveMode() == ReceiveMode.TRANSFER) {
+			long transferred = file.transferFrom(channel, position, count);
+			if (transferred > 0) {
+				// the data bypassed the buffer, hash it while it is still in the page cache
+				digest.update(file, position, transferred, transferBuffer);
+				server.getMetrics().bytesReceived(transferred);
+				return transferred;
+			}
+
+			// either the end of the stream or a spurious wake-up; transferFrom does not tell the difference
+		}
+
+		transferBuffer.clear();
+		transferBuffer.limit((int)Math.min(transferBuffer.capacity(), count));
+		int read = channel.read(transferBuffer);
+		if (read < 0) {
+			throw new IOException("Connection closed prematurely.");
+		}
+
+		transferBuffer.flip();
+		digest.update(transferBuffer);
+		while (transferBuffer.hasRemaining()) {
+			file.write(transferBuffer, position + transferBuffer.position());
+		}
+
+		server.getMetrics().bytesReceived(read);
+
+		return read;
+	}
+
+	/**
+	 * Handles incoming data.
+	 * @throws IOException in case of an IO issue or a protocol violation
+	 */
+	protected abstract void onReadable() throws IOException;
+
+	/**
+	 * Handles the possibility to send data.
+	 * @throws IOException in case of an IO issue
+	 */
+	protected abstract void onWritable() throws IOException;
+
+	/**
+	 * Releases resources held by the session (e.g. open files) after the connection has been closed.
+	 */
+	protected abstract void releaseResources();
+
+	/**
+	 * Describes the progress of the session for logging purposes.
+	 * @return description starting with a space or an empty string
+	 */
+	protected abstract String describeProgress();
+}
@@ -0,0 +1,109 @@
+package de.miltschek;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Hashes of an upload, calculated incrementally while the data arrives:
+ * SHA-256 identifies the content in the storage, CRC-32 is the checksum announced by the app.
+ * The same bytes are passed to a {@link RecordingValidator}.
+ */
+class ContentDigest {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final MessageDigest sha256;
+	private final CRC32 crc32 = new CRC32();
+	private final RecordingValidator validator = new RecordingValidator();
+	private long length;
+
+	/**
+	 * Creates a digest of an empty content.
+	 */
+	ContentDigest() {
+		try {
+			sha256 = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Appends the remaining bytes of the buffer to the content. The position of the buffer is not changed.
+	 * @param buffer data to be appended
+	 */
+	void update(ByteBuffer buffer) {
+		length += buffer.remaining();
+		crc32.update(buffer.duplicate());
+		sha256.update(buffer.duplicate());
+		validator.update(buffer);
+	}
+
+	/**
+	 * Appends a range of a file to the content, e.g. data that went from the socket to the file directly.
+	 * The range has just been written, so it is read from the page cache.
+	 * @param file file to read from
+	 * @param position position of the first byte
+	 * @param count number of bytes
+	 * @param buffer buffer to read through; its content gets overwritten
+	 * @throws IOException if the range could not be read
+	 */
+	void update(FileChannel file, long position, long count, ByteBuffer buffer) throws IOException {
+		long end = position + count;
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int)Math.min(buffer.capacity(), end - position));
+			int read = file.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("File shorter than expected.");
+			}
+
+			buffer.flip();
+			update(buffer);
+			position += read;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes digested.
+	 * @return length in bytes
+	 */
+	long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the validator of the content digested so far.
+	 * @return validator
+	 */
+	RecordingValidator getValidator() {
+		return validator;
+	}
+
+	/**
+	 * Returns the CRC-32 of the content digested so far.
+	 * @return checksum
+	 */
+	long getCrc32() {
+		return crc32.getValue();
+	}
+
+	/**
+	 * Completes the SHA-256 of the content; no more data may be appended afterwards.
+	 * @return lower case hexadecimal hash
+	 */
+	String finishSha256() {
+		byte[] hash = sha256.digest();
+		char[] hex = new char[hash.length * 2];
+		for (int n = 0; n < hash.length; n++) {
+			hex[2 * n] = HEX_DIGITS[(hash[n] >> 4) & 0x0f];
+			hex[2 * n + 1] = HEX_DIGITS[hash[n] & 0x0f];
+		}
+
+		return new String(hex);
+	}
+}
@@ -0,0 +1,22 @@
+package de.miltschek;
+
+/**
+ * Guarantees given by the acknowledgement of an upload.
+ */
+public enum DurabilityMode {
+	/**
+	 * The file is left to the page cache of the operating system; an acknowledged upload may get lost on a power failure.
+	 */
+	NONE,
+	/**
+	 * The file, its directory entry and the index are forced to the disk before each acknowledgement.
+	 * The files are committed one after another on a background thread; concurrent uploads wait for each other's
+	 * disk flushes, while the connections keep on being served.
+	 */
+	FSYNC,
+	/**
+	 * Completed files are collected for a short interval and forced to the disk as a group,
+	 * then moved into place with a single flush of the directories and the index before they get acknowledged.
+	 */
+	GROUP_COMMIT
+}
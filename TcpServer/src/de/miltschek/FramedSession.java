@@ -0,0 +1,458 @@
+package de.miltschek;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import de.miltschek.tracker.UploadProtocol;
+
+/**
+ * State machine of a framed upload connection (protocol version 2).
+ * The {@link UploadProtocol#MAGIC} has already been consumed by the {@link UploadSession}.
+ * Frames are read with exact lengths, so the data of a chunk can be moved
+ * from the socket to the file without passing any buffer of the session.
+ * Files are opened either one by one ({@link UploadProtocol#FRAME_OPEN}) or as a batch
+ * ({@link UploadProtocol#FRAME_MANIFEST}); in the latter case each file is confirmed as soon as it is complete
+ * while the client keeps on sending the next ones. A batch announced with checksums
+ * ({@link UploadProtocol#FRAME_DELTA_MANIFEST}) is answered with the files missing on the server only.
+ */
+class FramedSession extends ClientSession {
+	private enum State {
+		VERSION,
+		TYPE,
+		OPEN_ID_LENGTH,
+		OPEN_HEADER,
+		MANIFEST_COUNT,
+		MANIFEST_ID_LENGTH,
+		MANIFEST_ENTRY,
+		DATA_HEADER,
+		INDEXED_DATA_HEADER,
+		DATA_PAYLOAD
+	}
+
+	private static final ResumableUpload[] NO_UPLOADS = new ResumableUpload[0];
+	private static final long[] NO_CHECKSUMS = new long[0];
+
+	private final ByteBuffer input = ByteBuffer.allocate(UploadProtocol.MAX_FILE_ID_LENGTH + 8);
+	private ByteBuffer output = ByteBuffer.allocate(64);
+
+	private State state;
+	// files opened by the last open or manifest frame, null once complete
+	private ResumableUpload[] uploads = NO_UPLOADS;
+	private boolean batch;
+	private int current;
+	private long chunkRemaining;
+	private long received;
+	// System.nanoTime() of the last open or manifest frame
+	private long announced;
+
+	// manifest being read
+	private String[] manifestIds;
+	private long[] manifestSizes;
+	private long[] manifestChecksums;
+	private int manifestRead;
+
+	/**
+	 * Creates a session for a connection that announced the framed protocol.
+	 * @param server the owning server
+	 * @param worker the worker serving the connection
+	 * @param channel non-blocking client channel
+	 * @param key selection key of the channel
+	 * @param transferBuffer buffer of the worker for moving data to files; it is never kept across calls
+	 * @param remoteAddress printable address of the client
+	 */
+	FramedSession(IngestionServer server, IngestionWorker worker, SocketChannel channel, SelectionKey key, ByteBuffer transferBuffer, String remoteAddress) {
+		super(server, worker, channel, key, transferBuffer, remoteAddress);
+		expect(State.VERSION, 1);
+	}
+
+	@Override
+	protected void onReadable() throws IOException {
+		while (!isClosed()) {
+			if (state == State.DATA_PAYLOAD) {
+				ResumableUpload upload = uploads[current];
+				long read = receive(upload.getChannel(), upload.getOffset(), chunkRemaining, upload.getDigest());
+				if (read == 0) {
+					return;
+				}
+
+				upload.advance(read);
+				received += read;
+				chunkRemaining -= read;
+				if (chunkRemaining == 0) {
+					onChunkReceived();
+				}
+
+				// one chunk per readiness event at most, so other connections of the worker get their turn
+				return;
+			}
+
+			int read = channel.read(input);
+			if (read < 0) {
+				if (state == State.TYPE && input.position() == 0) {
+					// regular end of the session
+					server.log("Connection from " + remoteAddress + " closed after " + received + " Bytes.");
+					close();
+					return;
+				}
+
+				throw new IOException("Connection closed prematurely.");
+			}
+
+			if (input.hasRemaining()) {
+				return;
+			}
+
+			input.flip();
+			onHeader();
+		}
+	}
+
+	@Override
+	protected void onWritable() throws IOException {
+		output.flip();
+		channel.write(output);
+		output.compact();
+
+		if (output.position() == 0) {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	@Override
+	protected void releaseResources() {
+		releaseUploads();
+	}
+
+	@Override
+	protected String describeProgress() {
+		StringBuilder sb = new StringBuilder();
+		for (ResumableUpload upload : uploads) {
+			if (upload != null) {
+				sb.append(" Got ").append(upload.getOffset()).append(" Bytes of ").append(upload.getSize()).append(" of ").append(upload.getFileId()).append('.');
+			}
+		}
+
+		return sb.toString();
+	}
+
+	private void onHeader() throws IOException {
+		switch (state) {
+			case VERSION:
+				byte version = input.get();
+				if (version != UploadProtocol.VERSION_RESUMABLE) {
+					throw new IOException("Unsupported protocol version " + version + ".");
+				}
+
+				expect(State.TYPE, 1);
+				break;
+
+			case TYPE:
+				onFrameType(input.get());
+				break;
+
+			case OPEN_ID_LENGTH:
+				expect(State.OPEN_HEADER, readIdLength() + 8);
+				break;
+
+			case OPEN_HEADER:
+				String fileId = readId(8);
+				onOpen(new String[] { fileId }, new long[] { input.getLong() }, null, false);
+				expect(State.TYPE, 1);
+				break;
+
+			case MANIFEST_COUNT:
+				int count = input.getShort() & 0xffff;
+				manifestIds = new String[count];
+				manifestSizes = new long[count];
+				if (manifestChecksums != null) {
+					manifestChecksums = new long[count];
+				}
+				manifestRead = 0;
+				if (count == 0) {
+					onOpen(manifestIds, manifestSizes, manifestChecksums, true);
+					manifestChecksums = null;
+					expect(State.TYPE, 1);
+				} else {
+					expect(State.MANIFEST_ID_LENGTH, 2);
+				}
+				break;
+
+			case MANIFEST_ID_LENGTH:
+				expect(State.MANIFEST_ENTRY, readIdLength() + (manifestChecksums == null ? 8 : 8 + 4));
+				break;
+
+			case MANIFEST_ENTRY:
+				manifestIds[manifestRead] = readId(manifestChecksums == null ? 8 : 8 + 4);
+				manifestSizes[manifestRead] = input.getLong();
+				if (manifestChecksums != null) {
+					manifestChecksums[manifestRead] = input.getInt() & 0xffffffffL;
+				}
+				manifestRead++;
+				if (manifestRead < manifestIds.length) {
+					expect(State.MANIFEST_ID_LENGTH, 2);
+				} else {
+					onOpen(manifestIds, manifestSizes, manifestChecksums, true);
+					manifestIds = null;
+					manifestSizes = null;
+					manifestChecksums = null;
+					expect(State.TYPE, 1);
+				}
+				break;
+
+			case INDEXED_DATA_HEADER:
+				onChunk(input.getShort() & 0xffff, input.getLong(), input.getInt());
+				break;
+
+			case DATA_HEADER:
+				onChunk(0, input.getLong(), input.getInt());
+				break;
+
+			default:
+				throw new IllegalStateException(state.name());
+		}
+	}
+
+	private void onFrameType(byte type) throws IOException {
+		switch (type) {
+			case UploadProtocol.FRAME_OPEN:
+				expect(State.OPEN_ID_LENGTH, 2);
+				break;
+
+			case UploadProtocol.FRAME_MANIFEST:
+				expect(State.MANIFEST_COUNT, 2);
+				break;
+
+			case UploadProtocol.FRAME_DELTA_MANIFEST:
+				// replaced by an array of the right length as soon as the count is known
+				manifestChecksums = NO_CHECKSUMS;
+				expect(State.MANIFEST_COUNT, 2);
+				break;
+
+			case UploadProtocol.FRAME_DATA:
+				if (batch) {
+					throw new IOException("Data without a file index within a batch.");
+				}
+
+				expect(State.DATA_HEADER, 8 + 4);
+				break;
+
+			case UploadProtocol.FRAME_INDEXED_DATA:
+				if (!batch) {
+					throw new IOException("Indexed data without a manifest.");
+				}
+
+				expect(State.INDEXED_DATA_HEADER, 2 + 8 + 4);
+				break;
+
+			default:
+				throw new IOException("Unknown frame type " + type + ".");
+		}
+	}
+
+	private int readIdLength() throws IOException {
+		int idLength = input.getShort() & 0xffff;
+		if (idLength == 0 || idLength > UploadProtocol.MAX_FILE_ID_LENGTH) {
+			throw new IOException("Invalid file id length " + idLength + ".");
+		}
+
+		return idLength;
+	}
+
+	private String readId(int trailing) {
+		byte[] id = new byte[input.remaining() - trailing];
+		input.get(id);
+		return new String(id, StandardCharsets.UTF_8);
+	}
+
+	private void onOpen(String[] fileIds, long[] sizes, long[] checksums, boolean batch) throws IOException {
+		for (long size : sizes) {
+			if (size < 0) {
+				throw new IOException("Invalid file size " + size + ".");
+			}
+		}
+
+		// files of a previous open or manifest not completed so far stay partial
+		releaseUploads();
+
+		this.batch = batch;
+		this.announced = System.nanoTime();
+		this.uploads = new ResumableUpload[fileIds.length];
+		for (int n = 0; n < fileIds.length; n++) {
+			uploads[n] = server.getStore().open(fileIds[n], sizes[n], checksums == null ? -1 : checksums[n]);
+			if (uploads[n].getStoredName() == null) {
+				server.log("Receiving " + fileIds[n] + " (" + sizes[n] + " Bytes) from " + remoteAddress + " starting at " + uploads[n].getOffset());
+			}
+		}
+
+		if (checksums != null) {
+			// files held already are left out, so an up-to-date client gets an almost empty response
+			int missing = 0;
+			for (int n = 0; n < uploads.length; n++) {
+				if (uploads[n].getStoredName() != null) {
+					server.log("Already got " + uploads[n].getFileId() + " (" + uploads[n].getSize() + " Bytes) from " + remoteAddress + " as " + uploads[n].getStoredName() + ".");
+					server.getMetrics().uploadKnown();
+					uploads[n] = null;
+				} else {
+					missing++;
+				}
+			}
+
+			ensureOutput(1 + 2 + (2 + 8) * missing);
+			output.put(UploadProtocol.FRAME_MISSING);
+			output.putShort((short)missing);
+			for (int n = 0; n < uploads.length; n++) {
+				if (uploads[n] != null) {
+					output.putShort((short)n);
+					output.putLong(uploads[n].getOffset());
+				}
+			}
+		} else if (batch) {
+			ensureOutput(1 + 2 + 8 * uploads.length);
+			output.put(UploadProtocol.FRAME_MANIFEST_RESUME);
+			output.putShort((short)uploads.length);
+			for (ResumableUpload upload : uploads) {
+				output.putLong(upload.getOffset());
+			}
+		} else {
+			ensureOutput(1 + 8);
+			output.put(UploadProtocol.FRAME_RESUME);
+			output.putLong(uploads[0].getOffset());
+		}
+
+		for (int n = 0; n < uploads.length; n++) {
+			if (uploads[n] != null && uploads[n].isComplete()) {
+				onFileReceived(n);
+			}
+		}
+
+		flush();
+	}
+
+	private void onChunk(int index, long offset, int length) throws IOException {
+		if (index >= uploads.length || uploads[index] == null) {
+			throw new IOException("Data for file " + index + " that is not open.");
+		}
+
+		ResumableUpload upload = uploads[index];
+		if (offset != upload.getOffset() || length < 0 || length > UploadProtocol.MAX_CHUNK_SIZE || offset + length > upload.getSize()) {
+			throw new IOException("Invalid chunk " + offset + "+" + length + " of " + upload.getFileId() + " holding " + upload.getOffset() + " of " + upload.getSize() + " Bytes.");
+		}
+
+		current = index;
+		chunkRemaining = length;
+		state = State.DATA_PAYLOAD;
+		if (length == 0) {
+			onChunkReceived();
+		}
+	}
+
+	private void onChunkReceived() throws IOException {
+		expect(State.TYPE, 1);
+
+		if (uploads[current].isComplete()) {
+			// the confirmation is sent as soon as the file is stored
+			onFileReceived(current);
+		}
+	}
+
+	private void onFileReceived(final int index) {
+		final ResumableUpload upload = uploads[index];
+		final boolean batch = this.batch;
+		final long announced = this.announced;
+		uploads[index] = null;
+
+		if (upload.getStoredName() != null) {
+			server.log("Already got " + upload.getFileId() + " (" + upload.getSize() + " Bytes) from " + remoteAddress + " as " + upload.getStoredName() + ".");
+			server.getMetrics().uploadKnown();
+			confirm(index, batch, UploadProtocol.ACKNOWLEDGE);
+			return;
+		}
+
+		// confirmed as soon as the file is stored, depending on the durability mode after a while
+		server.getStore().complete(upload, new UploadStore.StoreCallback() {
+			@Override
+			public void stored(final String storedName) {
+				execute(new Task() {
+					@Override
+					public void run() throws IOException {
+						server.log("Received " + upload.getFileId() + " (" + upload.getSize() + " Bytes) from " + remoteAddress + " to " + storedName + ".");
+						server.getMetrics().uploadStored(upload.getSize(), announced);
+						confirm(index, batch, UploadProtocol.ACKNOWLEDGE);
+						flush();
+					}
+				});
+			}
+
+			@Override
+			public void failed(final IOException ex) {
+				execute(new Task() {
+					@Override
+					public void run() throws IOException {
+						System.err.println("Failed to store " + upload.getFileId() + " from " + remoteAddress + " " + ex.getMessage());
+						server.getMetrics().uploadFailed();
+						confirm(index, batch, UploadProtocol.FAILED);
+						flush();
+					}
+				});
+			}
+
+			@Override
+			public void rejected(final IOException ex) {
+				execute(new Task() {
+					@Override
+					public void run() throws IOException {
+						System.err.println("Rejected " + upload.getFileId() + " from " + remoteAddress + " " + ex.getMessage());
+						server.getMetrics().uploadFailed();
+						confirm(index, batch, UploadProtocol.REJECTED);
+						flush();
+					}
+				});
+			}
+		});
+	}
+
+	private void confirm(int index, boolean batch, byte status) {
+		if (batch) {
+			ensureOutput(1 + 2 + 1);
+			output.put(UploadProtocol.FRAME_FILE_COMPLETE);
+			output.putShort((short)index);
+			output.put(status);
+		} else {
+			ensureOutput(1 + 1);
+			output.put(UploadProtocol.FRAME_COMPLETE);
+			output.put(status);
+		}
+	}
+
+	private void releaseUploads() {
+		for (int n = 0; n < uploads.length; n++) {
+			if (uploads[n] != null) {
+				server.getStore().release(uploads[n]);
+				uploads[n] = null;
+			}
+		}
+	}
+
+	private void expect(State next, int length) {
+		state = next;
+		input.clear();
+		input.limit(length);
+	}
+
+	private void ensureOutput(int length) {
+		if (output.remaining() < length) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + length));
+			output.flip();
+			larger.put(output);
+			output = larger;
+		}
+	}
+
+	private void flush() throws IOException {
+		key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		onWritable();
+	}
+}
@@ -0,0 +1,92 @@
+package de.miltschek;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread collecting completed files of all connections and committing them
+ * to the {@link UploadStore} as a group, see {@link DurabilityMode#GROUP_COMMIT}.
+ * With groups of a single file it serves {@link DurabilityMode#FSYNC}, so the disk flushes
+ * do not hold up the workers serving the connections.
+ */
+class GroupCommitter implements Runnable {
+	private static final long POLL_TIMEOUT_MS = 100;
+
+	private final UploadStore store;
+	private final long intervalMs;
+	private final int maxGroupSize;
+	private final BlockingQueue<UploadStore.PendingCommit> queue = new LinkedBlockingQueue<>();
+	private volatile boolean shouldRun = true;
+	private Thread thread;
+
+	/**
+	 * Creates a committer.
+	 * @param store the storage to commit to
+	 * @param intervalMs time to collect further files after the first one of a group has arrived
+	 * @param maxGroupSize maximum number of files committed together, 1 for committing each file on its own
+	 */
+	GroupCommitter(UploadStore store, long intervalMs, int maxGroupSize) {
+		this.store = store;
+		this.intervalMs = intervalMs;
+		this.maxGroupSize = maxGroupSize;
+	}
+
+	/**
+	 * Starts the background thread.
+	 */
+	void start() {
+		thread = new Thread(this, "group-commit");
+		thread.start();
+	}
+
+	/**
+	 * Queues a completed file for the next group. Can be called from any thread.
+	 * @param commit the file to be committed
+	 */
+	void submit(UploadStore.PendingCommit commit) {
+		queue.add(commit);
+	}
+
+	/**
+	 * Commits the files queued so far and stops the background thread.
+	 */
+	void close() {
+		shouldRun = false;
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		List<UploadStore.PendingCommit> group = new ArrayList<>();
+		try {
+			while (shouldRun || !queue.isEmpty()) {
+				UploadStore.PendingCommit first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+
+				// give the concurrent uploads the chance to join the group
+				group.add(first);
+				if (maxGroupSize > 1) {
+					Thread.sleep(intervalMs);
+					queue.drainTo(group, maxGroupSize - 1);
+				}
+
+				store.commit(group);
+				group.clear();
+			}
+		} catch (InterruptedException ex) {
+			// not interrupted intentionally; an interrupt would close the files being forced
+			System.err.println("Group commit interrupted, " + (queue.size() + group.size()) + " file(s) not committed.");
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package de.miltschek;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with fixed buckets, in the style of a Prometheus histogram.
+ */
+class Histogram {
+	private final String name;
+	private final String help;
+	private final double[] upperBounds;
+	// one more than the bounds for the values above the largest bound
+	private final LongAdder[] buckets;
+	private final DoubleAdder sum = new DoubleAdder();
+
+	/**
+	 * Creates a histogram.
+	 * @param name metric name
+	 * @param help description of the metric
+	 * @param upperBounds inclusive upper bounds of the buckets in ascending order
+	 */
+	Histogram(String name, String help, double[] upperBounds) {
+		this.name = name;
+		this.help = help;
+		this.upperBounds = upperBounds;
+		this.buckets = new LongAdder[upperBounds.length + 1];
+		for (int n = 0; n < buckets.length; n++) {
+			buckets[n] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Creates bucket bounds growing exponentially.
+	 * @param start upper bound of the first bucket
+	 * @param factor ratio of two successive bounds
+	 * @param count number of bounds
+	 * @return the bounds
+	 */
+	static double[] exponentialBounds(double start, double factor, int count) {
+		double[] bounds = new double[count];
+		double bound = start;
+		for (int n = 0; n < count; n++) {
+			bounds[n] = bound;
+			bound *= factor;
+		}
+
+		return bounds;
+	}
+
+	/**
+	 * Records a value. Can be called from any thread.
+	 * @param value the value
+	 */
+	void observe(double value) {
+		int low = 0;
+		int high = upperBounds.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (upperBounds[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		buckets[low].increment();
+		sum.add(value);
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 * @return count
+	 */
+	long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Estimates a quantile as the upper bound of the bucket it falls into.
+	 * @param quantile quantile between 0 and 1
+	 * @return estimate, infinity if above the largest bound, NaN if nothing has been recorded
+	 */
+	double getQuantile(double quantile) {
+		long[] counts = new long[buckets.length];
+		long total = 0;
+		for (int n = 0; n < buckets.length; n++) {
+			counts[n] = buckets[n].sum();
+			total += counts[n];
+		}
+
+		if (total == 0) {
+			return Double.NaN;
+		}
+
+		long rank = (long)Math.ceil(quantile * total);
+		long cumulative = 0;
+		for (int n = 0; n < upperBounds.length; n++) {
+			cumulative += counts[n];
+			if (cumulative >= rank) {
+				return upperBounds[n];
+			}
+		}
+
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Appends the histogram in the Prometheus text format.
+	 * @param sb target
+	 */
+	void writePrometheus(StringBuilder sb) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" histogram\n");
+
+		long cumulative = 0;
+		for (int n = 0; n < buckets.length; n++) {
+			cumulative += buckets[n].sum();
+			sb.append(name).append("_bucket{le=\"").append(n < upperBounds.length ? format(upperBounds[n]) : "+Inf").append("\"} ").append(cumulative).append('\n');
+		}
+
+		sb.append(name).append("_sum ").append(format(sum.sum())).append('\n');
+		sb.append(name).append("_count ").append(cumulative).append('\n');
+	}
+
+	private static String format(double value) {
+		return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long)value) : Double.toString(value);
+	}
+}
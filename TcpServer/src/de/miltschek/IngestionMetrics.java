@@ -0,0 +1,145 @@
+package de.miltschek;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free counters and histograms of an {@link IngestionServer}.
+ * Updated by the workers and the group commit, read by the metrics endpoint and the periodic summary.
+ */
+class IngestionMetrics {
+	private final LongAdder connectionsAccepted = new LongAdder();
+	private final LongAdder connectionsActive = new LongAdder();
+	private final LongAdder connectionsAborted = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final LongAdder uploadsStored = new LongAdder();
+	private final LongAdder uploadsFailed = new LongAdder();
+	private final LongAdder uploadsKnown = new LongAdder();
+	// 1 KiB to 1 GiB
+	private final Histogram uploadSize = new Histogram("tracker_upload_size_bytes",
+			"Size of the stored uploads.", Histogram.exponentialBounds(1024, 4, 11));
+	// 1 ms to about 2 minutes
+	private final Histogram acknowledgeTime = new Histogram("tracker_acknowledge_seconds",
+			"Time from the announcement of a file to its acknowledgement.", Histogram.exponentialBounds(0.001, 2, 18));
+
+	// state of the last summary, used by its thread only
+	private long lastSummaryTime = System.nanoTime();
+	private long lastBytesReceived;
+	private long lastUploadsStored;
+
+	/**
+	 * Counts an accepted connection.
+	 */
+	void connectionOpened() {
+		connectionsAccepted.increment();
+		connectionsActive.increment();
+	}
+
+	/**
+	 * Counts a closed connection.
+	 * @param aborted true if closed due to an error or a timeout
+	 */
+	void connectionClosed(boolean aborted) {
+		connectionsActive.decrement();
+		if (aborted) {
+			connectionsAborted.increment();
+		}
+	}
+
+	/**
+	 * Counts payload bytes written to files.
+	 * @param count number of bytes
+	 */
+	void bytesReceived(long count) {
+		bytesReceived.add(count);
+	}
+
+	/**
+	 * Records a stored upload.
+	 * @param size size of the file in bytes
+	 * @param startNanos {@link System#nanoTime()} when the file has been announced
+	 */
+	void uploadStored(long size, long startNanos) {
+		uploadsStored.increment();
+		uploadSize.observe(size);
+		acknowledgeTime.observe((System.nanoTime() - startNanos) / 1e9);
+	}
+
+	/**
+	 * Records an upload that has been rejected or could not be stored.
+	 */
+	void uploadFailed() {
+		uploadsFailed.increment();
+	}
+
+	/**
+	 * Records a file announced by a client that the server holds already.
+	 */
+	void uploadKnown() {
+		uploadsKnown.increment();
+	}
+
+	/**
+	 * Returns all metrics in the Prometheus text format.
+	 * @return metrics
+	 */
+	String toPrometheus() {
+		StringBuilder sb = new StringBuilder(4096);
+		appendCounter(sb, "tracker_connections_total", "Accepted connections.", connectionsAccepted.sum());
+		appendGauge(sb, "tracker_connections_active", "Currently open connections.", connectionsActive.sum());
+		appendCounter(sb, "tracker_connections_aborted_total", "Connections closed due to an error or a timeout.", connectionsAborted.sum());
+		appendCounter(sb, "tracker_received_bytes_total", "Payload bytes written to files.", bytesReceived.sum());
+		appendCounter(sb, "tracker_uploads_stored_total", "Files stored and acknowledged.", uploadsStored.sum());
+		appendCounter(sb, "tracker_uploads_failed_total", "Files rejected or failed to be stored.", uploadsFailed.sum());
+		appendCounter(sb, "tracker_uploads_known_total", "Announced files the server held already.", uploadsKnown.sum());
+		uploadSize.writePrometheus(sb);
+		acknowledgeTime.writePrometheus(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a single line summary of the activity since the last summary. To be called from a single thread.
+	 * @return summary
+	 */
+	String summarize() {
+		long now = System.nanoTime();
+		long bytes = bytesReceived.sum();
+		long stored = uploadsStored.sum();
+		double seconds = Math.max(1e-3, (now - lastSummaryTime) / 1e9);
+
+		String summary = String.format(Locale.ROOT,
+				"%d connection(s) open, %d stored (%.1f/s), %d failed, %d known, %.2f MB/s, acknowledge p50 %s p99 %s",
+				connectionsActive.sum(), stored, (stored - lastUploadsStored) / seconds, uploadsFailed.sum(), uploadsKnown.sum(),
+				(bytes - lastBytesReceived) / seconds / 1024 / 1024,
+				formatSeconds(acknowledgeTime.getQuantile(0.5)), formatSeconds(acknowledgeTime.getQuantile(0.99)));
+
+		lastSummaryTime = now;
+		lastBytesReceived = bytes;
+		lastUploadsStored = stored;
+		return summary;
+	}
+
+	private static void appendCounter(StringBuilder sb, String name, String help, long value) {
+		append(sb, name, help, "counter", value);
+	}
+
+	private static void appendGauge(StringBuilder sb, String name, String help, long value) {
+		append(sb, name, help, "gauge", value);
+	}
+
+	private static void append(StringBuilder sb, String name, String help, String type, long value) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static String formatSeconds(double seconds) {
+		if (Double.isNaN(seconds)) {
+			return "-";
+		} else if (Double.isInfinite(seconds)) {
+			return "inf";
+		}
+
+		return "<=" + (seconds < 1 ? Math.round(seconds * 1000) + "ms" : Math.round(seconds) + "s");
+	}
+}
@@ -0,0 +1,241 @@
+package de.miltschek;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Multi-client ingestion engine for data uploads.
+ * A single acceptor thread takes incoming connections and hands them over
+ * (round robin) to a fixed number of workers. Each worker multiplexes all of its
+ * connections on one selector, so the number of threads depends on the number of
+ * cores and not on the number of connected clients.
+ */
+public class IngestionServer {
+	private final ServerSocketChannel serverChannel;
+	private final IngestionWorker[] workers;
+	private final UploadStore store;
+	private final IngestionMetrics metrics = new IngestionMetrics();
+	private ReceiveMode receiveMode = ReceiveMode.BUFFERED;
+	private DurabilityMode durabilityMode = DurabilityMode.GROUP_COMMIT;
+	private long groupCommitIntervalMs = 10;
+	private boolean verbose = true;
+	private InetSocketAddress metricsAddress;
+	private long summaryIntervalMs = 60 * 1000;
+	private MetricsEndpoint metricsEndpoint;
+	private Timer summaryTimer;
+	private Thread acceptor;
+	private volatile boolean shouldRun = true;
+
+	/**
+	 * Creates the ingestion server and binds it to the given address.
+	 * @param bindAddress address and port to listen to
+	 * @param workerCount number of worker threads (selectors)
+	 * @param targetDirectory directory for the received files
+	 * @throws IOException if the server socket could not be opened
+	 */
+	public IngestionServer(InetSocketAddress bindAddress, int workerCount, File targetDirectory) throws IOException {
+		this.store = new UploadStore(targetDirectory);
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(bindAddress, 0);
+		this.workers = new IngestionWorker[workerCount];
+		for (int n = 0; n < workerCount; n++) {
+			this.workers[n] = new IngestionWorker(this);
+		}
+	}
+
+	/**
+	 * Sets the way the payload is moved from the socket to the file. To be called before {@link #start()}.
+	 * @param receiveMode receive mode, {@link ReceiveMode#BUFFERED} per default
+	 */
+	public void setReceiveMode(ReceiveMode receiveMode) {
+		this.receiveMode = receiveMode;
+	}
+
+	/**
+	 * Returns the way the payload is moved from the socket to the file.
+	 * @return receive mode
+	 */
+	public ReceiveMode getReceiveMode() {
+		return receiveMode;
+	}
+
+	/**
+	 * Sets the guarantees given by the acknowledgement of an upload. To be called before {@link #start()}.
+	 * @param durabilityMode durability mode, {@link DurabilityMode#GROUP_COMMIT} per default
+	 */
+	public void setDurabilityMode(DurabilityMode durabilityMode) {
+		this.durabilityMode = durabilityMode;
+	}
+
+	/**
+	 * Sets the time to collect files for a group commit. To be called before {@link #start()}.
+	 * @param groupCommitIntervalMs interval in milliseconds, 10 per default
+	 */
+	public void setGroupCommitInterval(long groupCommitIntervalMs) {
+		this.groupCommitIntervalMs = groupCommitIntervalMs;
+	}
+
+	/**
+	 * Enables the metrics endpoint (Prometheus text format at /metrics). To be called before {@link #start()}.
+	 * @param metricsAddress address and port to listen to, null to disable the endpoint (default)
+	 */
+	public void setMetricsAddress(InetSocketAddress metricsAddress) {
+		this.metricsAddress = metricsAddress;
+	}
+
+	/**
+	 * Sets the interval of the summary line logged to the console. To be called before {@link #start()}.
+	 * @param summaryIntervalMs interval in milliseconds, 0 to disable the summary; 60 seconds per default
+	 */
+	public void setSummaryInterval(long summaryIntervalMs) {
+		this.summaryIntervalMs = summaryIntervalMs;
+	}
+
+	/**
+	 * Turns logging of individual connections on or off. To be called before {@link #start()}.
+	 * @param verbose true to log each connection (default), false to log errors only
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Starts the workers and the acceptor thread, the metrics endpoint and the summary if configured.
+	 * @throws IOException if the metrics endpoint could not be bound
+	 */
+	public void start() throws IOException {
+		store.setDurabilityMode(durabilityMode, groupCommitIntervalMs);
+
+		if (metricsAddress != null) {
+			metricsEndpoint = new MetricsEndpoint(metricsAddress, metrics);
+			metricsEndpoint.start();
+		}
+
+		if (summaryIntervalMs > 0) {
+			summaryTimer = new Timer("ingestion-summary", true);
+			summaryTimer.scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					System.out.println(metrics.summarize());
+				}
+			}, summaryIntervalMs, summaryIntervalMs);
+		}
+
+		for (int n = 0; n < workers.length; n++) {
+			Thread worker = new Thread(workers[n], "ingestion-worker-" + n);
+			worker.start();
+		}
+
+		acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "ingestion-acceptor");
+		acceptor.start();
+	}
+
+	/**
+	 * Stops accepting new connections and closes all workers.
+	 * Connections in progress are dropped.
+	 */
+	public void close() {
+		shouldRun = false;
+
+		try {
+			serverChannel.close();
+		} catch (IOException ex) {}
+
+		for (IngestionWorker worker : workers) {
+			worker.close();
+		}
+
+		store.close();
+
+		if (metricsEndpoint != null) {
+			metricsEndpoint.close();
+		}
+
+		if (summaryTimer != null) {
+			summaryTimer.cancel();
+		}
+	}
+
+	/**
+	 * Waits for the acceptor thread to finish.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		if (acceptor != null) {
+			acceptor.join();
+		}
+	}
+
+	/**
+	 * Returns the local port the server listens to.
+	 * @return port number
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Returns the local port of the metrics endpoint.
+	 * @return port number or -1 if the endpoint is not running
+	 */
+	public int getMetricsPort() {
+		return metricsEndpoint != null ? metricsEndpoint.getPort() : -1;
+	}
+
+	/**
+	 * Returns the metrics of the server.
+	 * @return metrics
+	 */
+	IngestionMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the storage of the received files.
+	 * @return upload store
+	 */
+	UploadStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Logs an informational message if the server is verbose.
+	 * @param message message to be logged
+	 */
+	void log(String message) {
+		if (verbose) {
+			System.out.println(message);
+		}
+	}
+
+	private void accept() {
+		int nextWorker = 0;
+
+		while (shouldRun) {
+			try {
+				SocketChannel client = serverChannel.accept();
+				log("Connection from " + client.getRemoteAddress());
+				metrics.connectionOpened();
+				client.configureBlocking(false);
+				workers[nextWorker].register(client);
+				nextWorker = (nextWorker + 1) % workers.length;
+			} catch (AsynchronousCloseException ex) {
+				// server closed
+				break;
+			} catch (IOException ex) {
+				System.err.println("Failed to accept a connection " + ex.getClass().getSimpleName() + " " + ex.getMessage());
+			}
+		}
+	}
+}
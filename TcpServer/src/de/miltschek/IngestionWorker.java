@@ -0,0 +1,139 @@
+package de.miltschek;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector loop serving any number of upload connections on a single thread.
+ */
+class IngestionWorker implements Runnable {
+	/** Connections without any traffic for this time get closed. */
+	private static final long IDLE_TIMEOUT_MS = 3 * 60 * 1000;
+	private static final long SELECT_TIMEOUT_MS = 1000;
+	private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+
+	private final IngestionServer server;
+	private final Selector selector;
+	private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+	private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+	// shared by all connections of this worker, emptied completely on each read
+	private final ByteBuffer transferBuffer = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+	private volatile boolean shouldRun = true;
+
+	/**
+	 * Creates a worker.
+	 * @param server the owning server
+	 * @throws IOException if the selector could not be opened
+	 */
+	IngestionWorker(IngestionServer server) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Hands over a new connection to this worker. Can be called from any thread.
+	 * @param channel non-blocking client channel
+	 */
+	void register(SocketChannel channel) {
+		pendingChannels.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Runs a task on the thread of this worker. Can be called from any thread.
+	 * @param task task to be run, e.g. a response to a connection
+	 */
+	void execute(Runnable task) {
+		pendingTasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Stops the worker and closes all its connections.
+	 */
+	void close() {
+		shouldRun = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (shouldRun) {
+				selector.select(SELECT_TIMEOUT_MS);
+				registerPendingChannels();
+				runPendingTasks();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					try {
+						if (key.isValid() && key.isReadable()) {
+							((ClientSession)key.attachment()).readable();
+						}
+
+						if (key.isValid() && key.isWritable()) {
+							((ClientSession)key.attachment()).writable();
+						}
+					} catch (IOException ex) {
+						// the attachment may have been replaced by a different protocol meanwhile
+						((ClientSession)key.attachment()).abort(ex.getClass().getSimpleName() + " " + ex.getMessage());
+					}
+				}
+
+				closeIdleSessions();
+			}
+		} catch (IOException | ClosedSelectorException ex) {
+			System.err.println("Worker failed " + ex.getClass().getSimpleName() + " " + ex.getMessage());
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				((ClientSession)key.attachment()).abort("Server closed.");
+			}
+
+			try {
+				selector.close();
+			} catch (IOException ex) {}
+		}
+	}
+
+	private void registerPendingChannels() {
+		SocketChannel channel;
+		while ((channel = pendingChannels.poll()) != null) {
+			try {
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				key.attach(new UploadSession(server, this, channel, key, transferBuffer));
+			} catch (IOException ex) {
+				System.err.println("Failed to register a connection " + ex.getClass().getSimpleName() + " " + ex.getMessage());
+				try {
+					channel.close();
+				} catch (IOException ex2) {}
+			}
+		}
+	}
+
+	private void runPendingTasks() {
+		Runnable task;
+		while ((task = pendingTasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private void closeIdleSessions() {
+		long now = System.currentTimeMillis();
+		for (SelectionKey key : selector.keys()) {
+			ClientSession session = (ClientSession)key.attachment();
+			if (now - session.getLastActivity() > IDLE_TIMEOUT_MS) {
+				session.abort("Idle timeout.");
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package de.miltschek;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for a running {@link TcpServer}: simulates concurrent watches uploading synthetic recordings
+ * with the protocol of the AsyncUploader (size, payload, waiting for the acknowledgement) and reports
+ * the throughput and the distribution of the time from sending the last byte until the acknowledgement.
+ * Arguments (all optional): address [127.0.0.1], port [8080], clients [64], file size in bytes [65536],
+ * uploads per client [100].
+ */
+public class LoadGenerator {
+	public static void main(String[] args) throws Exception {
+		String address = args.length > 0 ? args[0] : "127.0.0.1";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		int clients = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		int fileSize = args.length > 3 ? Integer.parseInt(args[3]) : 64 * 1024;
+		int uploadsPerClient = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+
+		byte[] payload = SyntheticRecording.create(fileSize, 0, new Random(1));
+		System.out.println("Uploading " + clients + " x " + uploadsPerClient + " file(s) of " + payload.length + " Bytes to " + address + ":" + port);
+
+		UploadClient client = new UploadClient(address, port);
+		// one thread per simulated client, each blocking on its own connection like a watch would
+		ExecutorService executor = Executors.newFixedThreadPool(clients);
+		CountDownLatch startSignal = new CountDownLatch(1);
+		AtomicInteger failures = new AtomicInteger();
+		long[][] latencies = new long[clients][];
+		// distinct start times per run, otherwise the server would hold the content from a previous run already
+		long runId = System.currentTimeMillis() * clients * uploadsPerClient;
+
+		for (int n = 0; n < clients; n++) {
+			final int clientIndex = n;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					byte[] content = payload.clone();
+					long[] clientLatencies = new long[uploadsPerClient];
+					int succeeded = 0;
+					try {
+						startSignal.await();
+					} catch (InterruptedException ex) {
+						return;
+					}
+
+					for (int upload = 0; upload < uploadsPerClient; upload++) {
+						try {
+							SyntheticRecording.setStartTimestampRtc(content, runId + (long)clientIndex * uploadsPerClient + upload);
+							clientLatencies[succeeded++] = client.upload(content);
+						} catch (IOException ex) {
+							if (failures.getAndIncrement() == 0) {
+								System.err.println("Upload failed: " + ex.getMessage());
+							}
+						}
+					}
+
+					latencies[clientIndex] = Arrays.copyOf(clientLatencies, succeeded);
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		startSignal.countDown();
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long[] all = new long[0];
+		for (long[] clientLatencies : latencies) {
+			int offset = all.length;
+			all = Arrays.copyOf(all, offset + clientLatencies.length);
+			System.arraycopy(clientLatencies, 0, all, offset, clientLatencies.length);
+		}
+
+		Arrays.sort(all);
+		System.out.println(String.format("%d upload(s) in %.1f s, %d failed", all.length, seconds, failures.get()));
+		System.out.println(String.format("%.1f uploads/s, %.1f MB/s", all.length / seconds, (double)all.length * payload.length / seconds / 1024 / 1024));
+		if (all.length > 0) {
+			System.out.println(String.format("time to acknowledge: p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms",
+					percentile(all, 0.5), percentile(all, 0.99), percentile(all, 0.999), all[all.length - 1] / 1e6));
+		}
+	}
+
+	/**
+	 * Returns the nearest-rank percentile of sorted latencies in milliseconds.
+	 */
+	private static double percentile(long[] sorted, double quantile) {
+		int rank = (int)Math.ceil(quantile * sorted.length);
+		return sorted[Math.max(0, rank - 1)] / 1e6;
+	}
+}
@@ -0,0 +1,60 @@
+package de.miltschek;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tiny embedded HTTP listener serving the metrics in the Prometheus text format at /metrics.
+ */
+class MetricsEndpoint {
+	private final HttpServer httpServer;
+
+	/**
+	 * Creates the endpoint and binds it to the given address.
+	 * @param bindAddress address and port to listen to
+	 * @param metrics metrics to be served
+	 * @throws IOException if the address could not be bound
+	 */
+	MetricsEndpoint(InetSocketAddress bindAddress, final IngestionMetrics metrics) throws IOException {
+		httpServer = HttpServer.create(bindAddress, 0);
+		httpServer.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream os = exchange.getResponseBody()) {
+					os.write(body);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Starts serving requests on a background thread.
+	 */
+	void start() {
+		httpServer.start();
+	}
+
+	/**
+	 * Returns the local port the endpoint listens to.
+	 * @return port number
+	 */
+	int getPort() {
+		return httpServer.getAddress().getPort();
+	}
+
+	/**
+	 * Stops serving requests.
+	 */
+	void close() {
+		httpServer.stop(0);
+	}
+}
@@ -0,0 +1,17 @@
+package de.miltschek;
+
+/**
+ * Ways of moving the payload of an upload from the socket to the file.
+ */
+public enum ReceiveMode {
+	/**
+	 * The payload is read into a buffer of the worker, hashed and validated in it and written from it to the file (default).
+	 */
+	BUFFERED,
+	/**
+	 * The file is pre-allocated to the announced size and filled by {@link java.nio.channels.FileChannel#transferFrom},
+	 * which moves the payload through a temporary direct buffer of the JDK. To be hashed and validated,
+	 * each range is read back from the file into the buffer of the worker and copied into a heap array by SHA-256.
+	 */
+	TRANSFER
+}
@@ -0,0 +1,271 @@
+package de.miltschek;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+import de.miltschek.tracker.EventBlock;
+import de.miltschek.tracker.FileItem;
+import de.miltschek.tracker.RecordingIndex;
+
+/**
+ * Incremental validator of a recording (.trk file) as written by the app.
+ * Fed with the bytes as they arrive, it checks the header, the version and the structure of each field
+ * (start indicator '#', length, id and the length expected for known ids) without buffering the file.
+ * The CRC32C of checked event blocks (see {@link EventBlock#CHECKED}) is calculated on the way and compared
+ * with the one stored in their last 4 bytes.
+ * The start time of the sport activity is picked up on the way.
+ */
+class RecordingValidator {
+	private enum State {
+		HEADER,
+		VERSION,
+		FIELD_START,
+		FIELD_LENGTH,
+		FIELD_ID,
+		FIELD_DATA,
+		END,
+		INVALID
+	}
+
+	private static final int FIELD_START_TIME_RTC = 0x1001;
+	private static final int FIELD_START_TIME_NS = 0x1003;
+	private static final int FIELD_END_OF_FILE = 0xffff;
+	// start indicator, length and id covered by the checksum of a checked field
+	private static final int FIELD_HEADER_LENGTH = 1 + 4 + 2;
+	private static final int CHECKSUM_LENGTH = 4;
+
+	private State state = State.HEADER;
+	// number of bytes of the current element read so far and their big-endian value
+	private int elementPosition;
+	private long elementValue;
+	private int fieldLength;
+	private int fieldId;
+	private int fieldRemaining;
+	private long fieldOffset;
+	private boolean checked;
+	private final CRC32C crc32c = new CRC32C();
+	private long offset;
+	private String error;
+	private long startTimestampRtc;
+	private long startNanoseconds;
+
+	/**
+	 * Validates the next bytes of the recording. The position of the buffer is not changed.
+	 * @param buffer the remaining bytes of the buffer follow the bytes validated so far
+	 */
+	void update(ByteBuffer buffer) {
+		int position = buffer.position();
+		int limit = buffer.limit();
+		while (position < limit && state != State.INVALID) {
+			if (state == State.FIELD_DATA && fieldId != FIELD_START_TIME_RTC && fieldId != FIELD_START_TIME_NS
+					&& (!checked || fieldRemaining > CHECKSUM_LENGTH)) {
+				// contents of the fields are not of interest, skip them at once, only hashing the data of checked ones
+				int skipped = Math.min(fieldRemaining - (checked ? CHECKSUM_LENGTH : 0), limit - position);
+				if (checked) {
+					ByteBuffer data = buffer.duplicate();
+					data.limit(position + skipped);
+					data.position(position);
+					crc32c.update(data);
+				}
+
+				position += skipped;
+				offset += skipped;
+				fieldRemaining -= skipped;
+				if (fieldRemaining == 0) {
+					onFieldComplete();
+				}
+				continue;
+			}
+
+			onByte(buffer.get(position++));
+			offset++;
+		}
+	}
+
+	/**
+	 * Checks whether all bytes fed so far make a complete and valid recording.
+	 * @throws IOException with the reason if the recording is corrupt or truncated
+	 */
+	void finish() throws IOException {
+		if (state == State.INVALID) {
+			throw new IOException(error);
+		}
+
+		if (state != State.END) {
+			throw new IOException("Premature end of file after " + offset + " Bytes.");
+		}
+	}
+
+	/**
+	 * Returns the start time of the sport activity (field 0x1001).
+	 * @return milliseconds since Jan, 1st 1970 or 0 if not found so far
+	 */
+	long getStartTimestampRtc() {
+		return startTimestampRtc;
+	}
+
+	/**
+	 * Returns the start time of the sport activity (field 0x1003).
+	 * @return nanoseconds of the sensor time base or 0 if not found so far
+	 */
+	long getStartNanoseconds() {
+		return startNanoseconds;
+	}
+
+	private void onByte(byte b) {
+		switch (state) {
+			case HEADER:
+				if (b != FileItem.HEADER[elementPosition]) {
+					fail("Unknown file format.");
+				} else if (++elementPosition == FileItem.HEADER.length) {
+					next(State.VERSION);
+				}
+				break;
+
+			case VERSION:
+				if (readElement(b, 2)) {
+					if (elementValue < FileItem.MIN_VERSION || elementValue > FileItem.VERSION) {
+						fail("Unsupported version no. " + elementValue + ".");
+					} else {
+						next(State.FIELD_START);
+					}
+				}
+				break;
+
+			case FIELD_START:
+				if (b != '#') {
+					fail("Beginning of a field not found at offset " + offset + ".");
+				} else {
+					fieldOffset = offset;
+					next(State.FIELD_LENGTH);
+				}
+				break;
+
+			case FIELD_LENGTH:
+				if (readElement(b, 4)) {
+					fieldLength = (int)elementValue;
+					if (fieldLength < 2) {
+						fail("Invalid field length " + fieldLength + " at offset " + offset + ".");
+					} else {
+						next(State.FIELD_ID);
+					}
+				}
+				break;
+
+			case FIELD_ID:
+				if (readElement(b, 2)) {
+					fieldId = (int)elementValue;
+					fieldRemaining = fieldLength - 2;
+					checked = EventBlock.isChecked(fieldId);
+					int expected = getExpectedDataLength(fieldId);
+					if ((expected >= 0 && expected != fieldRemaining) || (checked && fieldRemaining < CHECKSUM_LENGTH)) {
+						fail("Invalid length " + fieldRemaining + " of the field 0x" + Integer.toHexString(fieldId) + " at offset " + offset + ".");
+					} else if (fieldRemaining == 0) {
+						onFieldComplete();
+					} else {
+						if (checked) {
+							byte[] header = new byte[FIELD_HEADER_LENGTH];
+							ByteBuffer.wrap(header).put((byte)'#').putInt(fieldLength).putShort((short)fieldId);
+							crc32c.reset();
+							crc32c.update(header, 0, header.length);
+						}
+
+						next(State.FIELD_DATA);
+					}
+				}
+				break;
+
+			case FIELD_DATA:
+				// a start time field, the only ones of interest, or the checksum of a checked field
+				readElement(b, checked ? CHECKSUM_LENGTH : 8);
+				if (--fieldRemaining == 0) {
+					onFieldComplete();
+				}
+				break;
+
+			case END:
+				fail("Data after the end of file marker at offset " + offset + ".");
+				break;
+
+			default:
+				break;
+		}
+	}
+
+	private void onFieldComplete() {
+		if (checked && (int)elementValue != (int)crc32c.getValue()) {
+			fail("Checksum mismatch of the field 0x" + Integer.toHexString(fieldId) + " at offset " + fieldOffset + ".");
+			return;
+		}
+
+		if (fieldId == FIELD_START_TIME_RTC) {
+			startTimestampRtc = elementValue;
+		} else if (fieldId == FIELD_START_TIME_NS) {
+			startNanoseconds = elementValue;
+		}
+
+		next(fieldId == FIELD_END_OF_FILE ? State.END : State.FIELD_START);
+	}
+
+	/**
+	 * Appends a byte to the current big-endian element.
+	 * @return true if the element is complete
+	 */
+	private boolean readElement(byte b, int length) {
+		elementValue = (elementValue << 8) | (b & 0xff);
+		return ++elementPosition == length;
+	}
+
+	private void next(State state) {
+		this.state = state;
+		this.elementPosition = 0;
+		this.elementValue = 0;
+	}
+
+	private void fail(String error) {
+		this.error = error;
+		this.state = State.INVALID;
+	}
+
+	/**
+	 * Returns the length of the data (following the id) of the known fields.
+	 * @param fieldId id of the field
+	 * @return length in bytes or -1 if the field is unknown
+	 */
+	private static int getExpectedDataLength(int fieldId) {
+		switch (fieldId) {
+			case 0x1001: // start RTC
+			case 0x1002: // stop RTC
+			case 0x1003: // start ns
+			case 0x1004: // stop ns
+				return 8;
+
+			case 0x1011: // avg heart rate
+			case 0x1012: // max heart rate
+			case 0x1013: // total steps
+			case 0x1014: // avg step rate
+			case 0x1015: // total ascent
+			case 0x1016: // total descent
+			case 0x1017: // avg speed
+				return 4;
+
+			case 0x2011: // heart rate
+			case 0x2021: // steps
+			case 0x2031: // air pressure
+				return 8 + 4 + 4;
+
+			case 0x2041: // geo
+				return 8 + 8 + 8 + 8 + 8 + 4 + 8 + 4 + 4 + 4;
+
+			case RecordingIndex.FOOTER: // offset of the trailer
+				return 8;
+
+			case FIELD_END_OF_FILE:
+				return 0;
+
+			default:
+				return -1;
+		}
+	}
+}
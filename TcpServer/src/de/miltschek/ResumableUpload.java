@@ -0,0 +1,173 @@
+package de.miltschek;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file being received with the resumable protocol.
+ */
+class ResumableUpload {
+	private final String fileId;
+	private final long size;
+	private final File partialFile;
+	private final ContentDigest digest;
+	private FileChannel channel;
+	private long offset;
+	private String storedName;
+	private long checksum = -1;
+	private volatile boolean superseded;
+
+	/**
+	 * Creates an upload in progress.
+	 * @param fileId client's identifier of the file
+	 * @param size total size of the file in bytes
+	 * @param partialFile file collecting the data
+	 * @param channel open channel of the partial file
+	 * @param offset number of bytes already held
+	 * @param digest digest of the bytes already held
+	 */
+	ResumableUpload(String fileId, long size, File partialFile, FileChannel channel, long offset, ContentDigest digest) {
+		this.fileId = fileId;
+		this.size = size;
+		this.partialFile = partialFile;
+		this.channel = channel;
+		this.offset = offset;
+		this.digest = digest;
+	}
+
+	/**
+	 * Creates an upload of a file that has been received completely before.
+	 * @param fileId client's identifier of the file
+	 * @param size total size of the file in bytes
+	 * @param storedName name of the stored file
+	 */
+	ResumableUpload(String fileId, long size, String storedName) {
+		this(fileId, size, null, null, size, null);
+		this.storedName = storedName;
+	}
+
+	/**
+	 * Returns the client's identifier of the file.
+	 * @return file id
+	 */
+	String getFileId() {
+		return fileId;
+	}
+
+	/**
+	 * Returns the total size of the file.
+	 * @return size in bytes
+	 */
+	long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes already held.
+	 * @return offset in bytes
+	 */
+	long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns whether all bytes of the file are held.
+	 * @return true if complete
+	 */
+	boolean isComplete() {
+		return offset >= size;
+	}
+
+	/**
+	 * Returns the file collecting the data.
+	 * @return partial file or null if the upload has been complete before
+	 */
+	File getPartialFile() {
+		return partialFile;
+	}
+
+	/**
+	 * Returns the digest of the bytes held so far.
+	 * @return digest or null if the upload has been complete before
+	 */
+	ContentDigest getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Returns the name of the stored file.
+	 * @return name of the stored file or null if not yet complete
+	 */
+	String getStoredName() {
+		return storedName;
+	}
+
+	/**
+	 * Sets the name of the stored file after completion.
+	 * @param storedName name of the stored file
+	 */
+	void setStoredName(String storedName) {
+		this.storedName = storedName;
+	}
+
+	/**
+	 * Returns the checksum announced by the client.
+	 * @return CRC-32 of the content or -1 if unknown
+	 */
+	long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Sets the checksum announced by the client; the received content gets verified against it on completion.
+	 * @param checksum CRC-32 of the content
+	 */
+	void setChecksum(long checksum) {
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Marks the upload as taken over by another connection.
+	 */
+	void supersede() {
+		superseded = true;
+	}
+
+	/**
+	 * Returns the channel to append the next data to.
+	 * @return channel of the partial file
+	 * @throws IOException if the upload has been taken over by another connection or closed
+	 */
+	FileChannel getChannel() throws IOException {
+		if (superseded) {
+			throw new IOException("Upload of " + fileId + " taken over by another connection.");
+		}
+
+		if (channel == null) {
+			throw new IOException("Upload of " + fileId + " is closed.");
+		}
+
+		return channel;
+	}
+
+	/**
+	 * Advances the offset after data has been written.
+	 * @param count number of bytes written
+	 */
+	void advance(long count) {
+		offset += count;
+	}
+
+	/**
+	 * Closes the partial file.
+	 */
+	void closeFile() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ex) {}
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package de.miltschek;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import de.miltschek.tracker.FileItem;
+
+/**
+ * Generator of valid recordings (.trk files) with random heart rate events, for benchmarks and load tests.
+ */
+class SyntheticRecording {
+	// header, version, field start indicator, length and id of the first field (0x1001)
+	private static final int START_TIME_RTC_OFFSET = FileItem.HEADER.length + 2 + 1 + 4 + 2;
+	private static final int EVENT_FIELD_LENGTH = 1 + 4 + 2 + 8 + 4 + 4;
+	private static final int END_FIELD_LENGTH = 1 + 4 + 2;
+
+	/**
+	 * Creates a recording.
+	 * @param maxSize maximum size in bytes; the recording is as large as possible with whole events
+	 * @param startTimestampRtc start time of the sport activity (field 0x1001)
+	 * @param random source of the event values
+	 * @return the recording
+	 */
+	static byte[] create(int maxSize, long startTimestampRtc, Random random) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(maxSize);
+		DataOutputStream dos = new DataOutputStream(bos);
+		try {
+			dos.write(FileItem.HEADER);
+			// one field per event
+			dos.writeShort(FileItem.MIN_VERSION);
+			long startNs = 1_000_000_000L;
+			writeField(dos, 0x1001, 8).writeLong(startTimestampRtc);
+			writeField(dos, 0x1002, 8).writeLong(startTimestampRtc + 3_600_000);
+			writeField(dos, 0x1003, 8).writeLong(startNs);
+			writeField(dos, 0x1004, 8).writeLong(startNs + 3_600_000_000_000L);
+			for (int id = 0x1011; id <= 0x1017; id++) {
+				writeField(dos, id, 4).writeInt(random.nextInt());
+			}
+
+			long timestamp = startNs;
+			while (dos.size() + EVENT_FIELD_LENGTH + END_FIELD_LENGTH <= maxSize) {
+				timestamp += 1_000_000_000L;
+				writeField(dos, 0x2011, 8 + 4 + 4).writeLong(timestamp);
+				dos.writeInt(60 + random.nextInt(120));
+				dos.writeInt(3);
+			}
+
+			writeField(dos, 0xffff, 0);
+		} catch (IOException ex) {
+			// not thrown by a byte array stream
+			throw new IllegalStateException(ex);
+		}
+
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Replaces the start time of the sport activity, e.g. to make the content of a recording unique.
+	 * @param recording a recording as created by {@link #create(int, long, Random)}
+	 * @param startTimestampRtc start time of the sport activity (field 0x1001)
+	 */
+	static void setStartTimestampRtc(byte[] recording, long startTimestampRtc) {
+		ByteBuffer.wrap(recording).putLong(START_TIME_RTC_OFFSET, startTimestampRtc);
+	}
+
+	private static DataOutputStream writeField(DataOutputStream dos, int id, int dataLength) throws IOException {
+		dos.writeByte('#');
+		dos.writeInt(2 + dataLength);
+		dos.writeShort(id);
+		return dos;
+	}
+}
@@ -1,25 +1,19 @@
 package de.miltschek;
 
 import java.io.BufferedReader;
-import java.io.FileOutputStream;
-import java.io.InputStream;
+import java.io.File;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-
-import de.miltschek.tracker.BitUtility;
+import java.net.InetSocketAddress;
 
 /**
- * Simple TCP server writing data to a file.
- * The data needs to be structured as:
- * - 4 bytes: a field denoting the size of the file in bytes (big endian integer)
- * - number of bytes as announced in the first field: the payload
- * The server responds with a single byte '5' after getting all data.
- * Single threaded (no parallel connections possible).
+ * TCP server receiving the recordings uploaded by the app, see UPLOAD_PROTOCOL.md for both versions of the protocol
+ * and their status bytes. The files are validated and stored content-addressed, see {@link UploadStore}.
+ * Any number of parallel connections is served by a pool of selector workers,
+ * see {@link IngestionServer}.
+ * Metrics are served in the Prometheus text format on a separate port, bound to the loopback interface by default.
  */
 public class TcpServer {
-	private static boolean shouldRun = true;
 
 	public static void main(String[] args) throws Exception {
 		// get parameters (bind address and port)
@@ -31,8 +25,30 @@ public class TcpServer {
 		String portString = br.readLine();
 		int port = portString.length() == 0 ? 8080 : Integer.parseInt(portString);
 		
-		// start a tcp server
-		ServerSocket server = new ServerSocket(port, 0, InetAddress.getByName(address.length() == 0 ? "0.0.0.0" : address));
+		System.out.print("Durability (none, fsync, group_commit) [group_commit]: ");
+		String durabilityString = br.readLine();
+		DurabilityMode durabilityMode = durabilityString.length() == 0 ? DurabilityMode.GROUP_COMMIT : DurabilityMode.valueOf(durabilityString.toUpperCase());
+		
+		System.out.print("Port of the metrics endpoint, 0 to disable [9100]: ");
+		String metricsPortString = br.readLine();
+		int metricsPort = metricsPortString.length() == 0 ? 9100 : Integer.parseInt(metricsPortString);
+		
+		// the metrics are not protected, so they are not exposed to the network unless asked for
+		String metricsAddress = "";
+		if (metricsPort > 0) {
+			System.out.print("Address to bind the metrics endpoint to [127.0.0.1]: ");
+			metricsAddress = br.readLine();
+		}
+		
+		// start a tcp server, one worker per core
+		IngestionServer server = new IngestionServer(
+				new InetSocketAddress(InetAddress.getByName(address.length() == 0 ? "0.0.0.0" : address), port),
+				Runtime.getRuntime().availableProcessors(),
+				new File("."));
+		server.setDurabilityMode(durabilityMode);
+		if (metricsPort > 0) {
+			server.setMetricsAddress(new InetSocketAddress(InetAddress.getByName(metricsAddress.length() == 0 ? "127.0.0.1" : metricsAddress), metricsPort));
+		}
 		
 		// provide a dirty quit-method
 		Thread closure = new Thread(new Runnable() {
@@ -42,66 +58,21 @@ public class TcpServer {
 					String command;
 					do {
 						command = br.readLine();
-					} while (!command.equals("quit"));
-					
-					shouldRun = false;
-					server.close();
+					} while (command != null && !command.equals("quit"));
 				} catch (Exception ex) {}
+				
+				server.close();
 			}
 		});
 		
 		closure.start();
 		
-		// main server's loop
-		while (shouldRun) {
-			System.out.println("Awaiting a client. Type 'quit' at any point of time to close the server.");
-			Socket client = server.accept();
-			System.out.println("Connection from " + client.getRemoteSocketAddress());
-			InputStream is = client.getInputStream();
-			
-			// create a file
-			String filename = "data_" + System.currentTimeMillis() + ".bin";
-			FileOutputStream fos = new FileOutputStream(filename);
-			System.out.println("Writing incoming data to " + filename);
-			
-			// transfer data to the file
-			byte[] buffer = new byte[1024 * 1024];
-			int read;
-			int totalRead = 0;
-			
-			// read the file size
-			read = is.read(buffer, 0, 4);
-			if (read != 4) {
-				System.err.println("Expected 4 bytes, but received only " + read + "; quitting...");
-				return;
-			}
-			
-			int fileSize = BitUtility.getInt(buffer, 0);
-			
-			while ((read = is.read(buffer)) > 0) {
-				fos.write(buffer, 0, read);
-				totalRead += read;
-				System.out.print(".");
-				
-				if (totalRead >= fileSize) {
-					break;
-				}
-			}
-			
-			// inform the client, we have all data
-			client.getOutputStream().write(5);
-			client.close();
-			
-			System.out.println();
-			System.out.println("Received " + totalRead + " Bytes.");
-			
-			if (totalRead != fileSize) {
-				System.err.println("Something went wrong. We have got " + totalRead + " Bytes instead of " + fileSize + " Bytes that have been expected.");
-			}
+		System.out.println("Awaiting clients. Type 'quit' at any point of time to close the server.");
+		server.start();
+		if (metricsPort > 0) {
+			System.out.println("Metrics available at http://" + (metricsAddress.length() == 0 ? "127.0.0.1" : metricsAddress) + ":" + server.getMetricsPort() + "/metrics.");
 		}
-		
-		// close the server when out of the loop (it will be closed anyway already due to the form of the closure thread)
-		server.close();
+		server.join();
 	}
 
 }
@@ -0,0 +1,110 @@
+package de.miltschek;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the receive and durability modes of the {@link IngestionServer} with an in-process server
+ * and concurrent local clients.
+ * Arguments (all optional): file size in bytes [4194304], uploads per client [4], target directory [temporary].
+ */
+public class UploadBenchmark {
+	private static final int[] CONCURRENCY = { 1, 16, 256 };
+
+	public static void main(String[] args) throws Exception {
+		int fileSize = args.length > 0 ? Integer.parseInt(args[0]) : 4 * 1024 * 1024;
+		int uploadsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		File directory = args.length > 2 ? new File(args[2]) : createTemporaryDirectory();
+
+		byte[] payload = SyntheticRecording.create(fileSize, System.currentTimeMillis(), new Random(1));
+
+		System.out.println("File size " + payload.length + " Bytes, " + uploadsPerClient + " upload(s) per client, writing to " + directory);
+		System.out.println(String.format("%-10s %-13s %8s %10s %10s %10s", "receive", "durability", "clients", "uploads", "uploads/s", "MB/s"));
+
+		for (int clients : CONCURRENCY) {
+			for (DurabilityMode durabilityMode : DurabilityMode.values()) {
+				for (ReceiveMode mode : ReceiveMode.values()) {
+					run(mode, durabilityMode, clients, uploadsPerClient, payload, directory);
+				}
+			}
+		}
+	}
+
+	private static void run(ReceiveMode mode, DurabilityMode durabilityMode, int clients, int uploadsPerClient, byte[] payload, File directory) throws Exception {
+		IngestionServer server = new IngestionServer(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+				Runtime.getRuntime().availableProcessors(),
+				directory);
+		server.setReceiveMode(mode);
+		server.setDurabilityMode(durabilityMode);
+		server.setVerbose(false);
+		server.setSummaryInterval(0);
+		server.start();
+
+		UploadClient client = new UploadClient(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+		AtomicInteger failures = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+
+		long start = System.nanoTime();
+		for (int n = 0; n < clients; n++) {
+			// each upload gets a distinct content, otherwise the storage would keep just a single copy
+			byte[] content = payload.clone();
+			long startTimestampRtc = (long)n * uploadsPerClient;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int upload = 0; upload < uploadsPerClient; upload++) {
+						try {
+							SyntheticRecording.setStartTimestampRtc(content, startTimestampRtc + upload);
+							client.upload(content);
+						} catch (IOException ex) {
+							failures.incrementAndGet();
+						}
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		server.close();
+
+		int uploads = clients * uploadsPerClient - failures.get();
+		System.out.println(String.format("%-10s %-13s %8d %10d %10.1f %10.1f%s",
+				mode, durabilityMode, clients, uploads, uploads / seconds, (double)uploads * payload.length / seconds / 1024 / 1024,
+				failures.get() > 0 ? " (" + failures.get() + " failed)" : ""));
+
+		for (String name : new String[] { "blobs", "partial", "blobs.idx" }) {
+			delete(new File(directory, name));
+		}
+	}
+
+	private static void delete(File file) {
+		if (file.isDirectory()) {
+			for (File child : file.listFiles()) {
+				delete(child);
+			}
+		}
+
+		file.delete();
+	}
+
+	private static File createTemporaryDirectory() throws IOException {
+		File directory = File.createTempFile("benchmark", "");
+		directory.delete();
+		directory.mkdirs();
+		directory.deleteOnExit();
+		return directory;
+	}
+}
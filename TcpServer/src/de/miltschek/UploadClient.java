@@ -0,0 +1,62 @@
+package de.miltschek;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import de.miltschek.tracker.BitUtility;
+import de.miltschek.tracker.UploadProtocol;
+
+/**
+ * Blocking upload client speaking the same protocol as the AsyncUploader of the wearable app:
+ * the size of the file (4 bytes, big endian), the payload and waiting for the byte '5'.
+ */
+public class UploadClient {
+	private static final int ACKNOWLEDGE_TIMEOUT_MS = 3 * 60 * 1000;
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	private final String address;
+	private final int port;
+
+	/**
+	 * Creates an upload client.
+	 * @param address target address (FQDN, IPv4 or IPv6)
+	 * @param port port number (1..65535)
+	 */
+	public UploadClient(String address, int port) {
+		this.address = address;
+		this.port = port;
+	}
+
+	/**
+	 * Uploads the given data over a new connection and waits for the acknowledgement.
+	 * @param data payload to be sent
+	 * @return time in nanoseconds from sending the last byte until the acknowledgement
+	 * @throws IOException in case of an IO issue or a missing acknowledgement
+	 */
+	public long upload(byte[] data) throws IOException {
+		try (Socket socket = new Socket(address, port)) {
+			OutputStream os = socket.getOutputStream();
+
+			// send the size of the file
+			os.write(BitUtility.getBytes(data.length), 0, 4);
+
+			for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+				os.write(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+			}
+
+			os.flush();
+			long sent = System.nanoTime();
+
+			socket.setSoTimeout(ACKNOWLEDGE_TIMEOUT_MS);
+			InputStream is = socket.getInputStream();
+			int read = is.read();
+			if (read != UploadProtocol.ACKNOWLEDGE) {
+				throw new IOException("Failed to send the file [" + read + "].");
+			}
+
+			return System.nanoTime() - sent;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package de.miltschek;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import de.miltschek.tracker.UploadProtocol;
+
+/**
+ * State machine of a single upload connection (protocol version 1).
+ * The data needs to be structured as:
+ * - 4 bytes: a field denoting the size of the file in bytes (big endian integer)
+ * - number of bytes as announced in the first field: the payload
+ * The session responds with a single byte '5' after getting all data and storing them
+ * or '6' if the data is not a valid recording or could not be stored.
+ * If the first 4 bytes are the {@link UploadProtocol#MAGIC}, the connection is handed over to a {@link FramedSession}.
+ */
+class UploadSession extends ClientSession {
+	private enum State {
+		SIZE,
+		PAYLOAD,
+		STORE,
+		ACKNOWLEDGE
+	}
+
+	private final ByteBuffer sizeBuffer = ByteBuffer.allocate(4);
+	private final ContentDigest digest = new ContentDigest();
+	private ByteBuffer acknowledgeBuffer;
+
+	private State state = State.SIZE;
+	private File file;
+	private String storedName;
+	private FileChannel fileChannel;
+	private int fileSize;
+	private long received;
+	private long announced;
+
+	/**
+	 * Creates a session for a freshly accepted connection.
+	 * @param server the owning server
+	 * @param worker the worker serving the connection
+	 * @param channel non-blocking client channel
+	 * @param key selection key of the channel
+	 * @param transferBuffer buffer for moving the payload to the file; it is never kept across calls
+	 * @throws IOException if the remote address could not be determined
+	 */
+	UploadSession(IngestionServer server, IngestionWorker worker, SocketChannel channel, SelectionKey key, ByteBuffer transferBuffer) throws IOException {
+		super(server, worker, channel, key, transferBuffer, String.valueOf(channel.getRemoteAddress()));
+	}
+
+	@Override
+	protected void onReadable() throws IOException {
+		switch (state) {
+			case SIZE:
+				readSize();
+				break;
+
+			case PAYLOAD:
+				readPayload();
+				break;
+
+			default:
+				// nothing more expected from the client
+				if (channel.read(transferBuffer.clear()) < 0) {
+					abort("Connection closed before the acknowledgement has been sent.");
+				}
+				break;
+		}
+	}
+
+	@Override
+	protected void onWritable() throws IOException {
+		if (state == State.ACKNOWLEDGE) {
+			channel.write(acknowledgeBuffer);
+			if (!acknowledgeBuffer.hasRemaining()) {
+				if (storedName != null) {
+					server.log("Received " + received + " Bytes from " + remoteAddress + " to " + storedName + ".");
+				}
+				close();
+			}
+		}
+	}
+
+	@Override
+	protected void releaseResources() {
+		if (fileChannel != null) {
+			try {
+				fileChannel.close();
+			} catch (IOException ex) {}
+			fileChannel = null;
+		}
+
+		if (state == State.PAYLOAD) {
+			// version 1 cannot resume, an incomplete file is of no use
+			file.delete();
+		}
+	}
+
+	@Override
+	protected String describeProgress() {
+		return file != null ? " Got " + received + " Bytes of " + fileSize + " into " + file.getName() + "." : "";
+	}
+
+	private void readSize() throws IOException {
+		if (channel.read(sizeBuffer) < 0) {
+			throw new IOException("Expected 4 bytes, but received only " + sizeBuffer.position() + ".");
+		}
+
+		if (sizeBuffer.hasRemaining()) {
+			return;
+		}
+
+		fileSize = sizeBuffer.getInt(0);
+		if (fileSize == UploadProtocol.MAGIC) {
+			// a framed protocol, continue with the appropriate state machine
+			FramedSession framed = new FramedSession(server, worker, channel, key, transferBuffer, remoteAddress);
+			key.attach(framed);
+			framed.readable();
+			return;
+		}
+
+		if (fileSize < 0) {
+			throw new IOException("Invalid file size " + fileSize + ".");
+		}
+
+		announced = System.nanoTime();
+		file = server.getStore().createStagingFile();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		if (server.getReceiveMode() == ReceiveMode.TRANSFER) {
+			// pre-allocate the file, so the transfer fills it in place
+			raf.setLength(fileSize);
+		}
+
+		fileChannel = raf.getChannel();
+
+		server.log("Writing " + fileSize + " Bytes from " + remoteAddress + " to " + file.getName());
+		state = State.PAYLOAD;
+
+		if (fileSize == 0) {
+			complete();
+		}
+	}
+
+	private void readPayload() throws IOException {
+		received += receive(fileChannel, received, fileSize - received, digest);
+		if (received >= fileSize) {
+			complete();
+		}
+	}
+
+	private void complete() throws IOException {
+		fileChannel.close();
+		fileChannel = null;
+
+		// nothing more expected from the client until the file is stored
+		state = State.STORE;
+		key.interestOps(0);
+		server.getStore().store(file, digest, "", new UploadStore.StoreCallback() {
+			@Override
+			public void stored(final String name) {
+				execute(new Task() {
+					@Override
+					public void run() throws IOException {
+						storedName = name;
+						server.getMetrics().uploadStored(received, announced);
+						acknowledge(UploadProtocol.ACKNOWLEDGE);
+					}
+				});
+			}
+
+			@Override
+			public void failed(final IOException ex) {
+				execute(new Task() {
+					@Override
+					public void run() throws IOException {
+						// the client gets to know that the file needs to be sent again
+						System.err.println("Failed to store " + received + " Bytes from " + remoteAddress + " " + ex.getMessage());
+						server.getMetrics().uploadFailed();
+						acknowledge(UploadProtocol.FAILED);
+					}
+				});
+			}
+
+			@Override
+			public void rejected(final IOException ex) {
+				execute(new Task() {
+					@Override
+					public void run() throws IOException {
+						// sending the same file again does not help
+						System.err.println("Rejected " + received + " Bytes from " + remoteAddress + " " + ex.getMessage());
+						server.getMetrics().uploadFailed();
+						acknowledge(UploadProtocol.REJECTED);
+					}
+				});
+			}
+		});
+	}
+
+	private void acknowledge(byte status) throws IOException {
+		acknowledgeBuffer = ByteBuffer.wrap(new byte[] { status });
+		state = State.ACKNOWLEDGE;
+		key.interestOps(SelectionKey.OP_WRITE);
+		onWritable();
+	}
+}
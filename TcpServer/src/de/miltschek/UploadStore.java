@@ -0,0 +1,451 @@
+package de.miltschek;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed storage of the received files.
+ * Each distinct content is stored once, named by its SHA-256 in a two level directory tree
+ * ('blobs/ab/cd/abcd...ef.bin'), so a repeated upload costs no space and no directory gets too large.
+ * Incoming data is collected in the 'partial' sub-directory first and moved to its final location after completion
+ * and validation.
+ * An append-only index ('blobs.idx') remembers each stored content with its activity start time and upload time
+ * and the file ids it has been uploaded with, one line per upload: SHA-256, size, CRC-32, start time RTC,
+ * start time ns, upload time and file id separated by tabs.
+ * How far a stored file is guaranteed to survive a power failure depends on the {@link DurabilityMode}.
+ * Thread safe.
+ */
+class UploadStore {
+	private static final String INDEX_FILE = "blobs.idx";
+	private static final String BLOB_DIRECTORY = "blobs";
+	private static final String PARTIAL_DIRECTORY = "partial";
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Receiver of the outcome of storing a file. Called on the thread storing the file.
+	 */
+	interface StoreCallback {
+		/**
+		 * Called after the file has been stored.
+		 * @param storedName name of the stored file, relative to the storage directory
+		 */
+		void stored(String storedName);
+
+		/**
+		 * Called if the file could not be stored; sending it again may succeed.
+		 * @param ex the reason
+		 */
+		void failed(IOException ex);
+
+		/**
+		 * Called if the file is not a valid recording; it has been discarded.
+		 * @param ex the reason
+		 */
+		void rejected(IOException ex);
+	}
+
+	/**
+	 * A validated file waiting to be committed.
+	 */
+	static class PendingCommit {
+		final File file;
+		final ContentDigest digest;
+		final String fileId;
+		final StoreCallback callback;
+
+		PendingCommit(File file, ContentDigest digest, String fileId, StoreCallback callback) {
+			this.file = file;
+			this.digest = digest;
+			this.fileId = fileId;
+			this.callback = callback;
+		}
+	}
+
+	/**
+	 * A content held by the storage.
+	 */
+	private static class Blob {
+		final String hash;
+		final long size;
+		final long crc32;
+		final long startTimestampRtc;
+		final long startNanoseconds;
+		final long uploadTime;
+
+		Blob(String hash, long size, long crc32, long startTimestampRtc, long startNanoseconds, long uploadTime) {
+			this.hash = hash;
+			this.size = size;
+			this.crc32 = crc32;
+			this.startTimestampRtc = startTimestampRtc;
+			this.startNanoseconds = startNanoseconds;
+			this.uploadTime = uploadTime;
+		}
+
+		String getStoredName() {
+			return BLOB_DIRECTORY + "/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + ".bin";
+		}
+	}
+
+	private final File directory;
+	private final File partialDirectory;
+	private final AtomicLong lastFileTimestamp = new AtomicLong();
+	private final Map<String, Blob> blobs = new HashMap<>();
+	private final Map<String, Blob> blobsById = new HashMap<>();
+	private final Map<String, ResumableUpload> active = new HashMap<>();
+	private final FileOutputStream indexStream;
+	private final Writer index;
+	private DurabilityMode durabilityMode = DurabilityMode.NONE;
+	private GroupCommitter committer;
+
+	/**
+	 * Opens the storage in the given directory.
+	 * @param directory directory for the received files
+	 * @throws IOException if the index could not be read or opened for writing
+	 */
+	UploadStore(File directory) throws IOException {
+		this.directory = directory;
+		this.partialDirectory = new File(directory, PARTIAL_DIRECTORY);
+
+		File indexFile = new File(directory, INDEX_FILE);
+		if (indexFile.exists()) {
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = br.readLine()) != null) {
+					String[] parts = line.split("\t", 7);
+					if (parts.length == 7) {
+						Blob blob = blobs.get(parts[0]);
+						if (blob == null) {
+							blob = new Blob(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2], 16),
+									Long.parseLong(parts[3]), Long.parseLong(parts[4]), Long.parseLong(parts[5]));
+							blobs.put(blob.hash, blob);
+						}
+
+						if (!parts[6].isEmpty()) {
+							blobsById.put(key(parts[6], blob.size), blob);
+						}
+					}
+				}
+			}
+		}
+
+		this.indexStream = new FileOutputStream(indexFile, true);
+		this.index = new OutputStreamWriter(indexStream, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Creates a new, unique file collecting an upload without a file id (protocol version 1).
+	 * The files are named upload_&lt;TIMESTAMP&gt;.part; the timestamp is increased artificially
+	 * if more than one upload starts within the same millisecond.
+	 * @return staging file
+	 */
+	File createStagingFile() {
+		long now = System.currentTimeMillis();
+		long timestamp;
+		long last;
+		do {
+			last = lastFileTimestamp.get();
+			timestamp = Math.max(now, last + 1);
+		} while (!lastFileTimestamp.compareAndSet(last, timestamp));
+
+		partialDirectory.mkdirs();
+		return new File(partialDirectory, "upload_" + timestamp + ".part");
+	}
+
+	/**
+	 * Opens a resumable upload. If another connection is still uploading the same file,
+	 * it gets superseded by the new one.
+	 * A file counts as received before if a file of the same id and size has been received and, with a known checksum,
+	 * if its CRC-32 matches, too. A CRC-32 is too weak to identify a content on its own, so a file held under another id
+	 * gets received again and is deduplicated by its SHA-256 when stored.
+	 * @param fileId client's identifier of the file
+	 * @param size total size of the file in bytes
+	 * @param checksum CRC-32 of the content or -1 if unknown
+	 * @return the upload; already complete if the file has been received before
+	 * @throws IOException if the partial file could not be opened
+	 */
+	ResumableUpload open(String fileId, long size, long checksum) throws IOException {
+		String key = key(fileId, size);
+		synchronized (this) {
+			Blob blob = blobsById.get(key);
+			if (blob != null && (checksum < 0 || checksum == blob.crc32)) {
+				return new ResumableUpload(fileId, size, blob.getStoredName());
+			}
+
+			ResumableUpload previous = active.remove(key);
+			if (previous != null) {
+				previous.supersede();
+			}
+		}
+
+		partialDirectory.mkdirs();
+		File partial = new File(partialDirectory, partialName(fileId, size));
+		RandomAccessFile raf = new RandomAccessFile(partial, "rw");
+		ContentDigest digest = new ContentDigest();
+		try {
+			if (raf.length() > size) {
+				raf.setLength(size);
+			}
+
+			// the data held already is part of the content, too; hashed outside of the lock,
+			// so a large partial file does not hold up the connections of the other workers
+			digest.update(raf.getChannel(), 0, raf.length(), ByteBuffer.allocate(HASH_BUFFER_SIZE));
+		} catch (IOException ex) {
+			raf.close();
+			throw ex;
+		}
+
+		ResumableUpload upload = new ResumableUpload(fileId, size, partial, raf.getChannel(), raf.length(), digest);
+		upload.setChecksum(checksum);
+		synchronized (this) {
+			// another connection may have opened the same file meanwhile
+			ResumableUpload previous = active.put(key, upload);
+			if (previous != null) {
+				previous.supersede();
+			}
+		}
+
+		return upload;
+	}
+
+	/**
+	 * Moves a completely received file to its final location and remembers it, see {@link #store}.
+	 * If the client announced a checksum that does not match the received content (e.g. a partial file
+	 * of a previous version of the file has been resumed), the partial file is discarded,
+	 * so the next attempt starts from scratch.
+	 * @param upload a complete upload
+	 * @param callback receiver of the outcome
+	 */
+	void complete(ResumableUpload upload, StoreCallback callback) {
+		release(upload);
+
+		ContentDigest digest = upload.getDigest();
+		if (upload.getChecksum() >= 0 && upload.getChecksum() != digest.getCrc32()) {
+			upload.getPartialFile().delete();
+			callback.failed(new IOException("Checksum mismatch, expected " + Long.toHexString(upload.getChecksum()) + " but received " + Long.toHexString(digest.getCrc32()) + "."));
+			return;
+		}
+
+		store(upload.getPartialFile(), digest, upload.getFileId(), callback);
+	}
+
+	/**
+	 * Moves a completely received file to its final location, unless the same content is stored already,
+	 * and remembers it. A file that is not a valid recording gets discarded and rejected.
+	 * Depending on the durability mode, the callback is called before this method returns
+	 * or later on the thread of the {@link GroupCommitter}.
+	 * @param file the received file; it is gone afterwards
+	 * @param digest digest of the whole content of the file
+	 * @param fileId client's identifier of the file or an empty string if unknown
+	 * @param callback receiver of the outcome
+	 */
+	void store(File file, ContentDigest digest, String fileId, StoreCallback callback) {
+		try {
+			digest.getValidator().finish();
+		} catch (IOException ex) {
+			file.delete();
+			callback.rejected(ex);
+			return;
+		}
+
+		PendingCommit commit = new PendingCommit(file, digest, fileId, callback);
+		if (committer != null) {
+			committer.submit(commit);
+		} else {
+			commit(Collections.singletonList(commit));
+		}
+	}
+
+	/**
+	 * Moves validated files to their final locations and remembers them. Unless the durability mode is
+	 * {@link DurabilityMode#NONE}, the files, the directories and the index are forced to the disk before
+	 * the callbacks get called, with a single flush of each directory and of the index for all the files.
+	 * @param group files to be committed
+	 */
+	void commit(List<PendingCommit> group) {
+		boolean durable = durabilityMode != DurabilityMode.NONE;
+		String[] storedNames = new String[group.size()];
+		IOException[] errors = new IOException[group.size()];
+		Set<File> directories = new HashSet<>();
+
+		if (durable) {
+			for (int n = 0; n < group.size(); n++) {
+				try {
+					force(group.get(n).file);
+				} catch (IOException ex) {
+					errors[n] = ex;
+				}
+			}
+		}
+
+		synchronized (this) {
+			for (int n = 0; n < group.size(); n++) {
+				if (errors[n] == null) {
+					try {
+						storedNames[n] = place(group.get(n), directories);
+					} catch (IOException ex) {
+						errors[n] = ex;
+					}
+				}
+			}
+		}
+
+		if (durable) {
+			try {
+				indexStream.getFD().sync();
+				for (File directory : directories) {
+					forceDirectory(directory);
+				}
+			} catch (IOException ex) {
+				// nothing of the group is guaranteed to be durable
+				Arrays.fill(errors, ex);
+			}
+		}
+
+		for (int n = 0; n < group.size(); n++) {
+			if (errors[n] == null) {
+				group.get(n).callback.stored(storedNames[n]);
+			} else {
+				group.get(n).callback.failed(errors[n]);
+			}
+		}
+	}
+
+	private String place(PendingCommit commit, Set<File> directories) throws IOException {
+		RecordingValidator validator = commit.digest.getValidator();
+		String hash = commit.digest.finishSha256();
+		Blob blob = blobs.get(hash);
+		if (blob == null) {
+			blob = new Blob(hash, commit.digest.getLength(), commit.digest.getCrc32(), validator.getStartTimestampRtc(), validator.getStartNanoseconds(), System.currentTimeMillis());
+
+			File target = new File(directory, blob.getStoredName());
+			File parent = target.getParentFile();
+			if (!parent.exists()) {
+				parent.mkdirs();
+				// new entries of the shard directories
+				directories.add(parent.getParentFile());
+				directories.add(parent.getParentFile().getParentFile());
+			}
+
+			if (target.exists()) {
+				// stored before, but not remembered (e.g. crash before writing the index)
+				commit.file.delete();
+			} else if (!commit.file.renameTo(target)) {
+				throw new IOException("Failed to move " + commit.file + " to " + target + ".");
+			}
+
+			directories.add(parent);
+			blobs.put(hash, blob);
+		} else {
+			// a duplicate, the content is stored already
+			commit.file.delete();
+		}
+
+		if (!commit.fileId.isEmpty()) {
+			blobsById.put(key(commit.fileId, blob.size), blob);
+		}
+
+		index.write(blob.hash + "\t" + blob.size + "\t" + Long.toHexString(blob.crc32) + "\t"
+				+ blob.startTimestampRtc + "\t" + blob.startNanoseconds + "\t" + blob.uploadTime + "\t" + commit.fileId + "\n");
+		index.flush();
+
+		return blob.getStoredName();
+	}
+
+	/**
+	 * Closes an incomplete upload; the partial file is kept for a later resumption.
+	 * @param upload upload to be closed
+	 */
+	synchronized void release(ResumableUpload upload) {
+		upload.closeFile();
+		active.remove(key(upload.getFileId(), upload.getSize()), upload);
+	}
+
+	/**
+	 * Sets the guarantees given by a successful {@link #store}. To be called before any file is stored.
+	 * @param durabilityMode durability mode
+	 * @param groupCommitIntervalMs time to collect files for a group commit
+	 */
+	void setDurabilityMode(DurabilityMode durabilityMode, long groupCommitIntervalMs) {
+		this.durabilityMode = durabilityMode;
+		if (durabilityMode == DurabilityMode.GROUP_COMMIT) {
+			committer = new GroupCommitter(this, groupCommitIntervalMs, Integer.MAX_VALUE);
+		} else if (durabilityMode == DurabilityMode.FSYNC) {
+			// the flushes of each file one after another, but not on the workers
+			committer = new GroupCommitter(this, 0, 1);
+		}
+
+		if (committer != null) {
+			committer.start();
+		}
+	}
+
+	/**
+	 * Commits the pending files and closes the index.
+	 */
+	void close() {
+		if (committer != null) {
+			committer.close();
+		}
+
+		synchronized (this) {
+			try {
+				index.close();
+			} catch (IOException ex) {}
+		}
+	}
+
+	/**
+	 * Forces the content of a file to the disk.
+	 * The file has been closed already; a flush of any descriptor of a file covers all of its data.
+	 */
+	private static void force(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Forces the entries of a directory to the disk, as far as supported by the platform.
+	 */
+	private static void forceDirectory(File directory) {
+		try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException ex) {
+			// directories cannot be opened on some platforms (e.g. Windows), nothing to do there
+		}
+	}
+
+	private static String key(String fileId, long size) {
+		return size + "\t" + fileId;
+	}
+
+	private static String partialName(String fileId, long size) {
+		StringBuilder sb = new StringBuilder();
+		for (int n = 0; n < fileId.length() && sb.length() < 64; n++) {
+			char c = fileId.charAt(n);
+			sb.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+		}
+
+		// the hash keeps ids apart that differ in the replaced characters only
+		return sb + "_" + Integer.toHexString(fileId.hashCode()) + "_" + size + ".part";
+	}
+}
@@ -0,0 +1,252 @@
+package de.miltschek;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import de.miltschek.tracker.UploadProtocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Framed protocol (version 2) and version 1 uploads to an in-process server over the loopback interface.
+ */
+class FramedSessionTest {
+	private static final int TIMEOUT_MS = 10_000;
+
+	private File directory;
+	private IngestionServer server;
+
+	/**
+	 * Blocking connection speaking the framed protocol.
+	 */
+	private class Connection implements AutoCloseable {
+		final Socket socket;
+		final DataOutputStream out;
+		final DataInputStream in;
+
+		Connection() throws IOException {
+			socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+			socket.setSoTimeout(TIMEOUT_MS);
+			out = new DataOutputStream(socket.getOutputStream());
+			in = new DataInputStream(socket.getInputStream());
+			out.writeInt(UploadProtocol.MAGIC);
+			out.writeByte(UploadProtocol.VERSION_RESUMABLE);
+		}
+
+		/**
+		 * Opens a file.
+		 * @return offset reported by the server
+		 */
+		long open(String fileId, int size) throws IOException {
+			out.writeByte(UploadProtocol.FRAME_OPEN);
+			writeId(fileId);
+			out.writeLong(size);
+			out.flush();
+			assertEquals(UploadProtocol.FRAME_RESUME, in.readByte());
+			return in.readLong();
+		}
+
+		void writeId(String fileId) throws IOException {
+			byte[] id = fileId.getBytes(StandardCharsets.UTF_8);
+			out.writeShort(id.length);
+			out.write(id);
+		}
+
+		void data(byte[] content, int offset, int end) throws IOException {
+			out.writeByte(UploadProtocol.FRAME_DATA);
+			out.writeLong(offset);
+			out.writeInt(end - offset);
+			out.write(content, offset, end - offset);
+			out.flush();
+		}
+
+		/**
+		 * Waits for the confirmation of the opened file.
+		 * @return status
+		 */
+		byte complete() throws IOException {
+			assertEquals(UploadProtocol.FRAME_COMPLETE, in.readByte());
+			return in.readByte();
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	@BeforeEach
+	void startServer() throws IOException {
+		directory = Files.createTempDirectory("ingestion").toFile();
+		server = new IngestionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2, directory);
+		server.setVerbose(false);
+		server.setSummaryInterval(0);
+		server.setDurabilityMode(DurabilityMode.NONE);
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() throws Exception {
+		server.close();
+		server.join();
+		// deepest first
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	private static byte[] createRecording(long startTimestampRtc) {
+		return SyntheticRecording.create(200_000, startTimestampRtc, new Random(startTimestampRtc));
+	}
+
+	/**
+	 * Waits until the server holds the given number of bytes of partial files.
+	 */
+	private void awaitPartialLength(long length) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		long held;
+		do {
+			Thread.sleep(10);
+			try (Stream<Path> paths = Files.walk(new File(directory, "partial").toPath())) {
+				held = paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+			}
+		} while (held < length && System.currentTimeMillis() < deadline);
+
+		assertEquals(length, held);
+	}
+
+	@Test
+	void uploadInChunks() throws IOException {
+		byte[] content = createRecording(1);
+		try (Connection connection = new Connection()) {
+			assertEquals(0, connection.open("data_1.bin", content.length));
+			for (int offset = 0; offset < content.length; offset += 30_000) {
+				connection.data(content, offset, Math.min(content.length, offset + 30_000));
+			}
+
+			assertEquals(UploadProtocol.ACKNOWLEDGE, connection.complete());
+
+			// received before: the full size and an immediate confirmation
+			assertEquals(content.length, connection.open("data_1.bin", content.length));
+			assertEquals(UploadProtocol.ACKNOWLEDGE, connection.complete());
+		}
+	}
+
+	@Test
+	void resumeAfterDroppedConnection() throws Exception {
+		byte[] content = createRecording(1);
+		try (Connection connection = new Connection()) {
+			connection.open("data_1.bin", content.length);
+			// the announced chunk is cut short
+			connection.out.writeByte(UploadProtocol.FRAME_DATA);
+			connection.out.writeLong(0);
+			connection.out.writeInt(100_000);
+			connection.out.write(content, 0, 60_000);
+			connection.out.flush();
+			awaitPartialLength(60_000);
+		}
+
+		try (Connection connection = new Connection()) {
+			assertEquals(60_000, connection.open("data_1.bin", content.length));
+			connection.data(content, 60_000, content.length);
+			assertEquals(UploadProtocol.ACKNOWLEDGE, connection.complete());
+		}
+	}
+
+	@Test
+	void deltaManifest() throws IOException {
+		byte[][] contents = { createRecording(1), createRecording(2), createRecording(3) };
+		long[] checksums = new long[contents.length];
+		for (int n = 0; n < contents.length; n++) {
+			CRC32 crc32 = new CRC32();
+			crc32.update(contents[n]);
+			checksums[n] = crc32.getValue();
+		}
+
+		try (Connection connection = new Connection()) {
+			connection.open("data_1.bin", contents[1].length);
+			connection.data(contents[1], 0, contents[1].length);
+			assertEquals(UploadProtocol.ACKNOWLEDGE, connection.complete());
+
+			connection.out.writeByte(UploadProtocol.FRAME_DELTA_MANIFEST);
+			connection.out.writeShort(contents.length);
+			for (int n = 0; n < contents.length; n++) {
+				connection.writeId("data_" + n + ".bin");
+				connection.out.writeLong(contents[n].length);
+				connection.out.writeInt((int)checksums[n]);
+			}
+			connection.out.flush();
+
+			// the file held already is left out
+			assertEquals(UploadProtocol.FRAME_MISSING, connection.in.readByte());
+			assertEquals(2, connection.in.readShort());
+			for (int n : new int[] { 0, 2 }) {
+				assertEquals(n, connection.in.readShort());
+				assertEquals(0, connection.in.readLong());
+			}
+
+			// both files sent without waiting, the second one corrupt
+			contents[2][contents[2].length / 2] ^= 1;
+			for (int n : new int[] { 0, 2 }) {
+				connection.out.writeByte(UploadProtocol.FRAME_INDEXED_DATA);
+				connection.out.writeShort(n);
+				connection.out.writeLong(0);
+				connection.out.writeInt(contents[n].length);
+				connection.out.write(contents[n]);
+			}
+			connection.out.flush();
+
+			for (int n = 0; n < 2; n++) {
+				assertEquals(UploadProtocol.FRAME_FILE_COMPLETE, connection.in.readByte());
+				short index = connection.in.readShort();
+				byte status = connection.in.readByte();
+				// the announced checksum does not match the corrupt file
+				assertEquals(index == 0 ? UploadProtocol.ACKNOWLEDGE : UploadProtocol.FAILED, status, "file " + index);
+			}
+		}
+	}
+
+	@Test
+	void invalidRecordingRejected() throws IOException {
+		byte[] content = createRecording(1);
+		// not a recording of the app
+		content[0] = 'P';
+		try (Connection connection = new Connection()) {
+			connection.open("data_1.bin", content.length);
+			connection.data(content, 0, content.length);
+			assertEquals(UploadProtocol.REJECTED, connection.complete());
+		}
+
+		// the same by protocol version 1
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			socket.setSoTimeout(TIMEOUT_MS);
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(content.length);
+			out.write(content);
+			out.flush();
+			assertEquals(UploadProtocol.REJECTED, socket.getInputStream().read());
+		}
+
+		assertTrue(!new File(directory, "blobs").exists());
+	}
+}
@@ -0,0 +1,245 @@
+package de.miltschek;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import de.miltschek.tracker.EventBlock;
+import de.miltschek.tracker.FileItem;
+import de.miltschek.tracker.RecordingIndex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RecordingValidatorTest {
+	private static final long START_TIMESTAMP_RTC = 1_588_888_888_000L;
+	// header and version
+	private static final int FIRST_FIELD = FileItem.HEADER.length + 2;
+	// start indicator, length, id and a long value
+	private static final int START_TIME_FIELD_LENGTH = 1 + 4 + 2 + 8;
+	private static final int END_FIELD_LENGTH = 1 + 4 + 2;
+
+	private static byte[] createRecording(int size) {
+		return SyntheticRecording.create(size, START_TIMESTAMP_RTC, new Random(size));
+	}
+
+	/**
+	 * Creates a recording of version 3: checked blocks of random data of the given lengths, the footer
+	 * and the end of file marker.
+	 * @param blockLengths lengths of the data of the blocks, without the checksum
+	 * @param blockOffsets receives the offsets of the blocks
+	 */
+	private static byte[] createCheckedRecording(int[] blockLengths, int[] blockOffsets) throws IOException {
+		Random random = new Random(blockLengths.length);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.write(FileItem.HEADER);
+		dos.writeShort(FileItem.VERSION);
+		dos.writeByte('#');
+		dos.writeInt(2 + 8);
+		dos.writeShort(0x1001);
+		dos.writeLong(START_TIMESTAMP_RTC);
+		for (int n = 0; n < blockLengths.length; n++) {
+			byte[] data = new byte[blockLengths[n]];
+			random.nextBytes(data);
+			blockOffsets[n] = dos.size();
+			ByteBuffer field = ByteBuffer.allocate(1 + 4 + 2 + data.length + 4);
+			field.put((byte)'#').putInt(2 + data.length + 4).putShort((short)(EventBlock.GEO | EventBlock.CHECKED)).put(data);
+			CRC32C crc32c = new CRC32C();
+			crc32c.update(field.array(), 0, field.position());
+			field.putInt((int)crc32c.getValue());
+			dos.write(field.array());
+		}
+
+		dos.writeByte('#');
+		dos.writeInt(2 + 8);
+		dos.writeShort(RecordingIndex.FOOTER);
+		dos.writeLong(0);
+		dos.writeByte('#');
+		dos.writeInt(2);
+		dos.writeShort(0xffff);
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Feeds a recording in chunks of random sizes through a direct buffer, the way it arrives from the socket.
+	 * The chunks start behind the beginning of the buffer, the bytes before the position must be ignored.
+	 * @param maxChunk largest chunk
+	 * @return the validator
+	 */
+	private static RecordingValidator feed(byte[] recording, Random random, int maxChunk) {
+		RecordingValidator validator = new RecordingValidator();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(maxChunk + 3);
+		for (int offset = 0; offset < recording.length; ) {
+			int length = Math.min(recording.length - offset, 1 + random.nextInt(maxChunk));
+			buffer.clear();
+			buffer.put(new byte[] { '#', 0, 0 });
+			buffer.put(recording, offset, length);
+			buffer.flip();
+			buffer.position(3);
+			validator.update(buffer);
+			assertEquals(3, buffer.position());
+			offset += length;
+		}
+
+		return validator;
+	}
+
+	/**
+	 * Validates a recording fed at once.
+	 * @return the error or null if valid
+	 */
+	private static String validate(byte[] recording) {
+		RecordingValidator validator = new RecordingValidator();
+		validator.update(ByteBuffer.wrap(recording));
+		return getError(validator);
+	}
+
+	private static String getError(RecordingValidator validator) {
+		try {
+			validator.finish();
+			return null;
+		} catch (IOException ex) {
+			return ex.getMessage();
+		}
+	}
+
+	@Test
+	void validRecording() {
+		byte[] recording = createRecording(64 * 1024);
+		Random random = new Random(1);
+		for (int maxChunk : new int[] { 1, 2, 7, 100, 4096, recording.length }) {
+			RecordingValidator validator = feed(recording, random, maxChunk);
+			assertNull(getError(validator), "chunks up to " + maxChunk);
+			assertEquals(START_TIMESTAMP_RTC, validator.getStartTimestampRtc());
+			assertEquals(1_000_000_000L, validator.getStartNanoseconds());
+		}
+	}
+
+	@Test
+	void truncatedRecording() {
+		byte[] recording = createRecording(500);
+		for (int length = 0; length < recording.length; length++) {
+			assertEquals("Premature end of file after " + length + " Bytes.", validate(Arrays.copyOf(recording, length)));
+		}
+	}
+
+	@Test
+	void missingEndOfFileMarker() {
+		byte[] recording = createRecording(500);
+		int length = recording.length - END_FIELD_LENGTH;
+		assertEquals("Premature end of file after " + length + " Bytes.", validate(Arrays.copyOf(recording, length)));
+	}
+
+	@Test
+	void dataAfterEndOfFileMarker() {
+		byte[] recording = createRecording(500);
+		assertEquals("Data after the end of file marker at offset " + recording.length + ".", validate(Arrays.copyOf(recording, recording.length + 1)));
+	}
+
+	@Test
+	void wrongHeader() {
+		byte[] recording = createRecording(500);
+		recording[2] = 'm';
+		assertEquals("Unknown file format.", validate(recording));
+		assertEquals("Unknown file format.", validate(new byte[] { 'P', 'K', 3, 4 }));
+	}
+
+	@Test
+	void unsupportedVersion() {
+		byte[] recording = createRecording(500);
+		for (int version : new int[] { 0, FileItem.MIN_VERSION - 1, FileItem.VERSION + 1, 0x7fff }) {
+			ByteBuffer.wrap(recording).putShort(FileItem.HEADER.length, (short)version);
+			assertEquals("Unsupported version no. " + version + ".", validate(recording));
+		}
+	}
+
+	@Test
+	void missingStartIndicator() {
+		byte[] recording = createRecording(500);
+		int second = FIRST_FIELD + START_TIME_FIELD_LENGTH;
+		recording[second] = '$';
+		assertEquals("Beginning of a field not found at offset " + second + ".", validate(recording));
+	}
+
+	@Test
+	void wrongLengthOfKnownField() {
+		byte[] recording = createRecording(500);
+		// start time RTC with 4 instead of 8 bytes of data, the remaining 4 bytes taken for the next field
+		ByteBuffer.wrap(recording).putInt(FIRST_FIELD + 1, 2 + 4);
+		assertEquals("Invalid length 4 of the field 0x1001 at offset " + (FIRST_FIELD + 1 + 4 + 1) + ".", validate(recording));
+
+		ByteBuffer.wrap(recording).putInt(FIRST_FIELD + 1, 1);
+		assertEquals("Invalid field length 1 at offset " + (FIRST_FIELD + 4) + ".", validate(recording));
+	}
+
+	@Test
+	void unknownFieldsOfAnyLength() {
+		byte[] recording = createRecording(500);
+		// the first field turned into an unknown one
+		ByteBuffer.wrap(recording).putShort(FIRST_FIELD + 1 + 4, (short)0x1fff);
+		assertNull(validate(recording));
+	}
+
+	@Test
+	void sameOutcomeForAnySplit() {
+		byte[] recording = createRecording(2000);
+		Random random = new Random(2);
+		for (int n = 0; n < 200; n++) {
+			byte[] corrupt = recording.clone();
+			if (n > 0) {
+				corrupt[random.nextInt(corrupt.length)] ^= 1 << random.nextInt(8);
+			}
+
+			String expected = validate(corrupt);
+			for (int maxChunk : new int[] { 1, 3, 16, 333 }) {
+				assertEquals(expected, getError(feed(corrupt, random, maxChunk)), "variant " + n + ", chunks up to " + maxChunk);
+			}
+		}
+	}
+
+	@Test
+	void checkedBlocks() throws IOException {
+		int[] blockLengths = { 20_000, 0, 1, 4, 5, 70_000, 3 };
+		int[] blockOffsets = new int[blockLengths.length];
+		byte[] recording = createCheckedRecording(blockLengths, blockOffsets);
+		Random random = new Random(3);
+		for (int maxChunk : new int[] { 1, 5, 4096, recording.length }) {
+			RecordingValidator validator = feed(recording, random, maxChunk);
+			assertNull(getError(validator), "chunks up to " + maxChunk);
+			assertEquals(START_TIMESTAMP_RTC, validator.getStartTimestampRtc());
+		}
+
+		// a flipped bit in the data or in the checksum of any block
+		for (int n = 0; n < blockLengths.length; n++) {
+			int fieldLength = 1 + 4 + 2 + blockLengths[n] + 4;
+			for (int position : new int[] { 1 + 4 + 2, fieldLength - 5, fieldLength - 4, fieldLength - 1 }) {
+				if (position < 1 + 4 + 2) {
+					// no data
+					continue;
+				}
+
+				byte[] corrupt = recording.clone();
+				corrupt[blockOffsets[n] + position] ^= 0x08;
+				String expected = "Checksum mismatch of the field 0x" + Integer.toHexString(EventBlock.GEO | EventBlock.CHECKED) + " at offset " + blockOffsets[n] + ".";
+				assertEquals(expected, validate(corrupt), "block " + n + ", byte " + position);
+				assertEquals(expected, getError(feed(corrupt, random, 7)), "block " + n + ", byte " + position);
+			}
+		}
+	}
+
+	@Test
+	void checkedBlockTooShort() throws IOException {
+		byte[] recording = createCheckedRecording(new int[] { 10 }, new int[1]);
+		int offset = FIRST_FIELD + START_TIME_FIELD_LENGTH;
+		// a checked block without room for the checksum
+		ByteBuffer.wrap(recording).putInt(offset + 1, 2 + 3);
+		assertEquals("Invalid length 3 of the field 0x" + Integer.toHexString(EventBlock.GEO | EventBlock.CHECKED) + " at offset " + (offset + 1 + 4 + 1) + ".", validate(recording));
+	}
+}
@@ -0,0 +1,214 @@
+package de.miltschek;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadStoreTest {
+	private File directory;
+	private UploadStore store;
+
+	/**
+	 * Outcome of storing a file, reported synchronously without a durability mode.
+	 */
+	private static class Outcome implements UploadStore.StoreCallback {
+		String storedName;
+		IOException failure;
+		IOException rejection;
+
+		@Override
+		public void stored(String storedName) {
+			this.storedName = storedName;
+		}
+
+		@Override
+		public void failed(IOException ex) {
+			this.failure = ex;
+		}
+
+		@Override
+		public void rejected(IOException ex) {
+			this.rejection = ex;
+		}
+	}
+
+	@BeforeEach
+	void openStore() throws IOException {
+		directory = Files.createTempDirectory("store").toFile();
+		store = new UploadStore(directory);
+	}
+
+	@AfterEach
+	void deleteStore() throws IOException {
+		store.close();
+		// deepest first
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	private static byte[] createRecording(long startTimestampRtc) {
+		return SyntheticRecording.create(100_000, startTimestampRtc, new Random(startTimestampRtc));
+	}
+
+	private static long crc32(byte[] content) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(content);
+		return crc32.getValue();
+	}
+
+	/**
+	 * Appends a part of the content to an upload the way a session does.
+	 */
+	private static void append(ResumableUpload upload, byte[] content, int end) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(content, (int)upload.getOffset(), end - (int)upload.getOffset());
+		upload.getDigest().update(buffer);
+		while (buffer.hasRemaining()) {
+			upload.advance(upload.getChannel().write(buffer, upload.getOffset()));
+		}
+	}
+
+	private Outcome upload(String fileId, byte[] content, long checksum) throws IOException {
+		ResumableUpload upload = store.open(fileId, content.length, checksum);
+		assertFalse(upload.isComplete());
+		append(upload, content, content.length);
+		Outcome outcome = new Outcome();
+		store.complete(upload, outcome);
+		return outcome;
+	}
+
+	private List<File> listFiles(String subDirectory) throws IOException {
+		File root = new File(directory, subDirectory);
+		if (!root.exists()) {
+			return Collections.emptyList();
+		}
+
+		try (Stream<Path> paths = Files.walk(root.toPath())) {
+			return paths.filter(Files::isRegularFile).map(Path::toFile).collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	void sameContentStoredOnce() throws IOException {
+		byte[] content = createRecording(1);
+		Outcome first = upload("data_1.bin", content, crc32(content));
+		Outcome second = upload("data_2.bin", content, -1);
+		Outcome other = upload("data_3.bin", createRecording(2), -1);
+
+		assertNotNull(first.storedName);
+		assertEquals(first.storedName, second.storedName);
+		assertFalse(first.storedName.equals(other.storedName));
+		assertArrayEquals(content, Files.readAllBytes(new File(directory, first.storedName).toPath()));
+		assertEquals(2, listFiles("blobs").size());
+		assertTrue(listFiles("partial").isEmpty());
+		// one line per upload
+		assertEquals(3, Files.readAllLines(new File(directory, "blobs.idx").toPath()).size());
+	}
+
+	@Test
+	void storedFileRecognized() throws IOException {
+		byte[] content = createRecording(1);
+		long crc32 = crc32(content);
+		String storedName = upload("data_1.bin", content, crc32).storedName;
+
+		for (long checksum : new long[] { crc32, -1 }) {
+			ResumableUpload upload = store.open("data_1.bin", content.length, checksum);
+			assertTrue(upload.isComplete());
+			assertEquals(storedName, upload.getStoredName());
+		}
+
+		// a changed file of the same size and a stored content under another id are received again
+		assertFalse(store.open("data_1.bin", content.length, crc32 ^ 1).isComplete());
+		assertFalse(store.open("data_2.bin", content.length, crc32).isComplete());
+
+		// remembered by the index
+		UploadStore reopened = new UploadStore(directory);
+		try {
+			assertEquals(storedName, reopened.open("data_1.bin", content.length, crc32).getStoredName());
+		} finally {
+			reopened.close();
+		}
+	}
+
+	@Test
+	void resumeAtTheOffsetHeld() throws IOException {
+		byte[] content = createRecording(1);
+		ResumableUpload upload = store.open("data_1.bin", content.length, crc32(content));
+		append(upload, content, 40_000);
+		// the connection dropped
+		store.release(upload);
+
+		ResumableUpload resumed = store.open("data_1.bin", content.length, crc32(content));
+		assertEquals(40_000, resumed.getOffset());
+		append(resumed, content, content.length);
+		Outcome outcome = new Outcome();
+		store.complete(resumed, outcome);
+
+		assertNotNull(outcome.storedName);
+		assertArrayEquals(content, Files.readAllBytes(new File(directory, outcome.storedName).toPath()));
+		// named by the SHA-256 of the whole content, including the part held before
+		assertEquals(upload("data_2.bin", content, -1).storedName, outcome.storedName);
+	}
+
+	@Test
+	void supersededByAnotherConnection() throws IOException {
+		byte[] content = createRecording(1);
+		ResumableUpload upload = store.open("data_1.bin", content.length, -1);
+		append(upload, content, 1000);
+
+		ResumableUpload other = store.open("data_1.bin", content.length, -1);
+		assertEquals(1000, other.getOffset());
+		assertThrows(IOException.class, () -> upload.getChannel());
+		store.release(upload);
+		store.release(other);
+	}
+
+	@Test
+	void checksumMismatch() throws IOException {
+		byte[] content = createRecording(1);
+		Outcome outcome = upload("data_1.bin", content, crc32(content) ^ 1);
+
+		assertNull(outcome.storedName);
+		assertTrue(outcome.failure.getMessage().startsWith("Checksum mismatch"), outcome.failure.getMessage());
+		assertTrue(listFiles("blobs").isEmpty());
+		// the partial data is discarded, the next attempt starts from scratch
+		assertTrue(listFiles("partial").isEmpty());
+		assertEquals(0, store.open("data_1.bin", content.length, crc32(content)).getOffset());
+	}
+
+	@Test
+	void invalidRecordingRejected() throws IOException {
+		byte[] content = createRecording(1);
+		content[content.length - 1] ^= 1;
+		Outcome outcome = upload("data_1.bin", content, crc32(content));
+
+		assertNull(outcome.storedName);
+		assertNull(outcome.failure);
+		assertNotNull(outcome.rejection);
+		assertTrue(listFiles("blobs").isEmpty());
+		assertTrue(listFiles("partial").isEmpty());
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch mode of the {@link TrackerConverter}: converts recordings to KML and CSV files next to them,
+ * named as suggested by the dialogs (e.g. data.bin.kml and data.bin.csv), on a bounded pool of workers.
+ * Outputs newer than their recording are kept as they are. Each output is written to a temporary file first,
+ * so an interrupted run leaves no partial output behind that would be taken for an up-to-date one.
+ * Arguments: [--threads N] [--force] followed by any number of recordings, directories (searched recursively
+ * for *.bin and *.trk files) or glob patterns with forward slashes (e.g. "uploads/**&#47;data_*.bin", quoted
+ * to be expanded here rather than by the shell).
+ */
+public class BatchConverter {
+	private static final PathMatcher RECORDINGS = FileSystems.getDefault().getPathMatcher("glob:*.{bin,trk}");
+
+	private final int threads;
+	private final boolean force;
+	private final AtomicInteger converted = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder eventsWritten = new LongAdder();
+
+	/**
+	 * Creates a batch converter.
+	 * @param threads number of files converted in parallel
+	 * @param force true to convert up-to-date files, too
+	 */
+	public BatchConverter(int threads, boolean force) {
+		this.threads = threads;
+		this.force = force;
+	}
+
+	/**
+	 * Runs the batch mode with command line arguments and prints the report.
+	 * @param args arguments, see {@link BatchConverter}
+	 * @return exit code: 0 if all files have been converted or skipped, 1 if any failed or any input has not been found,
+	 * 2 for invalid arguments
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	public static int run(String[] args) throws InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean force = false;
+		List<String> inputs = new ArrayList<>();
+		for (int n = 0; n < args.length; n++) {
+			if (args[n].equals("--threads")) {
+				// a missing or invalid number is reported by the usage below
+				threads = n + 1 < args.length ? parseThreads(args[++n]) : 0;
+			} else if (args[n].equals("--force")) {
+				force = true;
+			} else {
+				inputs.add(args[n]);
+			}
+		}
+
+		if (inputs.isEmpty() || threads < 1) {
+			System.err.println("Usage: TrackerConverter --batch [--threads N] [--force] recordings, directories or globs...");
+			return 2;
+		}
+
+		Set<Path> files = new LinkedHashSet<>();
+		boolean missing = false;
+		for (String input : inputs) {
+			try {
+				files.addAll(resolve(input));
+			} catch (IOException | RuntimeException ex) {
+				System.err.println("Skipping " + input + ": " + ex.getMessage());
+				missing = true;
+			}
+		}
+
+		BatchConverter converter = new BatchConverter(threads, force);
+		long start = System.nanoTime();
+		converter.convertAll(files);
+		System.out.println(converter.getReport((System.nanoTime() - start) / 1e9));
+		return converter.failed.get() > 0 || missing ? 1 : 0;
+	}
+
+	private static int parseThreads(String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Finds the recordings given by a command line argument.
+	 * @param input path of a recording or a directory, or a glob pattern
+	 * @return the recordings
+	 * @throws IOException if not found or in case of an IO issue
+	 */
+	static List<Path> resolve(String input) throws IOException {
+		int firstWildcard = indexOfWildcard(input);
+		List<Path> files = new ArrayList<>();
+		if (firstWildcard < 0) {
+			Path path = Paths.get(input);
+			if (Files.isDirectory(path)) {
+				walk(path, RECORDINGS, true, files);
+			} else if (Files.isRegularFile(path)) {
+				files.add(path);
+			} else {
+				throw new IOException("Not found.");
+			}
+		} else {
+			// walk from the directory preceding the first wildcard, matching the whole path
+			int separator = input.lastIndexOf('/', firstWildcard);
+			Path base = Paths.get(separator < 0 ? "" : input.substring(0, separator + 1));
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+			if (Files.isDirectory(base)) {
+				walk(base, matcher, false, files);
+			}
+
+			if (files.isEmpty()) {
+				throw new IOException("No matching files.");
+			}
+		}
+
+		return files;
+	}
+
+	/**
+	 * Collects the files of a directory tree matching a pattern, sorted by their paths.
+	 * @param base the directory
+	 * @param matcher pattern
+	 * @param fileNameOnly true to match the file names only, false to match the whole paths
+	 * @param files target
+	 */
+	private static void walk(Path base, PathMatcher matcher, boolean fileNameOnly, List<Path> files) throws IOException {
+		int start = files.size();
+		try (Stream<Path> walk = Files.walk(base)) {
+			Iterator<Path> paths = walk.iterator();
+			while (paths.hasNext()) {
+				Path path = paths.next();
+				if (Files.isRegularFile(path) && matcher.matches(fileNameOnly ? path.getFileName() : path)) {
+					files.add(path);
+				}
+			}
+		}
+
+		Collections.sort(files.subList(start, files.size()));
+	}
+
+	private static int indexOfWildcard(String input) {
+		for (int n = 0; n < input.length(); n++) {
+			switch (input.charAt(n)) {
+				case '*':
+				case '?':
+				case '[':
+				case '{':
+					return n;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Converts all recordings on the pool of workers and waits for the end.
+	 * @param files the recordings
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void convertAll(Iterable<Path> files) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (Path file : files) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						convert(file.toFile());
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+
+	/**
+	 * Converts a single recording unless up to date. Failures are reported, not thrown.
+	 * @param inputFile the recording
+	 */
+	void convert(File inputFile) {
+		File kmlFile = new File(inputFile.getParentFile(), inputFile.getName() + ".kml");
+		File csvFile = new File(inputFile.getParentFile(), inputFile.getName() + ".csv");
+		if (!force && isUpToDate(inputFile, kmlFile) && isUpToDate(inputFile, csvFile)) {
+			skipped.incrementAndGet();
+			return;
+		}
+
+		File kmlTemp = new File(kmlFile.getPath() + ".tmp");
+		File csvTemp = new File(csvFile.getPath() + ".tmp");
+		try {
+			long startNanoseconds;
+			try (EventReader reader = new EventReader(inputFile)) {
+				startNanoseconds = reader.getSummary().getStartNanoseconds();
+			}
+
+			TrackerConverter.writeKml(inputFile, kmlTemp);
+			long events = TrackerConverter.writeCsv(inputFile, csvTemp, startNanoseconds);
+			Files.move(kmlTemp.toPath(), kmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(csvTemp.toPath(), csvFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			converted.incrementAndGet();
+			bytesRead.add(inputFile.length());
+			eventsWritten.add(events);
+		} catch (IOException | RuntimeException ex) {
+			failed.incrementAndGet();
+			kmlTemp.delete();
+			csvTemp.delete();
+			System.err.println("Failed to convert " + inputFile + ": " + ex.getMessage());
+		}
+	}
+
+	private static boolean isUpToDate(File inputFile, File outputFile) {
+		return outputFile.isFile() && outputFile.lastModified() >= inputFile.lastModified();
+	}
+
+	/**
+	 * Creates the summary of the conversions so far.
+	 * @param seconds duration of the conversions
+	 * @return single line report
+	 */
+	String getReport(double seconds) {
+		double duration = Math.max(1e-3, seconds);
+		return String.format(Locale.ROOT,
+				"%d file(s) converted, %d up to date, %d failed in %.1f s with %d thread(s): %.1f files/s, %.2f MB/s, %.0f events/s",
+				converted.get(), skipped.get(), failed.get(), seconds, threads,
+				converted.get() / duration, bytesRead.sum() / duration / 1024 / 1024, eventsWritten.sum() / duration);
+	}
+}
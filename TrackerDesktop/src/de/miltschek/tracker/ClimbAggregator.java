@@ -0,0 +1,66 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+/**
+ * Total ascent and descent of an altitude.
+ */
+public class ClimbAggregator implements Aggregator {
+	private boolean started;
+	private double lastValue;
+	private double ascent;
+	private double descent;
+
+	@Override
+	public void add(long timestamp, double value) {
+		if (started) {
+			double difference = value - lastValue;
+			if (difference > 0) {
+				ascent += difference;
+			} else {
+				descent -= difference;
+			}
+		}
+
+		started = true;
+		lastValue = value;
+	}
+
+	/**
+	 * Returns the sum of all rises.
+	 * @return total ascent
+	 */
+	public double getAscent() {
+		return ascent;
+	}
+
+	/**
+	 * Returns the sum of all falls.
+	 * @return total descent (positive)
+	 */
+	public double getDescent() {
+		return descent;
+	}
+}
@@ -0,0 +1,510 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodings of the columns of an {@link EventBlock} (file format version 3).
+ * All integers are written as variable-length quantities: 7 bits per byte, least significant group first,
+ * the highest bit set on all but the last byte. Signed values are zig-zag mapped before
+ * (0, -1, 1, -2, 2... become 0, 1, 2, 3, 4...), so that small magnitudes take a single byte.
+ * Floating point columns are either written as differences of their bit patterns or XOR-compressed
+ * as in Facebook's Gorilla time series database.
+ */
+public final class ColumnCodec {
+	private ColumnCodec() {}
+
+	/**
+	 * Writes an unsigned variable-length integer.
+	 * @param buffer target
+	 * @param value value, treated as unsigned
+	 */
+	public static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7fL) != 0) {
+			buffer.put((byte)((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+
+		buffer.put((byte)value);
+	}
+
+	/**
+	 * Reads an unsigned variable-length integer.
+	 * @param buffer source
+	 * @return value
+	 * @throws IllegalArgumentException if the value is longer than 64 bits
+	 */
+	public static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long)(b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+
+		throw new IllegalArgumentException("Variable-length integer too long.");
+	}
+
+	/**
+	 * Maps a signed value to an unsigned one of a similar magnitude.
+	 * @param value signed value
+	 * @return zig-zag mapped value
+	 */
+	public static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Reverts {@link #zigZag(long)}.
+	 * @param value zig-zag mapped value
+	 * @return signed value
+	 */
+	public static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes values increasing at a nearly constant rate (e.g. timestamps) as the differences of successive deltas:
+	 * the first value, the first delta, then the change of the delta for each following value.
+	 * @param buffer target
+	 * @param values values
+	 * @param count number of values to be written
+	 */
+	public static void putDeltaOfDelta(ByteBuffer buffer, long[] values, int count) {
+		long previous = 0;
+		long previousDelta = 0;
+		for (int n = 0; n < count; n++) {
+			long delta = values[n] - previous;
+			putVarLong(buffer, zigZag(delta - previousDelta));
+			previous = values[n];
+			previousDelta = n == 0 ? 0 : delta;
+		}
+	}
+
+	/**
+	 * Reads values written by {@link #putDeltaOfDelta(ByteBuffer, long[], int)}.
+	 * @param buffer source
+	 * @param values target
+	 * @param count number of values to be read
+	 */
+	public static void getDeltaOfDelta(ByteBuffer buffer, long[] values, int count) {
+		long previous = 0;
+		long previousDelta = 0;
+		for (int n = 0; n < count; n++) {
+			long delta = unZigZag(getVarLong(buffer)) + previousDelta;
+			values[n] = previous + delta;
+			previous = values[n];
+			previousDelta = n == 0 ? 0 : delta;
+		}
+	}
+
+	/**
+	 * Writes slowly changing values as the differences to their predecessors.
+	 * @param buffer target
+	 * @param values values
+	 * @param count number of values to be written
+	 */
+	public static void putDelta(ByteBuffer buffer, long[] values, int count) {
+		long previous = 0;
+		for (int n = 0; n < count; n++) {
+			putVarLong(buffer, zigZag(values[n] - previous));
+			previous = values[n];
+		}
+	}
+
+	/**
+	 * Reads values written by {@link #putDelta(ByteBuffer, long[], int)}.
+	 * @param buffer source
+	 * @param values target
+	 * @param count number of values to be read
+	 */
+	public static void getDelta(ByteBuffer buffer, long[] values, int count) {
+		long previous = 0;
+		for (int n = 0; n < count; n++) {
+			previous += unZigZag(getVarLong(buffer));
+			values[n] = previous;
+		}
+	}
+
+	/**
+	 * Writes slowly changing values as the differences to their predecessors.
+	 * @param buffer target
+	 * @param values values
+	 * @param count number of values to be written
+	 */
+	public static void putDelta(ByteBuffer buffer, int[] values, int count) {
+		long previous = 0;
+		for (int n = 0; n < count; n++) {
+			putVarLong(buffer, zigZag(values[n] - previous));
+			previous = values[n];
+		}
+	}
+
+	/**
+	 * Reads values written by {@link #putDelta(ByteBuffer, int[], int)}.
+	 * @param buffer source
+	 * @param values target
+	 * @param count number of values to be read
+	 */
+	public static void getDelta(ByteBuffer buffer, int[] values, int count) {
+		long previous = 0;
+		for (int n = 0; n < count; n++) {
+			previous += unZigZag(getVarLong(buffer));
+			values[n] = (int)previous;
+		}
+	}
+
+	/**
+	 * Writes rarely changing values (e.g. the sensor accuracy) as runs: the value followed by the number of its repetitions.
+	 * @param buffer target
+	 * @param values values
+	 * @param count number of values to be written
+	 */
+	public static void putRunLength(ByteBuffer buffer, int[] values, int count) {
+		int n = 0;
+		while (n < count) {
+			int start = n;
+			while (n < count && values[n] == values[start]) {
+				n++;
+			}
+
+			putVarLong(buffer, zigZag(values[start]));
+			putVarLong(buffer, n - start);
+		}
+	}
+
+	/**
+	 * Reads values written by {@link #putRunLength(ByteBuffer, int[], int)}.
+	 * @param buffer source
+	 * @param values target
+	 * @param count number of values to be read
+	 * @throws IllegalArgumentException if the runs do not sum up to the count
+	 */
+	public static void getRunLength(ByteBuffer buffer, int[] values, int count) {
+		int n = 0;
+		while (n < count) {
+			int value = (int)unZigZag(getVarLong(buffer));
+			long run = getVarLong(buffer);
+			if (run <= 0 || run > count - n) {
+				throw new IllegalArgumentException("Invalid run length " + run + ".");
+			}
+
+			for (int end = n + (int)run; n < end; n++) {
+				values[n] = value;
+			}
+		}
+	}
+
+	/**
+	 * Writes floating point values losslessly as the differences of their bit patterns to their predecessors.
+	 * Small changes of a value keep the sign and exponent and result in small differences.
+	 * @param buffer target
+	 * @param values values
+	 * @param count number of values to be written
+	 */
+	public static void putDelta(ByteBuffer buffer, double[] values, int count) {
+		long previous = 0;
+		for (int n = 0; n < count; n++) {
+			long bits = Double.doubleToRawLongBits(values[n]);
+			putVarLong(buffer, zigZag(bits - previous));
+			previous = bits;
+		}
+	}
+
+	/**
+	 * Reads values written by {@link #putDelta(ByteBuffer, double[], int)}.
+	 * @param buffer source
+	 * @param values target
+	 * @param count number of values to be read
+	 */
+	public static void getDelta(ByteBuffer buffer, double[] values, int count) {
+		long previous = 0;
+		for (int n = 0; n < count; n++) {
+			previous += unZigZag(getVarLong(buffer));
+			values[n] = Double.longBitsToDouble(previous);
+		}
+	}
+
+	/**
+	 * Writes floating point values losslessly as the differences of their bit patterns to their predecessors.
+	 * @param buffer target
+	 * @param values values
+	 * @param count number of values to be written
+	 */
+	public static void putDelta(ByteBuffer buffer, float[] values, int count) {
+		long previous = 0;
+		for (int n = 0; n < count; n++) {
+			int bits = Float.floatToRawIntBits(values[n]);
+			putVarLong(buffer, zigZag(bits - previous));
+			previous = bits;
+		}
+	}
+
+	/**
+	 * Reads values written by {@link #putDelta(ByteBuffer, float[], int)}.
+	 * @param buffer source
+	 * @param values target
+	 * @param count number of values to be read
+	 */
+	public static void getDelta(ByteBuffer buffer, float[] values, int count) {
+		long previous = 0;
+		for (int n = 0; n < count; n++) {
+			previous += unZigZag(getVarLong(buffer));
+			values[n] = Float.intBitsToFloat((int)previous);
+		}
+	}
+
+	/**
+	 * Writes floating point values losslessly as a bit stream of the XOR of each value with its predecessor
+	 * (Gorilla compression): the first value with all 64 bits, then a '0' bit for an unchanged value,
+	 * '10' followed by the meaningful bits if they fit into the window of the previous value,
+	 * or '11' followed by the number of leading zeros (6 bits), the number of meaningful bits minus one (6 bits)
+	 * and the meaningful bits. The stream is padded to whole bytes.
+	 * @param buffer target
+	 * @param values values
+	 * @param count number of values to be written
+	 */
+	public static void putXor(ByteBuffer buffer, double[] values, int count) {
+		BitWriter writer = new BitWriter(buffer);
+		long previous = 0;
+		int previousLeading = Integer.MAX_VALUE;
+		int previousTrailing = 0;
+		for (int n = 0; n < count; n++) {
+			long bits = Double.doubleToRawLongBits(values[n]);
+			if (n == 0) {
+				writer.write(bits, 64);
+			} else {
+				long xor = bits ^ previous;
+				if (xor == 0) {
+					writer.write(0, 1);
+				} else {
+					int leading = Long.numberOfLeadingZeros(xor);
+					int trailing = Long.numberOfTrailingZeros(xor);
+					if (leading >= previousLeading && trailing >= previousTrailing) {
+						writer.write(2, 2);
+						writer.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+					} else {
+						int meaningful = 64 - leading - trailing;
+						writer.write(3, 2);
+						writer.write(leading, 6);
+						writer.write(meaningful - 1, 6);
+						writer.write(xor >>> trailing, meaningful);
+						previousLeading = leading;
+						previousTrailing = trailing;
+					}
+				}
+			}
+
+			previous = bits;
+		}
+
+		writer.flush();
+	}
+
+	/**
+	 * Reads values written by {@link #putXor(ByteBuffer, double[], int)}.
+	 * @param buffer source
+	 * @param values target
+	 * @param count number of values to be read
+	 */
+	public static void getXor(ByteBuffer buffer, double[] values, int count) {
+		BitReader reader = new BitReader(buffer);
+		long previous = 0;
+		int previousLeading = 0;
+		int previousTrailing = 0;
+		for (int n = 0; n < count; n++) {
+			if (n == 0) {
+				previous = reader.read(64);
+			} else if (reader.read(1) != 0) {
+				if (reader.read(1) != 0) {
+					previousLeading = (int)reader.read(6);
+					previousTrailing = 64 - previousLeading - ((int)reader.read(6) + 1);
+					if (previousTrailing < 0) {
+						throw new IllegalArgumentException("Invalid XOR window.");
+					}
+				}
+
+				previous ^= reader.read(64 - previousLeading - previousTrailing) << previousTrailing;
+			}
+
+			values[n] = Double.longBitsToDouble(previous);
+		}
+	}
+
+	/**
+	 * Writes floating point values losslessly XOR-compressed as {@link #putXor(ByteBuffer, double[], int)} does,
+	 * with 32 bits for the first value, 5 bits for the number of leading zeros and the number of meaningful bits minus one.
+	 * @param buffer target
+	 * @param values values
+	 * @param count number of values to be written
+	 */
+	public static void putXor(ByteBuffer buffer, float[] values, int count) {
+		BitWriter writer = new BitWriter(buffer);
+		int previous = 0;
+		int previousLeading = Integer.MAX_VALUE;
+		int previousTrailing = 0;
+		for (int n = 0; n < count; n++) {
+			int bits = Float.floatToRawIntBits(values[n]);
+			if (n == 0) {
+				writer.write(bits & 0xffffffffL, 32);
+			} else {
+				int xor = bits ^ previous;
+				if (xor == 0) {
+					writer.write(0, 1);
+				} else {
+					int leading = Integer.numberOfLeadingZeros(xor);
+					int trailing = Integer.numberOfTrailingZeros(xor);
+					if (leading >= previousLeading && trailing >= previousTrailing) {
+						writer.write(2, 2);
+						writer.write((xor & 0xffffffffL) >>> previousTrailing, 32 - previousLeading - previousTrailing);
+					} else {
+						int meaningful = 32 - leading - trailing;
+						writer.write(3, 2);
+						writer.write(leading, 5);
+						writer.write(meaningful - 1, 5);
+						writer.write((xor & 0xffffffffL) >>> trailing, meaningful);
+						previousLeading = leading;
+						previousTrailing = trailing;
+					}
+				}
+			}
+
+			previous = bits;
+		}
+
+		writer.flush();
+	}
+
+	/**
+	 * Reads values written by {@link #putXor(ByteBuffer, float[], int)}.
+	 * @param buffer source
+	 * @param values target
+	 * @param count number of values to be read
+	 */
+	public static void getXor(ByteBuffer buffer, float[] values, int count) {
+		BitReader reader = new BitReader(buffer);
+		int previous = 0;
+		int previousLeading = 0;
+		int previousTrailing = 0;
+		for (int n = 0; n < count; n++) {
+			if (n == 0) {
+				previous = (int)reader.read(32);
+			} else if (reader.read(1) != 0) {
+				if (reader.read(1) != 0) {
+					previousLeading = (int)reader.read(5);
+					previousTrailing = 32 - previousLeading - ((int)reader.read(5) + 1);
+					if (previousTrailing < 0) {
+						throw new IllegalArgumentException("Invalid XOR window.");
+					}
+				}
+
+				previous ^= (int)reader.read(32 - previousLeading - previousTrailing) << previousTrailing;
+			}
+
+			values[n] = Float.intBitsToFloat(previous);
+		}
+	}
+
+	/**
+	 * Writer of a bit stream, most significant bit first.
+	 */
+	private static final class BitWriter {
+		private final ByteBuffer buffer;
+		private long pending;
+		private int pendingBits;
+
+		BitWriter(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Writes the lowest bits of a value.
+		 * @param value the value, the bits above the count have to be zero
+		 * @param count number of bits (0..64)
+		 */
+		void write(long value, int count) {
+			while (count > 0) {
+				int chunk = Math.min(count, 8 - pendingBits);
+				count -= chunk;
+				pending = (pending << chunk) | ((value >>> count) & ((1L << chunk) - 1));
+				pendingBits += chunk;
+				if (pendingBits == 8) {
+					buffer.put((byte)pending);
+					pending = 0;
+					pendingBits = 0;
+				}
+			}
+		}
+
+		/**
+		 * Pads the last byte with zeros.
+		 */
+		void flush() {
+			if (pendingBits > 0) {
+				buffer.put((byte)(pending << (8 - pendingBits)));
+				pending = 0;
+				pendingBits = 0;
+			}
+		}
+	}
+
+	/**
+	 * Reader of a bit stream written by the {@link BitWriter}.
+	 */
+	private static final class BitReader {
+		private final ByteBuffer buffer;
+		private int current;
+		private int remainingBits;
+
+		BitReader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Reads bits.
+		 * @param count number of bits (0..64)
+		 * @return the bits as the lowest bits of the value
+		 */
+		long read(int count) {
+			long value = 0;
+			while (count > 0) {
+				if (remainingBits == 0) {
+					current = buffer.get() & 0xff;
+					remainingBits = 8;
+				}
+
+				int chunk = Math.min(count, remainingBits);
+				remainingBits -= chunk;
+				count -= chunk;
+				value = (value << chunk) | ((current >>> remainingBits) & ((1 << chunk) - 1));
+			}
+
+			return value;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C (Castagnoli polynomial) of the checked fields, see {@link EventBlock#CHECKED}.
+ * The wearable app calculates it with tables, here the intrinsic of the JDK is used.
+ */
+public class Crc32c {
+	/**
+	 * Calculates the CRC32C of a range of a buffer.
+	 * @param buffer the data, the position is not changed
+	 * @param offset absolute offset of the first byte
+	 * @param length number of bytes
+	 * @return checksum
+	 */
+	public static int compute(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer range = buffer.duplicate();
+		range.limit(offset + length);
+		range.position(offset);
+		CRC32C crc = new CRC32C();
+		crc.update(range);
+		return (int)crc.getValue();
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Writer of CSV lines formatting the values straight into a reusable char buffer, without allocating per value.
+ * Integers are written like {@link String#valueOf(long)}, fixed-precision numbers exactly like
+ * {@code String.format(locale, "%.9f", value)}, including the decimal separator of the locale.
+ */
+public class CsvWriter implements Closeable {
+	/**
+	 * Largest precision formatted without {@link String#format(Locale, String, Object...)}.
+	 */
+	public static final int MAX_PRECISION = 9;
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L,
+			100_000_000L, 1_000_000_000L };
+	// scaled values below are integers of at most 15 digits, represented exactly
+	private static final double MAX_SCALED = 1e15;
+	// sign, digits of the scaled value and the separator
+	private static final int MAX_FIXED_LENGTH = 1 + 15 + 1;
+	private static final int MAX_LONG_LENGTH = 20;
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private final Writer out;
+	private final Locale locale;
+	private final char decimalSeparator;
+	private final boolean fastFormatting;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position;
+
+	/**
+	 * Creates a writer.
+	 * @param out target, written to in blocks of the buffer size
+	 * @param locale locale of the fixed-precision numbers, e.g. {@code Locale.getDefault(Locale.Category.FORMAT)}
+	 */
+	public CsvWriter(Writer out, Locale locale) {
+		this.out = out;
+		this.locale = locale;
+		this.decimalSeparator = DecimalFormatSymbols.getInstance(locale).getDecimalSeparator();
+		// locales with other digits or signs are left to the formatter
+		this.fastFormatting = String.format(locale, "%.1f", -1.5).equals("-1" + decimalSeparator + "5");
+	}
+
+	/**
+	 * Appends a character.
+	 * @param c the character
+	 * @return this writer
+	 * @throws IOException in case of an IO issue
+	 */
+	public CsvWriter append(char c) throws IOException {
+		require(1);
+		buffer[position++] = c;
+		return this;
+	}
+
+	/**
+	 * Appends a string.
+	 * @param s the string
+	 * @return this writer
+	 * @throws IOException in case of an IO issue
+	 */
+	public CsvWriter append(String s) throws IOException {
+		int length = s.length();
+		if (length > buffer.length) {
+			flushBuffer();
+			out.write(s);
+		} else {
+			require(length);
+			s.getChars(0, length, buffer, position);
+			position += length;
+		}
+
+		return this;
+	}
+
+	/**
+	 * Appends an integer in decimal digits, like {@link String#valueOf(long)}.
+	 * @param value the value
+	 * @return this writer
+	 * @throws IOException in case of an IO issue
+	 */
+	public CsvWriter append(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			return append(String.valueOf(value));
+		}
+
+		require(MAX_LONG_LENGTH);
+		if (value < 0) {
+			buffer[position++] = '-';
+			value = -value;
+		}
+
+		appendDigits(value, digitCount(value));
+		return this;
+	}
+
+	/**
+	 * Appends a number with a fixed number of decimals, exactly like {@code String.format(locale, "%.<precision>f", value)}.
+	 * The formatter rounds the shortest decimal representation of the value half up; unless the value is that close
+	 * to a tie that the representation matters, or too large, the digits are calculated here without allocating anything.
+	 * A float is to be passed as is, the formatter widens it to a double, too.
+	 * @param value the value
+	 * @param precision number of decimals
+	 * @return this writer
+	 * @throws IOException in case of an IO issue
+	 */
+	public CsvWriter appendFixed(double value, int precision) throws IOException {
+		if (fastFormatting && precision >= 0 && precision <= MAX_PRECISION) {
+			double magnitude = Math.abs(value);
+			double scale = POWERS_OF_TEN[precision];
+			double scaled = magnitude * scale;
+			// false for NaN and infinite values
+			if (scaled < MAX_SCALED) {
+				double floor = Math.floor(scaled);
+				double fraction = scaled - floor;
+				// the shortest representation differs by half an ulp at most, the product is rounded once
+				double tolerance = Math.ulp(magnitude) * scale + 2 * Math.ulp(scaled);
+				if (Math.abs(fraction - 0.5) > tolerance) {
+					long digits = (long)floor + (fraction > 0.5 ? 1 : 0);
+					long integer = digits / POWERS_OF_TEN[precision];
+					long decimals = digits - integer * POWERS_OF_TEN[precision];
+
+					require(MAX_FIXED_LENGTH);
+					// including the negative zero
+					if (Double.compare(value, 0.0) < 0) {
+						buffer[position++] = '-';
+					}
+
+					appendDigits(integer, digitCount(integer));
+					if (precision > 0) {
+						buffer[position++] = decimalSeparator;
+						appendDigits(decimals, precision);
+					}
+
+					return this;
+				}
+			}
+		}
+
+		return append(String.format(locale, "%." + precision + "f", value));
+	}
+
+	/**
+	 * Ends the current line with the line separator of the system, like {@link java.io.BufferedWriter#newLine()}.
+	 * @return this writer
+	 * @throws IOException in case of an IO issue
+	 */
+	public CsvWriter newLine() throws IOException {
+		return append(LINE_SEPARATOR);
+	}
+
+	/**
+	 * Writes the buffered characters to the target and flushes it.
+	 * @throws IOException in case of an IO issue
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Makes sure the given number of characters fits into the buffer.
+	 */
+	private void require(int count) throws IOException {
+		if (position + count > buffer.length) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	/**
+	 * Writes the lowest digits of a non-negative value, with leading zeros up to the given count.
+	 */
+	private void appendDigits(long value, int count) {
+		int end = position + count;
+		for (int n = end - 1; n >= position; n--) {
+			buffer[n] = (char)('0' + value % 10);
+			value /= 10;
+		}
+
+		position = end;
+	}
+
+	private static int digitCount(long value) {
+		int count = 1;
+		while (value >= 10) {
+			value /= 10;
+			count++;
+		}
+
+		return count;
+	}
+}
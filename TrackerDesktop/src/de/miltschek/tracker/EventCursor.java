@@ -0,0 +1,264 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+/**
+ * Reusable cursor over the events of a batch (see {@link EventReader#getBatch()}), so a scan of any number of events
+ * allocates nothing per event. The events are exposed as flyweight views of the event classes,
+ * reading each value from the columns of the block only when asked for. A view is reused by the cursor,
+ * it is valid until the cursor moves and must not be kept, see {@link #copy()}.
+ */
+public class EventCursor {
+	private EventBlock block;
+	private int index = -1;
+	private final HeartRateView heartRateView = new HeartRateView();
+	private final StepsView stepsView = new StepsView();
+	private final AirPressureView airPressureView = new AirPressureView();
+	private final GeoView geoView = new GeoView();
+
+	/**
+	 * Places the cursor before the first event of a batch.
+	 * @param block the batch, not to be modified while moving over it
+	 */
+	public void reset(EventBlock block) {
+		this.block = block;
+		this.index = -1;
+	}
+
+	/**
+	 * Moves to the next event of the batch.
+	 * @return false at the end of the batch
+	 */
+	public boolean next() {
+		if (block == null || index + 1 >= block.getCount()) {
+			return false;
+		}
+
+		index++;
+		return true;
+	}
+
+	/**
+	 * Gets the sensor of the current event.
+	 * @return id of the block, e.g. {@link EventBlock#GEO}
+	 */
+	public int getSensor() {
+		return block.getId();
+	}
+
+	/**
+	 * Gets a view of the current event.
+	 * @return the reused view
+	 */
+	public SensorEvent get() {
+		switch (block.getId()) {
+			case EventBlock.HEART_RATE:
+				return heartRateView;
+
+			case EventBlock.STEPS:
+				return stepsView;
+
+			case EventBlock.AIR_PRESSURE:
+				return airPressureView;
+
+			default:
+				return geoView;
+		}
+	}
+
+	/**
+	 * Gets a view of the current heart rate event.
+	 * @return the reused view
+	 * @throws IllegalStateException if the batch holds other events
+	 */
+	public HeartRateEvent getHeartRateEvent() {
+		checkSensor(EventBlock.HEART_RATE);
+		return heartRateView;
+	}
+
+	/**
+	 * Gets a view of the current steps event.
+	 * @return the reused view
+	 * @throws IllegalStateException if the batch holds other events
+	 */
+	public StepsEvent getStepsEvent() {
+		checkSensor(EventBlock.STEPS);
+		return stepsView;
+	}
+
+	/**
+	 * Gets a view of the current air pressure event.
+	 * @return the reused view
+	 * @throws IllegalStateException if the batch holds other events
+	 */
+	public AirPressureEvent getAirPressureEvent() {
+		checkSensor(EventBlock.AIR_PRESSURE);
+		return airPressureView;
+	}
+
+	/**
+	 * Gets a view of the current geo event.
+	 * @return the reused view
+	 * @throws IllegalStateException if the batch holds other events
+	 */
+	public GeoEvent getGeoEvent() {
+		checkSensor(EventBlock.GEO);
+		return geoView;
+	}
+
+	/**
+	 * Creates a standalone copy of the current event, to be kept.
+	 * @return new event
+	 */
+	public SensorEvent copy() {
+		return EventReader.createEvent(block, index);
+	}
+
+	private void checkSensor(int id) {
+		if (block.getId() != id) {
+			throw new IllegalStateException("Current event of the block 0x" + Integer.toHexString(block.getId())
+					+ ", not 0x" + Integer.toHexString(id) + ".");
+		}
+	}
+
+	private class HeartRateView extends HeartRateEvent {
+		HeartRateView() {
+			super(0, 0, 0);
+		}
+
+		@Override
+		public long getTsNs() {
+			return block.getTimestamp(index);
+		}
+
+		@Override
+		public int getAccuracy() {
+			return block.getAccuracy(index);
+		}
+
+		@Override
+		public int getRate() {
+			return block.getInt(EventBlock.HEART_RATE_RATE, index);
+		}
+	}
+
+	private class StepsView extends StepsEvent {
+		StepsView() {
+			super(0, 0, 0);
+		}
+
+		@Override
+		public long getTsNs() {
+			return block.getTimestamp(index);
+		}
+
+		@Override
+		public int getAccuracy() {
+			return block.getAccuracy(index);
+		}
+
+		@Override
+		public int getSteps() {
+			return block.getInt(EventBlock.STEPS_STEPS, index);
+		}
+	}
+
+	private class AirPressureView extends AirPressureEvent {
+		AirPressureView() {
+			super(0, 0, 0);
+		}
+
+		@Override
+		public long getTsNs() {
+			return block.getTimestamp(index);
+		}
+
+		@Override
+		public int getAccuracy() {
+			return block.getAccuracy(index);
+		}
+
+		@Override
+		public float getPressure() {
+			return block.getFloat(EventBlock.AIR_PRESSURE_PRESSURE, index);
+		}
+	}
+
+	private class GeoView extends GeoEvent {
+		GeoView() {
+			super(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+		}
+
+		@Override
+		public long getTsNs() {
+			return block.getTimestamp(index);
+		}
+
+		@Override
+		public int getAccuracy() {
+			return block.getAccuracy(index);
+		}
+
+		@Override
+		public long getFixTsNs() {
+			return block.getLong(EventBlock.GEO_TICKS, index);
+		}
+
+		@Override
+		public long getFixRtcTime() {
+			return block.getLong(EventBlock.GEO_TIME, index);
+		}
+
+		@Override
+		public double getLatitude() {
+			return block.getDouble(EventBlock.GEO_LATITUDE, index);
+		}
+
+		@Override
+		public double getLongitude() {
+			return block.getDouble(EventBlock.GEO_LONGITUDE, index);
+		}
+
+		@Override
+		public float getLateralAccuracy() {
+			return block.getFloat(EventBlock.GEO_LATERAL_ACCURACY, index);
+		}
+
+		@Override
+		public double getAltitude() {
+			return block.getDouble(EventBlock.GEO_ALTITUDE, index);
+		}
+
+		@Override
+		public float getBearing() {
+			return block.getFloat(EventBlock.GEO_BEARING, index);
+		}
+
+		@Override
+		public float getSpeed() {
+			return block.getFloat(EventBlock.GEO_SPEED, index);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Streaming k-way merge of event readers, each in chronological order, into a single chronological sequence.
+ * The pending event of each reader is kept in a binary min-heap, so moving to the next event takes O(log k)
+ * comparisons and the memory is bounded by a batch per reader, whatever the length of the recording.
+ * Events with equal timestamps keep the order of their readers.
+ */
+public class EventMerger implements Closeable {
+	private final EventReader[] readers;
+	private final EventBlock[] blocks;
+	private final int[] positions;
+	// timestamps of the pending events, saving the lookups in the blocks while comparing
+	private final long[] timestamps;
+	// readers with pending events, the one with the earliest event first
+	private final int[] heap;
+	private int size;
+	private boolean started;
+
+	/**
+	 * Creates a merger.
+	 * @param readers sources of the events, closed together with the merger
+	 */
+	public EventMerger(EventReader... readers) {
+		this.readers = readers;
+		this.blocks = new EventBlock[readers.length];
+		this.positions = new int[readers.length];
+		this.timestamps = new long[readers.length];
+		this.heap = new int[readers.length];
+	}
+
+	/**
+	 * Opens a merger of the events of the given sensors of a recording, reading each sensor separately.
+	 * @param file the recording
+	 * @param sensors ids of the sensors, e.g. {@link EventBlock#GEO}, in the order of events with equal timestamps
+	 * @return the merger
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	public static EventMerger open(File file, int... sensors) throws IOException {
+		EventReader[] readers = new EventReader[sensors.length];
+		try {
+			for (int n = 0; n < sensors.length; n++) {
+				readers[n] = new EventReader(file, sensors[n]);
+			}
+		} catch (IOException ex) {
+			for (EventReader reader : readers) {
+				if (reader != null) {
+					reader.close();
+				}
+			}
+
+			throw ex;
+		}
+
+		return new EventMerger(readers);
+	}
+
+	/**
+	 * Moves to the next event in chronological order.
+	 * @return false if there are no more events
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	public boolean next() throws IOException {
+		if (!started) {
+			started = true;
+			for (int n = 0; n < readers.length; n++) {
+				if (nextBatch(n)) {
+					heap[size++] = n;
+				}
+			}
+
+			for (int n = size / 2 - 1; n >= 0; n--) {
+				siftDown(n);
+			}
+		} else if (size > 0) {
+			int reader = heap[0];
+			if (++positions[reader] < blocks[reader].getCount()) {
+				timestamps[reader] = blocks[reader].getTimestamp(positions[reader]);
+			} else if (!nextBatch(reader)) {
+				heap[0] = heap[--size];
+			}
+
+			siftDown(0);
+		}
+
+		return size > 0;
+	}
+
+	/**
+	 * Gets the batch holding the current event.
+	 * @return the batch, valid until the merger moves past its last event
+	 */
+	public EventBlock getBatch() {
+		return blocks[heap[0]];
+	}
+
+	/**
+	 * Gets the index of the current event in its batch.
+	 * @return index of the event
+	 */
+	public int getIndex() {
+		return positions[heap[0]];
+	}
+
+	/**
+	 * Gets the reader of the current event.
+	 * @return index of the reader as passed to the constructor
+	 */
+	public int getSource() {
+		return heap[0];
+	}
+
+	/**
+	 * Gets the number of parts of the file skipped as corrupt by all the readers.
+	 * @return number of skipped parts
+	 */
+	public int getCorruptParts() {
+		int corruptParts = 0;
+		for (EventReader reader : readers) {
+			corruptParts += reader.getCorruptParts();
+		}
+
+		return corruptParts;
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException exception = null;
+		for (EventReader reader : readers) {
+			try {
+				reader.close();
+			} catch (IOException ex) {
+				exception = ex;
+			}
+		}
+
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Moves a reader to its next non-empty batch.
+	 * @return false at the end of its events
+	 */
+	private boolean nextBatch(int reader) throws IOException {
+		while (readers[reader].nextBatch()) {
+			EventBlock block = readers[reader].getBatch();
+			if (block.getCount() > 0) {
+				blocks[reader] = block;
+				positions[reader] = 0;
+				timestamps[reader] = block.getTimestamp(0);
+				return true;
+			}
+		}
+
+		blocks[reader] = null;
+		return false;
+	}
+
+	/**
+	 * Tells whether the pending event of a reader comes before the one of another reader.
+	 */
+	private boolean isBefore(int reader, int other) {
+		return timestamps[reader] < timestamps[other] || (timestamps[reader] == timestamps[other] && reader < other);
+	}
+
+	private void siftDown(int n) {
+		if (size == 0) {
+			return;
+		}
+
+		int reader = heap[n];
+		while (true) {
+			int child = 2 * n + 1;
+			if (child >= size) {
+				break;
+			}
+
+			if (child + 1 < size && isBefore(heap[child + 1], heap[child])) {
+				child++;
+			}
+
+			if (!isBefore(heap[child], reader)) {
+				break;
+			}
+
+			heap[n] = heap[child];
+			n = child;
+		}
+
+		heap[n] = reader;
+	}
+}
@@ -0,0 +1,490 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Pull-based reader of the sensor events of a recording, decoding them straight from the memory-mapped file
+ * with a constant amount of memory: in batches of primitive columns ({@link #nextBatch()}) or one event at a time ({@link #next()}).
+ * The events of version 2 files, one per field, are collected into the same batches.
+ * A reader of a single sensor seeks to its section if the file has a trailer (see {@link RecordingIndex}),
+ * otherwise it skips the events of the other sensors. Corrupt or truncated parts of the file are skipped
+ * as far as possible (see {@link FieldReader#recover()}) and counted.
+ */
+public class EventReader implements Closeable {
+	/**
+	 * Reads the events of all sensors in the order of the file.
+	 */
+	public static final int ALL_SENSORS = 0;
+
+	// field id, total length and start indicator
+	private static final int FIELD_OVERHEAD = 2 + 4 + 1;
+	// CRC32C following the data of a checked field
+	private static final int CHECKSUM_LENGTH = 4;
+
+	private final FileInputStream fis;
+	private final int sensor;
+	private final boolean reuseBlocks;
+	private boolean lazyDecoding;
+	private RecordingIndex summary;
+	private FieldReader reader;
+	// bytes of the reader to be read, the length of the section if seeking to a single sensor
+	private long length = Long.MAX_VALUE;
+	private final EventBlock heartRateBlock = new EventBlock(EventBlock.HEART_RATE);
+	private final EventBlock stepsBlock = new EventBlock(EventBlock.STEPS);
+	private final EventBlock airPressureBlock = new EventBlock(EventBlock.AIR_PRESSURE);
+	private final EventBlock geoBlock = new EventBlock(EventBlock.GEO);
+	private EventBlock batch;
+	private int index;
+	// the current field of the reader is still to be processed
+	private boolean pending;
+	private boolean finished;
+	private int corruptParts;
+
+	/**
+	 * Opens a recording to read the events of all sensors.
+	 * @param file the recording
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	public EventReader(File file) throws IOException {
+		this(file, ALL_SENSORS);
+	}
+
+	/**
+	 * Opens a recording to read the events of a single or of all sensors.
+	 * @param file the recording
+	 * @param sensor id of the event blocks of the sensor, e.g. {@link EventBlock#GEO}, or {@link #ALL_SENSORS}
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	public EventReader(File file, int sensor) throws IOException {
+		if (sensor != ALL_SENSORS && !EventBlock.isBlock(sensor)) {
+			throw new IllegalArgumentException("Unknown sensor 0x" + Integer.toHexString(sensor));
+		}
+
+		this.sensor = sensor;
+		this.reuseBlocks = true;
+		this.fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			reader = FieldReader.map(channel, FieldReader.DEFAULT_WINDOW_SIZE);
+			int version = reader.readHeader();
+			if (version < FileItem.MIN_VERSION || version > FileItem.VERSION) {
+				throw new IOException("Unsupported version no. " + version);
+			}
+
+			try {
+				summary = RecordingIndex.read(channel);
+			} catch (IOException ex) {
+				// the events can be found by scanning anyway
+				corruptParts++;
+			}
+
+			if (summary == null) {
+				summary = new RecordingIndex();
+				readSummary();
+			} else if (sensor != ALL_SENSORS) {
+				length = summary.getSectionLength(sensor);
+				if (length > 0) {
+					channel.position(summary.getSectionOffset(sensor));
+					reader = FieldReader.map(channel, FieldReader.DEFAULT_WINDOW_SIZE);
+				}
+			}
+		} catch (IOException | RuntimeException ex) {
+			fis.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Creates a reader of the events of all sensors in a part of a recording, without a summary.
+	 * @param reader reader positioned at the beginning of a field
+	 * @param length number of bytes to be read at most
+	 * @param reuseBlocks true to decode all batches of a sensor into the same block,
+	 * false to decode each batch into a new block that can be kept by the caller
+	 */
+	EventReader(FieldReader reader, long length, boolean reuseBlocks) {
+		this.fis = null;
+		this.sensor = ALL_SENSORS;
+		this.reuseBlocks = reuseBlocks;
+		this.reader = reader;
+		this.length = length;
+	}
+
+	/**
+	 * Gets the summary values of the recording: from the trailer if available, otherwise from the basic data
+	 * at the beginning of the file (the sections are unknown then).
+	 * @return the summary
+	 */
+	public RecordingIndex getSummary() {
+		return summary;
+	}
+
+	/**
+	 * Moves to the next batch of events of a single sensor.
+	 * @return true if a batch is available, false at the end of the events
+	 * @throws IOException in case of an IO issue or an undecodable block
+	 */
+	public boolean nextBatch() throws IOException {
+		while (pending || advance()) {
+			pending = false;
+			int id = reader.getId();
+			int blockId;
+			if (EventBlock.isBlock(id) || EventBlock.isChecked(id)) {
+				blockId = id & ~EventBlock.CHECKED;
+				if (sensor == ALL_SENSORS || sensor == blockId) {
+					batch = getBlock(blockId);
+					if (lazyDecoding) {
+						batch.decodeLazily(reader.getBuffer(), reader.getOffset(), reader.getLength());
+					} else {
+						batch.decode(reader.getBuffer(), reader.getOffset(), reader.getLength());
+					}
+					index = 0;
+					return true;
+				}
+			} else if ((blockId = getVersion2Block(id)) != 0 && (sensor == ALL_SENSORS || sensor == blockId)) {
+				// collect the following events of the sensor
+				batch = getBlock(blockId);
+				batch.clear();
+				addVersion2Event(batch, reader.getBuffer(), reader.getOffset());
+				while (!batch.isFull() && advance()) {
+					if (reader.getId() != id) {
+						pending = true;
+						break;
+					}
+
+					addVersion2Event(batch, reader.getBuffer(), reader.getOffset());
+				}
+
+				index = 0;
+				return true;
+			}
+		}
+
+		batch = null;
+		return false;
+	}
+
+	/**
+	 * Sets whether the value columns of the following batches are decoded only when accessed
+	 * (see {@link EventBlock#decodeLazily(ByteBuffer, int, int)}), e.g. to skip the columns following the position
+	 * of geo events. A corrupt value column is reported by an {@link java.io.UncheckedIOException} of the getter then.
+	 * @param lazyDecoding true to decode lazily, false to decode the whole batch by {@link #nextBatch()} (default)
+	 */
+	public void setLazyDecoding(boolean lazyDecoding) {
+		this.lazyDecoding = lazyDecoding;
+	}
+
+	/**
+	 * Gets the current batch of events. The block is reused, its content is valid until the next call
+	 * of {@link #nextBatch()} or {@link #next()}.
+	 * @return events of a single sensor, null at the end of the events
+	 */
+	public EventBlock getBatch() {
+		return batch;
+	}
+
+	/**
+	 * Moves to the next event, continuing in the current batch.
+	 * @return the event or null at the end of the events
+	 * @throws IOException in case of an IO issue or an undecodable block
+	 */
+	public SensorEvent next() throws IOException {
+		while (batch == null || index >= batch.getCount()) {
+			if (!nextBatch()) {
+				return null;
+			}
+		}
+
+		return createEvent(batch, index++);
+	}
+
+	/**
+	 * Moves a cursor to the next event, continuing with the next batch, without allocating anything.
+	 * Not to be mixed with {@link #next()}.
+	 * @param cursor cursor over the current batch of this reader, placed at the next event
+	 * @return false at the end of the events
+	 * @throws IOException in case of an IO issue or an undecodable block
+	 */
+	public boolean next(EventCursor cursor) throws IOException {
+		while (!cursor.next()) {
+			if (!nextBatch()) {
+				return false;
+			}
+
+			cursor.reset(batch);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the number of corrupt or truncated parts of the file skipped so far.
+	 * @return number of parts
+	 */
+	public int getCorruptParts() {
+		return corruptParts;
+	}
+
+	/**
+	 * Gets the position of the next field to be processed, relative to the beginning of the reader.
+	 * @return position in bytes or -1 at the end of the events
+	 */
+	long getPosition() {
+		if (finished) {
+			return -1;
+		} else if (pending) {
+			int id = reader.getId();
+			return reader.getBytesRead() - FIELD_OVERHEAD - reader.getLength() - (EventBlock.isChecked(id) ? CHECKSUM_LENGTH : 0);
+		} else {
+			return reader.getBytesRead();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (fis != null) {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Creates the event of a block.
+	 * @param block events of a sensor
+	 * @param n index of the event
+	 * @return the event
+	 */
+	public static SensorEvent createEvent(EventBlock block, int n) {
+		switch (block.getId()) {
+			case EventBlock.HEART_RATE:
+				return new HeartRateEvent(
+						block.getTimestamp(n),
+						block.getInt(EventBlock.HEART_RATE_RATE, n),
+						block.getAccuracy(n));
+
+			case EventBlock.STEPS:
+				return new StepsEvent(
+						block.getTimestamp(n),
+						block.getInt(EventBlock.STEPS_STEPS, n),
+						block.getAccuracy(n));
+
+			case EventBlock.AIR_PRESSURE:
+				return new AirPressureEvent(
+						block.getTimestamp(n),
+						block.getFloat(EventBlock.AIR_PRESSURE_PRESSURE, n),
+						block.getAccuracy(n));
+
+			default:
+				return new GeoEvent(
+						block.getTimestamp(n),
+						block.getLong(EventBlock.GEO_TICKS, n),
+						block.getLong(EventBlock.GEO_TIME, n),
+						block.getDouble(EventBlock.GEO_LATITUDE, n),
+						block.getDouble(EventBlock.GEO_LONGITUDE, n),
+						block.getFloat(EventBlock.GEO_LATERAL_ACCURACY, n),
+						block.getDouble(EventBlock.GEO_ALTITUDE, n),
+						block.getFloat(EventBlock.GEO_BEARING, n),
+						block.getFloat(EventBlock.GEO_SPEED, n),
+						block.getAccuracy(n));
+		}
+	}
+
+	/**
+	 * Reads the basic data preceding the events.
+	 */
+	private void readSummary() throws IOException {
+		while (advance()) {
+			ByteBuffer buffer = reader.getBuffer();
+			int offset = reader.getOffset();
+			int id = reader.getId();
+
+			switch (id) {
+				case 0x1001: // start RTC
+					summary.setStartTimestampRtc(buffer.getLong(offset));
+					break;
+
+				case 0x1002: // stop RTC
+					summary.setStopTimestampRtc(buffer.getLong(offset));
+					break;
+
+				case 0x1003: // start ns
+					summary.setStartNanoseconds(buffer.getLong(offset));
+					break;
+
+				case 0x1004: // stop ns
+					summary.setStopNanoseconds(buffer.getLong(offset));
+					break;
+
+				case 0x1011: // avg heart rate (float)
+					summary.setAvgHeartRate(buffer.getFloat(offset));
+					break;
+
+				case 0x1012: // max heart rate (int)
+					summary.setMaxHeartRate(buffer.getInt(offset));
+					break;
+
+				case 0x1013: // total steps (int)
+					summary.setTotalSteps(buffer.getInt(offset));
+					break;
+
+				case 0x1014: // avg step rate (float)
+					summary.setAvgStepRate(buffer.getFloat(offset));
+					break;
+
+				case 0x1015: // total ascent (float)
+					summary.setTotalAscent(buffer.getFloat(offset));
+					break;
+
+				case 0x1016: // total descent (float)
+					summary.setTotalDescent(buffer.getFloat(offset));
+					break;
+
+				case 0x1017: // avg speed (float)
+					summary.setAvgSpeed(buffer.getFloat(offset));
+					break;
+			}
+
+			if (id >= 0x2000) {
+				// data section started
+				pending = true;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Moves to the next field, skipping corrupt parts.
+	 * @return false at the end of the events (end-of-file marker, end of the section or nothing intact left)
+	 */
+	private boolean advance() throws IOException {
+		if (finished || reader.getBytesRead() >= length) {
+			finished = true;
+			return false;
+		}
+
+		try {
+			if (!reader.next()) {
+				throw new IOException("Premature end of file.");
+			}
+		} catch (IOException ex) {
+			corruptParts++;
+			if (!reader.recover()) {
+				finished = true;
+				return false;
+			}
+		}
+
+		if (reader.getId() == 0xffff || reader.getBytesRead() > length) {
+			// end of file or a block of the following section found after a corrupt part
+			finished = true;
+			return false;
+		}
+
+		return true;
+	}
+
+	private EventBlock getBlock(int blockId) {
+		if (!reuseBlocks) {
+			return new EventBlock(blockId);
+		}
+
+		switch (blockId) {
+			case EventBlock.HEART_RATE:
+				return heartRateBlock;
+
+			case EventBlock.STEPS:
+				return stepsBlock;
+
+			case EventBlock.AIR_PRESSURE:
+				return airPressureBlock;
+
+			default:
+				return geoBlock;
+		}
+	}
+
+	/**
+	 * Gets the block collecting the events of a version 2 field.
+	 * @param id field id
+	 * @return block id or 0 if not an event
+	 */
+	private static int getVersion2Block(int id) {
+		switch (id) {
+			case 0x2011: // heart rate
+				return EventBlock.HEART_RATE;
+
+			case 0x2021: // steps
+				return EventBlock.STEPS;
+
+			case 0x2031: // air pressure
+				return EventBlock.AIR_PRESSURE;
+
+			case 0x2041: // geo
+				return EventBlock.GEO;
+
+			default:
+				return 0;
+		}
+	}
+
+	private static void addVersion2Event(EventBlock block, ByteBuffer buffer, int offset) {
+		switch (block.getId()) {
+			case EventBlock.HEART_RATE:
+				block.setInt(EventBlock.HEART_RATE_RATE,
+						block.add(buffer.getLong(offset), buffer.getInt(offset + 8 + 4)),
+						buffer.getInt(offset + 8));
+				break;
+
+			case EventBlock.STEPS:
+				block.setInt(EventBlock.STEPS_STEPS,
+						block.add(buffer.getLong(offset), buffer.getInt(offset + 8 + 4)),
+						buffer.getInt(offset + 8));
+				break;
+
+			case EventBlock.AIR_PRESSURE:
+				block.setFloat(EventBlock.AIR_PRESSURE_PRESSURE,
+						block.add(buffer.getLong(offset), buffer.getInt(offset + 8 + 4)),
+						buffer.getFloat(offset + 8));
+				break;
+
+			case EventBlock.GEO:
+				int n = block.add(buffer.getLong(offset), buffer.getInt(offset + 60)); // ts, sensorAccuracy
+				block.setLong(EventBlock.GEO_TICKS, n, buffer.getLong(offset + 8));
+				block.setLong(EventBlock.GEO_TIME, n, buffer.getLong(offset + 16));
+				block.setDouble(EventBlock.GEO_LATITUDE, n, buffer.getDouble(offset + 24));
+				block.setDouble(EventBlock.GEO_LONGITUDE, n, buffer.getDouble(offset + 32));
+				block.setFloat(EventBlock.GEO_LATERAL_ACCURACY, n, buffer.getFloat(offset + 40));
+				block.setDouble(EventBlock.GEO_ALTITUDE, n, buffer.getDouble(offset + 44));
+				block.setFloat(EventBlock.GEO_BEARING, n, buffer.getFloat(offset + 52));
+				block.setFloat(EventBlock.GEO_SPEED, n, buffer.getFloat(offset + 56));
+				break;
+		}
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Cursor over the field structures of a recording as written by {@link FileItem#writeField(java.io.OutputStream, byte[]...)}.
+ * Each call of {@link #next()} moves to the following field and exposes its id, the length and the offset of its data
+ * within {@link #getBuffer()} without copying anything. The values are decoded by the caller with the big-endian
+ * getters of the buffer, e.g. {@code reader.getBuffer().getLong(reader.getOffset() + 8)}.
+ * The reader works on a buffer holding the whole recording, streams a channel through a reusable block
+ * or maps a file window by window (see {@link #map(FileChannel, long)});
+ * in the latter cases the offset of a field is valid until the next call of {@link #next()} only.
+ */
+public class FieldReader {
+	/**
+	 * Default size of the block when reading from a channel.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Default size of the window when mapping a file.
+	 */
+	public static final long DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+	// start indicator and total length
+	private static final int FIELD_PREFIX = 1 + 4;
+	// CRC32C following the data of a checked field
+	private static final int CHECKSUM_LENGTH = 4;
+	// longest field considered when looking for the next valid checked field, larger than any event block
+	private static final int MAX_RECOVERED_LENGTH = 1024 * 1024;
+
+	private final ReadableByteChannel channel;
+	private final FileChannel mappedChannel;
+	private final long windowSize;
+	private long windowStart;
+	private ByteBuffer buffer;
+	private boolean endOfChannel;
+	private long consumed;
+	private int id;
+	private int offset;
+	private int length;
+	private boolean corrupt;
+
+	/**
+	 * Creates a reader of a recording held in a buffer, starting at the current position of the buffer.
+	 * @param buffer the recording, its byte order is set to big-endian
+	 */
+	public FieldReader(ByteBuffer buffer) {
+		this.channel = null;
+		this.mappedChannel = null;
+		this.windowSize = 0;
+		this.buffer = buffer.order(ByteOrder.BIG_ENDIAN);
+		this.endOfChannel = true;
+	}
+
+	/**
+	 * Creates a reader streaming a recording from a channel.
+	 * @param channel channel to read from, starting at its current position
+	 * @param bufferSize initial size of the block in bytes, grows if a field is larger
+	 */
+	public FieldReader(ReadableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.mappedChannel = null;
+		this.windowSize = 0;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		// nothing read yet
+		this.buffer.flip();
+	}
+
+	private FieldReader(FileChannel mappedChannel, long windowSize) throws IOException {
+		this.channel = null;
+		this.mappedChannel = mappedChannel;
+		this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+		this.windowStart = mappedChannel.position();
+		this.buffer = mapWindow(windowStart, 0);
+	}
+
+	/**
+	 * Creates a reader parsing the fields directly from the memory-mapped file, starting at the current position
+	 * of the channel. The file is mapped in windows of the given size, so files larger than 2 GiB can be read, too.
+	 * The file must not be modified while being read.
+	 * @param channel file to read from, has to stay open while reading
+	 * @param windowSize size of a mapped window in bytes, at most 2 GiB, grows if a field is larger
+	 * @return the reader
+	 * @throws IOException in case of an IO issue
+	 */
+	public static FieldReader map(FileChannel channel, long windowSize) throws IOException {
+		return new FieldReader(channel, windowSize);
+	}
+
+	/**
+	 * Reads and verifies the header of the file.
+	 * @return version of the file format
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	public int readHeader() throws IOException {
+		if (!fill(FileItem.HEADER.length + 2)) {
+			throw new IOException("Unknown file format (1).");
+		}
+
+		byte[] header = new byte[FileItem.HEADER.length];
+		buffer.get(header);
+		if (!Arrays.equals(header, FileItem.HEADER)) {
+			throw new IOException("Unknown file format (2).");
+		}
+
+		consumed += FileItem.HEADER.length + 2;
+		return buffer.getShort();
+	}
+
+	/**
+	 * Moves to the next field. The checksum of checked fields (see {@link EventBlock#CHECKED}) is verified,
+	 * their length does not include it.
+	 * @return true if a field is available, false at the end of the data
+	 * @throws IOException in case of an IO issue or a corrupt or truncated field, see {@link #recover()}
+	 */
+	public boolean next() throws IOException {
+		corrupt = false;
+		if (!fill(1)) {
+			return false;
+		}
+
+		String error = readField(false);
+		if (error != null) {
+			corrupt = true;
+			throw new IOException(error);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Moves to the next checked field with a valid checksum, skipping anything in between.
+	 * After {@link #next()} failed, the search starts behind the beginning of the corrupt field,
+	 * so the reading can continue with the next intact event block.
+	 * @return true if a field is available, false at the end of the data
+	 * @throws IOException in case of an IO issue
+	 */
+	public boolean recover() throws IOException {
+		if (corrupt && fill(1)) {
+			buffer.position(buffer.position() + 1);
+			consumed++;
+		}
+
+		corrupt = false;
+		while (fill(1)) {
+			if (buffer.get(buffer.position()) == (byte)'#' && readField(true) == null) {
+				return true;
+			}
+
+			buffer.position(buffer.position() + 1);
+			consumed++;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reads the field at the current position and moves behind it if valid.
+	 * @param recovering true to accept checked fields up to {@link #MAX_RECOVERED_LENGTH} only
+	 * @return null if valid, the error otherwise
+	 */
+	private String readField(boolean recovering) throws IOException {
+		if (buffer.get(buffer.position()) != (byte)'#') {
+			return "Beginning of a field not found.";
+		}
+
+		if (!fill(FIELD_PREFIX)) {
+			return "Premature end of file.";
+		}
+
+		int totalLength = buffer.getInt(buffer.position() + 1);
+		if (totalLength < 2 || (recovering && totalLength > MAX_RECOVERED_LENGTH)) {
+			return "Invalid field length " + totalLength + ".";
+		}
+
+		// a corrupt length must neither overflow nor make the buffer grow beyond the data at hand
+		if (totalLength > buffer.remaining() - FIELD_PREFIX
+				&& (long)FIELD_PREFIX + totalLength > Math.min(getRemaining(), Integer.MAX_VALUE)) {
+			return "Invalid field length " + totalLength + ".";
+		}
+
+		if (!fill(FIELD_PREFIX + totalLength)) {
+			return "Premature end of file.";
+		}
+
+		int start = buffer.position();
+		int fieldId = buffer.getShort(start + FIELD_PREFIX) & 0xffff;
+		int dataLength = totalLength - 2;
+		if (EventBlock.isChecked(fieldId)) {
+			dataLength -= CHECKSUM_LENGTH;
+			if (dataLength < 0 || Crc32c.compute(buffer, start, FIELD_PREFIX + 2 + dataLength) != buffer.getInt(start + FIELD_PREFIX + 2 + dataLength)) {
+				return "Checksum mismatch of the field 0x" + Integer.toHexString(fieldId) + ".";
+			}
+		} else if (recovering) {
+			return "Not a checked field.";
+		}
+
+		id = fieldId;
+		offset = start + FIELD_PREFIX + 2;
+		length = dataLength;
+		buffer.position(start + FIELD_PREFIX + totalLength);
+		consumed += FIELD_PREFIX + totalLength;
+		return null;
+	}
+
+	/**
+	 * Gets the id of the current field.
+	 * @return id (0..0xffff)
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the offset of the data of the current field (following the id) within the buffer.
+	 * @return absolute offset
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Gets the length of the data of the current field (without the id and the checksum of a checked field).
+	 * @return length in bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Gets the buffer holding the current field.
+	 * @return the buffer (big-endian)
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Gets the number of bytes consumed so far, i.e. the position in the file following the current field.
+	 * @return number of bytes
+	 */
+	public long getBytesRead() {
+		return consumed;
+	}
+
+	/**
+	 * Gets the number of bytes from the current position up to the end of the data, as far as known.
+	 * @return number of bytes, {@link Long#MAX_VALUE} if the size of the channel is unknown
+	 */
+	private long getRemaining() throws IOException {
+		if (mappedChannel != null) {
+			return mappedChannel.size() - windowStart - buffer.position();
+		} else if (endOfChannel) {
+			return buffer.remaining();
+		} else if (channel instanceof SeekableByteChannel) {
+			SeekableByteChannel seekable = (SeekableByteChannel)channel;
+			return buffer.remaining() + Math.max(0, seekable.size() - seekable.position());
+		}
+
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Makes sure the given number of bytes is available in the buffer.
+	 * @return false if the data ends earlier
+	 */
+	private boolean fill(int count) throws IOException {
+		if (buffer.remaining() >= count) {
+			return true;
+		} else if (mappedChannel != null) {
+			// move the window to the current position
+			long position = windowStart + buffer.position();
+			if (mappedChannel.size() - position < count) {
+				return false;
+			}
+
+			buffer = mapWindow(position, count);
+			windowStart = position;
+			return true;
+		} else if (endOfChannel) {
+			return false;
+		}
+
+		buffer.compact();
+		while (buffer.position() < count) {
+			if (!buffer.hasRemaining()) {
+				// a field larger than the block, grown step by step along with the data read
+				ByteBuffer larger = ByteBuffer.allocate((int)Math.min(count, Math.max(2L * buffer.capacity(), 1024)));
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+
+			if (channel.read(buffer) < 0) {
+				endOfChannel = true;
+				break;
+			}
+		}
+
+		buffer.flip();
+		return buffer.remaining() >= count;
+	}
+
+	private ByteBuffer mapWindow(long position, int minimumSize) throws IOException {
+		long size = Math.min(Math.max(windowSize, minimumSize), mappedChannel.size() - position);
+		return mappedChannel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.BIG_ENDIAN);
+	}
+}
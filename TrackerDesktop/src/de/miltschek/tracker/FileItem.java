@@ -39,7 +39,11 @@ public class FileItem {
     /**
      * The implemented version of the file.
      */
-    public static final short VERSION = 2;
+    public static final short VERSION = 3;
+    /**
+     * The oldest version of the file still readable (one field per event instead of {@link EventBlock}s).
+     */
+    public static final short MIN_VERSION = 2;
 
     /**
      * Writes a field as a structure containing:
@@ -0,0 +1,336 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reader of the events of all sensors of a recording, decoding them in parallel.
+ * A pre-scan follows the field headers only to split the events into chunks of whole fields,
+ * the chunks are decoded on a {@link ForkJoinPool} and their batches are returned in the order of the file,
+ * exactly as by an {@link EventReader} of all sensors. Only a few chunks are decoded ahead, so the memory stays bounded.
+ * If a chunk contains a corrupt part, or the pre-scan finds no intact field header, the reading continues
+ * sequentially from the beginning of that chunk, so the corrupt parts are skipped the same way, too.
+ */
+public class ParallelEventReader implements Closeable {
+	/**
+	 * Number of bytes of fields decoded by a single task.
+	 */
+	static final int CHUNK_SIZE = 1024 * 1024;
+
+	// start indicator, total length and field id
+	private static final int FIELD_HEADER = 1 + 4 + 2;
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+	private final int chunksAhead;
+	private final EventReader head;
+	private final FileInputStream fis;
+	private final FileChannel channel;
+	private final long size;
+	private final ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+	private long scanBufferStart;
+	// beginning of the next chunk, -1 at the end of the events
+	private long scanPosition;
+	// position to continue sequentially from if the pre-scan stopped before the end-of-file marker
+	private long tailPosition = -1;
+	private final ArrayDeque<ChunkTask> tasks = new ArrayDeque<>();
+	private List<EventBlock> chunkBlocks;
+	private int chunkIndex;
+	private EventReader sequential;
+	private EventBlock batch;
+
+	/**
+	 * Opens a recording to be decoded on the common pool.
+	 * @param file the recording
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	public ParallelEventReader(File file) throws IOException {
+		this(file, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Opens a recording.
+	 * @param file the recording
+	 * @param pool pool decoding the chunks
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	public ParallelEventReader(File file, ForkJoinPool pool) throws IOException {
+		this(file, pool, CHUNK_SIZE);
+	}
+
+	/**
+	 * Opens a recording.
+	 * @param file the recording
+	 * @param pool pool decoding the chunks
+	 * @param chunkSize number of bytes of fields decoded by a single task (at least, unless the events end)
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	ParallelEventReader(File file, ForkJoinPool pool, int chunkSize) throws IOException {
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+		this.chunksAhead = 2 * pool.getParallelism();
+		// the header and the summary exactly as read sequentially
+		this.head = new EventReader(file);
+		this.scanPosition = head.getPosition();
+		this.scanBufferStart = scanPosition;
+		this.scanBuffer.flip();
+		try {
+			this.fis = new FileInputStream(file);
+		} catch (IOException ex) {
+			head.close();
+			throw ex;
+		}
+
+		this.channel = fis.getChannel();
+		this.size = channel.size();
+		if (pool.getParallelism() < 2 && scanPosition >= 0) {
+			// nothing to gain from decoding ahead
+			try {
+				continueSequentially(scanPosition);
+			} catch (IOException ex) {
+				close();
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Gets the summary values of the recording, see {@link EventReader#getSummary()}.
+	 * @return the summary
+	 */
+	public RecordingIndex getSummary() {
+		return head.getSummary();
+	}
+
+	/**
+	 * Moves to the next batch of events of a single sensor.
+	 * @return true if a batch is available, false at the end of the events
+	 * @throws IOException in case of an IO issue or an undecodable block
+	 */
+	public boolean nextBatch() throws IOException {
+		while (true) {
+			if (sequential != null) {
+				batch = sequential.nextBatch() ? sequential.getBatch() : null;
+				return batch != null;
+			}
+
+			if (chunkBlocks != null && chunkIndex < chunkBlocks.size()) {
+				batch = chunkBlocks.get(chunkIndex++);
+				return true;
+			}
+
+			while (tasks.size() < chunksAhead && scanPosition >= 0) {
+				long start = scanPosition;
+				long end = scanChunk();
+				if (end > start) {
+					ChunkTask task = new ChunkTask(channel, start, end);
+					pool.execute(task);
+					tasks.add(task);
+				}
+			}
+
+			ChunkTask task = tasks.poll();
+			if (task == null) {
+				if (tailPosition < 0) {
+					batch = null;
+					return false;
+				}
+
+				continueSequentially(tailPosition);
+			} else {
+				chunkBlocks = join(task);
+				chunkIndex = 0;
+				if (chunkBlocks == null) {
+					// the chunk contains a corrupt part
+					for (ChunkTask pending : tasks) {
+						pending.cancel(false);
+					}
+
+					tasks.clear();
+					continueSequentially(task.start);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the current batch of events. The block must not be modified, it may be reused after the next call
+	 * of {@link #nextBatch()}.
+	 * @return events of a single sensor, null at the end of the events
+	 */
+	public EventBlock getBatch() {
+		return batch;
+	}
+
+	/**
+	 * Gets the number of corrupt or truncated parts of the file skipped so far.
+	 * @return number of parts
+	 */
+	public int getCorruptParts() {
+		return head.getCorruptParts() + (sequential == null ? 0 : sequential.getCorruptParts());
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (ChunkTask task : tasks) {
+			task.cancel(false);
+		}
+
+		tasks.clear();
+		try {
+			head.close();
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Follows the field headers from the current scan position up to the size of a chunk.
+	 * @return end of the chunk (exclusive)
+	 */
+	private long scanChunk() throws IOException {
+		long start = scanPosition;
+		while (scanPosition - start < chunkSize) {
+			if (!fillScanBuffer(scanPosition, FIELD_HEADER)) {
+				// no end-of-file marker, let the sequential reader handle the end
+				return stopScan(scanPosition);
+			}
+
+			int offset = (int)(scanPosition - scanBufferStart);
+			int totalLength = scanBuffer.getInt(offset + 1);
+			int id = scanBuffer.getShort(offset + 5) & 0xffff;
+			if (scanBuffer.get(offset) != (byte)'#' || totalLength < 2 || scanPosition + 1 + 4 + totalLength > size) {
+				return stopScan(scanPosition);
+			} else if (id == 0xffff) {
+				long end = scanPosition;
+				scanPosition = -1;
+				return end;
+			}
+
+			scanPosition += 1 + 4 + totalLength;
+		}
+
+		return scanPosition;
+	}
+
+	private long stopScan(long position) {
+		tailPosition = position;
+		scanPosition = -1;
+		return position;
+	}
+
+	/**
+	 * Makes sure the given number of bytes following a position of the file is available in the scan buffer.
+	 * @return false if the file ends earlier
+	 */
+	private boolean fillScanBuffer(long position, int count) throws IOException {
+		if (position >= scanBufferStart && position + count <= scanBufferStart + scanBuffer.limit()) {
+			return true;
+		}
+
+		scanBuffer.clear();
+		scanBufferStart = position;
+		while (scanBuffer.position() < count) {
+			if (channel.read(scanBuffer, position + scanBuffer.position()) < 0) {
+				break;
+			}
+		}
+
+		scanBuffer.flip();
+		return scanBuffer.limit() >= count;
+	}
+
+	/**
+	 * Continues reading sequentially, e.g. from the beginning of a chunk with a corrupt part.
+	 * @param position beginning of a field
+	 */
+	private void continueSequentially(long position) throws IOException {
+		channel.position(position);
+		sequential = new EventReader(FieldReader.map(channel, FieldReader.DEFAULT_WINDOW_SIZE), Long.MAX_VALUE, true);
+	}
+
+	private static List<EventBlock> join(ChunkTask task) throws IOException {
+		try {
+			return task.join();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	/**
+	 * Decodes the events of a chunk into new blocks.
+	 */
+	private static class ChunkTask extends RecursiveTask<List<EventBlock>> {
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+
+		ChunkTask(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return the decoded blocks in the order of the file, null if the chunk contains a corrupt part
+		 */
+		@Override
+		protected List<EventBlock> compute() {
+			EventReader reader = null;
+			try {
+				ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+				reader = new EventReader(new FieldReader(chunk), end - start, false);
+				List<EventBlock> blocks = new ArrayList<>();
+				while (reader.nextBatch() && reader.getCorruptParts() == 0) {
+					blocks.add(reader.getBatch());
+				}
+
+				return reader.getCorruptParts() > 0 ? null : blocks;
+			} catch (IOException ex) {
+				if (reader != null && reader.getCorruptParts() > 0) {
+					// behind a corrupt part, up to the sequential reader
+					return null;
+				}
+
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+}
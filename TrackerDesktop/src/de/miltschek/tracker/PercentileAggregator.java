@@ -0,0 +1,277 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.util.Arrays;
+
+/**
+ * Streaming percentiles of the values, estimated with a merging t-digest (T. Dunning): the values are collected
+ * in a buffer and merged into weighted centroids, small ones at the tails and larger ones in the middle, so that
+ * even extreme percentiles stay accurate. The number of centroids is limited by the compression,
+ * the memory does not depend on the number of values.
+ */
+public class PercentileAggregator implements Aggregator {
+	/**
+	 * Compression of the default aggregator, about as many centroids at most.
+	 */
+	public static final int DEFAULT_COMPRESSION = 100;
+
+	private final double compression;
+	// sine and cosine of one unit of the scale function as an angle, see getQuantileLimit
+	private final double unitSine;
+	private final double unitCosine;
+	private final double[] buffer;
+	private int buffered;
+	// order-preserving bit patterns of the buffered values while sorting them and the counts of their digits
+	private final long[] keys;
+	private final long[] sortedKeys;
+	private final int[] digitCounts = new int[257];
+	// centroids in ascending order of their means, swapped with the merged ones on each merge
+	private double[] means;
+	private double[] weights;
+	private double[] mergedMeans;
+	private double[] mergedWeights;
+	private int centroids;
+	private double totalWeight;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+
+	/**
+	 * Creates an aggregator of the default compression.
+	 */
+	public PercentileAggregator() {
+		this(DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Creates an aggregator.
+	 * @param compression upper limit of the number of centroids, higher values give more accurate estimates
+	 * @throws IllegalArgumentException if the compression is less than 10
+	 */
+	public PercentileAggregator(int compression) {
+		if (compression < 10) {
+			throw new IllegalArgumentException("Compression too low " + compression);
+		}
+
+		this.compression = compression;
+		this.unitSine = Math.sin(2 * Math.PI / compression);
+		this.unitCosine = Math.cos(2 * Math.PI / compression);
+		this.buffer = new double[5 * compression];
+		this.keys = new long[buffer.length];
+		this.sortedKeys = new long[buffer.length];
+		// the centroids (at most compression + 2) and the buffered values merged
+		int capacity = 2 * compression + buffer.length;
+		this.means = new double[capacity];
+		this.weights = new double[capacity];
+		this.mergedMeans = new double[capacity];
+		this.mergedWeights = new double[capacity];
+	}
+
+	/**
+	 * Adds a value, NaN is ignored.
+	 * @param timestamp timestamp of the event in nanoseconds
+	 * @param value the value
+	 */
+	@Override
+	public void add(long timestamp, double value) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+
+		if (totalWeight == 0 && buffered == 0) {
+			min = value;
+			max = value;
+		} else if (value < min) {
+			min = value;
+		} else if (value > max) {
+			max = value;
+		}
+
+		buffer[buffered++] = value;
+		if (buffered == buffer.length) {
+			merge();
+		}
+	}
+
+	/**
+	 * Returns the number of values.
+	 * @return number of values
+	 */
+	public long getCount() {
+		return (long)totalWeight + buffered;
+	}
+
+	/**
+	 * Estimates a quantile by interpolating between the centroids, the smallest and the largest value.
+	 * @param quantile quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+	 * @return estimate, NaN if there are no values
+	 */
+	public double getQuantile(double quantile) {
+		merge();
+		if (centroids == 0) {
+			return Double.NaN;
+		}
+
+		double rank = Math.max(0, Math.min(1, quantile)) * totalWeight;
+		// points of the interpolation: the minimum at rank 0, each mean at the middle of its centroid, the maximum at the total weight
+		double lowerRank = 0;
+		double lowerValue = min;
+		double cumulative = 0;
+		for (int n = 0; n < centroids; n++) {
+			double upperRank = cumulative + weights[n] / 2;
+			if (rank < upperRank) {
+				return interpolate(rank, lowerRank, lowerValue, upperRank, means[n]);
+			}
+
+			lowerRank = upperRank;
+			lowerValue = means[n];
+			cumulative += weights[n];
+		}
+
+		return interpolate(rank, lowerRank, lowerValue, totalWeight, max);
+	}
+
+	private static double interpolate(double rank, double lowerRank, double lowerValue, double upperRank, double upperValue) {
+		if (upperRank <= lowerRank) {
+			return upperValue;
+		}
+
+		return lowerValue + (upperValue - lowerValue) * (rank - lowerRank) / (upperRank - lowerRank);
+	}
+
+	/**
+	 * Merges the buffered values into the centroids.
+	 */
+	private void merge() {
+		if (buffered == 0) {
+			return;
+		}
+
+		sortBuffer();
+		double total = totalWeight + buffered;
+		int merged = 0;
+		// weight of the centroids before the current one and the weight the current one may grow up to
+		double weightBefore = 0;
+		double weightLimit = 0;
+		int centroid = 0;
+		int value = 0;
+		while (centroid < centroids || value < buffered) {
+			double mean;
+			double weight;
+			if (value >= buffered || (centroid < centroids && means[centroid] <= buffer[value])) {
+				mean = means[centroid];
+				weight = weights[centroid++];
+			} else {
+				mean = buffer[value++];
+				weight = 1;
+			}
+
+			// the merged centroids hold the sums of their values until complete
+			if (merged > 0 && weightBefore + mergedWeights[merged - 1] + weight <= weightLimit) {
+				mergedMeans[merged - 1] += mean * weight;
+				mergedWeights[merged - 1] += weight;
+			} else {
+				if (merged > 0) {
+					mergedMeans[merged - 1] /= mergedWeights[merged - 1];
+					weightBefore += mergedWeights[merged - 1];
+				}
+
+				weightLimit = total * getQuantileLimit(weightBefore / total);
+				mergedMeans[merged] = mean * weight;
+				mergedWeights[merged++] = weight;
+			}
+		}
+
+		mergedMeans[merged - 1] /= mergedWeights[merged - 1];
+
+		double[] swap = means;
+		means = mergedMeans;
+		mergedMeans = swap;
+		swap = weights;
+		weights = mergedWeights;
+		mergedWeights = swap;
+		centroids = merged;
+		totalWeight = total;
+		buffered = 0;
+	}
+
+	/**
+	 * Sorts the buffered values by a radix sort of their bit patterns, byte by byte, skipping the bytes all values
+	 * have in common (e.g. most of the bytes of integral readings like the heart rate).
+	 */
+	private void sortBuffer() {
+		long[] from = keys;
+		long[] to = sortedKeys;
+		for (int n = 0; n < buffered; n++) {
+			long bits = Double.doubleToRawLongBits(buffer[n]);
+			// negative values with all bits inverted, positive ones with the sign bit set: ascending as unsigned numbers
+			from[n] = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+		}
+
+		for (int shift = 0; shift < 64; shift += 8) {
+			Arrays.fill(digitCounts, 0);
+			for (int n = 0; n < buffered; n++) {
+				digitCounts[(int)(from[n] >>> shift & 0xff) + 1]++;
+			}
+
+			if (digitCounts[(int)(from[0] >>> shift & 0xff) + 1] == buffered) {
+				continue;
+			}
+
+			for (int digit = 1; digit < digitCounts.length; digit++) {
+				digitCounts[digit] += digitCounts[digit - 1];
+			}
+
+			for (int n = 0; n < buffered; n++) {
+				to[digitCounts[(int)(from[n] >>> shift & 0xff)]++] = from[n];
+			}
+
+			long[] swap = from;
+			from = to;
+			to = swap;
+		}
+
+		for (int n = 0; n < buffered; n++) {
+			long key = from[n];
+			buffer[n] = Double.longBitsToDouble(key ^ ((~key >> 63) | Long.MIN_VALUE));
+		}
+	}
+
+	/**
+	 * Calculates the quantile a centroid starting at the given quantile may grow up to: one unit of the scale function
+	 * k(q) = compression / (2 pi) * asin(2q - 1), ranging from -compression / 4 to compression / 4. Two neighboring
+	 * centroids span more than one unit, hence there are at most about compression centroids.
+	 * The inverse sin(asin(2q - 1) + 2 pi / compression) is expanded to save the trigonometric functions.
+	 */
+	private double getQuantileLimit(double quantile) {
+		double sine = 2 * quantile - 1;
+		if (sine >= unitCosine) {
+			return 1;
+		}
+
+		// the cosine of the angle is sqrt(1 - (2q - 1)^2)
+		return (sine * unitCosine + 2 * Math.sqrt(quantile * (1 - quantile)) * unitSine + 1) / 2;
+	}
+}
@@ -0,0 +1,469 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Optional trailer of a recording: a copy of the summary values and the location of the events of each sensor,
+ * so that neither a list of recordings nor the access to a single sensor needs to scan the file.
+ * The trailer is a field ({@link #TRAILER}) following the event blocks, found through the footer: a field
+ * ({@link #FOOTER}) holding the offset of the trailer, followed by the end-of-file marker. Both have a fixed size,
+ * so {@link #read(FileChannel)} finds the trailer by reading the end of the file.
+ */
+public class RecordingIndex {
+	/**
+	 * Id of the trailer field.
+	 */
+	public static final int TRAILER = 0x3001;
+	/**
+	 * Id of the footer field, its data is the offset of the trailer field in the file (long).
+	 */
+	public static final int FOOTER = 0x3002;
+	/**
+	 * Size of the footer field and the end-of-file marker following it.
+	 */
+	public static final int FOOTER_LENGTH = (1 + 4 + 2 + 8) + (1 + 4 + 2);
+
+	// start indicator, total length and id
+	private static final int FIELD_OVERHEAD = 1 + 4 + 2;
+	// longs of the timestamps, floats and ints of the statistics
+	private static final int SUMMARY_LENGTH = 4 * 8 + 7 * 4;
+	// id, offset, length, number of events
+	private static final int SECTION_LENGTH = 2 + 8 + 8 + 4;
+	// the end of the file read at once, holding the trailer too if written by the app
+	private static final int TAIL_LENGTH = 512;
+	// a trailer of 255 sections is below 6 KiB, anything much larger is corrupt
+	private static final int MAX_TRAILER_LENGTH = 64 * 1024;
+	private static final int[] SENSORS = { EventBlock.HEART_RATE, EventBlock.STEPS, EventBlock.AIR_PRESSURE, EventBlock.GEO };
+
+	private long startTimestampRtc;
+	private long stopTimestampRtc;
+	private long startNanoseconds;
+	private long stopNanoseconds;
+	private float avgHeartRate;
+	private int maxHeartRate;
+	private int totalSteps;
+	private float avgStepRate;
+	private float totalAscent;
+	private float totalDescent;
+	private float avgSpeed;
+	private final long[] sectionOffsets = new long[SENSORS.length];
+	private final long[] sectionLengths = new long[SENSORS.length];
+	private final int[] eventCounts = new int[SENSORS.length];
+
+	/**
+	 * Reads the trailer of a recording, if any. The position of the channel is not changed.
+	 * @param channel the recording
+	 * @return the trailer or null if the file does not end with a footer (written before the trailer was introduced)
+	 * @throws IOException in case of an IO issue or a corrupt trailer, including sections outside of the file
+	 */
+	public static RecordingIndex read(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size < FileItem.HEADER.length + 2 + FIELD_OVERHEAD + FOOTER_LENGTH) {
+			return null;
+		}
+
+		long tailStart = Math.max(0, size - TAIL_LENGTH);
+		ByteBuffer tail = readFully(channel, tailStart, (int)(size - tailStart));
+		int footer = tail.limit() - FOOTER_LENGTH;
+		if (!isField(tail, footer, FOOTER, 8) || !isField(tail, footer + FIELD_OVERHEAD + 8, 0xffff, 0)) {
+			return null;
+		}
+
+		long trailerOffset = tail.getLong(footer + FIELD_OVERHEAD);
+		long trailerEnd = size - FOOTER_LENGTH;
+		if (trailerOffset < FileItem.HEADER.length + 2 || trailerOffset > trailerEnd - FIELD_OVERHEAD
+				|| trailerEnd - trailerOffset > MAX_TRAILER_LENGTH) {
+			throw new IOException("Invalid offset of the trailer " + trailerOffset + ".");
+		}
+
+		int length = (int)(trailerEnd - trailerOffset) - FIELD_OVERHEAD;
+		ByteBuffer trailer;
+		int position;
+		if (trailerOffset >= tailStart) {
+			trailer = tail;
+			position = (int)(trailerOffset - tailStart);
+		} else {
+			// larger than expected, needs a second read, but only if there is a trailer at all
+			if (!isField(readFully(channel, trailerOffset, FIELD_OVERHEAD), 0, TRAILER, length)) {
+				throw new IOException("Trailer not found at offset " + trailerOffset + ".");
+			}
+
+			trailer = readFully(channel, trailerOffset, FIELD_OVERHEAD + length);
+			position = 0;
+		}
+
+		if (!isField(trailer, position, TRAILER, length)) {
+			throw new IOException("Trailer not found at offset " + trailerOffset + ".");
+		}
+
+		RecordingIndex index = new RecordingIndex();
+		index.decode(trailer, position + FIELD_OVERHEAD, length);
+		index.checkSections(trailerOffset);
+		return index;
+	}
+
+	/**
+	 * Checks that each section lies between the header of the file and the trailer,
+	 * the trailer has no checksum of its own.
+	 * @param trailerOffset offset of the trailer field in the file
+	 * @throws IOException if a section is outside of the range
+	 */
+	private void checkSections(long trailerOffset) throws IOException {
+		for (int n = 0; n < SENSORS.length; n++) {
+			long offset = sectionOffsets[n];
+			long length = sectionLengths[n];
+			if (length < 0 || eventCounts[n] < 0 || (length > 0
+					&& (offset < FileItem.HEADER.length + 2 || offset > trailerOffset || length > trailerOffset - offset))) {
+				throw new IOException("Invalid section of the blocks 0x" + Integer.toHexString(SENSORS[n]) + " at " + offset + "+" + length + ".");
+			}
+		}
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Premature end of file.");
+			}
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	private static boolean isField(ByteBuffer buffer, int position, int id, int dataLength) {
+		return buffer.get(position) == (byte)'#'
+				&& buffer.getInt(position + 1) == 2 + dataLength
+				&& (buffer.getShort(position + 1 + 4) & 0xffff) == id;
+	}
+
+	private static int getSensorIndex(int id) {
+		for (int n = 0; n < SENSORS.length; n++) {
+			if (SENSORS[n] == id) {
+				return n;
+			}
+		}
+
+		throw new IllegalArgumentException("Unknown block id 0x" + Integer.toHexString(id));
+	}
+
+	/**
+	 * Sets the location of the events of a sensor: a contiguous run of its event blocks.
+	 * @param id id of the blocks, e.g. {@link EventBlock#HEART_RATE}
+	 * @param offset offset of the first block field in the file
+	 * @param length total length of the block fields in bytes
+	 * @param events number of events in the blocks
+	 */
+	public void setSection(int id, long offset, long length, int events) {
+		int sensor = getSensorIndex(id);
+		sectionOffsets[sensor] = offset;
+		sectionLengths[sensor] = length;
+		eventCounts[sensor] = events;
+	}
+
+	/**
+	 * Gets the offset of the first block field of a sensor in the file.
+	 * @param id id of the blocks, e.g. {@link EventBlock#HEART_RATE}
+	 * @return offset, 0 if there are no events of the sensor
+	 */
+	public long getSectionOffset(int id) {
+		return sectionOffsets[getSensorIndex(id)];
+	}
+
+	/**
+	 * Gets the total length of the block fields of a sensor.
+	 * @param id id of the blocks, e.g. {@link EventBlock#HEART_RATE}
+	 * @return length in bytes, 0 if there are no events of the sensor
+	 */
+	public long getSectionLength(int id) {
+		return sectionLengths[getSensorIndex(id)];
+	}
+
+	/**
+	 * Gets the number of events of a sensor.
+	 * @param id id of the blocks, e.g. {@link EventBlock#HEART_RATE}
+	 * @return number of events
+	 */
+	public int getEventCount(int id) {
+		return eventCounts[getSensorIndex(id)];
+	}
+
+	/**
+	 * Gets the length of the encoded trailer, the data of the {@link #TRAILER} field.
+	 * @return length in bytes
+	 */
+	public int getEncodedLength() {
+		return SUMMARY_LENGTH + 1 + SENSORS.length * SECTION_LENGTH;
+	}
+
+	/**
+	 * Encodes the trailer: the summary values in the order of their field ids (0x1001 to 0x1017),
+	 * the number of sections and per section the block id, the offset, the length and the number of events.
+	 * @param buffer target, needs {@link #getEncodedLength()} bytes
+	 */
+	public void encode(ByteBuffer buffer) {
+		buffer.putLong(startTimestampRtc);
+		buffer.putLong(stopTimestampRtc);
+		buffer.putLong(startNanoseconds);
+		buffer.putLong(stopNanoseconds);
+		buffer.putFloat(avgHeartRate);
+		buffer.putInt(maxHeartRate);
+		buffer.putInt(totalSteps);
+		buffer.putFloat(avgStepRate);
+		buffer.putFloat(totalAscent);
+		buffer.putFloat(totalDescent);
+		buffer.putFloat(avgSpeed);
+
+		buffer.put((byte)SENSORS.length);
+		for (int n = 0; n < SENSORS.length; n++) {
+			buffer.putShort((short)SENSORS[n]);
+			buffer.putLong(sectionOffsets[n]);
+			buffer.putLong(sectionLengths[n]);
+			buffer.putInt(eventCounts[n]);
+		}
+	}
+
+	/**
+	 * Decodes a trailer, sections of unknown sensors are skipped.
+	 * @param buffer buffer holding the trailer (big-endian)
+	 * @param offset absolute offset of the trailer within the buffer
+	 * @param length length of the trailer in bytes
+	 * @throws IOException if the trailer is truncated
+	 */
+	public void decode(ByteBuffer buffer, int offset, int length) throws IOException {
+		ByteBuffer data = buffer.duplicate();
+		data.limit(offset + length);
+		data.position(offset);
+		try {
+			startTimestampRtc = data.getLong();
+			stopTimestampRtc = data.getLong();
+			startNanoseconds = data.getLong();
+			stopNanoseconds = data.getLong();
+			avgHeartRate = data.getFloat();
+			maxHeartRate = data.getInt();
+			totalSteps = data.getInt();
+			avgStepRate = data.getFloat();
+			totalAscent = data.getFloat();
+			totalDescent = data.getFloat();
+			avgSpeed = data.getFloat();
+
+			int sections = data.get() & 0xff;
+			for (int n = 0; n < sections; n++) {
+				int id = data.getShort() & 0xffff;
+				long sectionOffset = data.getLong();
+				long sectionLength = data.getLong();
+				int events = data.getInt();
+				for (int sensor : SENSORS) {
+					if (sensor == id) {
+						setSection(id, sectionOffset, sectionLength, events);
+					}
+				}
+			}
+		} catch (BufferUnderflowException ex) {
+			throw new IOException("Truncated trailer.");
+		}
+	}
+
+	/**
+	 * Gets the beginning of the sport activity (field 0x1001).
+	 * @return milliseconds since Jan, 1st 1970 UTC
+	 */
+	public long getStartTimestampRtc() {
+		return startTimestampRtc;
+	}
+
+	/**
+	 * Sets the beginning of the sport activity (field 0x1001).
+	 * @param startTimestampRtc milliseconds since Jan, 1st 1970 UTC
+	 */
+	public void setStartTimestampRtc(long startTimestampRtc) {
+		this.startTimestampRtc = startTimestampRtc;
+	}
+
+	/**
+	 * Gets the end of the sport activity (field 0x1002).
+	 * @return milliseconds since Jan, 1st 1970 UTC
+	 */
+	public long getStopTimestampRtc() {
+		return stopTimestampRtc;
+	}
+
+	/**
+	 * Sets the end of the sport activity (field 0x1002).
+	 * @param stopTimestampRtc milliseconds since Jan, 1st 1970 UTC
+	 */
+	public void setStopTimestampRtc(long stopTimestampRtc) {
+		this.stopTimestampRtc = stopTimestampRtc;
+	}
+
+	/**
+	 * Gets the beginning of the sport activity in the time base of the sensor events (field 0x1003).
+	 * @return nanoseconds
+	 */
+	public long getStartNanoseconds() {
+		return startNanoseconds;
+	}
+
+	/**
+	 * Sets the beginning of the sport activity in the time base of the sensor events (field 0x1003).
+	 * @param startNanoseconds nanoseconds
+	 */
+	public void setStartNanoseconds(long startNanoseconds) {
+		this.startNanoseconds = startNanoseconds;
+	}
+
+	/**
+	 * Gets the end of the sport activity in the time base of the sensor events (field 0x1004).
+	 * @return nanoseconds
+	 */
+	public long getStopNanoseconds() {
+		return stopNanoseconds;
+	}
+
+	/**
+	 * Sets the end of the sport activity in the time base of the sensor events (field 0x1004).
+	 * @param stopNanoseconds nanoseconds
+	 */
+	public void setStopNanoseconds(long stopNanoseconds) {
+		this.stopNanoseconds = stopNanoseconds;
+	}
+
+	/**
+	 * Gets the average heart rate (field 0x1011).
+	 * @return beats per minute
+	 */
+	public float getAvgHeartRate() {
+		return avgHeartRate;
+	}
+
+	/**
+	 * Sets the average heart rate (field 0x1011).
+	 * @param avgHeartRate beats per minute
+	 */
+	public void setAvgHeartRate(float avgHeartRate) {
+		this.avgHeartRate = avgHeartRate;
+	}
+
+	/**
+	 * Gets the maximum heart rate (field 0x1012).
+	 * @return beats per minute
+	 */
+	public int getMaxHeartRate() {
+		return maxHeartRate;
+	}
+
+	/**
+	 * Sets the maximum heart rate (field 0x1012).
+	 * @param maxHeartRate beats per minute
+	 */
+	public void setMaxHeartRate(int maxHeartRate) {
+		this.maxHeartRate = maxHeartRate;
+	}
+
+	/**
+	 * Gets the total number of steps (field 0x1013).
+	 * @return number of steps
+	 */
+	public int getTotalSteps() {
+		return totalSteps;
+	}
+
+	/**
+	 * Sets the total number of steps (field 0x1013).
+	 * @param totalSteps number of steps
+	 */
+	public void setTotalSteps(int totalSteps) {
+		this.totalSteps = totalSteps;
+	}
+
+	/**
+	 * Gets the average step rate (field 0x1014).
+	 * @return steps per minute
+	 */
+	public float getAvgStepRate() {
+		return avgStepRate;
+	}
+
+	/**
+	 * Sets the average step rate (field 0x1014).
+	 * @param avgStepRate steps per minute
+	 */
+	public void setAvgStepRate(float avgStepRate) {
+		this.avgStepRate = avgStepRate;
+	}
+
+	/**
+	 * Gets the total ascent (field 0x1015).
+	 * @return meters
+	 */
+	public float getTotalAscent() {
+		return totalAscent;
+	}
+
+	/**
+	 * Sets the total ascent (field 0x1015).
+	 * @param totalAscent meters
+	 */
+	public void setTotalAscent(float totalAscent) {
+		this.totalAscent = totalAscent;
+	}
+
+	/**
+	 * Gets the total descent (field 0x1016).
+	 * @return meters
+	 */
+	public float getTotalDescent() {
+		return totalDescent;
+	}
+
+	/**
+	 * Sets the total descent (field 0x1016).
+	 * @param totalDescent meters
+	 */
+	public void setTotalDescent(float totalDescent) {
+		this.totalDescent = totalDescent;
+	}
+
+	/**
+	 * Gets the average speed (field 0x1017).
+	 * @return meters per second
+	 */
+	public float getAvgSpeed() {
+		return avgSpeed;
+	}
+
+	/**
+	 * Sets the average speed (field 0x1017).
+	 * @param avgSpeed meters per second
+	 */
+	public void setAvgSpeed(float avgSpeed) {
+		this.avgSpeed = avgSpeed;
+	}
+}
@@ -23,8 +23,10 @@
  */
 package de.miltschek.tracker;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -43,28 +45,65 @@ public class SportActivityData {
     private float totalDescent;
     private float avgSpeed;
     
-    // for additional statistic calculation (heart rate)
-    float calculatedAvgHeartRate = 0, calculatedMaxHeartRate = 0;
+    // statistics of the events added, further aggregators can be plugged in, see getStatistics()
+    private final ActivityStatistics statistics = new ActivityStatistics();
+    private final SummaryAggregator heartRate = new SummaryAggregator();
+    private final SummaryAggregator stepRate = new SummaryAggregator();
+    private final RateAggregator steps = new RateAggregator(stepRate);
+    private final SummaryAggregator speed = new SummaryAggregator();
+    private final SummaryAggregator lateralAccuracy = new SummaryAggregator();
+
+    // number of events by their scope and accuracy
     int accurateHeartRateEvents = 0, inaccurateHeartRateEvents = 0, outOfScopeHeartRateEvents = 0;
-    
-    // for additional statistic calculation (steps)
-	long calculatedFirstStepsTs = 0;
-    long calculatedLastStepsTs = 0;
-    int calculatedInitialSteps = 0;
-    int calculatedLastSteps = 0;
-    int calculatedFinalSteps = 0;
-    float calculatedMaxStepsPerMinute = 0;
     int accurateCountStepsEvents = 0, inaccurateStepsEvents = 0, outOfScopeStepsEvents = 0;
-    
-    float calculatedAvgSpeed = 0, calculatedMaxSpeed = 0;
     int validGeoEvents = 0, outOfScopeGeoEvents = 0;
-    float calculatedAvgAccuracy = 0, calculatedBestAccuracy = 999f, calculatedWorstAccuracy = 0;
 
-    // individual events
-    private List<HeartRateEvent> heartRateEvents = new ArrayList<HeartRateEvent>();
-    private List<StepsEvent> stepEvents = new ArrayList<StepsEvent>();
-    private List<GeoEvent> geoEvents = new ArrayList<GeoEvent>();
-    private List<AirPressureEvent> airPressureEvents = new ArrayList<AirPressureEvent>();
+    // individual events, stored column by column in full blocks of primitive arrays
+    private final List<EventBlock> heartRateBlocks = new ArrayList<EventBlock>();
+    private final List<EventBlock> stepsBlocks = new ArrayList<EventBlock>();
+    private final List<EventBlock> geoBlocks = new ArrayList<EventBlock>();
+    private final List<EventBlock> airPressureBlocks = new ArrayList<EventBlock>();
+    private final boolean keepEvents;
+    
+    /**
+     * Creates a container keeping all events added.
+     */
+    public SportActivityData() {
+    	this(true);
+    }
+    
+    /**
+     * Creates a container.
+     * @param keepEvents true to keep the values of all events added (reused views of an {@link EventCursor} included),
+     * false to update the statistics only (constant memory)
+     */
+    public SportActivityData(boolean keepEvents) {
+    	this.keepEvents = keepEvents;
+    	statistics.setScope(startNanoseconds, stopNanoseconds);
+    	statistics.addAggregator(ActivityStatistics.HEART_RATE, heartRate);
+    	statistics.addAggregator(ActivityStatistics.STEPS, steps);
+    	statistics.addAggregator(ActivityStatistics.SPEED, speed);
+    	statistics.addAggregator(ActivityStatistics.LATERAL_ACCURACY, lateralAccuracy);
+    }
+    
+    /**
+     * Sets all stored values of the sport activity from a summary.
+     * @param summary summary of a recording, see {@link EventReader#getSummary()}
+     */
+    public void setSummary(RecordingIndex summary) {
+    	startTimestampRtc = summary.getStartTimestampRtc();
+    	stopTimestampRtc = summary.getStopTimestampRtc();
+    	startNanoseconds = summary.getStartNanoseconds();
+    	stopNanoseconds = summary.getStopNanoseconds();
+    	avgHeartRate = summary.getAvgHeartRate();
+    	maxHeartRate = summary.getMaxHeartRate();
+    	totalSteps = summary.getTotalSteps();
+    	avgStepRate = summary.getAvgStepRate();
+    	totalAscent = summary.getTotalAscent();
+    	totalDescent = summary.getTotalDescent();
+    	avgSpeed = summary.getAvgSpeed();
+    	statistics.setScope(startNanoseconds, stopNanoseconds);
+    }
     
     /**
      * Returns the real time clock timestamp of the beginning of the sport activity.
@@ -112,6 +151,7 @@ public class SportActivityData {
 	 */
 	public void setStartNanoseconds(long startNanoseconds) {
 		this.startNanoseconds = startNanoseconds;
+		statistics.setScope(startNanoseconds, stopNanoseconds);
 	}
 	
 	/**
@@ -128,6 +168,7 @@ public class SportActivityData {
 	 */
 	public void setStopNanoseconds(long stopNanoseconds) {
 		this.stopNanoseconds = stopNanoseconds;
+		statistics.setScope(startNanoseconds, stopNanoseconds);
 	}
 	
 	/**
@@ -243,97 +284,100 @@ public class SportActivityData {
 	}
 
 	/**
-	 * Stores a new heart event and updates the statistics.
+	 * Stores a new heart event (if keeping the events) and updates the statistics.
 	 * @param heartEvent heart event
 	 */
     public void addEvent(HeartRateEvent heartEvent) {
-    	this.heartRateEvents.add(heartEvent);
+    	if (keepEvents) {
+    		EventBlock block = getAppendableBlock(heartRateBlocks, EventBlock.HEART_RATE);
+    		int n = block.add(heartEvent.getTsNs(), heartEvent.getAccuracy());
+    		block.setInt(EventBlock.HEART_RATE_RATE, n, heartEvent.getRate());
+    	}
     	
-    	if (heartEvent.getTsNs() < startNanoseconds || heartEvent.getTsNs() > stopNanoseconds) {
+    	if (!statistics.isInScope(heartEvent.getTsNs())) {
     		outOfScopeHeartRateEvents++;
-    	} else if (heartEvent.getAccuracy() >= 1) {
-    		calculatedAvgHeartRate = calculatedAvgHeartRate * (accurateHeartRateEvents++ / (float)accurateHeartRateEvents) + heartEvent.getRate() / (float)accurateHeartRateEvents;
-        	if (calculatedMaxHeartRate < heartEvent.getRate()) {
-        		calculatedMaxHeartRate = heartEvent.getRate();
-        	}
-        } else {
-        	inaccurateHeartRateEvents++;
-        }
+    	} else if (heartEvent.getAccuracy() >= ActivityStatistics.MIN_ACCURACY) {
+    		accurateHeartRateEvents++;
+    	} else {
+    		inaccurateHeartRateEvents++;
+    	}
+
+    	statistics.addHeartRate(heartEvent.getTsNs(), heartEvent.getAccuracy(), heartEvent.getRate());
     }
 
     /**
-     * Stores a new steps event and updates the statistics.
+     * Stores a new steps event (if keeping the events) and updates the statistics.
      * @param stepsEvent steps event
      */
     public void addEvent(StepsEvent stepsEvent) {
-    	this.stepEvents.add(stepsEvent);
+    	if (keepEvents) {
+    		EventBlock block = getAppendableBlock(stepsBlocks, EventBlock.STEPS);
+    		int n = block.add(stepsEvent.getTsNs(), stepsEvent.getAccuracy());
+    		block.setInt(EventBlock.STEPS_STEPS, n, stepsEvent.getSteps());
+    	}
     	
-    	if (stepsEvent.getTsNs() < startNanoseconds || stepsEvent.getTsNs() > stopNanoseconds) {
+    	if (!statistics.isInScope(stepsEvent.getTsNs())) {
     		outOfScopeStepsEvents++;
-    	} else if (stepsEvent.getAccuracy() >= 1) {
-	    	if (calculatedLastStepsTs == 0) {
-	    		calculatedFirstStepsTs = stepsEvent.getTsNs();
-	    		calculatedLastStepsTs = stepsEvent.getTsNs();
-	    		calculatedLastSteps = stepsEvent.getSteps();
-	    		calculatedInitialSteps = stepsEvent.getSteps();
-	        } else {
-	        	accurateCountStepsEvents++;
-	    		calculatedFinalSteps = stepsEvent.getSteps();
-	    		
-	    		int deltaSteps = stepsEvent.getSteps() - calculatedLastSteps;
-	    		float deltaTimeMinutes = (stepsEvent.getTsNs() - calculatedLastStepsTs) / 1000f / 1000f / 1000f / 60f;
-	    		float stepsPerMinute = deltaSteps / deltaTimeMinutes;
-	    		
-	    		if (calculatedMaxStepsPerMinute < stepsPerMinute) {
-	    			calculatedMaxStepsPerMinute = stepsPerMinute;
-	    		}
-	    		
-	    		calculatedLastStepsTs = stepsEvent.getTsNs();
-	    		calculatedLastSteps = stepsEvent.getSteps();
-	        }
+    	} else if (stepsEvent.getAccuracy() >= ActivityStatistics.MIN_ACCURACY) {
+    		// counted from the second one on, the first one is the initial state of the counter
+    		if (steps.getCount() > 0) {
+    			accurateCountStepsEvents++;
+    		}
     	} else {
-        	inaccurateStepsEvents++;
-        }
+    		inaccurateStepsEvents++;
+    	}
+
+    	statistics.addSteps(stepsEvent.getTsNs(), stepsEvent.getAccuracy(), stepsEvent.getSteps());
     }
 
     /**
-     * Stores a new air pressure event and updates the statistics.
+     * Stores a new air pressure event (if keeping the events) and updates the statistics.
      * @param airPressureEvent air pressure event
      */
     public void addEvent(AirPressureEvent airPressureEvent) {
-    	this.airPressureEvents.add(airPressureEvent);
+    	if (keepEvents) {
+    		EventBlock block = getAppendableBlock(airPressureBlocks, EventBlock.AIR_PRESSURE);
+    		int n = block.add(airPressureEvent.getTsNs(), airPressureEvent.getAccuracy());
+    		block.setFloat(EventBlock.AIR_PRESSURE_PRESSURE, n, airPressureEvent.getPressure());
+    	}
+
+    	statistics.addAirPressure(airPressureEvent.getTsNs(), airPressureEvent.getAccuracy(), airPressureEvent.getPressure());
     }
 
     /**
-     * Stores a new geo event and updates the statistics.
+     * Stores a new geo event (if keeping the events) and updates the statistics.
      * @param geoEvent geo event
      */
     public void addEvent(GeoEvent geoEvent) {
-    	this.geoEvents.add(geoEvent);
+    	if (keepEvents) {
+    		EventBlock block = getAppendableBlock(geoBlocks, EventBlock.GEO);
+    		int n = block.add(geoEvent.getTsNs(), geoEvent.getAccuracy());
+    		block.setLong(EventBlock.GEO_TICKS, n, geoEvent.getFixTsNs());
+    		block.setLong(EventBlock.GEO_TIME, n, geoEvent.getFixRtcTime());
+    		block.setDouble(EventBlock.GEO_LATITUDE, n, geoEvent.getLatitude());
+    		block.setDouble(EventBlock.GEO_LONGITUDE, n, geoEvent.getLongitude());
+    		block.setFloat(EventBlock.GEO_LATERAL_ACCURACY, n, geoEvent.getLateralAccuracy());
+    		block.setDouble(EventBlock.GEO_ALTITUDE, n, geoEvent.getAltitude());
+    		block.setFloat(EventBlock.GEO_BEARING, n, geoEvent.getBearing());
+    		block.setFloat(EventBlock.GEO_SPEED, n, geoEvent.getSpeed());
+    	}
     	
-    	if (geoEvent.getTsNs() < startNanoseconds || geoEvent.getTsNs() > stopNanoseconds) {
+    	if (!statistics.isInScope(geoEvent.getTsNs())) {
     		outOfScopeGeoEvents++;
     	} else {
     		validGeoEvents++;
-    		
-	    	calculatedAvgSpeed = calculatedAvgSpeed * ((validGeoEvents - 1) / (float)validGeoEvents)
-	    			+ geoEvent.getSpeed() / validGeoEvents;
-	    	
-	    	if (calculatedMaxSpeed < geoEvent.getSpeed()) {
-	    		calculatedMaxSpeed = geoEvent.getSpeed();
-	    	}
-	    	
-	    	calculatedAvgAccuracy = calculatedAvgAccuracy * ((validGeoEvents - 1) / (float)validGeoEvents)
-	    			+ geoEvent.getLateralAccuracy() / validGeoEvents;
-	    	
-	    	if (calculatedBestAccuracy > geoEvent.getLateralAccuracy()) {
-	    		calculatedBestAccuracy = geoEvent.getLateralAccuracy();
-	    	}
-	    	
-	    	if (calculatedWorstAccuracy < geoEvent.getLateralAccuracy()) {
-	    		calculatedWorstAccuracy = geoEvent.getLateralAccuracy();
-	    	}
     	}
+
+    	statistics.addGeo(geoEvent.getTsNs(), geoEvent.getSpeed(), geoEvent.getAltitude(), geoEvent.getLateralAccuracy());
+    }
+
+    /**
+     * Returns the statistics fed by the events added, e.g. to plug in further aggregators before adding the events.
+     * The scope of the statistics follows the beginning and the end of the sport activity.
+     * @return the statistics
+     */
+    public ActivityStatistics getStatistics() {
+    	return statistics;
     }
 
     /**
@@ -341,7 +385,7 @@ public class SportActivityData {
      * @return average heart rate (bpm)
      */
     public float getCalculatedAvgHeartRate() {
-		return calculatedAvgHeartRate;
+		return toFloat(heartRate.getMean(), 0);
 	}
 	
     /**
@@ -349,7 +393,7 @@ public class SportActivityData {
      * @return maximum heart rate (bpm)
      */
     public float getCalculatedMaxHeartRate() {
-		return calculatedMaxHeartRate;
+		return toFloat(heartRate.getMax(), 0);
 	}
 	
     /**
@@ -357,7 +401,7 @@ public class SportActivityData {
      * @return average steps frequency (steps per minute)
      */
     public float getCalculatedAvgStepsPerMinute() {
-		return (calculatedFinalSteps - calculatedInitialSteps) / ((calculatedLastStepsTs - calculatedFirstStepsTs) / 1000 / 1000 / 1000 / 60f);
+		return (float)steps.getAverageRate();
 	}
 	
     /**
@@ -365,7 +409,7 @@ public class SportActivityData {
      * @return maximum steps frequency (steps per minute)
      */
     public float getCalculatedMaxStepsPerMinute() {
-		return calculatedMaxStepsPerMinute;
+		return Math.max(0, toFloat(stepRate.getMax(), 0));
 	}
 	
     /**
@@ -373,7 +417,7 @@ public class SportActivityData {
      * @return average speed (m/s)
      */
     public float getCalculatedAvgSpeed() {
-		return calculatedAvgSpeed;
+		return toFloat(speed.getMean(), 0);
 	}
 	
     /**
@@ -381,7 +425,7 @@ public class SportActivityData {
      * @return maximum speed (m/s)
      */
     public float getCalculatedMaxSpeed() {
-		return calculatedMaxSpeed;
+		return toFloat(speed.getMax(), 0);
 	}
 	
     /**
@@ -389,7 +433,7 @@ public class SportActivityData {
      * @return average position accuracy (m)
      */
     public float getCalculatedAvgAccuracy() {
-		return calculatedAvgAccuracy;
+		return toFloat(lateralAccuracy.getMean(), 0);
 	}
 	
     /**
@@ -397,7 +441,7 @@ public class SportActivityData {
      * @return best reported position accuracy (m)
      */
     public float getCalculatedBestAccuracy() {
-		return calculatedBestAccuracy;
+		return toFloat(lateralAccuracy.getMin(), 999f);
 	}
 	
     /**
@@ -405,7 +449,7 @@ public class SportActivityData {
      * @return worst reported position accuracy (m)
      */
     public float getCalculatedWorstAccuracy() {
-		return calculatedWorstAccuracy;
+		return toFloat(lateralAccuracy.getMax(), 0);
 	}
 	
     /**
@@ -469,7 +513,7 @@ public class SportActivityData {
      * @return total amount of steps
      */
     public int getCalculatedTotalSteps() {
-    	return calculatedFinalSteps - calculatedInitialSteps;
+    	return (int)steps.getTotal();
     }
 	
     /**
@@ -481,34 +525,105 @@ public class SportActivityData {
 	}
     
     /**
-     * Returns a collection of all stored heart rate events.
+     * Returns a read-only collection of all stored heart rate events, each created on access.
      * @return collection of all stored heart rate events
      */
     public Collection<? extends HeartRateEvent> getHeartRateEvents() {
-    	return heartRateEvents;
+    	return new EventList<HeartRateEvent>(heartRateBlocks, HeartRateEvent.class);
     }
 
     /**
-     * Returns a collection of all stored steps events.
+     * Returns a read-only collection of all stored steps events, each created on access.
      * @return collection of all stored steps events
      */
     public Collection<? extends StepsEvent> getStepsEvents() {
-    	return stepEvents;
+    	return new EventList<StepsEvent>(stepsBlocks, StepsEvent.class);
     }
 
     /**
-     * Returns a collection of all stored air pressure events.
+     * Returns a read-only collection of all stored air pressure events, each created on access.
      * @return collection of all stored air pressure events
      */
     public Collection<? extends AirPressureEvent> getAirPressureEvents() {
-    	return airPressureEvents;
+    	return new EventList<AirPressureEvent>(airPressureBlocks, AirPressureEvent.class);
     }
 
     /**
-     * Returns a collection of all stored geo events.
+     * Returns a read-only collection of all stored geo events, each created on access.
      * @return collection of all stored geo events
      */
     public Collection<? extends GeoEvent> getGeoEvents() {
-    	return geoEvents;
+    	return new EventList<GeoEvent>(geoBlocks, GeoEvent.class);
+    }
+
+    /**
+     * Converts a statistic to a float.
+     */
+    private static float toFloat(double value, float defaultValue) {
+    	return Double.isNaN(value) ? defaultValue : (float)value;
+    }
+
+    /**
+     * Returns the stored events of a sensor column by column, for scans without creating any event objects.
+     * All blocks but the last one hold {@link EventBlock#MAX_EVENTS} events.
+     * @param sensor id of the sensor, e.g. {@link EventBlock#GEO}
+     * @return read-only list of the blocks, the blocks are not to be modified
+     * @throws IllegalArgumentException if the sensor is unknown
+     */
+    public List<EventBlock> getEventBlocks(int sensor) {
+    	switch (sensor) {
+    		case EventBlock.HEART_RATE:
+    			return Collections.unmodifiableList(heartRateBlocks);
+
+    		case EventBlock.STEPS:
+    			return Collections.unmodifiableList(stepsBlocks);
+
+    		case EventBlock.AIR_PRESSURE:
+    			return Collections.unmodifiableList(airPressureBlocks);
+
+    		case EventBlock.GEO:
+    			return Collections.unmodifiableList(geoBlocks);
+
+    		default:
+    			throw new IllegalArgumentException("Unknown sensor " + sensor);
+    	}
+    }
+
+    /**
+     * Returns the last block of a sensor, a new one if it is full.
+     */
+    private static EventBlock getAppendableBlock(List<EventBlock> blocks, int sensor) {
+    	if (blocks.isEmpty() || blocks.get(blocks.size() - 1).isFull()) {
+    		blocks.add(new EventBlock(sensor));
+    	}
+
+    	return blocks.get(blocks.size() - 1);
+    }
+
+    /**
+     * Read-only list of the events stored in the blocks of a sensor, created on access.
+     */
+    private static class EventList<E extends SensorEvent> extends AbstractList<E> {
+    	private final List<EventBlock> blocks;
+    	private final Class<E> type;
+
+    	EventList(List<EventBlock> blocks, Class<E> type) {
+    		this.blocks = blocks;
+    		this.type = type;
+    	}
+
+    	@Override
+    	public E get(int index) {
+    		if (index < 0 || index >= size()) {
+    			throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+    		}
+
+    		return type.cast(EventReader.createEvent(blocks.get(index / EventBlock.MAX_EVENTS), index % EventBlock.MAX_EVENTS));
+    	}
+
+    	@Override
+    	public int size() {
+    		return blocks.isEmpty() ? 0 : (blocks.size() - 1) * EventBlock.MAX_EVENTS + blocks.get(blocks.size() - 1).getCount();
+    	}
     }
 }
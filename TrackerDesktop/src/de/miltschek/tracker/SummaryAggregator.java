@@ -0,0 +1,89 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+/**
+ * Number, mean, minimum and maximum of the values.
+ */
+public class SummaryAggregator implements Aggregator {
+	private long count;
+	private double sum;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+
+	@Override
+	public void add(long timestamp, double value) {
+		if (count++ == 0) {
+			min = value;
+			max = value;
+		} else if (value < min) {
+			min = value;
+		} else if (value > max) {
+			max = value;
+		}
+
+		sum += value;
+	}
+
+	/**
+	 * Returns the number of values.
+	 * @return number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the sum of the values.
+	 * @return sum, 0 if none
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * Returns the arithmetic mean of the values.
+	 * @return mean, NaN if none
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * Returns the smallest value.
+	 * @return minimum, NaN if none
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * Returns the largest value.
+	 * @return maximum, NaN if none
+	 */
+	public double getMax() {
+		return max;
+	}
+}
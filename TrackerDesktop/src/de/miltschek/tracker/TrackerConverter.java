@@ -26,7 +26,6 @@ package de.miltschek.tracker;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
@@ -34,11 +33,8 @@ import java.nio.charset.Charset;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
 
 import javax.swing.JFileChooser;
@@ -48,13 +44,20 @@ import javax.swing.filechooser.FileFilter;
  * Converts binary tracker data to a few known formats.
  */
 public class TrackerConverter {
+	// longer pauses of a sensor (ns) count for no zone
+	private static final long MAX_ZONE_GAP = 10L * 1000 * 1000 * 1000;
 
 	/**
 	 * The main entry for the converter.
-	 * @param args optional input file path as the one and only argument
+	 * @param args optional input file path as the one and only argument,
+	 * or --batch followed by the arguments of the headless batch mode (see {@link BatchConverter})
 	 * @throws Exception error handling limited to a minimum, all others are thrown out
 	 */
 	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("--batch")) {
+			System.exit(BatchConverter.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+
 		System.out.println("Caution! The CSV file will be generated accordingly to the current locale settings = " + Locale.getDefault(Locale.Category.FORMAT));
 		System.out.println("Pretty stupid, but depending on the language version of your Excel, it expects either a dot or a comma as a decimal separator.");
 		
@@ -79,122 +82,28 @@ public class TrackerConverter {
 			}
 		}
 
-		// interpret the header
-        FileInputStream fis = new FileInputStream(inputFile);
-
-        byte[] buffer = new byte[FileItem.HEADER.length];
-        if (fis.read(buffer) != FileItem.HEADER.length) {
-        	fis.close();
-            throw new IOException("Unknown file format (1).");
-        }
-
-        if (!Arrays.equals(buffer, FileItem.HEADER)) {
-        	fis.close();
-            throw new IOException("Unknown file format (2).");
-        }
-
-        buffer = new byte[2];
-        fis.read(buffer);
-        int version = BitUtility.getShort(buffer, 0);
-        if (version != FileItem.VERSION) {
-        	fis.close();
-            throw new IOException("Unsupported version no. " + version);
-        }
-        
-        // read sport activity data
-        SportActivityData data = new SportActivityData();
-
-        short id;
-        do {
-            buffer = FileItem.readField(fis);
-            int offset = 0;
-            id = BitUtility.getShort(buffer, offset);
-            offset += 2;
-
-            switch (id) {
-                case 0x1001: // start RTC
-                    data.setStartTimestampRtc(BitUtility.getLong(buffer, offset));
-                    break;
-
-                case 0x1002: // stop RTC
-                    data.setStopTimestampRtc(BitUtility.getLong(buffer, offset));
-                    break;
-
-                case 0x1003: // start ns
-                    data.setStartNanoseconds(BitUtility.getLong(buffer, offset));
-                    break;
-
-                case 0x1004: // stop ns
-                    data.setStopNanoseconds(BitUtility.getLong(buffer, offset));
-                    break;
-
-                case 0x1011: // avg heart rate (float)
-                    data.setAvgHeartRate(BitUtility.getFloat(buffer, offset));
-                    break;
-
-                case 0x1012: // max heart rate (int)
-                    data.setMaxHeartRate(BitUtility.getInt(buffer, offset));
-                    break;
-
-                case 0x1013: // total steps (int)
-                    data.setTotalSteps(BitUtility.getInt(buffer, offset));
-                    break;
-
-                case 0x1014: // avg step rate (float)
-                    data.setAvgStepRate(BitUtility.getFloat(buffer, offset));
-                    break;
-
-                case 0x1015: // total ascent (float)
-                    data.setTotalAscent(BitUtility.getFloat(buffer, offset));
-                    break;
-
-                case 0x1016: // total descent (float)
-                    data.setTotalDescent(BitUtility.getFloat(buffer, offset));
-                    break;
-
-                case 0x1017: // avg speed (float)
-                    data.setAvgSpeed(BitUtility.getFloat(buffer, offset));
-                    break;
-                    
-                case 0x2011: // heart rate
-                	data.addEvent(new HeartRateEvent(
-                			BitUtility.getLong(buffer, offset),
-                			BitUtility.getInt(buffer, offset + 8),
-                			BitUtility.getInt(buffer, offset + 8 + 4)));
-                	break;
-                	
-                case 0x2021: // steps
-                	data.addEvent(new StepsEvent(
-                			BitUtility.getLong(buffer, offset),
-                			BitUtility.getInt(buffer, offset + 8),
-                			BitUtility.getInt(buffer, offset + 8 + 4)));
-                	break;
-                	
-                case 0x2031: // air pressure
-                	data.addEvent(new AirPressureEvent(
-                			BitUtility.getLong(buffer, offset),
-                			BitUtility.getFloat(buffer, offset + 8),
-                			BitUtility.getInt(buffer, offset + 8 + 4)));
-                	break;
-                	
-                case 0x2041: // geo
-                	data.addEvent(new GeoEvent(
-                			BitUtility.getLong(buffer, offset), //ts
-                			BitUtility.getLong(buffer, offset + 8), //ticks
-                			BitUtility.getLong(buffer, offset + 16), //time
-                			BitUtility.getDouble(buffer, offset + 24), //latitude
-                			BitUtility.getDouble(buffer, offset + 32), //longitude
-                			BitUtility.getFloat(buffer, offset + 40), //accuracy
-                			BitUtility.getDouble(buffer, offset + 44), //altitude
-                			BitUtility.getFloat(buffer, offset + 52), //bearing
-                			BitUtility.getFloat(buffer, offset + 56), //speed
-                			BitUtility.getInt(buffer, offset + 60))); //sensorAccuracy
-                	break;
-            }
-
-        } while (id != (short)0xffff);
+		// calculate the statistics in a single pass, without keeping the events; decoded in parallel, applied in order
+		SportActivityData data = new SportActivityData(false);
+		PercentileAggregator heartRatePercentiles = new PercentileAggregator();
+		ZoneAggregator cadenceZones = new ZoneAggregator(MAX_ZONE_GAP, ZoneAggregator.getLinearBounds(100, 10, 11));
+		ZoneAggregator heartRateZones;
+		try (ParallelEventReader reader = new ParallelEventReader(inputFile)) {
+			data.setSummary(reader.getSummary());
+			// zones of the maximum heart rate stored by the watch
+			heartRateZones = new ZoneAggregator(MAX_ZONE_GAP, ZoneAggregator.getHeartRateZones(data.getMaxHeartRate()));
+			data.getStatistics().addAggregator(ActivityStatistics.HEART_RATE, heartRatePercentiles);
+			data.getStatistics().addAggregator(ActivityStatistics.HEART_RATE, heartRateZones);
+			data.getStatistics().addAggregator(ActivityStatistics.STEPS, new RateAggregator(cadenceZones));
+			EventCursor cursor = new EventCursor();
+			while (reader.nextBatch()) {
+				cursor.reset(reader.getBatch());
+				addEvents(data, cursor);
+			}
 
-        fis.close();
+			if (reader.getCorruptParts() > 0) {
+				System.err.println("Skipped " + reader.getCorruptParts() + " corrupt part(s) of the file, keeping the intact events.");
+			}
+		}
         
         // show some statistics
         
@@ -214,11 +123,17 @@ public class TrackerConverter {
         System.out.println("  - Avg " + data.getAvgHeartRate() + " bpm (stored), " + data.getCalculatedAvgHeartRate() + " bpm (calculated)");
         System.out.println("  - Max " + data.getMaxHeartRate() + " bpm (stored), " + data.getCalculatedMaxHeartRate() + " bmp (calculated)");
         System.out.println("  - Events recorded: " + data.getAccurateHeartRateEvents() + " accurate, " + data.getInaccurateHeartRateEvents() + " inaccurate, " + data.getOutOfScopeHeartRateEvents() + " out of scope");
+        System.out.println("  - Percentiles 10/50/90/99 % " + Math.round(heartRatePercentiles.getQuantile(0.1)) + "/" + Math.round(heartRatePercentiles.getQuantile(0.5))
+        		+ "/" + Math.round(heartRatePercentiles.getQuantile(0.9)) + "/" + Math.round(heartRatePercentiles.getQuantile(0.99)) + " bpm (calculated)");
+        if (data.getMaxHeartRate() > 0) {
+        	System.out.println("  - Zones at 50/60/70/80/90 % of the max. (stored) " + formatZones(heartRateZones) + " bpm (calculated)");
+        }
         System.out.println();
         System.out.println("Steps");
         System.out.println("  - Count " + data.getTotalSteps() + " (stored), " + data.getCalculatedTotalSteps() + " (calculated)");
         System.out.println("  - Avg " + data.getAvgStepRate() + " steps/min (stored), " + data.getCalculatedAvgStepsPerMinute() + " steps/min (calculated)");
         System.out.println("  - Max " + data.getCalculatedMaxStepsPerMinute() + " steps/min (calculated)");
+        System.out.println("  - Cadence " + formatZones(cadenceZones) + " steps/min (calculated)");
         System.out.println("  - Events recorded: " + data.getAccurateCountStepsEvents() + " accurate, " + data.getInaccurateStepsEvents() + " inaccurate, " + data.getOutOfScopeStepsEvents() + " out of scope");
         System.out.println();
         System.out.println("Geo");
@@ -256,102 +171,7 @@ public class TrackerConverter {
         result = fileChooser.showSaveDialog(null);
         
         if (result == JFileChooser.APPROVE_OPTION) {
-        	
-        	BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileChooser.getSelectedFile()), Charset.forName("UTF-8")));
-        	
-        	bw.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-        	bw.newLine();
-        	bw.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\" xmlns:kml=\"http://www.opengis.net/kml/2.2\" xmlns:atom=\"http://www.w3.org/2005/Atom\">");
-        	bw.newLine();
-        	bw.write("<Document>");
-        	bw.newLine();
-        	bw.write("<name>TestDocument</name>");
-        	bw.newLine();
-        	bw.write("<Style id=\"s_ylw-pushpin_hl\">");
-        	bw.newLine();
-        	bw.write("<IconStyle>");
-        	bw.newLine();
-        	bw.write("<scale>1.3</scale>");
-        	bw.newLine();
-        	bw.write("<Icon>");
-        	bw.newLine();
-        	bw.write("<href>http://maps.google.com/mapfiles/kml/pushpin/ylw-pushpin.png</href>");
-        	bw.newLine();
-        	bw.write("</Icon>");
-        	bw.newLine();
-        	bw.write("<hotSpot x=\"20\" y=\"2\" xunits=\"pixels\" yunits=\"pixels\"/>");
-        	bw.newLine();
-        	bw.write("</IconStyle>");
-        	bw.newLine();
-        	bw.write("</Style>");
-        	bw.newLine();
-        	bw.write("<Style id=\"s_ylw-pushpin\">");
-        	bw.newLine();
-        	bw.write("<IconStyle>");
-        	bw.newLine();
-        	bw.write("<scale>1.1</scale>");
-        	bw.newLine();
-        	bw.write("<Icon>");
-        	bw.newLine();
-        	bw.write("<href>http://maps.google.com/mapfiles/kml/pushpin/ylw-pushpin.png</href>");
-        	bw.newLine();
-        	bw.write("</Icon>");
-        	bw.newLine();
-        	bw.write("<hotSpot x=\"20\" y=\"2\" xunits=\"pixels\" yunits=\"pixels\"/>");
-        	bw.newLine();
-        	bw.write("</IconStyle>");
-        	bw.newLine();
-        	bw.write("</Style>");
-        	bw.newLine();
-        	bw.write("<StyleMap id=\"m_ylw-pushpin\">");
-        	bw.newLine();
-        	bw.write("<Pair>");
-        	bw.newLine();
-        	bw.write("<key>normal</key>");
-        	bw.newLine();
-        	bw.write("<styleUrl>#s_ylw-pushpin</styleUrl>");
-        	bw.newLine();
-        	bw.write("</Pair>");
-        	bw.newLine();
-        	bw.write("<Pair>");
-        	bw.newLine();
-        	bw.write("<key>highlight</key>");
-        	bw.newLine();
-        	bw.write("<styleUrl>#s_ylw-pushpin_hl</styleUrl>");
-        	bw.newLine();
-        	bw.write("</Pair>");
-        	bw.newLine();
-        	bw.write("</StyleMap>");
-        	bw.newLine();
-        	bw.write("<Placemark>");
-        	bw.newLine();
-        	bw.write("<name>Test Path</name>");
-        	bw.newLine();
-        	bw.write("<styleUrl>#m_ylw-pushpin</styleUrl>");
-        	bw.newLine();
-        	bw.write("<LineString>");
-        	bw.newLine();
-        	bw.write("<tessellate>1</tessellate>");
-        	bw.newLine();
-        	bw.write("<coordinates>");
-        	bw.newLine();
-        	
-        	for (GeoEvent geoData : data.getGeoEvents()) {
-        		bw.write(String.format(Locale.US, "%.9f,%.9f,%d ", geoData.getLongitude(), geoData.getLatitude(), 0));
-        	}
-        	
-        	bw.write("</coordinates>");
-        	bw.newLine();
-        	bw.write("</LineString>");
-        	bw.newLine();
-        	bw.write("</Placemark>");
-        	bw.newLine();
-        	bw.write("</Document>");
-        	bw.newLine();
-        	bw.write("</kml>");
-        	bw.newLine();
-        	
-        	bw.close();
+        	writeKml(inputFile, fileChooser.getSelectedFile());
         }
         
         // save all events chronologically to a CSV file
@@ -360,56 +180,244 @@ public class TrackerConverter {
         result = fileChooser.showSaveDialog(null);
         
         if (result == JFileChooser.APPROVE_OPTION) {
-            // sort all events
-            List<SensorEvent> allEvents = new ArrayList<>();
-            allEvents.addAll(data.getHeartRateEvents());
-            allEvents.addAll(data.getStepsEvents());
-            allEvents.addAll(data.getAirPressureEvents());
-            allEvents.addAll(data.getGeoEvents());
-            allEvents.sort(new Comparator<SensorEvent>() {
-            	@Override
-            	public int compare(SensorEvent o1, SensorEvent o2) {
-            		return o1.getTsNs() < o2.getTsNs() ? -1 : o1.getTsNs() > o2.getTsNs() ? 1 : 0;
-            	}
-    		});
-
-            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileChooser.getSelectedFile()), Charset.forName("UTF-8")));
-        	
-        	bw.write("\"Timestamp (ms)\";\"Sensor Accuracy\";\"Heart Rate (bpm)\";\"Steps\";\"Air Pressure (mbar)\";\"GNSS Time (ms)\";\"Latitude\";\"Longitude\";\"Position Accuracy (m)\";\"GNSS Altitude (m)\";\"GNSS Bearing\";\"GNSS Speed (m/s)\"");
-        	bw.newLine();
-        	
-        	for (SensorEvent event : allEvents) {
-        		String ts = String.valueOf((event.getTsNs() - data.getStartNanoseconds()) / 1000 / 1000);
-        		
-        		if (event instanceof HeartRateEvent) {
-        			HeartRateEvent heartRateEvent = (HeartRateEvent)event;
-        			bw.write(ts + ";" + heartRateEvent.getAccuracy() + ";" + heartRateEvent.getRate() + ";;;;;;;;;");
-        		} else if (event instanceof StepsEvent) {
-        			StepsEvent stepsEvent = (StepsEvent)event;
-        			bw.write(ts + ";" + stepsEvent.getAccuracy() + ";;" + stepsEvent.getSteps() + ";;;;;;;;");
-        		} else if (event instanceof AirPressureEvent) {
-        			AirPressureEvent airPressureEvent = (AirPressureEvent)event;
-        			bw.write(ts + ";" + airPressureEvent.getAccuracy() + ";;;" + String.format("%.2f", airPressureEvent.getPressure()) + ";;;;;;;");
-        		} else if (event instanceof GeoEvent) {
-        			GeoEvent geoEvent = (GeoEvent)event;
-        			bw.write(ts + ";" + geoEvent.getAccuracy() + ";;;;"
-        					+ geoEvent.getFixRtcTime() + ";"
-        					+ String.format("%.9f", geoEvent.getLatitude()) + ";"
-        					+ String.format("%.9f", geoEvent.getLongitude()) + ";"
-        					+ String.format("%.2f", geoEvent.getLateralAccuracy()) + ";"
-        					+ String.format("%.2f", geoEvent.getAltitude()) + ";"
-        					+ String.format("%.2f", geoEvent.getBearing()) + ";"
-        					+ String.format("%.2f", geoEvent.getSpeed()));
-        		} else {
-        			System.err.println("Unsupported sensor event type " + event.getClass().getSimpleName());
-        			continue;
-        		}
-        		
-        		bw.newLine();
-        	}
-        	
-        	bw.close();
+        	writeCsv(inputFile, fileChooser.getSelectedFile(), data.getStartNanoseconds());
         }
 	}
 
+	/**
+	 * Writes the path of the geo events of a recording to a KML file, streaming the events.
+	 * @param inputFile the recording
+	 * @param outputFile target file
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	static void writeKml(File inputFile, File outputFile) throws IOException {
+		try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), Charset.forName("UTF-8")))) {
+			bw.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			bw.newLine();
+			bw.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\" xmlns:kml=\"http://www.opengis.net/kml/2.2\" xmlns:atom=\"http://www.w3.org/2005/Atom\">");
+			bw.newLine();
+			bw.write("<Document>");
+			bw.newLine();
+			bw.write("<name>TestDocument</name>");
+			bw.newLine();
+			bw.write("<Style id=\"s_ylw-pushpin_hl\">");
+			bw.newLine();
+			bw.write("<IconStyle>");
+			bw.newLine();
+			bw.write("<scale>1.3</scale>");
+			bw.newLine();
+			bw.write("<Icon>");
+			bw.newLine();
+			bw.write("<href>http://maps.google.com/mapfiles/kml/pushpin/ylw-pushpin.png</href>");
+			bw.newLine();
+			bw.write("</Icon>");
+			bw.newLine();
+			bw.write("<hotSpot x=\"20\" y=\"2\" xunits=\"pixels\" yunits=\"pixels\"/>");
+			bw.newLine();
+			bw.write("</IconStyle>");
+			bw.newLine();
+			bw.write("</Style>");
+			bw.newLine();
+			bw.write("<Style id=\"s_ylw-pushpin\">");
+			bw.newLine();
+			bw.write("<IconStyle>");
+			bw.newLine();
+			bw.write("<scale>1.1</scale>");
+			bw.newLine();
+			bw.write("<Icon>");
+			bw.newLine();
+			bw.write("<href>http://maps.google.com/mapfiles/kml/pushpin/ylw-pushpin.png</href>");
+			bw.newLine();
+			bw.write("</Icon>");
+			bw.newLine();
+			bw.write("<hotSpot x=\"20\" y=\"2\" xunits=\"pixels\" yunits=\"pixels\"/>");
+			bw.newLine();
+			bw.write("</IconStyle>");
+			bw.newLine();
+			bw.write("</Style>");
+			bw.newLine();
+			bw.write("<StyleMap id=\"m_ylw-pushpin\">");
+			bw.newLine();
+			bw.write("<Pair>");
+			bw.newLine();
+			bw.write("<key>normal</key>");
+			bw.newLine();
+			bw.write("<styleUrl>#s_ylw-pushpin</styleUrl>");
+			bw.newLine();
+			bw.write("</Pair>");
+			bw.newLine();
+			bw.write("<Pair>");
+			bw.newLine();
+			bw.write("<key>highlight</key>");
+			bw.newLine();
+			bw.write("<styleUrl>#s_ylw-pushpin_hl</styleUrl>");
+			bw.newLine();
+			bw.write("</Pair>");
+			bw.newLine();
+			bw.write("</StyleMap>");
+			bw.newLine();
+			bw.write("<Placemark>");
+			bw.newLine();
+			bw.write("<name>Test Path</name>");
+			bw.newLine();
+			bw.write("<styleUrl>#m_ylw-pushpin</styleUrl>");
+			bw.newLine();
+			bw.write("<LineString>");
+			bw.newLine();
+			bw.write("<tessellate>1</tessellate>");
+			bw.newLine();
+			bw.write("<coordinates>");
+			bw.newLine();
+			
+			// the geo events only, straight from their blocks, decoded up to the position
+			try (EventReader reader = new EventReader(inputFile, EventBlock.GEO)) {
+				reader.setLazyDecoding(true);
+				// formats the coordinates into the buffered writer, closed together with it
+				CsvWriter coordinates = new CsvWriter(bw, Locale.US);
+				while (reader.nextBatch()) {
+					EventBlock block = reader.getBatch();
+					for (int n = 0; n < block.getCount(); n++) {
+						coordinates.appendFixed(block.getDouble(EventBlock.GEO_LONGITUDE, n), 9).append(',')
+								.appendFixed(block.getDouble(EventBlock.GEO_LATITUDE, n), 9).append(",0 ");
+					}
+				}
+
+				coordinates.flush();
+			}
+			
+			bw.write("</coordinates>");
+			bw.newLine();
+			bw.write("</LineString>");
+			bw.newLine();
+			bw.write("</Placemark>");
+			bw.newLine();
+			bw.write("</Document>");
+			bw.newLine();
+			bw.write("</kml>");
+			bw.newLine();
+			
+		}
+	}
+
+	/**
+	 * Writes all events of a recording chronologically to a CSV file, streaming the events of each sensor
+	 * and merging them by their timestamps (on equal timestamps in the order heart rate, steps, air pressure, geo).
+	 * @param inputFile the recording
+	 * @param outputFile target file
+	 * @param startNanoseconds beginning of the sport activity, the origin of the timestamps in the file
+	 * @return number of events written
+	 * @throws IOException in case of an IO issue or an unknown file format
+	 */
+	static long writeCsv(File inputFile, File outputFile, long startNanoseconds) throws IOException {
+		long events = 0;
+		// numbers in the locale of String.format
+		try (EventMerger merger = EventMerger.open(inputFile, EventBlock.HEART_RATE, EventBlock.STEPS, EventBlock.AIR_PRESSURE, EventBlock.GEO);
+				CsvWriter csv = new CsvWriter(new OutputStreamWriter(new FileOutputStream(outputFile), Charset.forName("UTF-8")),
+						Locale.getDefault(Locale.Category.FORMAT))) {
+			csv.append("\"Timestamp (ms)\";\"Sensor Accuracy\";\"Heart Rate (bpm)\";\"Steps\";\"Air Pressure (mbar)\";\"GNSS Time (ms)\";\"Latitude\";\"Longitude\";\"Position Accuracy (m)\";\"GNSS Altitude (m)\";\"GNSS Bearing\";\"GNSS Speed (m/s)\"").newLine();
+
+			while (merger.next()) {
+				writeCsvLine(csv, merger.getBatch(), merger.getIndex(), startNanoseconds);
+				events++;
+			}
+		}
+
+		return events;
+	}
+
+	/**
+	 * Writes a single event as a CSV line.
+	 * @param csv target
+	 * @param block events of a sensor
+	 * @param n index of the event
+	 * @param startNanoseconds origin of the timestamps
+	 */
+	private static void writeCsvLine(CsvWriter csv, EventBlock block, int n, long startNanoseconds) throws IOException {
+		csv.append((block.getTimestamp(n) - startNanoseconds) / 1000 / 1000).append(';').append(block.getAccuracy(n));
+
+		switch (block.getId()) {
+			case EventBlock.HEART_RATE:
+				csv.append(';').append(block.getInt(EventBlock.HEART_RATE_RATE, n)).append(";;;;;;;;;");
+				break;
+
+			case EventBlock.STEPS:
+				csv.append(";;").append(block.getInt(EventBlock.STEPS_STEPS, n)).append(";;;;;;;;");
+				break;
+
+			case EventBlock.AIR_PRESSURE:
+				csv.append(";;;").appendFixed(block.getFloat(EventBlock.AIR_PRESSURE_PRESSURE, n), 2).append(";;;;;;;");
+				break;
+
+			default:
+				csv.append(";;;;").append(block.getLong(EventBlock.GEO_TIME, n))
+						.append(';').appendFixed(block.getDouble(EventBlock.GEO_LATITUDE, n), 9)
+						.append(';').appendFixed(block.getDouble(EventBlock.GEO_LONGITUDE, n), 9)
+						.append(';').appendFixed(block.getFloat(EventBlock.GEO_LATERAL_ACCURACY, n), 2)
+						.append(';').appendFixed(block.getDouble(EventBlock.GEO_ALTITUDE, n), 2)
+						.append(';').appendFixed(block.getFloat(EventBlock.GEO_BEARING, n), 2)
+						.append(';').appendFixed(block.getFloat(EventBlock.GEO_SPEED, n), 2);
+				break;
+		}
+
+		csv.newLine();
+	}
+
+	/**
+	 * Formats the time spent in each zone, skipping empty zones.
+	 * @param zones the zones
+	 * @return list of the zones, e.g. "120-140 1:02:03"
+	 */
+	private static String formatZones(ZoneAggregator zones) {
+		StringBuilder sb = new StringBuilder();
+		for (int zone = 0; zone < zones.getZoneCount(); zone++) {
+			long seconds = zones.getTime(zone) / 1000 / 1000 / 1000;
+			if (seconds == 0) {
+				continue;
+			}
+
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+
+			if (zone == 0) {
+				sb.append('<').append(Math.round(zones.getLowerBound(1)));
+			} else if (zone == zones.getZoneCount() - 1) {
+				sb.append(Math.round(zones.getLowerBound(zone))).append('+');
+			} else {
+				sb.append(Math.round(zones.getLowerBound(zone))).append('-').append(Math.round(zones.getLowerBound(zone + 1)));
+			}
+
+			sb.append(String.format(" %d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60));
+		}
+
+		return sb.length() == 0 ? "-" : sb.toString();
+	}
+
+	/**
+	 * Adds the remaining events of a batch to the sport activity data.
+	 * @param data target, not keeping the events
+	 * @param cursor cursor over the batch
+	 */
+	private static void addEvents(SportActivityData data, EventCursor cursor) {
+		while (cursor.next()) {
+			switch (cursor.getSensor()) {
+				case EventBlock.HEART_RATE:
+					data.addEvent(cursor.getHeartRateEvent());
+					break;
+
+				case EventBlock.STEPS:
+					data.addEvent(cursor.getStepsEvent());
+					break;
+
+				case EventBlock.AIR_PRESSURE:
+					data.addEvent(cursor.getAirPressureEvent());
+					break;
+
+				case EventBlock.GEO:
+					data.addEvent(cursor.getGeoEvent());
+					break;
+			}
+		}
+	}
+
 }
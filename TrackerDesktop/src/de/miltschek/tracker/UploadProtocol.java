@@ -0,0 +1,125 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package de.miltschek.tracker;
+
+/**
+ * Constants of the upload protocol spoken between the app and the TcpServer.
+ * Version 1 is a plain 4 bytes file size followed by the payload, acknowledged with {@link #ACKNOWLEDGE}.
+ * Version 2 starts with {@link #MAGIC} and a version byte and exchanges frames afterwards,
+ * each frame starting with a single byte denoting its type. See UPLOAD_PROTOCOL.md for details.
+ */
+public final class UploadProtocol {
+	private UploadProtocol() {}
+
+	/**
+	 * Start of a framed (version 2 or newer) connection.
+	 * Interpreted as a version 1 file size, it is negative, so it can not be confused with it.
+	 */
+	public static final int MAGIC = 0xff54524b; // 0xff 'T' 'R' 'K'
+	/**
+	 * Version of the framed protocol supporting resumable uploads.
+	 */
+	public static final byte VERSION_RESUMABLE = 2;
+
+	/**
+	 * Acknowledgement of a completely received file (version 1: single byte, version 2: status of a {@link #FRAME_COMPLETE}).
+	 */
+	public static final byte ACKNOWLEDGE = 5;
+	/**
+	 * Status of a {@link #FRAME_COMPLETE} if the file could not be stored.
+	 */
+	public static final byte FAILED = 6;
+	/**
+	 * Status of a {@link #FRAME_COMPLETE} if the file is not a valid recording; sending it again does not help.
+	 */
+	public static final byte REJECTED = 7;
+
+	/**
+	 * Client: opens a file; followed by the file id (2 bytes length, UTF-8 bytes) and the file size (8 bytes).
+	 * The server responds with a {@link #FRAME_RESUME}.
+	 */
+	public static final byte FRAME_OPEN = 0x01;
+	/**
+	 * Client: data of the opened file; followed by the offset (8 bytes), the length (4 bytes) and the data.
+	 * The server responds with a {@link #FRAME_COMPLETE} after the last byte of the file.
+	 */
+	public static final byte FRAME_DATA = 0x02;
+	/**
+	 * Client: opens a batch of files; followed by the number of files (2 bytes) and for each file
+	 * its id (2 bytes length, UTF-8 bytes) and its size (8 bytes).
+	 * The server responds with a {@link #FRAME_MANIFEST_RESUME}.
+	 */
+	public static final byte FRAME_MANIFEST = 0x03;
+	/**
+	 * Client: data of a file of the batch; followed by the index of the file in the manifest (2 bytes),
+	 * the offset (8 bytes), the length (4 bytes) and the data.
+	 * The server responds with a {@link #FRAME_FILE_COMPLETE} after the last byte of the file.
+	 */
+	public static final byte FRAME_INDEXED_DATA = 0x04;
+	/**
+	 * Client: opens a batch of files the server does not hold yet; followed by the number of files (2 bytes) and for each file
+	 * its id (2 bytes length, UTF-8 bytes), its size (8 bytes) and the CRC-32 of its content (4 bytes).
+	 * The server responds with a {@link #FRAME_MISSING}.
+	 */
+	public static final byte FRAME_DELTA_MANIFEST = 0x05;
+	/**
+	 * Server: offset (8 bytes) the server already holds of the opened file; the client continues from there.
+	 */
+	public static final byte FRAME_RESUME = (byte)0x81;
+	/**
+	 * Server: the opened file is complete; followed by a status byte ({@link #ACKNOWLEDGE}, {@link #FAILED} or {@link #REJECTED}).
+	 */
+	public static final byte FRAME_COMPLETE = (byte)0x82;
+
+	/**
+	 * Server: offsets the server already holds of the files of the batch; followed by the number of files (2 bytes)
+	 * and an offset (8 bytes) for each of them. Files already complete get a {@link #FRAME_FILE_COMPLETE} right after.
+	 */
+	public static final byte FRAME_MANIFEST_RESUME = (byte)0x83;
+	/**
+	 * Server: a file of the batch is complete; followed by its index in the manifest (2 bytes)
+	 * and a status byte ({@link #ACKNOWLEDGE}, {@link #FAILED} or {@link #REJECTED}).
+	 */
+	public static final byte FRAME_FILE_COMPLETE = (byte)0x84;
+
+	/**
+	 * Server: files of a {@link #FRAME_DELTA_MANIFEST} the server does not hold; followed by their number (2 bytes)
+	 * and for each of them the index in the manifest (2 bytes) and the offset the server already holds (8 bytes).
+	 * Files not listed are held by the server already. Each missing file gets a {@link #FRAME_FILE_COMPLETE} when complete.
+	 */
+	public static final byte FRAME_MISSING = (byte)0x85;
+
+	/**
+	 * Maximum length of a file id in bytes.
+	 */
+	public static final int MAX_FILE_ID_LENGTH = 1024;
+	/**
+	 * Maximum length of the data of a single {@link #FRAME_DATA}.
+	 */
+	public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+	/**
+	 * Maximum number of files of a single {@link #FRAME_MANIFEST}.
+	 */
+	public static final int MAX_MANIFEST_ENTRIES = 0xffff;
+}
@@ -0,0 +1,130 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+/**
+ * Time spent in zones of the value, e.g. heart rate zones or a cadence distribution. The time from an event
+ * to the next one counts for the zone of its value, unless it is longer than the largest gap (e.g. a pause of the sensor).
+ */
+public class ZoneAggregator implements Aggregator {
+	private final long maxGap;
+	private final double[] bounds;
+	private final long[] times;
+	private boolean started;
+	private long lastTimestamp;
+	private int lastZone;
+
+	/**
+	 * Creates an aggregator.
+	 * @param maxGap longest time between two events counted in nanoseconds, {@link Long#MAX_VALUE} to count all
+	 * @param bounds lower bounds of the zones but the first one in ascending order, e.g. {@link #getHeartRateZones(int)}
+	 */
+	public ZoneAggregator(long maxGap, double... bounds) {
+		this.maxGap = maxGap;
+		this.bounds = bounds.clone();
+		this.times = new long[bounds.length + 1];
+	}
+
+	/**
+	 * Creates the bounds of the five heart rate zones at 50, 60, 70, 80 and 90 % of the maximum heart rate;
+	 * the zone below is the rest.
+	 * @param maxHeartRate maximum heart rate (bpm)
+	 * @return bounds of the zones
+	 */
+	public static double[] getHeartRateZones(int maxHeartRate) {
+		return new double[] { 0.5 * maxHeartRate, 0.6 * maxHeartRate, 0.7 * maxHeartRate, 0.8 * maxHeartRate, 0.9 * maxHeartRate };
+	}
+
+	/**
+	 * Creates bounds of zones of equal width.
+	 * @param start lower bound of the second zone
+	 * @param width distance of two successive bounds
+	 * @param count number of bounds
+	 * @return the bounds
+	 */
+	public static double[] getLinearBounds(double start, double width, int count) {
+		double[] bounds = new double[count];
+		for (int n = 0; n < count; n++) {
+			bounds[n] = start + n * width;
+		}
+
+		return bounds;
+	}
+
+	@Override
+	public void add(long timestamp, double value) {
+		if (started && timestamp > lastTimestamp && timestamp - lastTimestamp <= maxGap) {
+			times[lastZone] += timestamp - lastTimestamp;
+		}
+
+		int zone = 0;
+		while (zone < bounds.length && value >= bounds[zone]) {
+			zone++;
+		}
+
+		started = true;
+		lastTimestamp = timestamp;
+		lastZone = zone;
+	}
+
+	/**
+	 * Returns the number of zones.
+	 * @return one more than the number of bounds
+	 */
+	public int getZoneCount() {
+		return times.length;
+	}
+
+	/**
+	 * Returns the lower bound of a zone.
+	 * @param zone index of the zone
+	 * @return the bound, negative infinity for the first zone
+	 */
+	public double getLowerBound(int zone) {
+		return zone == 0 ? Double.NEGATIVE_INFINITY : bounds[zone - 1];
+	}
+
+	/**
+	 * Returns the time spent in a zone.
+	 * @param zone index of the zone, 0 for the values below the first bound
+	 * @return time in nanoseconds
+	 */
+	public long getTime(int zone) {
+		return times[zone];
+	}
+
+	/**
+	 * Returns the time spent in all zones.
+	 * @return time in nanoseconds
+	 */
+	public long getTotalTime() {
+		long total = 0;
+		for (long time : times) {
+			total += time;
+		}
+
+		return total;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the aggregators used by the converter only.
+ */
+class AggregatorTest {
+	private static final long SECOND = 1_000_000_000L;
+
+	@ParameterizedTest
+	@ValueSource(ints = { 0, 1, 2 })
+	void percentiles(int distribution) {
+		Random random = new Random(distribution);
+		PercentileAggregator percentiles = new PercentileAggregator();
+		double[] values = new double[100_000];
+		for (int n = 0; n < values.length; n++) {
+			switch (distribution) {
+				case 0:
+					values[n] = random.nextDouble();
+					break;
+
+				case 1:
+					values[n] = 140 + 15 * random.nextGaussian();
+					break;
+
+				default:
+					values[n] = -Math.log(random.nextDouble());
+					break;
+			}
+
+			percentiles.add(n * SECOND, values[n]);
+		}
+
+		Arrays.sort(values);
+		assertEquals(values.length, percentiles.getCount());
+		assertEquals(values[0], percentiles.getQuantile(0));
+		assertEquals(values[values.length - 1], percentiles.getQuantile(1));
+
+		// the rank of each estimate is close to the requested one, closer at the tails
+		for (double quantile : new double[] { 0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999 }) {
+			double estimate = percentiles.getQuantile(quantile);
+			int rank = Arrays.binarySearch(values, estimate);
+			double estimatedQuantile = (rank >= 0 ? rank : -rank - 1) / (double)values.length;
+			assertEquals(quantile, estimatedQuantile, 0.02 * Math.min(quantile, 1 - quantile) + 0.0005, "quantile " + quantile);
+		}
+	}
+
+	@Test
+	void percentilesOfFewValues() {
+		PercentileAggregator percentiles = new PercentileAggregator();
+		assertTrue(Double.isNaN(percentiles.getQuantile(0.5)));
+
+		percentiles.add(0, 150);
+		assertEquals(150, percentiles.getQuantile(0.5));
+
+		percentiles.add(0, 100);
+		percentiles.add(0, Double.NaN);
+		percentiles.add(0, 200);
+		assertEquals(3, percentiles.getCount());
+		assertEquals(100, percentiles.getQuantile(0));
+		assertEquals(150, percentiles.getQuantile(0.5));
+		assertEquals(200, percentiles.getQuantile(1));
+		assertThrows(IllegalArgumentException.class, () -> new PercentileAggregator(5));
+	}
+
+	@Test
+	void zones() {
+		ZoneAggregator zones = new ZoneAggregator(10 * SECOND, ZoneAggregator.getHeartRateZones(200));
+		assertEquals(6, zones.getZoneCount());
+		assertEquals(100, zones.getLowerBound(1));
+
+		zones.add(0, 90);
+		zones.add(2 * SECOND, 100);
+		zones.add(5 * SECOND, 185);
+		// a pause of the sensor is not counted
+		zones.add(60 * SECOND, 150);
+		zones.add(61 * SECOND, 150);
+
+		assertEquals(2 * SECOND, zones.getTime(0));
+		assertEquals(3 * SECOND, zones.getTime(1));
+		assertEquals(0, zones.getTime(5));
+		assertEquals(SECOND, zones.getTime(3));
+		assertEquals(6 * SECOND, zones.getTotalTime());
+
+		assertEquals(Arrays.toString(new double[] { 100, 110, 120 }), Arrays.toString(ZoneAggregator.getLinearBounds(100, 10, 3)));
+	}
+
+	@Test
+	void cadenceZones() {
+		// zones as of the converter, 180 steps per minute in the zone 9, 120 in the zone 3
+		ZoneAggregator zones = new ZoneAggregator(Long.MAX_VALUE, ZoneAggregator.getLinearBounds(100, 10, 11));
+		RateAggregator steps = new RateAggregator(zones);
+
+		// 10 s at 180 steps per minute, reported late by the counter, then 60 s at 120 and 5 s at 180
+		steps.add(0, 1000);
+		steps.add(10 * SECOND, 1030);
+		steps.add(70 * SECOND, 1150);
+		steps.add(75 * SECOND, 1165);
+		// the time following the last rate is not known
+		steps.add(76 * SECOND, 1167);
+
+		assertEquals(15 * SECOND, zones.getTime(9));
+		assertEquals(60 * SECOND, zones.getTime(3));
+		assertEquals(75 * SECOND, zones.getTotalTime());
+	}
+}
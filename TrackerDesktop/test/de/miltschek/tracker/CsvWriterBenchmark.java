@@ -0,0 +1,170 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares CSV lines of geo events written with {@link String#format(String, Object...)}, as done before,
+ * with lines written by the {@link CsvWriter}, after checking that both produce the same text.
+ * Runs on the development machine (not a unit test, see CsvWriterTest for the equality):
+ * main class de.miltschek.tracker.CsvWriterBenchmark on the test class path.
+ * Arguments (all optional): number of lines [1000000], locale tag [default format locale].
+ */
+public class CsvWriterBenchmark {
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		Locale locale = args.length > 1 ? Locale.forLanguageTag(args[1]) : Locale.getDefault(Locale.Category.FORMAT);
+		Locale.setDefault(Locale.Category.FORMAT, locale);
+
+		EventBlock block = createGeoBlock(new Random(1));
+
+		StringWriter formatted = new StringWriter();
+		StringWriter written = new StringWriter();
+		writeFormatted(new BufferedWriter(formatted), block, EventBlock.MAX_EVENTS);
+		writeCsv(new CsvWriter(written, locale), block, EventBlock.MAX_EVENTS);
+		if (!formatted.toString().equals(written.toString())) {
+			System.err.println("The outputs differ.");
+			System.exit(1);
+		}
+
+		System.out.println(lines + " line(s) of geo events, locale " + locale.toLanguageTag());
+		System.out.println(String.format(Locale.ROOT, "%-14s %12s %14s", "writer", "ns/line", "bytes/line"));
+		for (int round = 0; round < ROUNDS; round++) {
+			boolean last = round == ROUNDS - 1;
+
+			long bytes = getAllocatedBytes();
+			long start = System.nanoTime();
+			writeFormatted(new BufferedWriter(new NullWriter()), block, lines);
+			report(last, "String.format", start, bytes, lines);
+
+			bytes = getAllocatedBytes();
+			start = System.nanoTime();
+			writeCsv(new CsvWriter(new NullWriter(), locale), block, lines);
+			report(last, "CsvWriter", start, bytes, lines);
+		}
+	}
+
+	private static void writeFormatted(BufferedWriter bw, EventBlock block, int lines) throws IOException {
+		for (int line = 0; line < lines; line++) {
+			int n = line % block.getCount();
+			bw.write(block.getTimestamp(n) / 1000 / 1000 + ";" + block.getAccuracy(n) + ";;;;"
+					+ block.getLong(EventBlock.GEO_TIME, n) + ";"
+					+ String.format("%.9f", block.getDouble(EventBlock.GEO_LATITUDE, n)) + ";"
+					+ String.format("%.9f", block.getDouble(EventBlock.GEO_LONGITUDE, n)) + ";"
+					+ String.format("%.2f", block.getFloat(EventBlock.GEO_LATERAL_ACCURACY, n)) + ";"
+					+ String.format("%.2f", block.getDouble(EventBlock.GEO_ALTITUDE, n)) + ";"
+					+ String.format("%.2f", block.getFloat(EventBlock.GEO_BEARING, n)) + ";"
+					+ String.format("%.2f", block.getFloat(EventBlock.GEO_SPEED, n)));
+			bw.newLine();
+		}
+
+		bw.close();
+	}
+
+	private static void writeCsv(CsvWriter csv, EventBlock block, int lines) throws IOException {
+		for (int line = 0; line < lines; line++) {
+			int n = line % block.getCount();
+			csv.append(block.getTimestamp(n) / 1000 / 1000).append(';').append(block.getAccuracy(n))
+					.append(";;;;").append(block.getLong(EventBlock.GEO_TIME, n))
+					.append(';').appendFixed(block.getDouble(EventBlock.GEO_LATITUDE, n), 9)
+					.append(';').appendFixed(block.getDouble(EventBlock.GEO_LONGITUDE, n), 9)
+					.append(';').appendFixed(block.getFloat(EventBlock.GEO_LATERAL_ACCURACY, n), 2)
+					.append(';').appendFixed(block.getDouble(EventBlock.GEO_ALTITUDE, n), 2)
+					.append(';').appendFixed(block.getFloat(EventBlock.GEO_BEARING, n), 2)
+					.append(';').appendFixed(block.getFloat(EventBlock.GEO_SPEED, n), 2)
+					.newLine();
+		}
+
+		csv.close();
+	}
+
+	/**
+	 * Creates a full block of a walk around Berlin, one event per second.
+	 */
+	private static EventBlock createGeoBlock(Random random) {
+		EventBlock block = new EventBlock(EventBlock.GEO);
+		double latitude = 52.52;
+		double longitude = 13.405;
+		for (int n = 0; n < EventBlock.MAX_EVENTS; n++) {
+			latitude += random.nextGaussian() * 1e-5;
+			longitude += random.nextGaussian() * 1e-5;
+			int event = block.add(n * 1_000_000_000L, 0);
+			block.setLong(EventBlock.GEO_TIME, event, 1588888888000L + n * 1000L);
+			block.setDouble(EventBlock.GEO_LATITUDE, event, latitude);
+			block.setDouble(EventBlock.GEO_LONGITUDE, event, longitude);
+			block.setFloat(EventBlock.GEO_LATERAL_ACCURACY, event, 3 + random.nextFloat() * 10);
+			block.setDouble(EventBlock.GEO_ALTITUDE, event, 34 + random.nextGaussian() * 2);
+			block.setFloat(EventBlock.GEO_BEARING, event, random.nextFloat() * 360);
+			block.setFloat(EventBlock.GEO_SPEED, event, random.nextFloat() * 4);
+		}
+
+		return block;
+	}
+
+	private static void report(boolean print, String name, long start, long bytes, int lines) {
+		double nanoseconds = System.nanoTime() - start;
+		long allocated = getAllocatedBytes() - bytes;
+		if (print) {
+			System.out.println(String.format(Locale.ROOT, "%-14s %12.1f %14.1f", name, nanoseconds / lines, (double)allocated / lines));
+		}
+	}
+
+	/**
+	 * Returns the bytes allocated by the current thread so far, 0 if not supported by the JVM.
+	 */
+	private static long getAllocatedBytes() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Writer discarding everything, so that the formatting is measured only.
+	 */
+	private static class NullWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
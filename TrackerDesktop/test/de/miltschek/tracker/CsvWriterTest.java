@@ -0,0 +1,100 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvWriterTest {
+	private static final int VALUES = 20_000;
+	private static final double[] SPECIAL_VALUES = { 0, -0.0, 0.5, -0.5, 1.5, 2.5, 0.125, 0.005, 1.005, 1e-12, -1e-12,
+			999_999.9999999995, 1e15, 1e17, -1e17, Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN,
+			Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+	/**
+	 * Creates values of the kinds written to the CSV file: coordinates, floats widened to doubles,
+	 * exact ties of the precision (rounded half up) and large values falling back to the formatter.
+	 */
+	private static double createValue(Random random, int precision, int n) {
+		switch (n % 5) {
+			case 0:
+				return (random.nextDouble() - 0.5) * 360;
+			case 1:
+				return (float)(random.nextGaussian() * 100);
+			case 2:
+				return (random.nextInt(2_000_001) - 1_000_000 + 0.5) / Math.pow(10, precision);
+			case 3:
+				return random.nextGaussian() * Math.pow(10, random.nextInt(20));
+			default:
+				return SPECIAL_VALUES[random.nextInt(SPECIAL_VALUES.length)];
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "en-US", "de-DE", "fr-CH", "sv-SE", "ar-SA", "th-TH-u-nu-thai" })
+	void fixedLikeStringFormat(String languageTag) throws IOException {
+		Locale locale = Locale.forLanguageTag(languageTag);
+		Random random = new Random(languageTag.hashCode());
+		// one beyond the largest precision of the fast path
+		for (int precision = 0; precision <= CsvWriter.MAX_PRECISION + 1; precision++) {
+			StringBuilder expected = new StringBuilder();
+			StringWriter written = new StringWriter();
+			try (CsvWriter csv = new CsvWriter(written, locale)) {
+				for (int n = 0; n < VALUES; n++) {
+					double value = createValue(random, precision, n);
+					expected.append(String.format(locale, "%." + precision + "f", value)).append(';');
+					csv.appendFixed(value, precision).append(';');
+				}
+			}
+
+			assertEquals(expected.toString(), written.toString(), "precision " + precision);
+		}
+	}
+
+	@Test
+	void integersLikeStringValueOf() throws IOException {
+		long[] values = { 0, 1, -1, 9, 10, -10, 1588888888888L, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+		StringBuilder expected = new StringBuilder();
+		StringWriter written = new StringWriter();
+		try (CsvWriter csv = new CsvWriter(written, Locale.ROOT)) {
+			Random random = new Random(1);
+			for (int n = 0; n < VALUES; n++) {
+				long value = n < values.length ? values[n] : random.nextLong() >> random.nextInt(64);
+				expected.append(value).append(";;").append(System.lineSeparator());
+				csv.append(value).append(";;").newLine();
+			}
+		}
+
+		assertEquals(expected.toString(), written.toString());
+	}
+}
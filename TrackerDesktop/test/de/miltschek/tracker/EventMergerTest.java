@@ -0,0 +1,169 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class EventMergerTest {
+	private static final int[] SENSORS = { EventBlock.HEART_RATE, EventBlock.STEPS, EventBlock.AIR_PRESSURE, EventBlock.GEO };
+
+	/**
+	 * Creates a recording of all sensors, several blocks each, the timestamps advancing by 0..2
+	 * so that equal timestamps occur within and across the sensors.
+	 * @param expected receives the events as {timestamp, sensor, value}, in the order of the file
+	 */
+	private static TestRecording createRecording(long seed, List<long[]> expected) {
+		Random random = new Random(seed);
+		TestRecording recording = new TestRecording();
+		int value = 0;
+		for (int sensor : SENSORS) {
+			long timestamp = 1000;
+			int events = 3 * EventBlock.MAX_EVENTS + random.nextInt(EventBlock.MAX_EVENTS);
+			for (int n = 0; n < events; n++) {
+				timestamp += random.nextInt(3);
+				recording.add(sensor, timestamp, value);
+				expected.add(new long[] { timestamp, sensor, value++ });
+			}
+		}
+
+		return recording;
+	}
+
+	/**
+	 * Reads all events of a merger.
+	 * @return the events as {timestamp, sensor, value}
+	 */
+	private static List<long[]> readAll(EventMerger merger) throws IOException {
+		List<long[]> events = new ArrayList<>();
+		while (merger.next()) {
+			EventBlock block = merger.getBatch();
+			events.add(new long[] { block.getTimestamp(merger.getIndex()), block.getId(), TestRecording.getValue(block, merger.getIndex()) });
+		}
+
+		assertFalse(merger.next());
+		return events;
+	}
+
+	/**
+	 * Sorts the events by timestamp, events with equal timestamps in the order of the sensors given.
+	 */
+	private static void sort(List<long[]> events, int[] sensors) {
+		List<Integer> order = new ArrayList<>();
+		for (int sensor : sensors) {
+			order.add(sensor);
+		}
+
+		// stable, so the events of a sensor keep their order
+		events.removeIf(event -> !order.contains((int)event[1]));
+		events.sort(Comparator.<long[]>comparingLong(event -> event[0]).thenComparingInt(event -> order.indexOf((int)event[1])));
+	}
+
+	private static void assertEvents(List<long[]> expected, List<long[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int n = 0; n < expected.size(); n++) {
+			long[] event = expected.get(n);
+			assertEquals(event[0] + "/0x" + Long.toHexString(event[1]) + "/" + event[2],
+					actual.get(n)[0] + "/0x" + Long.toHexString(actual.get(n)[1]) + "/" + actual.get(n)[2], "event " + n);
+		}
+	}
+
+	@Test
+	void chronologicalOrder() throws IOException {
+		// the sections of the sensors located by the trailer and by scanning the file
+		for (boolean trailer : new boolean[] { true, false }) {
+			List<long[]> expected = new ArrayList<>();
+			File file = createRecording(1, expected).write(trailer);
+			try {
+				int[][] orders = {
+						SENSORS,
+						{ EventBlock.GEO, EventBlock.AIR_PRESSURE, EventBlock.STEPS, EventBlock.HEART_RATE },
+						{ EventBlock.STEPS, EventBlock.GEO } };
+				for (int[] sensors : orders) {
+					List<long[]> sorted = new ArrayList<>(expected);
+					sort(sorted, sensors);
+					try (EventMerger merger = EventMerger.open(file, sensors)) {
+						assertEvents(sorted, readAll(merger));
+						assertEquals(0, merger.getCorruptParts());
+					}
+				}
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	@Test
+	void sourcesOfTheEvents() throws IOException {
+		List<long[]> expected = new ArrayList<>();
+		File file = createRecording(2, expected).write(true);
+		try (EventMerger merger = EventMerger.open(file, EventBlock.GEO, EventBlock.HEART_RATE)) {
+			while (merger.next()) {
+				assertEquals(merger.getSource() == 0 ? EventBlock.GEO : EventBlock.HEART_RATE, merger.getBatch().getId());
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	void sensorsWithoutEvents() throws IOException {
+		TestRecording recording = new TestRecording();
+		recording.add(EventBlock.STEPS, 5, 1);
+		recording.add(EventBlock.STEPS, 5, 2);
+		recording.add(EventBlock.HEART_RATE, 5, 3);
+		recording.add(EventBlock.HEART_RATE, 7, 4);
+		File file = recording.write(true);
+		try {
+			try (EventMerger merger = EventMerger.open(file, EventBlock.GEO, EventBlock.HEART_RATE, EventBlock.AIR_PRESSURE, EventBlock.STEPS)) {
+				List<long[]> expected = new ArrayList<>();
+				expected.add(new long[] { 5, EventBlock.HEART_RATE, 3 });
+				expected.add(new long[] { 5, EventBlock.STEPS, 1 });
+				expected.add(new long[] { 5, EventBlock.STEPS, 2 });
+				expected.add(new long[] { 7, EventBlock.HEART_RATE, 4 });
+				assertEvents(expected, readAll(merger));
+			}
+
+			try (EventMerger merger = EventMerger.open(file, EventBlock.GEO)) {
+				assertEvents(new ArrayList<>(), readAll(merger));
+			}
+
+			try (EventMerger merger = EventMerger.open(file)) {
+				assertEvents(new ArrayList<>(), readAll(merger));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelEventReaderTest {
+	// a few blocks per chunk
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	private static TestRecording createRecording(long seed) {
+		Random random = new Random(seed);
+		TestRecording recording = new TestRecording();
+		int value = 0;
+		for (int sensor : new int[] { EventBlock.HEART_RATE, EventBlock.STEPS, EventBlock.AIR_PRESSURE, EventBlock.GEO }) {
+			long timestamp = 1_000_000_000L;
+			int events = 20 * EventBlock.MAX_EVENTS + random.nextInt(EventBlock.MAX_EVENTS);
+			for (int n = 0; n < events; n++) {
+				timestamp += random.nextInt(1_000_000_000);
+				recording.add(sensor, timestamp, value++);
+			}
+		}
+
+		return recording;
+	}
+
+	/**
+	 * Reads all batches of a reader.
+	 * @return a line per batch: its id and its events as timestamp and value
+	 */
+	private static List<String> readAll(EventReader reader) throws IOException {
+		List<String> batches = new ArrayList<>();
+		while (reader.nextBatch()) {
+			batches.add(toString(reader.getBatch()));
+		}
+
+		return batches;
+	}
+
+	private static List<String> readAll(ParallelEventReader reader) throws IOException {
+		List<String> batches = new ArrayList<>();
+		while (reader.nextBatch()) {
+			batches.add(toString(reader.getBatch()));
+		}
+
+		return batches;
+	}
+
+	private static String toString(EventBlock block) {
+		StringBuilder sb = new StringBuilder().append(Integer.toHexString(block.getId()));
+		for (int n = 0; n < block.getCount(); n++) {
+			sb.append(' ').append(block.getTimestamp(n)).append('/').append(TestRecording.getValue(block, n));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a file in parallel and sequentially and compares the batches and the corrupt parts.
+	 * @return number of corrupt parts
+	 */
+	private static int assertSameBatches(File file, ForkJoinPool pool) throws IOException {
+		try (EventReader sequential = new EventReader(file);
+				ParallelEventReader parallel = new ParallelEventReader(file, pool, CHUNK_SIZE)) {
+			List<String> expected = readAll(sequential);
+			List<String> actual = readAll(parallel);
+			assertEquals(expected.size(), actual.size());
+			for (int n = 0; n < expected.size(); n++) {
+				assertEquals(expected.get(n), actual.get(n), "batch " + n);
+			}
+
+			assertEquals(sequential.getCorruptParts(), parallel.getCorruptParts());
+			return parallel.getCorruptParts();
+		}
+	}
+
+	@Test
+	void sameBatchesAsSequential() throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (boolean trailer : new boolean[] { true, false }) {
+				TestRecording recording = createRecording(1);
+				File file = recording.write(trailer);
+				try {
+					assertTrue(file.length() > 10 * CHUNK_SIZE);
+					assertEquals(0, assertSameBatches(file, pool));
+				} finally {
+					file.delete();
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void sameBatchesWithCorruptParts() throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		TestRecording recording = createRecording(2);
+		File file = recording.write(true);
+		try {
+			List<Long> blockOffsets = recording.getBlockOffsets();
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				// a flipped bit in the data of a block
+				raf.seek(blockOffsets.get(3) + 100);
+				raf.write(raf.readByte() ^ 0x10);
+				// the lengths of two adjacent blocks, larger than the file
+				for (int n = 30; n <= 31; n++) {
+					raf.seek(blockOffsets.get(n) + 1);
+					raf.writeInt(Integer.MAX_VALUE - 3);
+				}
+
+				// a truncated block at the end of a section
+				raf.seek(blockOffsets.get(50));
+				raf.write(new byte[(int)(blockOffsets.get(51) - blockOffsets.get(50))]);
+			}
+
+			// the adjacent blocks skipped as a single part
+			assertEquals(3, assertSameBatches(file, pool));
+			// the same without decoding ahead
+			ForkJoinPool single = new ForkJoinPool(1);
+			try {
+				assertEquals(3, assertSameBatches(file, single));
+			} finally {
+				single.shutdown();
+			}
+		} finally {
+			file.delete();
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recording written the way the app does for the tests of the readers: the header, the events of each sensor
+ * in checked blocks of {@link EventBlock#MAX_EVENTS} (a section per sensor in the order of the first event added),
+ * optionally the trailer, and the end-of-file marker. Each event carries a single value identifying it,
+ * see {@link #getValue(EventBlock, int)}.
+ */
+class TestRecording {
+	// start indicator, total length and field id
+	private static final int FIELD_HEADER = 1 + 4 + 2;
+
+	private final Map<Integer, List<long[]>> events = new LinkedHashMap<>();
+	private final List<Long> blockOffsets = new ArrayList<>();
+
+	/**
+	 * Adds an event, following the events of the sensor added before.
+	 * @param sensor id of the sensor, e.g. {@link EventBlock#GEO}
+	 * @param timestamp timestamp of the event
+	 * @param value value of the event, stored in a column of the sensor
+	 */
+	void add(int sensor, long timestamp, long value) {
+		events.computeIfAbsent(sensor, id -> new ArrayList<>()).add(new long[] { timestamp, value });
+	}
+
+	/**
+	 * Gets the value of an event as added.
+	 * @param block block holding the event
+	 * @param index index of the event in the block
+	 * @return the value
+	 */
+	static long getValue(EventBlock block, int index) {
+		switch (block.getId()) {
+			case EventBlock.HEART_RATE:
+				return block.getInt(EventBlock.HEART_RATE_RATE, index);
+
+			case EventBlock.STEPS:
+				return block.getInt(EventBlock.STEPS_STEPS, index);
+
+			case EventBlock.AIR_PRESSURE:
+				return (long)block.getFloat(EventBlock.AIR_PRESSURE_PRESSURE, index);
+
+			default:
+				return block.getLong(EventBlock.GEO_TICKS, index);
+		}
+	}
+
+	/**
+	 * Gets the offsets of the event blocks written last.
+	 * @return offsets of the start indicators in the file
+	 */
+	List<Long> getBlockOffsets() {
+		return blockOffsets;
+	}
+
+	/**
+	 * Writes the recording into a new temporary file.
+	 * @param trailer true to write the trailer with the sections, false to have them found by scanning
+	 * @return the file, to be deleted by the caller
+	 * @throws IOException in case of an IO issue
+	 */
+	File write(boolean trailer) throws IOException {
+		File file = File.createTempFile("recording", ".trk");
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write(write(trailer, new ByteArrayOutputStream()).toByteArray());
+		} catch (IOException ex) {
+			file.delete();
+			throw ex;
+		}
+
+		return file;
+	}
+
+	private ByteArrayOutputStream write(boolean trailer, ByteArrayOutputStream out) throws IOException {
+		out.write(FileItem.HEADER);
+		out.write(ByteBuffer.allocate(2).putShort(FileItem.VERSION).array());
+
+		blockOffsets.clear();
+		RecordingIndex index = new RecordingIndex();
+		ByteBuffer encoded = ByteBuffer.allocate(new EventBlock(EventBlock.GEO).getMaxEncodedLength());
+		for (Map.Entry<Integer, List<long[]>> sensor : events.entrySet()) {
+			EventBlock block = new EventBlock(sensor.getKey());
+			List<long[]> sensorEvents = sensor.getValue();
+			long sectionStart = out.size();
+			for (int start = 0; start < sensorEvents.size(); start += EventBlock.MAX_EVENTS) {
+				block.clear();
+				for (long[] event : sensorEvents.subList(start, Math.min(sensorEvents.size(), start + EventBlock.MAX_EVENTS))) {
+					setValue(block, block.add(event[0], 3), event[1]);
+				}
+
+				encoded.clear();
+				block.encodeSmallest(encoded);
+				encoded.flip();
+				blockOffsets.add((long)out.size());
+				writeField(out, block.getId() | EventBlock.CHECKED, encoded);
+			}
+
+			index.setSection(block.getId(), sectionStart, out.size() - sectionStart, sensorEvents.size());
+		}
+
+		if (trailer) {
+			long trailerOffset = out.size();
+			encoded.clear();
+			index.encode(encoded);
+			encoded.flip();
+			writeField(out, RecordingIndex.TRAILER, encoded);
+			writeField(out, RecordingIndex.FOOTER, ByteBuffer.allocate(8).putLong(0, trailerOffset));
+		}
+
+		writeField(out, 0xffff, ByteBuffer.allocate(0));
+		return out;
+	}
+
+	private static void setValue(EventBlock block, int index, long value) {
+		switch (block.getId()) {
+			case EventBlock.HEART_RATE:
+				block.setInt(EventBlock.HEART_RATE_RATE, index, (int)value);
+				break;
+
+			case EventBlock.STEPS:
+				block.setInt(EventBlock.STEPS_STEPS, index, (int)value);
+				break;
+
+			case EventBlock.AIR_PRESSURE:
+				block.setFloat(EventBlock.AIR_PRESSURE_PRESSURE, index, value);
+				break;
+
+			case EventBlock.GEO:
+				block.setLong(EventBlock.GEO_TICKS, index, value);
+				break;
+		}
+	}
+
+	/**
+	 * Writes a field, followed by the CRC32C of the field if the id denotes a checked one.
+	 */
+	private static void writeField(ByteArrayOutputStream out, int id, ByteBuffer data) {
+		int checksumLength = EventBlock.isChecked(id) ? 4 : 0;
+		ByteBuffer field = ByteBuffer.allocate(FIELD_HEADER + data.remaining() + checksumLength);
+		field.put((byte)'#').putInt(2 + data.remaining() + checksumLength).putShort((short)id).put(data);
+		if (checksumLength > 0) {
+			field.putInt(Crc32c.compute(field, 0, field.position()));
+		}
+
+		out.write(field.array(), 0, field.position());
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.util.Arrays;
+
+/**
+ * Single pass over the events of a sport activity feeding pluggable {@link Aggregator}s, e.g. the summary values
+ * written by the app or the statistics of the desktop converter. The events of each sensor are to be added
+ * in chronological order. Only the events within the scope of the sport activity are aggregated,
+ * the readings of the heart rate, steps and air pressure sensors only if at least of a low accuracy.
+ */
+public class ActivityStatistics {
+    /**
+     * Heart rate in beats per minute.
+     */
+    public static final int HEART_RATE = 0;
+    /**
+     * State of the steps counter, see {@link RateAggregator} for the cadence.
+     */
+    public static final int STEPS = 1;
+    /**
+     * Air pressure in millibars.
+     */
+    public static final int AIR_PRESSURE = 2;
+    /**
+     * GNSS speed in meters per second.
+     */
+    public static final int SPEED = 3;
+    /**
+     * GNSS altitude in meters.
+     */
+    public static final int ALTITUDE = 4;
+    /**
+     * Lateral accuracy of the GNSS position in meters.
+     */
+    public static final int LATERAL_ACCURACY = 5;
+
+    /**
+     * Lowest accuracy of an aggregated sensor reading, as SensorManager.SENSOR_STATUS_ACCURACY_LOW.
+     */
+    public static final int MIN_ACCURACY = 1;
+
+    private static final int VALUES = 6;
+
+    private final Aggregator[][] aggregators = new Aggregator[VALUES][];
+    private long startNanoseconds = Long.MIN_VALUE;
+    private long stopNanoseconds = Long.MAX_VALUE;
+
+    /**
+     * Creates statistics without any aggregators, all events in scope.
+     */
+    public ActivityStatistics() {
+        Arrays.fill(aggregators, new Aggregator[0]);
+    }
+
+    /**
+     * Sets the scope of the sport activity, the events outside of it are not aggregated.
+     * @param startNanoseconds beginning of the sport activity (ns)
+     * @param stopNanoseconds end of the sport activity (ns)
+     */
+    public void setScope(long startNanoseconds, long stopNanoseconds) {
+        this.startNanoseconds = startNanoseconds;
+        this.stopNanoseconds = stopNanoseconds;
+    }
+
+    /**
+     * Checks whether an event is within the scope of the sport activity.
+     * @param timestamp timestamp of the event (ns)
+     * @return true if in scope
+     */
+    public boolean isInScope(long timestamp) {
+        return timestamp >= startNanoseconds && timestamp <= stopNanoseconds;
+    }
+
+    /**
+     * Adds an aggregator of a value.
+     * @param value the value, e.g. {@link #HEART_RATE}
+     * @param aggregator the aggregator
+     * @throws IllegalArgumentException if the value is unknown
+     */
+    public void addAggregator(int value, Aggregator aggregator) {
+        if (value < 0 || value >= VALUES) {
+            throw new IllegalArgumentException("Unknown value " + value);
+        }
+
+        Aggregator[] extended = Arrays.copyOf(aggregators[value], aggregators[value].length + 1);
+        extended[extended.length - 1] = aggregator;
+        aggregators[value] = extended;
+    }
+
+    /**
+     * Aggregates a heart rate event.
+     * @param timestamp timestamp of the event (ns)
+     * @param accuracy sensor accuracy
+     * @param rate heart rate (bpm)
+     */
+    public void addHeartRate(long timestamp, int accuracy, int rate) {
+        if (accuracy >= MIN_ACCURACY && isInScope(timestamp)) {
+            aggregate(HEART_RATE, timestamp, rate);
+        }
+    }
+
+    /**
+     * Aggregates a steps counter event.
+     * @param timestamp timestamp of the event (ns)
+     * @param accuracy sensor accuracy
+     * @param steps state of the steps counter
+     */
+    public void addSteps(long timestamp, int accuracy, int steps) {
+        if (accuracy >= MIN_ACCURACY && isInScope(timestamp)) {
+            aggregate(STEPS, timestamp, steps);
+        }
+    }
+
+    /**
+     * Aggregates an air pressure event.
+     * @param timestamp timestamp of the event (ns)
+     * @param accuracy sensor accuracy
+     * @param pressure air pressure (mbar)
+     */
+    public void addAirPressure(long timestamp, int accuracy, float pressure) {
+        if (accuracy >= MIN_ACCURACY && isInScope(timestamp)) {
+            aggregate(AIR_PRESSURE, timestamp, pressure);
+        }
+    }
+
+    /**
+     * Aggregates a geo event.
+     * @param timestamp timestamp of the event (ns)
+     * @param speed speed (m/s)
+     * @param altitude altitude (m)
+     * @param lateralAccuracy lateral accuracy of the position (m)
+     */
+    public void addGeo(long timestamp, float speed, double altitude, float lateralAccuracy) {
+        if (isInScope(timestamp)) {
+            aggregate(SPEED, timestamp, speed);
+            aggregate(ALTITUDE, timestamp, altitude);
+            aggregate(LATERAL_ACCURACY, timestamp, lateralAccuracy);
+        }
+    }
+
+    /**
+     * Aggregates all events of a block.
+     * @param block events of a sensor
+     */
+    public void add(EventBlock block) {
+        int count = block.getCount();
+        switch (block.getId()) {
+            case EventBlock.HEART_RATE:
+                for (int n = 0; n < count; n++) {
+                    addHeartRate(block.getTimestamp(n), block.getAccuracy(n), block.getInt(EventBlock.HEART_RATE_RATE, n));
+                }
+                break;
+
+            case EventBlock.STEPS:
+                for (int n = 0; n < count; n++) {
+                    addSteps(block.getTimestamp(n), block.getAccuracy(n), block.getInt(EventBlock.STEPS_STEPS, n));
+                }
+                break;
+
+            case EventBlock.AIR_PRESSURE:
+                for (int n = 0; n < count; n++) {
+                    addAirPressure(block.getTimestamp(n), block.getAccuracy(n), block.getFloat(EventBlock.AIR_PRESSURE_PRESSURE, n));
+                }
+                break;
+
+            default:
+                for (int n = 0; n < count; n++) {
+                    addGeo(block.getTimestamp(n), block.getFloat(EventBlock.GEO_SPEED, n),
+                            block.getDouble(EventBlock.GEO_ALTITUDE, n), block.getFloat(EventBlock.GEO_LATERAL_ACCURACY, n));
+                }
+                break;
+        }
+    }
+
+    private void aggregate(int value, long timestamp, double measurement) {
+        for (Aggregator aggregator : aggregators[value]) {
+            aggregator.add(timestamp, measurement);
+        }
+    }
+}
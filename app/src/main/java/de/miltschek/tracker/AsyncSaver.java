@@ -24,7 +24,6 @@
 
 package de.miltschek.tracker;
 
-import android.hardware.SensorManager;
 import android.location.Location;
 import android.os.AsyncTask;
 import android.util.Log;
@@ -35,6 +34,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.function.Consumer;
@@ -78,122 +78,141 @@ public class AsyncSaver extends AsyncTask<ISensorReadout, Float, Integer> {
                     + geoLocationData.size() + " geo, "
                     + pressureSensorData.size() + " pressure.");
 
-            try {
-                FileOutputStream fos = new FileOutputStream(new File(targetDirectory, System.currentTimeMillis() + ".trk"));
-                fos.write(FileItem.HEADER); // header
-                fos.write(BitUtility.getBytes(FileItem.VERSION)); // version
-
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1001), BitUtility.getBytes(sensorReadout.getSportActivityStartTimeRtc()));
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1002), BitUtility.getBytes(sensorReadout.getSportActivityStopTimeRtc()));
+            // the writer buffers the fields and writes them in large blocks
+            try (FieldWriter writer = new FieldWriter(new FileOutputStream(new File(targetDirectory, System.currentTimeMillis() + ".trk")))) {
+                writer.write(FileItem.HEADER); // header
+                writer.writeShort(FileItem.VERSION); // version
+
+                // the summary values are repeated in the trailer
+                RecordingIndex trailer = new RecordingIndex();
+                trailer.setStartTimestampRtc(sensorReadout.getSportActivityStartTimeRtc());
+                writer.writeField((short)0x1001, trailer.getStartTimestampRtc());
+                trailer.setStopTimestampRtc(sensorReadout.getSportActivityStopTimeRtc());
+                writer.writeField((short)0x1002, trailer.getStopTimestampRtc());
                 long startTimestampNs = sensorReadout.getSportActivityStartTimeNs();
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1003), BitUtility.getBytes(startTimestampNs));
+                trailer.setStartNanoseconds(startTimestampNs);
+                writer.writeField((short)0x1003, startTimestampNs);
                 long stopTimestampNs = sensorReadout.getSportActivityStopTimeNs();
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1004), BitUtility.getBytes(stopTimestampNs));
+                trailer.setStopNanoseconds(stopTimestampNs);
+                writer.writeField((short)0x1004, stopTimestampNs);
+
+                // create a few statistics for faster lookup, a single pass over the events of each sensor
+                ActivityStatistics statistics = new ActivityStatistics();
+                statistics.setScope(startTimestampNs, stopTimestampNs);
+                SummaryAggregator heartRate = new SummaryAggregator();
+                RateAggregator steps = new RateAggregator();
+                ClimbAggregator climb = new ClimbAggregator();
+                SummaryAggregator speed = new SummaryAggregator();
+                statistics.addAggregator(ActivityStatistics.HEART_RATE, heartRate);
+                statistics.addAggregator(ActivityStatistics.STEPS, steps);
+                statistics.addAggregator(ActivityStatistics.ALTITUDE, climb);
+                statistics.addAggregator(ActivityStatistics.SPEED, speed);
 
-                // create a few statistics for faster lookup
-                // average and maximum heart rate
-                float avgHeartRate = 0;
-                int maxHeartRate = 0;
-                int countHeartRate = 0;
                 for (HeartRateSensorData data : heartRateSensorData) {
-                    if (data.getTimestamp() >= startTimestampNs && data.getTimestamp() <= stopTimestampNs && data.getAccuracy() >= SensorManager.SENSOR_STATUS_ACCURACY_LOW) {
-                        avgHeartRate = avgHeartRate * ((float)countHeartRate / (++countHeartRate)) + (float)data.getHeartRate() / countHeartRate;
-                        if (data.getHeartRate() > maxHeartRate) {
-                            maxHeartRate = data.getHeartRate();
-                        }
-                    }
+                    statistics.addHeartRate(data.getTimestamp(), data.getAccuracy(), data.getHeartRate());
                 }
 
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1011), BitUtility.getBytes(avgHeartRate));
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1012), BitUtility.getBytes(maxHeartRate));
-
-                // steps per minute in average
-                int startStepsValue = -1;
-                int stopStepsValue = -1;
-                float avgStepsRate = 0;
                 for (StepCounterSensorData data : stepCounterSensorData) {
-                    if (data.getTimestamp() >= startTimestampNs && data.getTimestamp() <= stopTimestampNs && data.getAccuracy() >= SensorManager.SENSOR_STATUS_ACCURACY_LOW) {
-                        if (startStepsValue < 0) {
-                            startStepsValue = data.getStepsCount();
-                        }
-
-                        stopStepsValue = data.getStepsCount();
-                    }
+                    statistics.addSteps(data.getTimestamp(), data.getAccuracy(), data.getStepsCount());
                 }
 
-                avgStepsRate = (stopStepsValue - startStepsValue) / ((stopTimestampNs - startTimestampNs) / 1000 / 1000 / 1000 / 60f);
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1013), BitUtility.getBytes(stopStepsValue - startStepsValue));
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1014), BitUtility.getBytes(avgStepsRate));
-
-                // total ascent und descent, average speed as of the GNSS
-                boolean firstAltitude = true;
-                double lastAltitude = 0;
-                double totalAscent = 0;
-                double totalDescent = 0;
-                float avgSpeed = 0;
-                int countSpeed = 0;
                 for (GeoLocationData data : geoLocationData) {
-                    if (data.getTimestamp() >= startTimestampNs && data.getTimestamp() <= stopTimestampNs) {
-                        Location location = data.getLocation();
-
-                        if (firstAltitude) {
-                            firstAltitude = false;
-                        } else {
-                            double diff = location.getAltitude() - lastAltitude;
-                            if (diff > 0) {
-                                totalAscent += diff;
-                            } else {
-                                totalDescent -= diff;
-                            }
-                        }
-
-                        lastAltitude = location.getAltitude();
-
-                        avgSpeed = avgSpeed * ((float)countSpeed / (++countSpeed)) + location.getSpeed() / countSpeed;
-                    }
+                    Location location = data.getLocation();
+                    statistics.addGeo(data.getTimestamp(), location.getSpeed(), location.getAltitude(), location.getAccuracy());
                 }
 
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1015), BitUtility.getBytes((float)totalAscent));
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1016), BitUtility.getBytes((float)totalDescent));
-                FileItem.writeField(fos, BitUtility.getBytes((short)0x1017), BitUtility.getBytes(avgSpeed));
+                // average and maximum heart rate
+                float avgHeartRate = heartRate.getCount() > 0 ? (float)heartRate.getMean() : 0;
+                int maxHeartRate = heartRate.getCount() > 0 ? (int)heartRate.getMax() : 0;
+                writer.writeField((short)0x1011, avgHeartRate);
+                writer.writeField((short)0x1012, maxHeartRate);
+                trailer.setAvgHeartRate(avgHeartRate);
+                trailer.setMaxHeartRate(maxHeartRate);
+
+                // steps per minute in average
+                int totalSteps = (int)steps.getTotal();
+                float avgStepsRate = totalSteps / ((stopTimestampNs - startTimestampNs) / 1000 / 1000 / 1000 / 60f);
+                writer.writeField((short)0x1013, totalSteps);
+                writer.writeField((short)0x1014, avgStepsRate);
+                trailer.setTotalSteps(totalSteps);
+                trailer.setAvgStepRate(avgStepsRate);
 
-                // store individual events
+                // total ascent und descent, average speed as of the GNSS
+                float avgSpeed = speed.getCount() > 0 ? (float)speed.getMean() : 0;
+                writer.writeField((short)0x1015, (float)climb.getAscent());
+                writer.writeField((short)0x1016, (float)climb.getDescent());
+                writer.writeField((short)0x1017, avgSpeed);
+                trailer.setTotalAscent((float)climb.getAscent());
+                trailer.setTotalDescent((float)climb.getDescent());
+                trailer.setAvgSpeed(avgSpeed);
+
+                // store the events in blocks of columns per sensor
+                // 2 = data, 0 = n/a, 1..4 = heart, steps, pressure, geo, 2 = blocks
+                ByteBuffer encoded = ByteBuffer.allocate(2 * new EventBlock(EventBlock.GEO).getMaxEncodedLength());
+
+                long sectionStart = writer.getBytesWritten();
+                EventBlock block = new EventBlock(EventBlock.HEART_RATE);
                 for (HeartRateSensorData data : heartRateSensorData) {
-                    // 2 = data, 0 = n/a, 1 = heart, 1 = first version
-                    FileItem.writeField(fos, BitUtility.getBytes((short)0x2011), BitUtility.getBytes(data.getTimestamp()), BitUtility.getBytes(data.getHeartRate()), BitUtility.getBytes(data.getAccuracy()));
+                    int index = block.add(data.getTimestamp(), data.getAccuracy());
+                    block.setInt(EventBlock.HEART_RATE_RATE, index, data.getHeartRate());
+                    writeBlock(writer, block, encoded, false);
                 }
 
+                writeBlock(writer, block, encoded, true);
+                trailer.setSection(EventBlock.HEART_RATE, sectionStart, writer.getBytesWritten() - sectionStart, heartRateSensorData.size());
+
+                sectionStart = writer.getBytesWritten();
+                block = new EventBlock(EventBlock.STEPS);
                 for (StepCounterSensorData data : stepCounterSensorData) {
-                    // 2 = data, 0 = n/a, 2 = steps, 1 = first version
-                    FileItem.writeField(fos, BitUtility.getBytes((short)0x2021), BitUtility.getBytes(data.getTimestamp()), BitUtility.getBytes(data.getStepsCount()), BitUtility.getBytes(data.getAccuracy()));
+                    int index = block.add(data.getTimestamp(), data.getAccuracy());
+                    block.setInt(EventBlock.STEPS_STEPS, index, data.getStepsCount());
+                    writeBlock(writer, block, encoded, false);
                 }
 
+                writeBlock(writer, block, encoded, true);
+                trailer.setSection(EventBlock.STEPS, sectionStart, writer.getBytesWritten() - sectionStart, stepCounterSensorData.size());
+
+                sectionStart = writer.getBytesWritten();
+                block = new EventBlock(EventBlock.AIR_PRESSURE);
                 for (PressureSensorData data : pressureSensorData) {
-                    // 2 = data, 0 = n/a, 3 = pressure, 1 = first version
-                    FileItem.writeField(fos, BitUtility.getBytes((short)0x2031), BitUtility.getBytes(data.getTimestamp()), BitUtility.getBytes(data.getPressure()), BitUtility.getBytes(data.getAccuracy()));
+                    int index = block.add(data.getTimestamp(), data.getAccuracy());
+                    block.setFloat(EventBlock.AIR_PRESSURE_PRESSURE, index, data.getPressure());
+                    writeBlock(writer, block, encoded, false);
                 }
 
+                writeBlock(writer, block, encoded, true);
+                trailer.setSection(EventBlock.AIR_PRESSURE, sectionStart, writer.getBytesWritten() - sectionStart, pressureSensorData.size());
+
+                sectionStart = writer.getBytesWritten();
+                block = new EventBlock(EventBlock.GEO);
                 for (GeoLocationData data : geoLocationData) {
                     Location location = data.getLocation();
 
-                    // 2 = data, 0 = n/a, 4 = geo, 1 = first version
-                    FileItem.writeField(fos,
-                            BitUtility.getBytes((short)0x2041),
-                            BitUtility.getBytes(data.getTimestamp()),
-                            BitUtility.getBytes(location.getElapsedRealtimeNanos()),
-                            BitUtility.getBytes(location.getTime()),
-                            BitUtility.getBytes(location.getLatitude()),
-                            BitUtility.getBytes(location.getLongitude()),
-                            BitUtility.getBytes(location.getAccuracy()),
-                            BitUtility.getBytes(location.getAltitude()),
-                            BitUtility.getBytes(location.getBearing()),
-                            BitUtility.getBytes(location.getSpeed()),
-                            BitUtility.getBytes(data.getAccuracy()));
+                    int index = block.add(data.getTimestamp(), data.getAccuracy());
+                    block.setLong(EventBlock.GEO_TICKS, index, location.getElapsedRealtimeNanos());
+                    block.setLong(EventBlock.GEO_TIME, index, location.getTime());
+                    block.setDouble(EventBlock.GEO_LATITUDE, index, location.getLatitude());
+                    block.setDouble(EventBlock.GEO_LONGITUDE, index, location.getLongitude());
+                    block.setDouble(EventBlock.GEO_ALTITUDE, index, location.getAltitude());
+                    block.setFloat(EventBlock.GEO_LATERAL_ACCURACY, index, location.getAccuracy());
+                    block.setFloat(EventBlock.GEO_BEARING, index, location.getBearing());
+                    block.setFloat(EventBlock.GEO_SPEED, index, location.getSpeed());
+                    writeBlock(writer, block, encoded, false);
                 }
 
+                writeBlock(writer, block, encoded, true);
+                trailer.setSection(EventBlock.GEO, sectionStart, writer.getBytesWritten() - sectionStart, geoLocationData.size());
+
+                // trailer and the footer pointing to it
+                long trailerOffset = writer.getBytesWritten();
+                encoded.clear();
+                trailer.encode(encoded);
+                encoded.flip();
+                writer.beginField((short)RecordingIndex.TRAILER, encoded.remaining()).put(encoded).endField();
+                writer.writeField((short)RecordingIndex.FOOTER, trailerOffset);
+
                 // end of file marker
-                FileItem.writeField(fos, BitUtility.getBytes((short)0xffff));
-                fos.close();
+                writer.beginField((short)0xffff, 0).endField();
 
                 succeeded++;
             } catch (Exception ex) {
@@ -204,6 +223,24 @@ public class AsyncSaver extends AsyncTask<ISensorReadout, Float, Integer> {
         return succeeded;
     }
 
+    /**
+     * Writes the block as a checked field if full or if requested and not empty, clears the block afterwards.
+     * @param writer the writer
+     * @param block the block
+     * @param encoded buffer for the encoded block, twice the maximum size of a block
+     * @param last true to write the remaining events of the sensor
+     * @throws IOException in case of an IO issue
+     */
+    private static void writeBlock(FieldWriter writer, EventBlock block, ByteBuffer encoded, boolean last) throws IOException {
+        if (block.isFull() || (last && block.getCount() > 0)) {
+            encoded.clear();
+            block.encodeSmallest(encoded);
+            encoded.flip();
+            writer.beginField((short)(block.getId() | EventBlock.CHECKED), encoded.remaining() + 4).put(encoded).putChecksum().endField();
+            block.clear();
+        }
+    }
+
     @Override
     protected void onPostExecute(Integer integer) {
         if (this.finishedCallback != null) {
@@ -26,19 +26,51 @@ package de.miltschek.tracker;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.zip.CRC32;
 
 /**
  * Asynchronous sport activity recording uploader.
+ * All files going to the same server are sent over a single connection with the resumable protocol
+ * (see {@link UploadProtocol}): a manifest announces all of them by name, size and checksum, the server
+ * answers with the ones it does not hold yet, their data follows back to back and
+ * the server confirms each file as soon as it is complete. If the connection drops, the next attempt
+ * continues from the offsets the server already holds. Servers speaking only the first version
+ * of the protocol are detected and served the old way, one connection per file.
  */
 public class AsyncUploader extends AsyncTask<TransferRequest, Float, Integer> {
     private static final String TAG = AsyncUploader.class.getSimpleName();
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int RETRY_DELAY_MS = 2000;
+    private static final int ACKNOWLEDGE_TIMEOUT_MS = 3 * 60 * 1000;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // checksums of the recordings, which don't change once written; key: path, size and modification time
+    private static final Map<String, Long> checksums = new HashMap<>();
+    // recordings the server rejected as invalid, not sent again unless changed; same key as of the checksums
+    private static final Set<String> rejected = new HashSet<>();
     private Consumer<Integer> finishedCallback;
+    private long totalBytes;
+    private long sentBytes;
 
     /**
      * Creates an asynchronous uploader.
@@ -55,62 +87,357 @@ public class AsyncUploader extends AsyncTask<TransferRequest, Float, Integer> {
             return 0;
         }
 
-        int succeeded = 0;
-        int totalRequests = params.length;
-        int currentRequest = 0;
-        float oneRequestValue = 1f / totalRequests;
+        // one batch per target server
+        Map<String, List<TransferRequest>> batches = new LinkedHashMap<>();
         for (TransferRequest transferRequest : params) {
-            try {
-                Socket socket = new Socket(transferRequest.getAddress(), transferRequest.getPort());
-                OutputStream os = socket.getOutputStream();
-                InputStream is = new FileInputStream(transferRequest.getFilePath());
-                int fileSize = is.available();
-
-                int read;
-                long totalData = 0;
-                byte[] buffer = new byte[1024 * 1024];
-
-                // send the size of the file
-                os.write(BitUtility.getBytes(fileSize), 0, 4);
-
-                while ((read = is.read(buffer)) > 0) {
-                    os.write(buffer, 0, read);
-                    totalData += read;
-                    publishProgress(currentRequest * oneRequestValue + ((fileSize > 0) ? oneRequestValue * totalData / fileSize : 0));
+            String target = transferRequest.getAddress() + ":" + transferRequest.getPort();
+            List<TransferRequest> batch = batches.get(target);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                batches.put(target, batch);
+            }
+
+            File file = new File(transferRequest.getFilePath());
+            synchronized (rejected) {
+                if (rejected.contains(getVersionKey(file))) {
+                    Log.w(TAG, "Skipping the file " + file + " rejected by the server before.");
+                    continue;
+                }
+            }
+
+            batch.add(transferRequest);
+            totalBytes += file.length();
+        }
+
+        int succeeded = 0;
+        for (List<TransferRequest> batch : batches.values()) {
+            for (int offset = 0; offset < batch.size(); offset += UploadProtocol.MAX_MANIFEST_ENTRIES) {
+                succeeded += uploadWithRetries(batch.subList(offset, Math.min(batch.size(), offset + UploadProtocol.MAX_MANIFEST_ENTRIES)));
+            }
+        }
+
+        return succeeded;
+    }
+
+    /**
+     * Uploads files to a single server, retrying the unconfirmed and the failed ones
+     * (e.g. damaged on the way) after a failure. Files rejected as invalid recordings are not retried.
+     * @param requests requests of the same target server
+     * @return number of successfully sent files
+     */
+    private int uploadWithRetries(List<TransferRequest> requests) {
+        TransferRequest first = requests.get(0);
+        byte[] statuses = new byte[requests.size()];
+        long progressBase = sentBytes;
+
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            List<TransferRequest> pending = new ArrayList<>();
+            List<Integer> pendingIndexes = new ArrayList<>();
+            sentBytes = progressBase;
+            for (int n = 0; n < requests.size(); n++) {
+                if (!isFinal(statuses[n])) {
+                    pending.add(requests.get(n));
+                    pendingIndexes.add(n);
+                } else {
+                    sentBytes += new File(requests.get(n).getFilePath()).length();
                 }
+            }
 
-                os.flush();
+            if (pending.isEmpty()) {
+                break;
+            }
 
-                // wait max 3 minutes for a confirmation
-                socket.setSoTimeout(3 * 60 * 1000);
-                try {
-                    read = socket.getInputStream().read();
-                    if (read == 5) {
-                        Log.i(TAG, "Successfully sent the file.");
-                    } else {
-                        Log.e(TAG, "Failed to send the file [" + read + "].");
+            byte[] pendingStatuses = new byte[pending.size()];
+            try {
+                if (!uploadBatch(pending, pendingStatuses)) {
+                    // an old server took the magic for a (negative) file size and confirmed it
+                    Log.i(TAG, "Server does not support resumable uploads.");
+                    for (int n = 0; n < pending.size(); n++) {
+                        pendingStatuses[n] = uploadLegacy(pending.get(n));
                     }
-                } catch (SocketTimeoutException ex) {
-                    Log.e(TAG, "Timeout while waiting for a reception confirmation.");
                 }
+            } catch (Exception ex) {
+                Log.d(TAG, "Attempt " + attempt + " to upload " + pending.size() + " file(s) to " + first.getAddress() + ":" + first.getPort() + " failed due to " + ex.getClass().getSimpleName() + " " + ex.getMessage());
+            }
 
-                is.close();
-                os.close();
-                socket.close();
+            for (int n = 0; n < pending.size(); n++) {
+                statuses[pendingIndexes.get(n)] = pendingStatuses[n];
+            }
 
-                publishProgress((currentRequest + 1) * oneRequestValue);
+            boolean complete = true;
+            for (byte status : statuses) {
+                complete &= isFinal(status);
+            }
 
-                succeeded++;
-            } catch (Exception ex) {
-                Log.d(TAG, "Failed to upload file " + transferRequest.getFilePath() + " to " + transferRequest.getAddress() + ":" + transferRequest.getPort() + " due to " + ex.getClass().getSimpleName() + " " + ex.getMessage());
+            if (complete) {
+                break;
             }
 
-            currentRequest++;
+            try {
+                Thread.sleep(RETRY_DELAY_MS * attempt);
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+
+        int succeeded = 0;
+        for (int n = 0; n < requests.size(); n++) {
+            if (statuses[n] == UploadProtocol.ACKNOWLEDGE) {
+                Log.i(TAG, "Successfully sent the file " + requests.get(n).getFilePath() + ".");
+                succeeded++;
+            } else if (statuses[n] == UploadProtocol.REJECTED) {
+                File file = new File(requests.get(n).getFilePath());
+                Log.e(TAG, "The server rejected the file " + file + " as not a valid recording.");
+                synchronized (rejected) {
+                    rejected.add(getVersionKey(file));
+                }
+            } else {
+                Log.e(TAG, "Failed to send the file " + requests.get(n).getFilePath() + " [" + statuses[n] + "].");
+            }
         }
 
         return succeeded;
     }
 
+    /**
+     * Uploads files of the same target server over a single connection with the resumable protocol.
+     * Files the server holds already are not sent at all, the others continue at the offsets the server holds.
+     * @param requests requests of the same target server
+     * @param statuses receives the status of each confirmed file ({@link UploadProtocol#ACKNOWLEDGE},
+     *                 {@link UploadProtocol#FAILED} or {@link UploadProtocol#REJECTED}); unconfirmed files stay 0
+     * @return true if done, false if the server does not support the resumable protocol
+     * @throws IOException in case of an IO issue; a next attempt may continue the uploads
+     */
+    private boolean uploadBatch(List<TransferRequest> requests, byte[] statuses) throws IOException {
+        TransferRequest first = requests.get(0);
+        File[] files = new File[requests.size()];
+        long[] sizes = new long[requests.size()];
+
+        Socket socket = new Socket(first.getAddress(), first.getPort());
+        try {
+            socket.setSoTimeout(ACKNOWLEDGE_TIMEOUT_MS);
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE + 16));
+            DataInputStream is = new DataInputStream(socket.getInputStream());
+
+            os.writeInt(UploadProtocol.MAGIC);
+            os.writeByte(UploadProtocol.VERSION_RESUMABLE);
+            os.writeByte(UploadProtocol.FRAME_DELTA_MANIFEST);
+            os.writeShort(requests.size());
+            for (int n = 0; n < files.length; n++) {
+                files[n] = new File(requests.get(n).getFilePath());
+                sizes[n] = files[n].length();
+                byte[] fileId = files[n].getName().getBytes(StandardCharsets.UTF_8);
+                os.writeShort(fileId.length);
+                os.write(fileId);
+                os.writeLong(sizes[n]);
+                os.writeInt((int)getChecksum(files[n]));
+            }
+
+            os.flush();
+
+            int frame = is.read();
+            if (frame == UploadProtocol.ACKNOWLEDGE) {
+                return false;
+            } else if (frame != (UploadProtocol.FRAME_MISSING & 0xff)) {
+                throw new IOException("Unexpected response " + frame + ".");
+            }
+
+            // files not listed are held by the server already
+            int missing = is.readUnsignedShort();
+            int[] indexes = new int[missing];
+            long[] offsets = new long[missing];
+            for (int n = 0; n < missing; n++) {
+                indexes[n] = is.readUnsignedShort();
+                offsets[n] = is.readLong();
+                if (indexes[n] >= files.length) {
+                    throw new IOException("Unexpected file index " + indexes[n] + ".");
+                }
+
+                if (offsets[n] > 0) {
+                    Log.i(TAG, "Resuming " + files[indexes[n]].getName() + " at " + offsets[n] + " of " + sizes[indexes[n]] + " Bytes.");
+                }
+            }
+
+            boolean[] held = new boolean[files.length];
+            Arrays.fill(held, true);
+            for (int index : indexes) {
+                held[index] = false;
+            }
+
+            for (int n = 0; n < files.length; n++) {
+                if (held[n]) {
+                    Log.i(TAG, "Server holds " + files[n].getName() + " already.");
+                    statuses[n] = UploadProtocol.ACKNOWLEDGE;
+                    sentBytes += sizes[n];
+                }
+            }
+
+            publishProgress(totalBytes > 0 ? (float)sentBytes / totalBytes : 0);
+
+            int outstanding = missing;
+            byte[] buffer = new byte[CHUNK_SIZE];
+            for (int n = 0; n < missing; n++) {
+                sendFile(os, indexes[n], files[indexes[n]], offsets[n], sizes[indexes[n]], buffer);
+
+                // pick up confirmations that have arrived meanwhile, without waiting for them
+                while (outstanding > 0 && is.available() > 0) {
+                    readConfirmation(is, statuses);
+                    outstanding--;
+                }
+            }
+
+            os.flush();
+
+            while (outstanding > 0) {
+                readConfirmation(is, statuses);
+                outstanding--;
+            }
+
+            return true;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void sendFile(DataOutputStream os, int index, File file, long offset, long fileSize, byte[] buffer) throws IOException {
+        sentBytes += offset;
+        if (offset >= fileSize) {
+            return;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(offset);
+            while (offset < fileSize) {
+                int read = raf.read(buffer, 0, (int)Math.min(buffer.length, fileSize - offset));
+                if (read < 0) {
+                    throw new IOException("File " + file + " shorter than expected.");
+                }
+
+                os.writeByte(UploadProtocol.FRAME_INDEXED_DATA);
+                os.writeShort(index);
+                os.writeLong(offset);
+                os.writeInt(read);
+                os.write(buffer, 0, read);
+                offset += read;
+                sentBytes += read;
+                publishProgress(totalBytes > 0 ? (float)sentBytes / totalBytes : 0);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the CRC-32 of a file's content, calculated once per file version.
+     * @param file the file
+     * @return the checksum
+     * @throws IOException if the file could not be read
+     */
+    private static long getChecksum(File file) throws IOException {
+        String key = getVersionKey(file);
+        synchronized (checksums) {
+            Long checksum = checksums.get(key);
+            if (checksum != null) {
+                return checksum;
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        InputStream is = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+
+        synchronized (checksums) {
+            checksums.put(key, crc.getValue());
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Returns a key identifying a version of a file, see {@link #checksums}.
+     * @param file the file
+     * @return path, size and modification time
+     */
+    private static String getVersionKey(File file) {
+        return file.getPath() + "\t" + file.length() + "\t" + file.lastModified();
+    }
+
+    /**
+     * Returns whether a file of the given status is done with, so it is not sent again.
+     * @param status status of the file, 0 if unconfirmed
+     * @return true if acknowledged or rejected
+     */
+    private static boolean isFinal(byte status) {
+        return status == UploadProtocol.ACKNOWLEDGE || status == UploadProtocol.REJECTED;
+    }
+
+    private static void readConfirmation(DataInputStream is, byte[] statuses) throws IOException {
+        int frame = is.read();
+        if (frame != (UploadProtocol.FRAME_FILE_COMPLETE & 0xff)) {
+            throw new IOException("Unexpected response " + frame + ".");
+        }
+
+        int index = is.readUnsignedShort();
+        statuses[index] = is.readByte();
+    }
+
+    /**
+     * Uploads a file with the first version of the protocol (file size, payload, confirmation byte).
+     * @param transferRequest the request
+     * @return status sent by the server ({@link UploadProtocol#ACKNOWLEDGE} or {@link UploadProtocol#REJECTED}),
+     *         {@link UploadProtocol#FAILED} for any other response or none
+     * @throws IOException in case of an IO issue
+     */
+    private byte uploadLegacy(TransferRequest transferRequest) throws IOException {
+        Socket socket = new Socket(transferRequest.getAddress(), transferRequest.getPort());
+        OutputStream os = socket.getOutputStream();
+        InputStream is = new FileInputStream(transferRequest.getFilePath());
+        int fileSize = is.available();
+
+        int read;
+        byte[] buffer = new byte[1024 * 1024];
+
+        // send the size of the file
+        os.write(BitUtility.getBytes(fileSize), 0, 4);
+
+        while ((read = is.read(buffer)) > 0) {
+            os.write(buffer, 0, read);
+            sentBytes += read;
+            publishProgress(totalBytes > 0 ? (float)sentBytes / totalBytes : 0);
+        }
+
+        os.flush();
+
+        // wait max 3 minutes for a confirmation
+        byte status = UploadProtocol.FAILED;
+        socket.setSoTimeout(ACKNOWLEDGE_TIMEOUT_MS);
+        try {
+            read = socket.getInputStream().read();
+            if (read == UploadProtocol.ACKNOWLEDGE || read == UploadProtocol.REJECTED) {
+                status = (byte)read;
+            } else {
+                Log.e(TAG, "Failed to send the file [" + read + "].");
+            }
+        } catch (SocketTimeoutException ex) {
+            Log.e(TAG, "Timeout while waiting for a reception confirmation.");
+        }
+
+        is.close();
+        os.close();
+        socket.close();
+
+        return status;
+    }
+
     @Override
     protected void onProgressUpdate(Float... values) {
         for (Float value : values) {
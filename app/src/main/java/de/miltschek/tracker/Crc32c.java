@@ -0,0 +1,99 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CRC32C (Castagnoli polynomial) of the checked fields, see {@link EventBlock#CHECKED}.
+ * java.util.zip.CRC32C is available from API level 26 on, so the checksum is calculated here
+ * with tables, 8 bytes per step (slicing-by-8).
+ */
+public class Crc32c {
+    // reversed polynomial 0x1edc6f41
+    private static final int POLYNOMIAL = 0x82f63b78;
+    private static final int[][] TABLES = createTables();
+
+    private static int[][] createTables() {
+        int[][] tables = new int[8][256];
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc >>> 1) ^ (POLYNOMIAL & -(crc & 1));
+            }
+
+            tables[0][n] = crc;
+        }
+
+        // the tables of the following bytes, advanced by 8 bits per table
+        for (int table = 1; table < tables.length; table++) {
+            for (int n = 0; n < 256; n++) {
+                int previous = tables[table - 1][n];
+                tables[table][n] = (previous >>> 8) ^ tables[0][previous & 0xff];
+            }
+        }
+
+        return tables;
+    }
+
+    /**
+     * Calculates the CRC32C of a range of a buffer.
+     * @param buffer the data, the position is not changed
+     * @param offset absolute offset of the first byte
+     * @param length number of bytes
+     * @return checksum
+     */
+    public static int compute(ByteBuffer buffer, int offset, int length) {
+        int[] t0 = TABLES[0];
+        int crc = ~0;
+        if (buffer.hasArray()) {
+            int[] t1 = TABLES[1];
+            int[] t2 = TABLES[2];
+            int[] t3 = TABLES[3];
+            int[] t4 = TABLES[4];
+            int[] t5 = TABLES[5];
+            int[] t6 = TABLES[6];
+            int[] t7 = TABLES[7];
+            byte[] array = buffer.array();
+            int n = buffer.arrayOffset() + offset;
+            int end = n + length;
+            for (; n + 8 <= end; n += 8) {
+                int low = crc ^ ((array[n] & 0xff) | (array[n + 1] & 0xff) << 8 | (array[n + 2] & 0xff) << 16 | (array[n + 3] & 0xff) << 24);
+                crc = t7[low & 0xff] ^ t6[(low >>> 8) & 0xff] ^ t5[(low >>> 16) & 0xff] ^ t4[low >>> 24]
+                        ^ t3[array[n + 4] & 0xff] ^ t2[array[n + 5] & 0xff] ^ t1[array[n + 6] & 0xff] ^ t0[array[n + 7] & 0xff];
+            }
+
+            for (; n < end; n++) {
+                crc = (crc >>> 8) ^ t0[(crc ^ array[n]) & 0xff];
+            }
+        } else {
+            for (int n = offset; n < offset + length; n++) {
+                crc = (crc >>> 8) ^ t0[(crc ^ buffer.get(n)) & 0xff];
+            }
+        }
+
+        return ~crc;
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Up to {@link #MAX_EVENTS} events of a single sensor stored column by column, the data event list
+ * of the file format version 3. Each block is written as the data of one field, e.g. {@link #HEART_RATE}:
+ * the number of events, the encoding of the floating point columns, the timestamps (delta of delta),
+ * the sensor accuracies (run-length) and the value columns of the sensor (see {@link ColumnCodec}).
+ * A block is reused: filled by {@link #add(long, int)} and the setters, or by {@link #decode(ByteBuffer, int, int)},
+ * or column by column on demand ({@link #decodeLazily(ByteBuffer, int, int)}).
+ */
+public class EventBlock {
+    /**
+     * Block of heart rate events: int column {@link #HEART_RATE_RATE}.
+     */
+    public static final int HEART_RATE = 0x2012;
+    /**
+     * Block of steps counter events: int column {@link #STEPS_STEPS}.
+     */
+    public static final int STEPS = 0x2022;
+    /**
+     * Block of air pressure events: float column {@link #AIR_PRESSURE_PRESSURE}.
+     */
+    public static final int AIR_PRESSURE = 0x2032;
+    /**
+     * Block of geo (GNSS) events: long columns {@link #GEO_TICKS} and {@link #GEO_TIME},
+     * double columns {@link #GEO_LATITUDE}, {@link #GEO_LONGITUDE} and {@link #GEO_ALTITUDE},
+     * float columns {@link #GEO_LATERAL_ACCURACY}, {@link #GEO_BEARING} and {@link #GEO_SPEED}.
+     */
+    public static final int GEO = 0x2042;
+
+    /** Heart rate in beats per minute (int column). */
+    public static final int HEART_RATE_RATE = 0;
+    /** Steps counter state (int column). */
+    public static final int STEPS_STEPS = 0;
+    /** Air pressure in millibars (float column). */
+    public static final int AIR_PRESSURE_PRESSURE = 0;
+    /** Timestamp of the fix in nanoseconds (long column). */
+    public static final int GEO_TICKS = 0;
+    /** Real-time-clock timestamp of the fix in milliseconds (long column). */
+    public static final int GEO_TIME = 1;
+    /** Latitude in degrees (double column). */
+    public static final int GEO_LATITUDE = 0;
+    /** Longitude in degrees (double column). */
+    public static final int GEO_LONGITUDE = 1;
+    /** Altitude in meters (double column). */
+    public static final int GEO_ALTITUDE = 2;
+    /** Lateral accuracy in meters (float column). */
+    public static final int GEO_LATERAL_ACCURACY = 0;
+    /** Bearing in degrees (float column). */
+    public static final int GEO_BEARING = 1;
+    /** Speed in meters per second (float column). */
+    public static final int GEO_SPEED = 2;
+
+    /**
+     * Flag of the field id of a checked block, e.g. {@code HEART_RATE | CHECKED}: the data of the field
+     * is followed by the CRC32C (see {@link Crc32c}) of the whole field up to the checksum, verified by the {@link FieldReader}.
+     */
+    public static final int CHECKED = 0x0001;
+
+    /**
+     * Maximum number of events written into a single block.
+     */
+    public static final int MAX_EVENTS = 1024;
+
+    /**
+     * Encoding of the floating point columns: differences of the bit patterns.
+     */
+    public static final byte FLOAT_ENCODING_DELTA = 0;
+    /**
+     * Encoding of the floating point columns: XOR with the predecessor (Gorilla compression).
+     */
+    public static final byte FLOAT_ENCODING_XOR = 1;
+
+    // longest variable-length integer
+    private static final int MAX_VAR_LONG = 10;
+
+    private final int id;
+    private byte floatEncoding = FLOAT_ENCODING_DELTA;
+    private int count;
+    private long[] timestamps;
+    private int[] accuracies;
+    private final int[][] ints;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final float[][] floats;
+    // number of value columns (all but the timestamps and the accuracies)
+    private final int columns;
+    // value columns decoded so far in the order of the encoding, see decodeLazily
+    private int decodedColumns;
+    // the encoded value columns following the decoded ones, null if all decoded
+    private ByteBuffer encodedColumns;
+
+    /**
+     * Creates an empty block.
+     * @param id id of the block, one of {@link #HEART_RATE}, {@link #STEPS}, {@link #AIR_PRESSURE} or {@link #GEO}
+     * @throws IllegalArgumentException if the id is unknown
+     */
+    public EventBlock(int id) {
+        this.id = id;
+        switch (id) {
+            case HEART_RATE:
+            case STEPS:
+                ints = new int[1][];
+                longs = new long[0][];
+                doubles = new double[0][];
+                floats = new float[0][];
+                break;
+
+            case AIR_PRESSURE:
+                ints = new int[0][];
+                longs = new long[0][];
+                doubles = new double[0][];
+                floats = new float[1][];
+                break;
+
+            case GEO:
+                ints = new int[0][];
+                longs = new long[2][];
+                doubles = new double[3][];
+                floats = new float[3][];
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown block id " + Integer.toHexString(id) + ".");
+        }
+
+        columns = ints.length + longs.length + doubles.length + floats.length;
+        decodedColumns = columns;
+        allocate(MAX_EVENTS);
+    }
+
+    /**
+     * Checks whether the given field id denotes an event block.
+     * @param id field id
+     * @return true if an event block
+     */
+    public static boolean isBlock(int id) {
+        return id == HEART_RATE || id == STEPS || id == AIR_PRESSURE || id == GEO;
+    }
+
+    /**
+     * Checks whether the given field id denotes an event block followed by a checksum.
+     * @param id field id
+     * @return true if a checked event block
+     */
+    public static boolean isChecked(int id) {
+        return (id & CHECKED) != 0 && isBlock(id & ~CHECKED);
+    }
+
+    /**
+     * Gets the id of the block.
+     * @return field id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the encoding of the floating point columns, as used by {@link #encode(ByteBuffer)} or as read by
+     * {@link #decode(ByteBuffer, int, int)}.
+     * @return {@link #FLOAT_ENCODING_DELTA} or {@link #FLOAT_ENCODING_XOR}
+     */
+    public byte getFloatEncoding() {
+        return floatEncoding;
+    }
+
+    /**
+     * Sets the encoding of the floating point columns used by {@link #encode(ByteBuffer)}.
+     * @param floatEncoding {@link #FLOAT_ENCODING_DELTA} or {@link #FLOAT_ENCODING_XOR}
+     */
+    public void setFloatEncoding(byte floatEncoding) {
+        if (floatEncoding != FLOAT_ENCODING_DELTA && floatEncoding != FLOAT_ENCODING_XOR) {
+            throw new IllegalArgumentException("Unknown encoding " + floatEncoding + ".");
+        }
+
+        this.floatEncoding = floatEncoding;
+    }
+
+    /**
+     * Gets the number of events in the block.
+     * @return number of events
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Checks whether the block holds {@link #MAX_EVENTS} events.
+     * @return true if full
+     */
+    public boolean isFull() {
+        return count >= MAX_EVENTS;
+    }
+
+    /**
+     * Removes all events.
+     */
+    public void clear() {
+        count = 0;
+        decodedColumns = columns;
+        encodedColumns = null;
+    }
+
+    /**
+     * Appends an event, its values are to be set by the setters afterwards.
+     * @param timestamp timestamp of the event in nanoseconds
+     * @param accuracy sensor accuracy
+     * @return index of the event
+     * @throws IllegalStateException if the block is full
+     */
+    public int add(long timestamp, int accuracy) {
+        if (isFull()) {
+            throw new IllegalStateException("Block full.");
+        }
+
+        timestamps[count] = timestamp;
+        accuracies[count] = accuracy;
+        return count++;
+    }
+
+    /**
+     * Gets the timestamp of an event.
+     * @param index index of the event
+     * @return timestamp in nanoseconds
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Gets the sensor accuracy of an event.
+     * @param index index of the event
+     * @return sensor accuracy
+     */
+    public int getAccuracy(int index) {
+        return accuracies[index];
+    }
+
+    /**
+     * Gets a value of an int column.
+     * @param column the column
+     * @param index index of the event
+     * @return the value
+     */
+    public int getInt(int column, int index) {
+        if (column >= decodedColumns) {
+            decodeColumns(column);
+        }
+
+        return ints[column][index];
+    }
+
+    /**
+     * Sets a value of an int column.
+     * @param column the column
+     * @param index index of the event
+     * @param value the value
+     */
+    public void setInt(int column, int index, int value) {
+        if (column >= decodedColumns) {
+            decodeColumns(column);
+        }
+
+        ints[column][index] = value;
+    }
+
+    /**
+     * Gets a value of a long column.
+     * @param column the column
+     * @param index index of the event
+     * @return the value
+     */
+    public long getLong(int column, int index) {
+        if (ints.length + column >= decodedColumns) {
+            decodeColumns(ints.length + column);
+        }
+
+        return longs[column][index];
+    }
+
+    /**
+     * Sets a value of a long column.
+     * @param column the column
+     * @param index index of the event
+     * @param value the value
+     */
+    public void setLong(int column, int index, long value) {
+        if (ints.length + column >= decodedColumns) {
+            decodeColumns(ints.length + column);
+        }
+
+        longs[column][index] = value;
+    }
+
+    /**
+     * Gets a value of a double column.
+     * @param column the column
+     * @param index index of the event
+     * @return the value
+     */
+    public double getDouble(int column, int index) {
+        if (ints.length + longs.length + column >= decodedColumns) {
+            decodeColumns(ints.length + longs.length + column);
+        }
+
+        return doubles[column][index];
+    }
+
+    /**
+     * Sets a value of a double column.
+     * @param column the column
+     * @param index index of the event
+     * @param value the value
+     */
+    public void setDouble(int column, int index, double value) {
+        if (ints.length + longs.length + column >= decodedColumns) {
+            decodeColumns(ints.length + longs.length + column);
+        }
+
+        doubles[column][index] = value;
+    }
+
+    /**
+     * Gets a value of a float column.
+     * @param column the column
+     * @param index index of the event
+     * @return the value
+     */
+    public float getFloat(int column, int index) {
+        if (ints.length + longs.length + doubles.length + column >= decodedColumns) {
+            decodeColumns(ints.length + longs.length + doubles.length + column);
+        }
+
+        return floats[column][index];
+    }
+
+    /**
+     * Sets a value of a float column.
+     * @param column the column
+     * @param index index of the event
+     * @param value the value
+     */
+    public void setFloat(int column, int index, float value) {
+        if (ints.length + longs.length + doubles.length + column >= decodedColumns) {
+            decodeColumns(ints.length + longs.length + doubles.length + column);
+        }
+
+        floats[column][index] = value;
+    }
+
+    /**
+     * Gets the maximum size of an encoded block of this kind.
+     * @return size in bytes
+     */
+    public int getMaxEncodedLength() {
+        // each value is a variable-length integer, the accuracy runs take two of them;
+        // an XOR-compressed value takes 2 + 6 + 6 + 64 bits at most, less than a variable-length integer
+        int valuesPerEvent = 1 + 2 + ints.length + longs.length + doubles.length + floats.length;
+        return MAX_VAR_LONG + 1 + MAX_EVENTS * valuesPerEvent * MAX_VAR_LONG;
+    }
+
+    /**
+     * Encodes the events.
+     * @param buffer target, needs {@link #getMaxEncodedLength()} bytes at most
+     */
+    public void encode(ByteBuffer buffer) {
+        ColumnCodec.putVarLong(buffer, count);
+        buffer.put(floatEncoding);
+        ColumnCodec.putDeltaOfDelta(buffer, timestamps, count);
+        ColumnCodec.putRunLength(buffer, accuracies, count);
+        for (int[] column : ints) {
+            ColumnCodec.putDelta(buffer, column, count);
+        }
+
+        for (long[] column : longs) {
+            ColumnCodec.putDeltaOfDelta(buffer, column, count);
+        }
+
+        for (double[] column : doubles) {
+            if (floatEncoding == FLOAT_ENCODING_XOR) {
+                ColumnCodec.putXor(buffer, column, count);
+            } else {
+                ColumnCodec.putDelta(buffer, column, count);
+            }
+        }
+
+        for (float[] column : floats) {
+            if (floatEncoding == FLOAT_ENCODING_XOR) {
+                ColumnCodec.putXor(buffer, column, count);
+            } else {
+                ColumnCodec.putDelta(buffer, column, count);
+            }
+        }
+    }
+
+    /**
+     * Encodes the events with the floating point encoding resulting in the smaller block
+     * and keeps that encoding set. Blocks without floating point columns are encoded once.
+     * @param buffer target, needs twice the {@link #getMaxEncodedLength()} bytes at most
+     */
+    public void encodeSmallest(ByteBuffer buffer) {
+        if (doubles.length == 0 && floats.length == 0) {
+            encode(buffer);
+            return;
+        }
+
+        int start = buffer.position();
+        setFloatEncoding(FLOAT_ENCODING_DELTA);
+        encode(buffer);
+        int deltaEnd = buffer.position();
+        setFloatEncoding(FLOAT_ENCODING_XOR);
+        encode(buffer);
+        int xorLength = buffer.position() - deltaEnd;
+
+        if (xorLength < deltaEnd - start) {
+            // move the XOR-compressed block to the start
+            ByteBuffer xor = buffer.duplicate();
+            xor.limit(deltaEnd + xorLength);
+            xor.position(deltaEnd);
+            buffer.position(start);
+            buffer.put(xor);
+        } else {
+            setFloatEncoding(FLOAT_ENCODING_DELTA);
+            buffer.position(deltaEnd);
+        }
+    }
+
+    /**
+     * Decodes the events of a block, replacing the current content.
+     * @param buffer buffer holding the block
+     * @param offset offset of the block data (following the field id)
+     * @param length length of the block data
+     * @throws IOException if the block is corrupt
+     */
+    public void decode(ByteBuffer buffer, int offset, int length) throws IOException {
+        decodeLazily(buffer, offset, length);
+        try {
+            decodeColumns(columns - 1);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Decodes the timestamps and the accuracies of the events of a block, replacing the current content.
+     * The value columns are decoded on the first access to a column, up to that column in the order of the encoding,
+     * so the columns following the ones needed are never decoded. The buffer must not be modified until then.
+     * @param buffer buffer holding the block
+     * @param offset offset of the block data (following the field id)
+     * @param length length of the block data
+     * @throws IOException if the block is corrupt; a corrupt value column is reported by an {@link UncheckedIOException}
+     * of the getter accessing it
+     */
+    public void decodeLazily(ByteBuffer buffer, int offset, int length) throws IOException {
+        ByteBuffer data = buffer.duplicate();
+        data.limit(offset + length);
+        data.position(offset);
+
+        try {
+            long events = ColumnCodec.getVarLong(data);
+            // every event takes at least one byte
+            if (events < 0 || events > length) {
+                throw new IOException("Invalid number of events " + events + " in block " + Integer.toHexString(id) + ".");
+            }
+
+            byte encoding = data.get();
+            if (encoding != FLOAT_ENCODING_DELTA && encoding != FLOAT_ENCODING_XOR) {
+                throw new IOException("Unsupported encoding " + encoding + " in block " + Integer.toHexString(id) + ".");
+            }
+
+            floatEncoding = encoding;
+
+            clear();
+            allocate((int)events);
+            ColumnCodec.getDeltaOfDelta(data, timestamps, (int)events);
+            ColumnCodec.getRunLength(data, accuracies, (int)events);
+            count = (int)events;
+            decodedColumns = 0;
+            encodedColumns = data;
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new IOException("Corrupt block " + Integer.toHexString(id) + ".", ex);
+        }
+    }
+
+    /**
+     * Decodes the value columns up to the given one.
+     * @param last index of the last column to be decoded in the order of the encoding (ints, longs, doubles, floats)
+     */
+    private void decodeColumns(int last) {
+        try {
+            while (decodedColumns <= last) {
+                int column = decodedColumns;
+                if (column < ints.length) {
+                    ColumnCodec.getDelta(encodedColumns, ints[column], count);
+                } else if ((column -= ints.length) < longs.length) {
+                    ColumnCodec.getDeltaOfDelta(encodedColumns, longs[column], count);
+                } else if ((column -= longs.length) < doubles.length) {
+                    if (floatEncoding == FLOAT_ENCODING_XOR) {
+                        ColumnCodec.getXor(encodedColumns, doubles[column], count);
+                    } else {
+                        ColumnCodec.getDelta(encodedColumns, doubles[column], count);
+                    }
+                } else {
+                    column -= doubles.length;
+                    if (floatEncoding == FLOAT_ENCODING_XOR) {
+                        ColumnCodec.getXor(encodedColumns, floats[column], count);
+                    } else {
+                        ColumnCodec.getDelta(encodedColumns, floats[column], count);
+                    }
+                }
+
+                decodedColumns++;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            // no partially decoded content left behind
+            count = 0;
+            decodedColumns = columns;
+            encodedColumns = null;
+            throw new UncheckedIOException(new IOException("Corrupt block " + Integer.toHexString(id) + ".", ex));
+        }
+
+        if (decodedColumns == columns) {
+            encodedColumns = null;
+        }
+    }
+
+    private void allocate(int capacity) {
+        if (timestamps != null && timestamps.length >= capacity) {
+            return;
+        }
+
+        timestamps = timestamps == null ? new long[capacity] : Arrays.copyOf(timestamps, capacity);
+        accuracies = accuracies == null ? new int[capacity] : Arrays.copyOf(accuracies, capacity);
+        for (int n = 0; n < ints.length; n++) {
+            ints[n] = ints[n] == null ? new int[capacity] : Arrays.copyOf(ints[n], capacity);
+        }
+
+        for (int n = 0; n < longs.length; n++) {
+            longs[n] = longs[n] == null ? new long[capacity] : Arrays.copyOf(longs[n], capacity);
+        }
+
+        for (int n = 0; n < doubles.length; n++) {
+            doubles[n] = doubles[n] == null ? new double[capacity] : Arrays.copyOf(doubles[n], capacity);
+        }
+
+        for (int n = 0; n < floats.length; n++) {
+            floats[n] = floats[n] == null ? new float[capacity] : Arrays.copyOf(floats[n], capacity);
+        }
+    }
+}
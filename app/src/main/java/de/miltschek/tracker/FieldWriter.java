@@ -0,0 +1,274 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffered writer of field structures as defined by {@link FileItem#writeField(OutputStream, byte[]...)}.
+ * The values are encoded straight into a reusable block (big-endian), which is written to the output
+ * stream only when full, so writing an event neither allocates memory nor issues a system call.
+ * Usage: {@code writer.beginField(id, dataLength).putLong(...).putInt(...).endField();}
+ */
+public class FieldWriter implements Closeable {
+    /**
+     * Default size of the block in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // start indicator, total length and id
+    private static final int FIELD_OVERHEAD = 1 + 4 + 2;
+
+    private final OutputStream os;
+    private ByteBuffer buffer;
+    private int fieldStart;
+    private int fieldEnd = -1;
+    private long flushed;
+
+    /**
+     * Creates a writer with the default block size.
+     * @param os output stream to write to, closed together with the writer
+     */
+    public FieldWriter(OutputStream os) {
+        this(os, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a writer.
+     * @param os output stream to write to, closed together with the writer
+     * @param bufferSize size of the block in bytes
+     */
+    public FieldWriter(OutputStream os, int bufferSize) {
+        this.os = os;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Writes raw bytes outside of a field, e.g. the header of the file.
+     * @param values bytes to be written
+     * @return this writer
+     * @throws IOException in case of an IO issue
+     */
+    public FieldWriter write(byte[] values) throws IOException {
+        ensureCapacity(values.length);
+        buffer.put(values);
+        return this;
+    }
+
+    /**
+     * Writes a raw short integer outside of a field, e.g. the version of the file.
+     * @param value value to be written
+     * @return this writer
+     * @throws IOException in case of an IO issue
+     */
+    public FieldWriter writeShort(short value) throws IOException {
+        ensureCapacity(2);
+        buffer.putShort(value);
+        return this;
+    }
+
+    /**
+     * Starts a field: writes the start indicator, the total length and the id.
+     * Exactly dataLength bytes have to be put afterwards, followed by {@link #endField()}.
+     * @param id id of the field
+     * @param dataLength number of data bytes following the id
+     * @return this writer
+     * @throws IOException in case of an IO issue
+     */
+    public FieldWriter beginField(short id, int dataLength) throws IOException {
+        if (fieldEnd >= 0) {
+            throw new IllegalStateException("Previous field not ended.");
+        }
+
+        ensureCapacity(FIELD_OVERHEAD + dataLength);
+        fieldStart = buffer.position();
+        buffer.put((byte)'#');
+        buffer.putInt(2 + dataLength);
+        buffer.putShort(id);
+        fieldEnd = buffer.position() + dataLength;
+        return this;
+    }
+
+    /**
+     * Puts a short integer (16 bits) into the current field.
+     * @param value value to be written
+     * @return this writer
+     */
+    public FieldWriter putShort(short value) {
+        buffer.putShort(value);
+        return this;
+    }
+
+    /**
+     * Puts an integer (32 bits) into the current field.
+     * @param value value to be written
+     * @return this writer
+     */
+    public FieldWriter putInt(int value) {
+        buffer.putInt(value);
+        return this;
+    }
+
+    /**
+     * Puts a long integer (64 bits) into the current field.
+     * @param value value to be written
+     * @return this writer
+     */
+    public FieldWriter putLong(long value) {
+        buffer.putLong(value);
+        return this;
+    }
+
+    /**
+     * Puts a float (IEEE 754, 32 bits) into the current field.
+     * @param value value to be written
+     * @return this writer
+     */
+    public FieldWriter putFloat(float value) {
+        buffer.putFloat(value);
+        return this;
+    }
+
+    /**
+     * Puts a double (IEEE 754, 64 bits) into the current field.
+     * @param value value to be written
+     * @return this writer
+     */
+    public FieldWriter putDouble(double value) {
+        buffer.putDouble(value);
+        return this;
+    }
+
+    /**
+     * Puts the remaining bytes of a buffer into the current field, e.g. an encoded {@link EventBlock}.
+     * @param values bytes to be written, the buffer position is moved to its limit
+     * @return this writer
+     */
+    public FieldWriter put(ByteBuffer values) {
+        buffer.put(values);
+        return this;
+    }
+
+    /**
+     * Puts the CRC32C of the current field from its start indicator up to here into the field,
+     * the last 4 bytes of a checked block (see {@link EventBlock#CHECKED}).
+     * @return this writer
+     */
+    public FieldWriter putChecksum() {
+        buffer.putInt(Crc32c.compute(buffer, fieldStart, buffer.position() - fieldStart));
+        return this;
+    }
+
+    /**
+     * Ends the current field.
+     * @throws IllegalStateException if the data put does not match the length announced by {@link #beginField(short, int)}
+     */
+    public void endField() {
+        if (buffer.position() != fieldEnd) {
+            throw new IllegalStateException("Field length mismatch, " + (fieldEnd - buffer.position()) + " byte(s) left.");
+        }
+
+        fieldEnd = -1;
+    }
+
+    /**
+     * Writes a field containing a single long integer.
+     * @param id id of the field
+     * @param value value to be written
+     * @throws IOException in case of an IO issue
+     */
+    public void writeField(short id, long value) throws IOException {
+        beginField(id, 8).putLong(value).endField();
+    }
+
+    /**
+     * Writes a field containing a single integer.
+     * @param id id of the field
+     * @param value value to be written
+     * @throws IOException in case of an IO issue
+     */
+    public void writeField(short id, int value) throws IOException {
+        beginField(id, 4).putInt(value).endField();
+    }
+
+    /**
+     * Writes a field containing a single float.
+     * @param id id of the field
+     * @param value value to be written
+     * @throws IOException in case of an IO issue
+     */
+    public void writeField(short id, float value) throws IOException {
+        beginField(id, 4).putFloat(value).endField();
+    }
+
+    /**
+     * Gets the number of bytes written so far including the buffered ones, i.e. the offset of the next field in the file.
+     * @return number of bytes
+     */
+    public long getBytesWritten() {
+        return flushed + buffer.position();
+    }
+
+    /**
+     * Writes the buffered block to the output stream.
+     * @throws IOException in case of an IO issue
+     */
+    public void flush() throws IOException {
+        if (buffer.position() > 0) {
+            os.write(buffer.array(), 0, buffer.position());
+            flushed += buffer.position();
+            buffer.clear();
+        }
+
+        os.flush();
+    }
+
+    /**
+     * Writes the buffered block and closes the output stream.
+     * @throws IOException in case of an IO issue
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            os.close();
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+
+            if (buffer.capacity() < length) {
+                // a single structure larger than the block, grow it
+                buffer = ByteBuffer.allocate(length);
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -62,7 +63,11 @@ public class FileItem {
     /**
      * The implemented version of the file.
      */
-    public static final short VERSION = 2;
+    public static final short VERSION = 3;
+    /**
+     * The oldest version of the file still readable (one field per event instead of {@link EventBlock}s).
+     */
+    public static final short MIN_VERSION = 2;
 
     /**
      * Writes a field as a structure containing:
@@ -127,83 +132,96 @@ public class FileItem {
         this.fileName = file.getAbsolutePath();
         this.fileSize = file.length();
 
-        FileInputStream fis = new FileInputStream(file);
+        try (FileInputStream fis = new FileInputStream(file)) {
+            // newer files repeat the summary in the trailer at the end, older ones need to be scanned;
+            // the summary fields are at the beginning of the file, a small block is enough in most cases
+            RecordingIndex index;
+            try {
+                index = RecordingIndex.read(fis.getChannel());
+            } catch (IOException ex) {
+                // the summary fields at the beginning hold the same values
+                Log.w(TAG, "Corrupt trailer of " + file + ", scanning the file instead: " + ex.getMessage());
+                index = null;
+            }
 
-        byte[] buffer = new byte[HEADER.length];
-        if (fis.read(buffer) != HEADER.length) {
-            throw new IOException("Unknown file format (1).");
-        }
+            FieldReader reader = new FieldReader(fis.getChannel(), index != null ? HEADER.length + 2 : 1024);
+            int version = reader.readHeader();
+            if (version < MIN_VERSION || version > VERSION) {
+                throw new IOException("Unsupported version no. " + version);
+            }
 
-        if (!Arrays.equals(buffer, HEADER)) {
-            throw new IOException("Unknown file format (2).");
-        }
+            if (index != null) {
+                startTimestampRtc = index.getStartTimestampRtc();
+                stopTimestampRtc = index.getStopTimestampRtc();
+                startNanoseconds = index.getStartNanoseconds();
+                stopNanoseconds = index.getStopNanoseconds();
+                avgHeartRate = index.getAvgHeartRate();
+                maxHeartRate = index.getMaxHeartRate();
+                totalSteps = index.getTotalSteps();
+                avgStepRate = index.getAvgStepRate();
+                totalAscent = index.getTotalAscent();
+                totalDescent = index.getTotalDescent();
+                avgSpeed = index.getAvgSpeed();
+                return;
+            }
 
-        buffer = new byte[2];
-        fis.read(buffer);
-        int version = BitUtility.getShort(buffer, 0);
-        if (version != VERSION) {
-            throw new IOException("Unsupported version no. " + version);
-        }
+            while (reader.next()) {
+                ByteBuffer buffer = reader.getBuffer();
+                int offset = reader.getOffset();
+                int id = reader.getId();
 
-        while (true) {
-            buffer = readField(fis);
-            int offset = 0;
-            short id = BitUtility.getShort(buffer, offset);
-            offset += 2;
+                switch (id) {
+                    case 0x1001: // start RTC
+                        startTimestampRtc = buffer.getLong(offset);
+                        break;
 
-            switch (id) {
-                case 0x1001: // start RTC
-                    startTimestampRtc = BitUtility.getLong(buffer, offset);
-                    break;
+                    case 0x1002: // stop RTC
+                        stopTimestampRtc = buffer.getLong(offset);
+                        break;
 
-                case 0x1002: // stop RTC
-                    stopTimestampRtc = BitUtility.getLong(buffer, offset);
-                    break;
+                    case 0x1003: // start ns
+                        startNanoseconds = buffer.getLong(offset);
+                        break;
 
-                case 0x1003: // start ns
-                    startNanoseconds = BitUtility.getLong(buffer, offset);
-                    break;
+                    case 0x1004: // stop ns
+                        stopNanoseconds = buffer.getLong(offset);
+                        break;
 
-                case 0x1004: // stop ns
-                    stopNanoseconds = BitUtility.getLong(buffer, offset);
-                    break;
+                    case 0x1011: // avg heart rate (float)
+                        avgHeartRate = buffer.getFloat(offset);
+                        break;
 
-                case 0x1011: // avg heart rate (float)
-                    avgHeartRate = BitUtility.getFloat(buffer, offset);
-                    break;
+                    case 0x1012: // max heart rate (int)
+                        maxHeartRate = buffer.getInt(offset);
+                        break;
 
-                case 0x1012: // max heart rate (int)
-                    maxHeartRate = BitUtility.getInt(buffer, offset);
-                    break;
+                    case 0x1013: // total steps (int)
+                        totalSteps = buffer.getInt(offset);
+                        break;
 
-                case 0x1013: // total steps (int)
-                    totalSteps = BitUtility.getInt(buffer, offset);
-                    break;
+                    case 0x1014: // avg step rate (float)
+                        avgStepRate = buffer.getFloat(offset);
+                        break;
 
-                case 0x1014: // avg step rate (float)
-                    avgStepRate = BitUtility.getFloat(buffer, offset);
-                    break;
+                    case 0x1015: // total ascent (float)
+                        totalAscent = buffer.getFloat(offset);
+                        break;
 
-                case 0x1015: // total ascent (float)
-                    totalAscent = BitUtility.getFloat(buffer, offset);
-                    break;
+                    case 0x1016: // total descent (float)
+                        totalDescent = buffer.getFloat(offset);
+                        break;
 
-                case 0x1016: // total descent (float)
-                    totalDescent = BitUtility.getFloat(buffer, offset);
-                    break;
+                    case 0x1017: // avg speed (float)
+                        avgSpeed = buffer.getFloat(offset);
+                        break;
+                }
 
-                case 0x1017: // avg speed (float)
-                    avgSpeed = BitUtility.getFloat(buffer, offset);
+                if (id >= 0x2000) {
+                    // data section started or end of file marker
                     break;
-            }
-
-            if (id >= 0x2000) {
-                // data section started or end of file marker
-                break;
+                }
             }
         }
-
-        fis.close();
     }
 
     /**
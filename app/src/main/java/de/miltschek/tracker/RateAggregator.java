@@ -0,0 +1,98 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+/**
+ * Rates of change per minute of a counter, e.g. the cadence of the steps counter, forwarded to further aggregators
+ * at the beginning of their interval, so that a time-weighted aggregator counts each interval at its own rate
+ * (but the last one, like the time following the last value of any sensor).
+ * A value at the same time as the preceding one produces no rate, its change counts for the next interval.
+ */
+public class RateAggregator implements Aggregator {
+    private static final double NANOSECONDS_PER_MINUTE = 60e9;
+
+    private final Aggregator[] targets;
+    private long count;
+    private long firstTimestamp;
+    private double firstValue;
+    // beginning of the next interval
+    private long intervalTimestamp;
+    private double intervalValue;
+    private long lastTimestamp;
+    private double lastValue;
+
+    /**
+     * Creates an aggregator.
+     * @param targets aggregators of the rates, e.g. a {@link SummaryAggregator}
+     */
+    public RateAggregator(Aggregator... targets) {
+        this.targets = targets;
+    }
+
+    @Override
+    public void add(long timestamp, double value) {
+        if (count++ == 0) {
+            firstTimestamp = timestamp;
+            firstValue = value;
+            intervalTimestamp = timestamp;
+            intervalValue = value;
+        } else if (timestamp != intervalTimestamp) {
+            double rate = (value - intervalValue) / ((timestamp - intervalTimestamp) / NANOSECONDS_PER_MINUTE);
+            for (Aggregator target : targets) {
+                target.add(intervalTimestamp, rate);
+            }
+
+            intervalTimestamp = timestamp;
+            intervalValue = value;
+        }
+
+        lastTimestamp = timestamp;
+        lastValue = value;
+    }
+
+    /**
+     * Returns the number of values.
+     * @return number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the change of the counter from the first to the last value.
+     * @return change, 0 if none
+     */
+    public double getTotal() {
+        return count == 0 ? 0 : lastValue - firstValue;
+    }
+
+    /**
+     * Returns the average rate per minute from the first to the last value.
+     * @return average rate, NaN if less than two points in time
+     */
+    public double getAverageRate() {
+        return lastTimestamp == firstTimestamp ? Double.NaN : getTotal() / ((lastTimestamp - firstTimestamp) / NANOSECONDS_PER_MINUTE);
+    }
+}
@@ -677,6 +677,41 @@ public class StopWatchActivity extends FragmentActivity implements IDataListener
         mDeleteAllView.show();
     }
 
+    /**
+     * On send all: uploads all recorded sport activities over a single connection.
+     *
+     * @param view the view
+     */
+    public void onSendAll(View view) {
+        File[] files = getFilesDir().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".trk");
+            }
+        });
+
+        if (files == null || files.length == 0) {
+            return;
+        }
+
+        try {
+            TransferRequest[] requests = new TransferRequest[files.length];
+            for (int n = 0; n < files.length; n++) {
+                requests[n] = new TransferRequest(mAddress.getText().toString(), Integer.parseInt(mPort.getText().toString()), files[n].getAbsolutePath());
+            }
+
+            new AsyncUploader(new Consumer<Integer>() {
+                @Override
+                public void accept(Integer integer) {
+                    Toast.makeText(StopWatchActivity.this, integer + " file(s) uploaded.", Toast.LENGTH_SHORT).show();
+                }
+            }).execute(requests);
+        } catch (Exception ex) {
+            Toast.makeText(StopWatchActivity.this, "Not possible.", Toast.LENGTH_SHORT).show();
+            Log.d(TAG, "Failed to upload all files due to " + ex.getClass().getSimpleName() + " " + ex.getMessage());
+        }
+    }
+
     private void onStartSport(View view) {
         Log.d(TAG, "onStartStop; checking permissions");
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.BODY_SENSORS) != PackageManager.PERMISSION_GRANTED
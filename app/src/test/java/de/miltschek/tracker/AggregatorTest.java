@@ -0,0 +1,143 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AggregatorTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void summary() {
+        SummaryAggregator summary = new SummaryAggregator();
+        assertEquals(0, summary.getCount());
+        assertTrue(Double.isNaN(summary.getMean()));
+        assertTrue(Double.isNaN(summary.getMax()));
+
+        for (int value : new int[] { 120, 95, 180, 130 }) {
+            summary.add(0, value);
+        }
+
+        assertEquals(4, summary.getCount());
+        assertEquals(525, summary.getSum());
+        assertEquals(131.25, summary.getMean());
+        assertEquals(95, summary.getMin());
+        assertEquals(180, summary.getMax());
+    }
+
+    @Test
+    void rates() {
+        SummaryAggregator rates = new SummaryAggregator();
+        RateAggregator steps = new RateAggregator(rates);
+        assertEquals(0, steps.getTotal());
+
+        steps.add(0, 1000);
+        steps.add(30 * SECOND, 1080);
+        // no rate at the same time, the change counts for the next interval
+        steps.add(30 * SECOND, 1085);
+        steps.add(60 * SECOND, 1170);
+
+        assertEquals(2, rates.getCount());
+        assertEquals(160, rates.getMin());
+        assertEquals(180, rates.getMax());
+        assertEquals(170, steps.getTotal());
+        assertEquals(170, steps.getAverageRate());
+    }
+
+    @Test
+    void climb() {
+        ClimbAggregator climb = new ClimbAggregator();
+        for (double altitude : new double[] { 35, 40, 38.5, 50, 50 }) {
+            climb.add(0, altitude);
+        }
+
+        assertEquals(16.5, climb.getAscent());
+        assertEquals(1.5, climb.getDescent());
+    }
+
+    @Test
+    void scopeAndAccuracy() {
+        ActivityStatistics statistics = new ActivityStatistics();
+        statistics.setScope(10 * SECOND, 20 * SECOND);
+        SummaryAggregator heartRate = new SummaryAggregator();
+        SummaryAggregator speed = new SummaryAggregator();
+        statistics.addAggregator(ActivityStatistics.HEART_RATE, heartRate);
+        statistics.addAggregator(ActivityStatistics.SPEED, speed);
+
+        statistics.addHeartRate(5 * SECOND, 3, 100);
+        statistics.addHeartRate(10 * SECOND, 3, 120);
+        statistics.addHeartRate(15 * SECOND, 0, 200);
+        statistics.addHeartRate(20 * SECOND, ActivityStatistics.MIN_ACCURACY, 140);
+        statistics.addHeartRate(21 * SECOND, 3, 100);
+        // the accuracy of the geo events is not checked
+        statistics.addGeo(15 * SECOND, 3, 35, 5);
+
+        assertEquals(2, heartRate.getCount());
+        assertEquals(130, heartRate.getMean());
+        assertEquals(1, speed.getCount());
+        assertThrows(IllegalArgumentException.class, () -> statistics.addAggregator(6, heartRate));
+    }
+
+    @Test
+    void blocksAsEvents() {
+        SyntheticRun run = new SyntheticRun(5000, 11);
+        long start = run.heartRateTimestamps[100];
+        long stop = run.heartRateTimestamps[4900];
+        ActivityStatistics fromBlocks = new ActivityStatistics();
+        ActivityStatistics fromEvents = new ActivityStatistics();
+        SummaryAggregator[] summaries = new SummaryAggregator[12];
+        for (int n = 0; n < summaries.length; n++) {
+            summaries[n] = new SummaryAggregator();
+            (n < 6 ? fromBlocks : fromEvents).addAggregator(n % 6, summaries[n]);
+        }
+
+        fromBlocks.setScope(start, stop);
+        fromEvents.setScope(start, stop);
+        for (EventBlock block : SyntheticRun.createBlocks()) {
+            for (int first = 0; first < run.events; first += EventBlock.MAX_EVENTS) {
+                run.fill(block, first, Math.min(run.events, first + EventBlock.MAX_EVENTS));
+                fromBlocks.add(block);
+            }
+        }
+
+        for (int n = 0; n < run.events; n++) {
+            fromEvents.addHeartRate(run.heartRateTimestamps[n], run.heartRateAccuracies[n], run.heartRates[n]);
+            fromEvents.addSteps(run.stepsTimestamps[n], 3, run.steps[n]);
+            fromEvents.addAirPressure(run.pressureTimestamps[n], 3, run.pressures[n]);
+            fromEvents.addGeo(run.geoTimestamps[n], run.speeds[n], run.altitudes[n], run.lateralAccuracies[n]);
+        }
+
+        for (int n = 0; n < 6; n++) {
+            assertTrue(summaries[n].getCount() > 4000);
+            assertEquals(summaries[n + 6].getCount(), summaries[n].getCount());
+            assertEquals(summaries[n + 6].getSum(), summaries[n].getSum());
+            assertEquals(summaries[n + 6].getMax(), summaries[n].getMax());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Crc32cTest {
+
+    @Test
+    void knownValues() {
+        assertEquals(0xe3069283, Crc32c.compute(ByteBuffer.wrap("123456789".getBytes(StandardCharsets.US_ASCII)), 0, 9));
+        // RFC 3720, B.4
+        assertEquals(0x8a9136aa, Crc32c.compute(ByteBuffer.wrap(new byte[32]), 0, 32));
+        byte[] ones = new byte[32];
+        Arrays.fill(ones, (byte)0xff);
+        assertEquals(0x62a8ab43, Crc32c.compute(ByteBuffer.wrap(ones), 0, 32));
+        assertEquals(0, Crc32c.compute(ByteBuffer.wrap(ones), 5, 0));
+    }
+
+    @Test
+    void sameAsJdk() {
+        byte[] data = new byte[1000];
+        new Random(8).nextBytes(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length).put(data);
+        // heap buffer with an array offset
+        ByteBuffer slice = ByteBuffer.wrap(new byte[data.length + 3], 3, data.length).slice().put(data);
+        for (int offset = 0; offset < 20; offset++) {
+            for (int length : new int[] { 0, 1, 7, 8, 9, 63, 900 }) {
+                CRC32C expected = new CRC32C();
+                expected.update(data, offset, length);
+                assertEquals((int)expected.getValue(), Crc32c.compute(ByteBuffer.wrap(data), offset, length));
+                assertEquals((int)expected.getValue(), Crc32c.compute(direct, offset, length));
+                assertEquals((int)expected.getValue(), Crc32c.compute(slice, offset, length));
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventBlockTest {
+
+    private static ByteBuffer encode(EventBlock block) {
+        ByteBuffer encoded = ByteBuffer.allocate(block.getMaxEncodedLength());
+        block.encode(encoded);
+        encoded.flip();
+        return encoded;
+    }
+
+    private static void assertBlockEquals(EventBlock expected, EventBlock actual, int columns) {
+        assertEquals(expected.getCount(), actual.getCount());
+        for (int n = 0; n < expected.getCount(); n++) {
+            assertEquals(expected.getTimestamp(n), actual.getTimestamp(n));
+            assertEquals(expected.getAccuracy(n), actual.getAccuracy(n));
+            for (int column = 0; column < columns; column++) {
+                switch (expected.getId()) {
+                    case EventBlock.HEART_RATE:
+                    case EventBlock.STEPS:
+                        assertEquals(expected.getInt(column, n), actual.getInt(column, n));
+                        break;
+
+                    case EventBlock.AIR_PRESSURE:
+                        assertEquals(Float.floatToRawIntBits(expected.getFloat(column, n)), Float.floatToRawIntBits(actual.getFloat(column, n)));
+                        break;
+
+                    case EventBlock.GEO:
+                        if (column < 2) {
+                            assertEquals(expected.getLong(column, n), actual.getLong(column, n));
+                        }
+                        assertEquals(Double.doubleToRawLongBits(expected.getDouble(column, n)), Double.doubleToRawLongBits(actual.getDouble(column, n)));
+                        assertEquals(Float.floatToRawIntBits(expected.getFloat(column, n)), Float.floatToRawIntBits(actual.getFloat(column, n)));
+                        break;
+                }
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = { EventBlock.FLOAT_ENCODING_DELTA, EventBlock.FLOAT_ENCODING_XOR })
+    void roundTripRun(byte floatEncoding) throws IOException {
+        SyntheticRun run = new SyntheticRun(EventBlock.MAX_EVENTS + 100, 1);
+        for (EventBlock block : SyntheticRun.createBlocks()) {
+            run.fill(block, 0, EventBlock.MAX_EVENTS);
+            block.setFloatEncoding(floatEncoding);
+            ByteBuffer encoded = encode(block);
+
+            // decoded from the middle of a larger buffer
+            ByteBuffer buffer = ByteBuffer.allocate(encoded.remaining() + 20);
+            buffer.position(10);
+            buffer.put(encoded);
+            EventBlock decoded = new EventBlock(block.getId());
+            decoded.decode(buffer, 10, buffer.position() - 10);
+            assertEquals(floatEncoding, decoded.getFloatEncoding());
+            assertBlockEquals(block, decoded, block.getId() == EventBlock.GEO ? 3 : 1);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = { EventBlock.FLOAT_ENCODING_DELTA, EventBlock.FLOAT_ENCODING_XOR })
+    void roundTripExtremeValues(byte floatEncoding) throws IOException {
+        long[] longs = { Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, 1, Long.MAX_VALUE, Long.MIN_VALUE };
+        double[] doubles = { Double.NaN, -0.0, Double.MAX_VALUE, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.longBitsToDouble(0x7ff8_0000_dead_beefL), 1 };
+        float[] floats = { Float.NaN, -0.0f, Float.MAX_VALUE, Float.NEGATIVE_INFINITY, Float.MIN_VALUE, Float.intBitsToFloat(0x7fc0_beef), 1 };
+        int[] ints = { Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, 1, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+        EventBlock geo = new EventBlock(EventBlock.GEO);
+        EventBlock heartRate = new EventBlock(EventBlock.HEART_RATE);
+        for (int n = 0; n < longs.length; n++) {
+            int index = geo.add(longs[n], ints[n]);
+            for (int column = 0; column < 3; column++) {
+                if (column < 2) {
+                    geo.setLong(column, index, longs[(n + column) % longs.length]);
+                }
+                geo.setDouble(column, index, doubles[(n + column) % doubles.length]);
+                geo.setFloat(column, index, floats[(n + column) % floats.length]);
+            }
+
+            heartRate.setInt(EventBlock.HEART_RATE_RATE, heartRate.add(longs[n], ints[n]), ints[n]);
+        }
+
+        geo.setFloatEncoding(floatEncoding);
+        for (EventBlock block : new EventBlock[] { geo, heartRate }) {
+            ByteBuffer encoded = encode(block);
+            EventBlock decoded = new EventBlock(block.getId());
+            decoded.decode(encoded, 0, encoded.limit());
+            assertBlockEquals(block, decoded, block.getId() == EventBlock.GEO ? 3 : 1);
+        }
+    }
+
+    @Test
+    void encodeSmallest() throws IOException {
+        // standing still: repeated values favour XOR
+        EventBlock standing = new EventBlock(EventBlock.GEO);
+        SyntheticRun run = new SyntheticRun(EventBlock.MAX_EVENTS, 4);
+        EventBlock moving = new EventBlock(EventBlock.GEO);
+        run.fill(moving, 0, EventBlock.MAX_EVENTS);
+        for (int n = 0; n < EventBlock.MAX_EVENTS; n++) {
+            int index = standing.add(moving.getTimestamp(n), 2);
+            for (int column = 0; column < 3; column++) {
+                standing.setDouble(column, index, moving.getDouble(column, 0));
+                standing.setFloat(column, index, moving.getFloat(column, 0));
+            }
+        }
+
+        for (EventBlock block : new EventBlock[] { standing, moving }) {
+            block.setFloatEncoding(EventBlock.FLOAT_ENCODING_DELTA);
+            int deltaLength = encode(block).limit();
+            block.setFloatEncoding(EventBlock.FLOAT_ENCODING_XOR);
+            int xorLength = encode(block).limit();
+
+            ByteBuffer buffer = ByteBuffer.allocate(2 * block.getMaxEncodedLength());
+            block.encodeSmallest(buffer);
+            assertEquals(Math.min(deltaLength, xorLength), buffer.position());
+            assertEquals(xorLength < deltaLength ? EventBlock.FLOAT_ENCODING_XOR : EventBlock.FLOAT_ENCODING_DELTA, block.getFloatEncoding());
+
+            EventBlock decoded = new EventBlock(EventBlock.GEO);
+            decoded.decode(buffer, 0, buffer.position());
+            assertBlockEquals(block, decoded, 3);
+        }
+
+        assertEquals(EventBlock.FLOAT_ENCODING_XOR, standing.getFloatEncoding());
+    }
+
+    @Test
+    void truncatedBlock() {
+        SyntheticRun run = new SyntheticRun(100, 2);
+        EventBlock block = new EventBlock(EventBlock.GEO);
+        run.fill(block, 0, 100);
+        ByteBuffer encoded = encode(block);
+        assertThrows(IOException.class, () -> new EventBlock(EventBlock.GEO).decode(encoded, 0, encoded.limit() - 1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = { EventBlock.FLOAT_ENCODING_DELTA, EventBlock.FLOAT_ENCODING_XOR })
+    void decodeLazily(byte floatEncoding) throws IOException {
+        SyntheticRun run = new SyntheticRun(2 * EventBlock.MAX_EVENTS, 5);
+        EventBlock block = new EventBlock(EventBlock.GEO);
+        run.fill(block, 0, EventBlock.MAX_EVENTS);
+        block.setFloatEncoding(floatEncoding);
+        ByteBuffer encoded = encode(block);
+
+        // reused block holding other events before
+        EventBlock decoded = new EventBlock(EventBlock.GEO);
+        run.fill(decoded, EventBlock.MAX_EVENTS, EventBlock.MAX_EVENTS + 100);
+        decoded.decodeLazily(encoded, 0, encoded.limit());
+        assertEquals(Double.doubleToRawLongBits(block.getDouble(EventBlock.GEO_LONGITUDE, 7)),
+                Double.doubleToRawLongBits(decoded.getDouble(EventBlock.GEO_LONGITUDE, 7)));
+        assertBlockEquals(block, decoded, 3);
+    }
+
+    @Test
+    void truncatedColumnDecodedLazily() throws IOException {
+        SyntheticRun run = new SyntheticRun(100, 2);
+        EventBlock block = new EventBlock(EventBlock.GEO);
+        run.fill(block, 0, 100);
+        ByteBuffer encoded = encode(block);
+
+        // the leading columns are intact, the last one is not
+        EventBlock decoded = new EventBlock(EventBlock.GEO);
+        decoded.decodeLazily(encoded, 0, encoded.limit() - 1);
+        assertEquals(block.getLong(EventBlock.GEO_TIME, 99), decoded.getLong(EventBlock.GEO_TIME, 99));
+        assertThrows(UncheckedIOException.class, () -> decoded.getFloat(EventBlock.GEO_SPEED, 0));
+        assertEquals(0, decoded.getCount());
+    }
+
+    @Test
+    void smallerThanVersion2() throws IOException {
+        SyntheticRun run = new SyntheticRun(2 * 60 * 60, 3);
+        ByteArrayOutputStream version2 = new ByteArrayOutputStream();
+        try (FieldWriter writer = new FieldWriter(version2)) {
+            run.write(writer, 2);
+        }
+
+        ByteArrayOutputStream version3 = new ByteArrayOutputStream();
+        try (FieldWriter writer = new FieldWriter(version3)) {
+            run.write(writer, 3);
+        }
+
+        assertTrue(version3.size() * 2 < version2.size(), version2.size() + " vs. " + version3.size() + " bytes");
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FieldReaderTest {
+
+    private static byte[] createRecording(int events) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (FieldWriter writer = new FieldWriter(bos)) {
+            writer.write(FileItem.HEADER);
+            writer.writeShort(FileItem.VERSION);
+            writer.writeField((short)0x1001, 1588888888888L);
+            writer.writeField((short)0x1012, 187);
+            for (int n = 0; n < events; n++) {
+                writer.beginField((short)0x2031, 8 + 4 + 4).putLong(n * 1_000_000_000L).putFloat(1013.25f - n).putInt(3).endField();
+            }
+            writer.beginField((short)0xffff, 0).endField();
+        }
+
+        return bos.toByteArray();
+    }
+
+    private static void assertRecording(FieldReader reader, int events) throws IOException {
+        assertEquals(FileItem.VERSION, reader.readHeader());
+
+        assertTrue(reader.next());
+        assertEquals(0x1001, reader.getId());
+        assertEquals(8, reader.getLength());
+        assertEquals(1588888888888L, reader.getBuffer().getLong(reader.getOffset()));
+
+        assertTrue(reader.next());
+        assertEquals(0x1012, reader.getId());
+        assertEquals(187, reader.getBuffer().getInt(reader.getOffset()));
+
+        for (int n = 0; n < events; n++) {
+            assertTrue(reader.next());
+            assertEquals(0x2031, reader.getId());
+            assertEquals(16, reader.getLength());
+            assertEquals(n * 1_000_000_000L, reader.getBuffer().getLong(reader.getOffset()));
+            assertEquals(1013.25f - n, reader.getBuffer().getFloat(reader.getOffset() + 8));
+            assertEquals(3, reader.getBuffer().getInt(reader.getOffset() + 12));
+        }
+
+        assertTrue(reader.next());
+        assertEquals(0xffff, reader.getId());
+        assertEquals(0, reader.getLength());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void readBuffer() throws IOException {
+        byte[] recording = createRecording(100);
+        FieldReader reader = new FieldReader(ByteBuffer.wrap(recording));
+        assertRecording(reader, 100);
+        assertEquals(recording.length, reader.getBytesRead());
+    }
+
+    @Test
+    void readChannel() throws IOException {
+        byte[] recording = createRecording(100);
+        // the block is smaller than the header and a field, forcing it to grow and to be refilled
+        FieldReader reader = new FieldReader(Channels.newChannel(new ByteArrayInputStream(recording)), 8);
+        assertRecording(reader, 100);
+        assertEquals(recording.length, reader.getBytesRead());
+    }
+
+    @Test
+    void readMapped() throws IOException {
+        byte[] recording = createRecording(100);
+        File file = File.createTempFile("recording", ".trk");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(recording);
+            }
+
+            // tiny windows, moved for nearly every field and grown for the header
+            try (FileInputStream fis = new FileInputStream(file)) {
+                FieldReader reader = FieldReader.map(fis.getChannel(), 16);
+                assertRecording(reader, 100);
+                assertEquals(recording.length, reader.getBytesRead());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void truncatedField() throws IOException {
+        byte[] recording = createRecording(1);
+        FieldReader reader = new FieldReader(ByteBuffer.wrap(Arrays.copyOf(recording, recording.length - 10)));
+        reader.readHeader();
+        assertTrue(reader.next());
+        assertTrue(reader.next());
+        assertThrows(IOException.class, reader::next);
+    }
+
+    @Test
+    void corruptField() throws IOException {
+        byte[] recording = createRecording(1);
+        recording[FileItem.HEADER.length + 2] = 0;
+        FieldReader reader = new FieldReader(ByteBuffer.wrap(recording));
+        reader.readHeader();
+        assertThrows(IOException.class, reader::next);
+    }
+
+    private static byte[] createCheckedRecording(int blocks) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (FieldWriter writer = new FieldWriter(bos)) {
+            writer.write(FileItem.HEADER);
+            writer.writeShort(FileItem.VERSION);
+            for (int n = 0; n < blocks; n++) {
+                writer.beginField((short)(EventBlock.STEPS | EventBlock.CHECKED), 100 + 4);
+                for (int value = 0; value < 25; value++) {
+                    writer.putInt(n);
+                }
+                writer.putChecksum().endField();
+            }
+            writer.beginField((short)0xffff, 0).endField();
+        }
+
+        return bos.toByteArray();
+    }
+
+    @Test
+    void checkedFields() throws IOException {
+        FieldReader reader = new FieldReader(ByteBuffer.wrap(createCheckedRecording(3)));
+        reader.readHeader();
+        for (int n = 0; n < 3; n++) {
+            assertTrue(reader.next());
+            assertEquals(EventBlock.STEPS | EventBlock.CHECKED, reader.getId());
+            // without the checksum
+            assertEquals(100, reader.getLength());
+            assertEquals(n, reader.getBuffer().getInt(reader.getOffset() + 96));
+        }
+
+        assertTrue(reader.next());
+        assertEquals(0xffff, reader.getId());
+    }
+
+    @Test
+    void recoverAfterCorruptBlock() throws IOException {
+        byte[] recording = createCheckedRecording(3);
+        int fieldLength = 1 + 4 + 2 + 100 + 4;
+        int second = FileItem.HEADER.length + 2 + fieldLength;
+        // a flipped bit in the data and a destroyed start indicator
+        for (int corruptOffset : new int[] { second + 50, second }) {
+            byte[] corrupt = recording.clone();
+            corrupt[corruptOffset] ^= 0x10;
+            File file = File.createTempFile("recording", ".trk");
+            try {
+                try (FileOutputStream fos = new FileOutputStream(file)) {
+                    fos.write(corrupt);
+                }
+
+                // checksums of the mapped (direct) buffer
+                try (FileInputStream fis = new FileInputStream(file)) {
+                    FieldReader reader = FieldReader.map(fis.getChannel(), 64);
+                    reader.readHeader();
+                    assertTrue(reader.next());
+                    assertEquals(0, reader.getBuffer().getInt(reader.getOffset()));
+                    assertThrows(IOException.class, reader::next);
+
+                    assertTrue(reader.recover());
+                    assertEquals(EventBlock.STEPS | EventBlock.CHECKED, reader.getId());
+                    assertEquals(2, reader.getBuffer().getInt(reader.getOffset()));
+                    assertEquals(second + 2 * fieldLength, reader.getBytesRead());
+                    assertTrue(reader.next());
+                    assertEquals(0xffff, reader.getId());
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    void recoverAfterCorruptLength() throws IOException {
+        byte[] recording = createCheckedRecording(3);
+        int fieldLength = 1 + 4 + 2 + 100 + 4;
+        int second = FileItem.HEADER.length + 2 + fieldLength;
+        // beyond the end of the file, the first two overflowing an int when added to the start indicator and the length
+        for (int corruptLength : new int[] { 0x7fffffff, 0x7ffffffb, 100000 }) {
+            byte[] corrupt = recording.clone();
+            ByteBuffer.wrap(corrupt).putInt(second + 1, corruptLength);
+            File file = File.createTempFile("recording", ".trk");
+            try {
+                try (FileOutputStream fos = new FileOutputStream(file)) {
+                    fos.write(corrupt);
+                }
+
+                try (FileInputStream streamed = new FileInputStream(file); FileInputStream mapped = new FileInputStream(file)) {
+                    FieldReader[] readers = {
+                            new FieldReader(ByteBuffer.wrap(corrupt)),
+                            new FieldReader(streamed.getChannel(), 16),
+                            FieldReader.map(mapped.getChannel(), 64),
+                            new FieldReader(Channels.newChannel(new ByteArrayInputStream(corrupt)), 16)
+                    };
+
+                    for (FieldReader reader : readers) {
+                        reader.readHeader();
+                        assertTrue(reader.next());
+                        assertThrows(IOException.class, reader::next);
+                        // the block has not been grown to the corrupt length
+                        assertTrue(reader.getBuffer().capacity() <= 1024);
+
+                        assertTrue(reader.recover());
+                        assertEquals(2, reader.getBuffer().getInt(reader.getOffset()));
+                        assertTrue(reader.next());
+                        assertEquals(0xffff, reader.getId());
+                    }
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    void recoverAfterTruncation() throws IOException {
+        byte[] recording = createCheckedRecording(3);
+        FieldReader reader = new FieldReader(Channels.newChannel(new ByteArrayInputStream(Arrays.copyOf(recording, recording.length - 20))), 16);
+        reader.readHeader();
+        assertTrue(reader.next());
+        assertTrue(reader.next());
+        assertThrows(IOException.class, reader::next);
+        assertFalse(reader.recover());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void unknownHeader() {
+        byte[] recording = new byte[64];
+        assertThrows(IOException.class, new FieldReader(ByteBuffer.wrap(recording))::readHeader);
+    }
+}
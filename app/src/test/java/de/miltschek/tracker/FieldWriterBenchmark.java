@@ -0,0 +1,129 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares the time and the garbage per event of saving a 2 hours recording
+ * with {@link FileItem#writeField(java.io.OutputStream, byte[]...)} on an unbuffered stream
+ * and with the {@link FieldWriter}. Runs on the development machine (not a unit test):
+ * main class de.miltschek.tracker.FieldWriterBenchmark on the unit test class path.
+ */
+public class FieldWriterBenchmark {
+    // 2 hours at 1 Hz
+    private static final int EVENTS_PER_SENSOR = 2 * 60 * 60;
+    private static final int EVENTS = 4 * EVENTS_PER_SENSOR;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("benchmark", ".trk");
+        file.deleteOnExit();
+
+        System.out.println(String.format("%-12s %10s %14s", "writer", "ms/file", "bytes/event"));
+        for (int round = 0; round < ROUNDS; round++) {
+            // the first rounds warm up the JIT compiler
+            boolean print = round >= ROUNDS / 2;
+            measure("writeField", file, false, print);
+            measure("FieldWriter", file, true, print);
+        }
+    }
+
+    private static void measure(String name, File file, boolean buffered, boolean print) throws IOException {
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        if (buffered) {
+            writeBuffered(file);
+        } else {
+            writeUnbuffered(file);
+        }
+
+        long nanos = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        if (print) {
+            System.out.println(String.format("%-12s %10.1f %14.1f", name, nanos / 1e6, (double)allocated / EVENTS));
+        }
+    }
+
+    private static void writeUnbuffered(File file) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(FileItem.HEADER);
+        fos.write(BitUtility.getBytes(FileItem.VERSION));
+        for (int n = 0; n < EVENTS_PER_SENSOR; n++) {
+            long timestamp = n * 1_000_000_000L;
+            FileItem.writeField(fos, BitUtility.getBytes((short)0x2011), BitUtility.getBytes(timestamp), BitUtility.getBytes(60 + n % 100), BitUtility.getBytes(3));
+            FileItem.writeField(fos, BitUtility.getBytes((short)0x2021), BitUtility.getBytes(timestamp), BitUtility.getBytes(n * 3), BitUtility.getBytes(3));
+            FileItem.writeField(fos, BitUtility.getBytes((short)0x2031), BitUtility.getBytes(timestamp), BitUtility.getBytes(1013.25f - n / 1e3f), BitUtility.getBytes(3));
+            FileItem.writeField(fos,
+                    BitUtility.getBytes((short)0x2041),
+                    BitUtility.getBytes(timestamp),
+                    BitUtility.getBytes(timestamp),
+                    BitUtility.getBytes(1588888888888L + n * 1000L),
+                    BitUtility.getBytes(52.52 + n / 1e5),
+                    BitUtility.getBytes(13.405 + n / 1e5),
+                    BitUtility.getBytes(4.0f),
+                    BitUtility.getBytes(34.0 + n % 10),
+                    BitUtility.getBytes(90.0f),
+                    BitUtility.getBytes(2.8f),
+                    BitUtility.getBytes(3));
+        }
+        FileItem.writeField(fos, BitUtility.getBytes((short)0xffff));
+        fos.close();
+    }
+
+    private static void writeBuffered(File file) throws IOException {
+        try (FieldWriter writer = new FieldWriter(new FileOutputStream(file))) {
+            writer.write(FileItem.HEADER);
+            writer.writeShort(FileItem.VERSION);
+            for (int n = 0; n < EVENTS_PER_SENSOR; n++) {
+                long timestamp = n * 1_000_000_000L;
+                writer.beginField((short)0x2011, 8 + 4 + 4).putLong(timestamp).putInt(60 + n % 100).putInt(3).endField();
+                writer.beginField((short)0x2021, 8 + 4 + 4).putLong(timestamp).putInt(n * 3).putInt(3).endField();
+                writer.beginField((short)0x2031, 8 + 4 + 4).putLong(timestamp).putFloat(1013.25f - n / 1e3f).putInt(3).endField();
+                writer.beginField((short)0x2041, 8 + 8 + 8 + 8 + 8 + 4 + 8 + 4 + 4 + 4)
+                        .putLong(timestamp)
+                        .putLong(timestamp)
+                        .putLong(1588888888888L + n * 1000L)
+                        .putDouble(52.52 + n / 1e5)
+                        .putDouble(13.405 + n / 1e5)
+                        .putFloat(4.0f)
+                        .putDouble(34.0 + n % 10)
+                        .putFloat(90.0f)
+                        .putFloat(2.8f)
+                        .putInt(3)
+                        .endField();
+            }
+            writer.beginField((short)0xffff, 0).endField();
+        }
+    }
+
+    private static long allocatedBytes() {
+        // HotSpot specific, available on the development machine
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FieldWriterTest {
+
+    @Test
+    void sameOutputAsWriteField() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(FileItem.HEADER);
+        expected.write(BitUtility.getBytes(FileItem.VERSION));
+        FileItem.writeField(expected, BitUtility.getBytes((short)0x1001), BitUtility.getBytes(1588888888888L));
+        FileItem.writeField(expected, BitUtility.getBytes((short)0x1011), BitUtility.getBytes(123.45f));
+        FileItem.writeField(expected, BitUtility.getBytes((short)0x1012), BitUtility.getBytes(187));
+        for (int n = 0; n < 10; n++) {
+            FileItem.writeField(expected,
+                    BitUtility.getBytes((short)0x2041),
+                    BitUtility.getBytes(n * 1_000_000_000L),
+                    BitUtility.getBytes(-n),
+                    BitUtility.getBytes(52.52 + n / 1e5),
+                    BitUtility.getBytes(13.405f));
+        }
+        FileItem.writeField(expected, BitUtility.getBytes((short)0xffff));
+
+        // a small block forces several flushes and a growth for the header
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (FieldWriter writer = new FieldWriter(actual, 16)) {
+            writer.write(FileItem.HEADER);
+            writer.writeShort(FileItem.VERSION);
+            writer.writeField((short)0x1001, 1588888888888L);
+            writer.writeField((short)0x1011, 123.45f);
+            writer.writeField((short)0x1012, 187);
+            for (int n = 0; n < 10; n++) {
+                writer.beginField((short)0x2041, 8 + 4 + 8 + 4)
+                        .putLong(n * 1_000_000_000L)
+                        .putInt(-n)
+                        .putDouble(52.52 + n / 1e5)
+                        .putFloat(13.405f)
+                        .endField();
+            }
+            writer.beginField((short)0xffff, 0).endField();
+        }
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    void fieldLengthMismatch() throws IOException {
+        FieldWriter writer = new FieldWriter(new ByteArrayOutputStream());
+        writer.beginField((short)0x2011, 8 + 4 + 4).putLong(1).putInt(2);
+        assertThrows(IllegalStateException.class, writer::endField);
+    }
+
+    @Test
+    void fieldNotEnded() throws IOException {
+        FieldWriter writer = new FieldWriter(new ByteArrayOutputStream());
+        writer.beginField((short)0x1001, 8).putLong(1);
+        assertThrows(IllegalStateException.class, () -> writer.beginField((short)0x1002, 8));
+    }
+}
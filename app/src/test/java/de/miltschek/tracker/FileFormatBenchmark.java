@@ -0,0 +1,160 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the file format versions 2 (one field per event) and 3 (event blocks) on a synthetic 2 hours run:
+ * the size per sensor, the time to write a recording and the time to parse all events.
+ * Runs on the development machine (not a unit test): main class de.miltschek.tracker.FileFormatBenchmark
+ * on the unit test class path.
+ */
+public class FileFormatBenchmark {
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws IOException {
+        SyntheticRun run = new SyntheticRun(2 * 60 * 60, 1);
+        byte[] version2 = write(run, 2);
+        byte[] version3 = write(run, 3);
+
+        System.out.println(String.format("%-14s %12s %12s %8s", "sensor", "v2 B/event", "v3 B/event", "ratio"));
+        long[] sizes2 = sizesPerSensor(version2);
+        long[] sizes3 = sizesPerSensor(version3);
+        String[] names = { "heart rate", "steps", "air pressure", "geo" };
+        for (int sensor = 0; sensor < names.length; sensor++) {
+            System.out.println(String.format("%-14s %12.1f %12.1f %8.2f", names[sensor],
+                    (double)sizes2[sensor] / run.events, (double)sizes3[sensor] / run.events, (double)sizes2[sensor] / sizes3[sensor]));
+        }
+
+        System.out.println(String.format("%-14s %12d %12d %8.2f", "file (bytes)", version2.length, version3.length, (double)version2.length / version3.length));
+        System.out.println();
+
+        // best of all rounds, the first ones warm up the JIT compiler
+        long[] writeNanos = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] parseNanos = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int version = 2; version <= 3; version++) {
+                long start = System.nanoTime();
+                write(run, version);
+                long written = System.nanoTime();
+                checksum += parse(version == 2 ? version2 : version3);
+                long parsed = System.nanoTime();
+                writeNanos[version - 2] = Math.min(writeNanos[version - 2], written - start);
+                parseNanos[version - 2] = Math.min(parseNanos[version - 2], parsed - written);
+            }
+        }
+
+        System.out.println(String.format("%-8s %10s %10s", "version", "write ms", "parse ms"));
+        for (int version = 2; version <= 3; version++) {
+            System.out.println(String.format("%-8d %10.2f %10.2f", version, writeNanos[version - 2] / 1e6, parseNanos[version - 2] / 1e6));
+        }
+
+        if (checksum == 0) {
+            System.out.println("No events parsed.");
+        }
+    }
+
+    private static byte[] write(SyntheticRun run, int version) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (FieldWriter writer = new FieldWriter(bos)) {
+            run.write(writer, version);
+        }
+
+        return bos.toByteArray();
+    }
+
+    private static long[] sizesPerSensor(byte[] recording) throws IOException {
+        long[] sizes = new long[4];
+        FieldReader reader = new FieldReader(ByteBuffer.wrap(recording));
+        reader.readHeader();
+        while (reader.next()) {
+            int sensor = (reader.getId() >> 4 & 0xf) - 1;
+            if (reader.getId() >= 0x2000 && reader.getId() < 0x3000 && sensor >= 0 && sensor < sizes.length) {
+                // start indicator, length and id
+                sizes[sensor] += 1 + 4 + 2 + reader.getLength();
+            }
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Decodes all events, summing up the timestamps and values to keep the JIT compiler from skipping anything.
+     */
+    private static long parse(byte[] recording) throws IOException {
+        FieldReader reader = new FieldReader(ByteBuffer.wrap(recording));
+        EventBlock[] blocks = SyntheticRun.createBlocks();
+        reader.readHeader();
+        long checksum = 0;
+        while (reader.next()) {
+            ByteBuffer buffer = reader.getBuffer();
+            int offset = reader.getOffset();
+            switch (reader.getId()) {
+                case 0x2011:
+                case 0x2021:
+                    checksum += buffer.getLong(offset) + buffer.getInt(offset + 8) + buffer.getInt(offset + 12);
+                    break;
+
+                case 0x2031:
+                    checksum += buffer.getLong(offset) + (long)buffer.getFloat(offset + 8) + buffer.getInt(offset + 12);
+                    break;
+
+                case 0x2041:
+                    checksum += buffer.getLong(offset) + buffer.getLong(offset + 8) + buffer.getLong(offset + 16)
+                            + (long)buffer.getDouble(offset + 24) + (long)buffer.getDouble(offset + 32) + (long)buffer.getFloat(offset + 40)
+                            + (long)buffer.getDouble(offset + 44) + (long)buffer.getFloat(offset + 52) + (long)buffer.getFloat(offset + 56)
+                            + buffer.getInt(offset + 60);
+                    break;
+
+                case EventBlock.HEART_RATE:
+                case EventBlock.STEPS:
+                case EventBlock.AIR_PRESSURE:
+                case EventBlock.GEO:
+                    EventBlock block = blocks[(reader.getId() >> 4 & 0xf) - 1];
+                    block.decode(buffer, offset, reader.getLength());
+                    for (int n = 0; n < block.getCount(); n++) {
+                        checksum += block.getTimestamp(n) + block.getAccuracy(n);
+                        if (block.getId() == EventBlock.AIR_PRESSURE) {
+                            checksum += (long)block.getFloat(EventBlock.AIR_PRESSURE_PRESSURE, n);
+                        } else if (block.getId() == EventBlock.GEO) {
+                            checksum += block.getLong(EventBlock.GEO_TICKS, n) + block.getLong(EventBlock.GEO_TIME, n)
+                                    + (long)block.getDouble(EventBlock.GEO_LATITUDE, n) + (long)block.getDouble(EventBlock.GEO_LONGITUDE, n)
+                                    + (long)block.getFloat(EventBlock.GEO_LATERAL_ACCURACY, n) + (long)block.getDouble(EventBlock.GEO_ALTITUDE, n)
+                                    + (long)block.getFloat(EventBlock.GEO_BEARING, n) + (long)block.getFloat(EventBlock.GEO_SPEED, n);
+                        } else {
+                            checksum += block.getInt(0, n);
+                        }
+                    }
+                    break;
+            }
+        }
+
+        return checksum;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the encodings of the floating point columns of the {@link EventBlock}s on a synthetic 2 hours run:
+ * bytes per sample and encode/decode throughput of the differences of the bit patterns and of the XOR compression.
+ * Runs on the development machine (not a unit test): main class de.miltschek.tracker.FloatCodecBenchmark
+ * on the unit test class path.
+ */
+public class FloatCodecBenchmark {
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        SyntheticRun run = new SyntheticRun(2 * 60 * 60, 1);
+        ByteBuffer buffer = ByteBuffer.allocate(16 * run.events);
+
+        System.out.println(String.format("%-18s %-6s %10s %12s %12s", "column", "codec", "B/sample", "enc M/s", "dec M/s"));
+        String[] doubleNames = { "latitude", "longitude", "altitude" };
+        double[][] doubleColumns = { run.latitudes, run.longitudes, run.altitudes };
+        for (int column = 0; column < doubleColumns.length; column++) {
+            for (int codec = 0; codec < 2; codec++) {
+                measure(doubleNames[column], codec, buffer, doubleColumns[column], null);
+            }
+        }
+
+        String[] floatNames = { "air pressure", "lateral accuracy", "bearing", "speed" };
+        float[][] floatColumns = { run.pressures, run.lateralAccuracies, run.bearings, run.speeds };
+        for (int column = 0; column < floatColumns.length; column++) {
+            for (int codec = 0; codec < 2; codec++) {
+                measure(floatNames[column], codec, buffer, null, floatColumns[column]);
+            }
+        }
+    }
+
+    /**
+     * Encodes and decodes a column in blocks of {@link EventBlock#MAX_EVENTS}, printing the best of all rounds.
+     */
+    private static void measure(String name, int codec, ByteBuffer buffer, double[] doubles, float[] floats) {
+        int count = doubles != null ? doubles.length : floats.length;
+        double[] decodedDoubles = new double[EventBlock.MAX_EVENTS];
+        float[] decodedFloats = new float[EventBlock.MAX_EVENTS];
+        long encodeNanos = Long.MAX_VALUE;
+        long decodeNanos = Long.MAX_VALUE;
+        int size = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            buffer.clear();
+            long start = System.nanoTime();
+            for (int offset = 0; offset < count; offset += EventBlock.MAX_EVENTS) {
+                int length = Math.min(EventBlock.MAX_EVENTS, count - offset);
+                if (doubles != null) {
+                    double[] block = java.util.Arrays.copyOfRange(doubles, offset, offset + length);
+                    if (codec == 0) {
+                        ColumnCodec.putDelta(buffer, block, length);
+                    } else {
+                        ColumnCodec.putXor(buffer, block, length);
+                    }
+                } else {
+                    float[] block = java.util.Arrays.copyOfRange(floats, offset, offset + length);
+                    if (codec == 0) {
+                        ColumnCodec.putDelta(buffer, block, length);
+                    } else {
+                        ColumnCodec.putXor(buffer, block, length);
+                    }
+                }
+            }
+
+            long encoded = System.nanoTime();
+            size = buffer.position();
+            buffer.flip();
+            for (int offset = 0; offset < count; offset += EventBlock.MAX_EVENTS) {
+                int length = Math.min(EventBlock.MAX_EVENTS, count - offset);
+                if (doubles != null) {
+                    if (codec == 0) {
+                        ColumnCodec.getDelta(buffer, decodedDoubles, length);
+                    } else {
+                        ColumnCodec.getXor(buffer, decodedDoubles, length);
+                    }
+
+                    if (Double.doubleToRawLongBits(decodedDoubles[length - 1]) != Double.doubleToRawLongBits(doubles[offset + length - 1])) {
+                        throw new IllegalStateException("Round trip failed.");
+                    }
+                } else {
+                    if (codec == 0) {
+                        ColumnCodec.getDelta(buffer, decodedFloats, length);
+                    } else {
+                        ColumnCodec.getXor(buffer, decodedFloats, length);
+                    }
+
+                    if (Float.floatToRawIntBits(decodedFloats[length - 1]) != Float.floatToRawIntBits(floats[offset + length - 1])) {
+                        throw new IllegalStateException("Round trip failed.");
+                    }
+                }
+            }
+
+            long decoded = System.nanoTime();
+            encodeNanos = Math.min(encodeNanos, encoded - start);
+            decodeNanos = Math.min(decodeNanos, decoded - encoded);
+        }
+
+        System.out.println(String.format("%-18s %-6s %10.2f %12.1f %12.1f", name, codec == 0 ? "delta" : "xor",
+                (double)size / count, count * 1e3 / encodeNanos, count * 1e3 / decodeNanos));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordingIndexTest {
+
+    private static File createFile(SyntheticRun run, int version) throws IOException {
+        File file = File.createTempFile("recording", ".trk");
+        try (FieldWriter writer = new FieldWriter(new FileOutputStream(file))) {
+            run.write(writer, version);
+        }
+
+        return file;
+    }
+
+    @Test
+    void readSections() throws IOException {
+        SyntheticRun run = new SyntheticRun(5000, 5);
+        File file = createFile(run, 3);
+        try (FileInputStream fis = new FileInputStream(file)) {
+            RecordingIndex index = RecordingIndex.read(fis.getChannel());
+            assertNotNull(index);
+            assertEquals(0, fis.getChannel().position());
+            assertEquals(run.geoTimes[0], index.getStartTimestampRtc());
+            assertEquals(run.heartRateTimestamps[0], index.getStartNanoseconds());
+
+            // each section holds exactly the blocks of its sensor
+            for (EventBlock block : SyntheticRun.createBlocks()) {
+                int id = block.getId();
+                assertEquals(run.events, index.getEventCount(id));
+                fis.getChannel().position(index.getSectionOffset(id));
+                FieldReader reader = FieldReader.map(fis.getChannel(), 4096);
+                int events = 0;
+                while (reader.getBytesRead() < index.getSectionLength(id)) {
+                    assertTrue(reader.next());
+                    assertEquals(id | EventBlock.CHECKED, reader.getId());
+                    block.decode(reader.getBuffer(), reader.getOffset(), reader.getLength());
+                    events += block.getCount();
+                }
+
+                assertEquals(index.getSectionLength(id), reader.getBytesRead());
+                assertEquals(run.events, events);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void withoutTrailer() throws IOException {
+        File file = createFile(new SyntheticRun(100, 6), 2);
+        try (FileInputStream fis = new FileInputStream(file)) {
+            assertNull(RecordingIndex.read(fis.getChannel()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void invalidTrailerOffset() throws IOException {
+        File file = createFile(new SyntheticRun(100, 7), 3);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // the offset in the footer pointing into the blocks
+            raf.seek(raf.length() - RecordingIndex.FOOTER_LENGTH + 1 + 4 + 2);
+            raf.writeLong(100);
+            assertThrows(IOException.class, () -> RecordingIndex.read(raf.getChannel()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void trailerOffsetTooFarAway() throws IOException {
+        File file = createFile(new SyntheticRun(5000, 8), 3);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            assertTrue(raf.length() > 64 * 1024);
+            // rejected before anything of the supposed trailer is read
+            raf.seek(raf.length() - RecordingIndex.FOOTER_LENGTH + 1 + 4 + 2);
+            raf.writeLong(FileItem.HEADER.length + 2);
+            assertThrows(IOException.class, () -> RecordingIndex.read(raf.getChannel()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void sectionOutsideOfFile() throws IOException {
+        File file = createFile(new SyntheticRun(100, 9), 3);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - RecordingIndex.FOOTER_LENGTH + 1 + 4 + 2);
+            long trailerOffset = raf.readLong();
+            // the offset of the first section: field header, summary values, number of sections, block id
+            raf.seek(trailerOffset + (1 + 4 + 2) + (4 * 8 + 7 * 4) + 1 + 2);
+            raf.writeLong(raf.length());
+            assertThrows(IOException.class, () -> RecordingIndex.read(raf.getChannel()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void unknownSectionsSkipped() throws IOException {
+        RecordingIndex index = new RecordingIndex();
+        index.setMaxHeartRate(187);
+        index.setSection(EventBlock.GEO, 1000, 200, 30);
+        ByteBuffer encoded = ByteBuffer.allocate(index.getEncodedLength() + 22);
+        index.encode(encoded);
+        // a fifth section of a sensor unknown to this version
+        encoded.put(encoded.position() - 4 * (2 + 8 + 8 + 4) - 1, (byte)5);
+        encoded.putShort((short)0x2052).putLong(2000).putLong(300).putInt(40);
+
+        RecordingIndex decoded = new RecordingIndex();
+        decoded.decode(encoded, 0, encoded.position());
+        assertEquals(187, decoded.getMaxHeartRate());
+        assertEquals(1000, decoded.getSectionOffset(EventBlock.GEO));
+        assertEquals(200, decoded.getSectionLength(EventBlock.GEO));
+        assertEquals(30, decoded.getEventCount(EventBlock.GEO));
+        assertEquals(0, decoded.getSectionLength(EventBlock.HEART_RATE));
+
+        assertThrows(IOException.class, () -> decoded.decode(encoded, 0, encoded.position() - 1));
+    }
+}
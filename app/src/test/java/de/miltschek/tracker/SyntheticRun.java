@@ -0,0 +1,235 @@
+/*
+ *  MIT License
+ *
+ *  Copyright (c) 2020 miltschek
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package de.miltschek.tracker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Sensor events resembling a real run (1 Hz sensors with jitter, a random walk for the position)
+ * for tests and benchmarks of the file format.
+ */
+class SyntheticRun {
+    final int events;
+    final long[] heartRateTimestamps;
+    final int[] heartRates;
+    final int[] heartRateAccuracies;
+    final long[] stepsTimestamps;
+    final int[] steps;
+    final long[] pressureTimestamps;
+    final float[] pressures;
+    final long[] geoTimestamps;
+    final long[] geoTicks;
+    final long[] geoTimes;
+    final double[] latitudes;
+    final double[] longitudes;
+    final float[] lateralAccuracies;
+    final double[] altitudes;
+    final float[] bearings;
+    final float[] speeds;
+
+    /**
+     * Creates a run.
+     * @param seconds duration in seconds, one event per sensor and second
+     * @param seed seed of the random values
+     */
+    SyntheticRun(int seconds, long seed) {
+        Random random = new Random(seed);
+        events = seconds;
+        heartRateTimestamps = new long[events];
+        heartRates = new int[events];
+        heartRateAccuracies = new int[events];
+        stepsTimestamps = new long[events];
+        steps = new int[events];
+        pressureTimestamps = new long[events];
+        pressures = new float[events];
+        geoTimestamps = new long[events];
+        geoTicks = new long[events];
+        geoTimes = new long[events];
+        latitudes = new double[events];
+        longitudes = new double[events];
+        lateralAccuracies = new float[events];
+        altitudes = new double[events];
+        bearings = new float[events];
+        speeds = new float[events];
+
+        long start = 123_456_789_000_000L;
+        int heartRate = 90;
+        int stepCount = 48_211;
+        double pressure = 1013.25;
+        double latitude = 52.520008;
+        double longitude = 13.404954;
+        double altitude = 34.5;
+        double bearing = 90;
+        for (int n = 0; n < events; n++) {
+            long second = start + n * 1_000_000_000L;
+            heartRateTimestamps[n] = second + random.nextInt(5_000_000);
+            heartRate = Math.max(60, Math.min(190, heartRate + random.nextInt(5) - 2));
+            heartRates[n] = heartRate;
+            heartRateAccuracies[n] = random.nextInt(100) == 0 ? 2 : 3;
+
+            stepsTimestamps[n] = second + 200_000_000 + random.nextInt(5_000_000);
+            stepCount += 2 + random.nextInt(2);
+            steps[n] = stepCount;
+
+            pressureTimestamps[n] = second + 400_000_000 + random.nextInt(5_000_000);
+            pressure += random.nextGaussian() * 0.02;
+            pressures[n] = (float)pressure;
+
+            geoTimestamps[n] = second + 600_000_000 + random.nextInt(5_000_000);
+            geoTicks[n] = geoTimestamps[n] - 50_000_000 - random.nextInt(20_000_000);
+            geoTimes[n] = 1_588_888_888_000L + n * 1000L;
+            bearing = (bearing + random.nextGaussian() * 5 + 360) % 360;
+            double speed = 3 + random.nextGaussian() * 0.3;
+            latitude += Math.cos(Math.toRadians(bearing)) * speed / 111_111;
+            longitude += Math.sin(Math.toRadians(bearing)) * speed / 67_700;
+            latitudes[n] = latitude;
+            longitudes[n] = longitude;
+            altitude += random.nextGaussian() * 0.5;
+            altitudes[n] = altitude;
+            lateralAccuracies[n] = (float)(3 + random.nextDouble() * 5);
+            bearings[n] = (float)bearing;
+            speeds[n] = (float)speed;
+        }
+    }
+
+    /**
+     * Writes a complete recording of the given version.
+     * @param writer target
+     * @param version 2 (one field per event) or 3 (checked event blocks and the trailer)
+     * @throws IOException in case of an IO issue
+     */
+    void write(FieldWriter writer, int version) throws IOException {
+        writer.write(FileItem.HEADER);
+        writer.writeShort((short)version);
+        writer.writeField((short)0x1001, geoTimes[0]);
+        writer.writeField((short)0x1003, heartRateTimestamps[0]);
+
+        if (version == 2) {
+            for (int n = 0; n < events; n++) {
+                writer.beginField((short)0x2011, 8 + 4 + 4).putLong(heartRateTimestamps[n]).putInt(heartRates[n]).putInt(heartRateAccuracies[n]).endField();
+            }
+
+            for (int n = 0; n < events; n++) {
+                writer.beginField((short)0x2021, 8 + 4 + 4).putLong(stepsTimestamps[n]).putInt(steps[n]).putInt(3).endField();
+            }
+
+            for (int n = 0; n < events; n++) {
+                writer.beginField((short)0x2031, 8 + 4 + 4).putLong(pressureTimestamps[n]).putFloat(pressures[n]).putInt(3).endField();
+            }
+
+            for (int n = 0; n < events; n++) {
+                writer.beginField((short)0x2041, 8 + 8 + 8 + 8 + 8 + 4 + 8 + 4 + 4 + 4)
+                        .putLong(geoTimestamps[n])
+                        .putLong(geoTicks[n])
+                        .putLong(geoTimes[n])
+                        .putDouble(latitudes[n])
+                        .putDouble(longitudes[n])
+                        .putFloat(lateralAccuracies[n])
+                        .putDouble(altitudes[n])
+                        .putFloat(bearings[n])
+                        .putFloat(speeds[n])
+                        .putInt(0)
+                        .endField();
+            }
+        } else {
+            ByteBuffer encoded = ByteBuffer.allocate(new EventBlock(EventBlock.GEO).getMaxEncodedLength());
+            RecordingIndex index = new RecordingIndex();
+            index.setStartTimestampRtc(geoTimes[0]);
+            index.setStartNanoseconds(heartRateTimestamps[0]);
+            EventBlock[] blocks = createBlocks();
+            for (EventBlock block : blocks) {
+                long sectionStart = writer.getBytesWritten();
+                for (int start = 0; start < events; start += EventBlock.MAX_EVENTS) {
+                    fill(block, start, Math.min(events, start + EventBlock.MAX_EVENTS));
+                    encoded.clear();
+                    block.encode(encoded);
+                    encoded.flip();
+                    writer.beginField((short)(block.getId() | EventBlock.CHECKED), encoded.remaining() + 4).put(encoded).putChecksum().endField();
+                }
+                index.setSection(block.getId(), sectionStart, writer.getBytesWritten() - sectionStart, events);
+            }
+
+            long trailerOffset = writer.getBytesWritten();
+            encoded.clear();
+            index.encode(encoded);
+            encoded.flip();
+            writer.beginField((short)RecordingIndex.TRAILER, encoded.remaining()).put(encoded).endField();
+            writer.writeField((short)RecordingIndex.FOOTER, trailerOffset);
+        }
+
+        writer.beginField((short)0xffff, 0).endField();
+    }
+
+    /**
+     * Creates an empty block of each kind.
+     * @return heart rate, steps, air pressure and geo block
+     */
+    static EventBlock[] createBlocks() {
+        return new EventBlock[] {
+                new EventBlock(EventBlock.HEART_RATE),
+                new EventBlock(EventBlock.STEPS),
+                new EventBlock(EventBlock.AIR_PRESSURE),
+                new EventBlock(EventBlock.GEO) };
+    }
+
+    /**
+     * Fills a block with the events of its sensor.
+     * @param block block to be filled, cleared before
+     * @param start index of the first event
+     * @param end index following the last event
+     */
+    void fill(EventBlock block, int start, int end) {
+        block.clear();
+        for (int n = start; n < end; n++) {
+            switch (block.getId()) {
+                case EventBlock.HEART_RATE:
+                    block.setInt(EventBlock.HEART_RATE_RATE, block.add(heartRateTimestamps[n], heartRateAccuracies[n]), heartRates[n]);
+                    break;
+
+                case EventBlock.STEPS:
+                    block.setInt(EventBlock.STEPS_STEPS, block.add(stepsTimestamps[n], 3), steps[n]);
+                    break;
+
+                case EventBlock.AIR_PRESSURE:
+                    block.setFloat(EventBlock.AIR_PRESSURE_PRESSURE, block.add(pressureTimestamps[n], 3), pressures[n]);
+                    break;
+
+                case EventBlock.GEO:
+                    int index = block.add(geoTimestamps[n], 0);
+                    block.setLong(EventBlock.GEO_TICKS, index, geoTicks[n]);
+                    block.setLong(EventBlock.GEO_TIME, index, geoTimes[n]);
+                    block.setDouble(EventBlock.GEO_LATITUDE, index, latitudes[n]);
+                    block.setDouble(EventBlock.GEO_LONGITUDE, index, longitudes[n]);
+                    block.setDouble(EventBlock.GEO_ALTITUDE, index, altitudes[n]);
+                    block.setFloat(EventBlock.GEO_LATERAL_ACCURACY, index, lateralAccuracies[n]);
+                    block.setFloat(EventBlock.GEO_BEARING, index, bearings[n]);
+                    block.setFloat(EventBlock.GEO_SPEED, index, speeds[n]);
+                    break;
+            }
+        }
+    }
+}